@@ -0,0 +1,78 @@
+package samples
+
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.algebra.linear.Matrix
+import cn.ancono.math.algebra.linear.MatrixKernels
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.Fraction
+import java.math.BigInteger
+import kotlin.random.Random
+
+/**
+ * Compares the classical matrix multiplication with the Strassen-Winograd algorithm at the shipped
+ * [MatrixKernels.strassenCutoff] for exact element types, which is a reference for
+ * [MatrixKernels.strassenThreshold] and [MatrixKernels.strassenApplicable].
+ */
+object StrassenBenchmark {
+
+    private fun <T> timeOf(mc: RingCalculator<T>, n: Int, repeat: Int, supplier: (Int, Int) -> T): Pair<Long, Long> {
+        val a = Matrix(n, n, mc, supplier)
+        val b = Matrix(n, n, mc, supplier)
+        val da = a.getValues().flatten().toTypedArray()
+        val db = b.getValues().flatten().toTypedArray()
+        // warm up
+        MatrixKernels.multiply(da, db, n, n, n, mc)
+        MatrixKernels.multiplyStrassen(da, db, n, n, n, mc)
+
+        var t0 = System.nanoTime()
+        repeat(repeat) { MatrixKernels.multiply(da, db, n, n, n, mc) }
+        val classical = (System.nanoTime() - t0) / repeat
+        t0 = System.nanoTime()
+        repeat(repeat) { MatrixKernels.multiplyStrassen(da, db, n, n, n, mc) }
+        val strassen = (System.nanoTime() - t0) / repeat
+        return classical to strassen
+    }
+
+    /**
+     * Prints the time of the Strassen-Winograd algorithm with the shipped cutoff against the classical kernel for
+     * square matrices from the shipped threshold on, marking whether the default dispatch uses the former.
+     */
+    fun crossover(sizes: List<Int> = listOf(128, 192, 256, 384)) {
+        val threshold = MatrixKernels.parallelThreshold
+        try {
+            MatrixKernels.parallelThreshold = Long.MAX_VALUE // compares single-threaded kernels
+            val random = Random(17)
+            val cases = listOf<Pair<String, (Int) -> Pair<Long, Long>>>(
+                "Long" to { n ->
+                    timeOf(Calculators.longCal(), n, 1) { _, _ -> random.nextLong(-1000, 1000) }
+                },
+                "Fraction" to { n ->
+                    timeOf(Fraction.calculator, n, 1) { _, _ ->
+                        Fraction.of(random.nextLong(-1000, 1000), random.nextLong(1, 7))
+                    }
+                },
+                "BigInteger" to { n ->
+                    timeOf(Calculators.bigInteger(), n, 1) { _, _ ->
+                        BigInteger(256, java.util.Random(random.nextLong()))
+                    }
+                }
+            )
+            println("threshold = ${MatrixKernels.strassenThreshold}, cutoff = ${MatrixKernels.strassenCutoff}")
+            println("size\t" + cases.joinToString("\t") { "${it.first}(classical/strassen, ms)" })
+            for (n in sizes) {
+                val times = cases.map { (_, f) -> f(n) }
+                println("$n\t" + times.joinToString("\t") { (c, s) -> "${c / 1e6}/${s / 1e6}" })
+            }
+            println("dispatched to Strassen-Winograd: " + listOf(
+                "Long" to Calculators.longCal(), "Fraction" to Fraction.calculator,
+                "BigInteger" to Calculators.bigInteger()
+            ).joinToString { (name, mc) -> "$name=${MatrixKernels.strassenApplicable(mc)}" })
+        } finally {
+            MatrixKernels.parallelThreshold = threshold
+        }
+    }
+}
+
+fun main() {
+    StrassenBenchmark.crossover()
+}
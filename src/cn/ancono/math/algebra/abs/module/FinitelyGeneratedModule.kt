@@ -15,5 +15,5 @@ interface FinitelyGeneratedModule<T, V> : Module<T, V> {
     /**
      * Returns the generators, which are finite.
      */
-    val generators: FiniteGenerator<V, T>
+    val generators: FiniteGenerator<T, V>
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package cn.ancono.math.algebra.abs.module
+
+import cn.ancono.math.algebra.abs.calculator.ModuleCalculator
+import cn.ancono.math.algebra.linear.Matrix
+import cn.ancono.math.algebra.linear.Vector
+import cn.ancono.math.algebra.linear.VectorCalRing
+import cn.ancono.math.numberModels.BigFraction
+import cn.ancono.math.numberModels.BigFractionCalculator
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.property.FiniteGenerator
+import cn.ancono.math.set.MathSet
+import java.math.BigInteger
+
+
+/**
+ * A lattice in `Z^d` given by a basis, which is formed by the rows of the linearly independent matrix [basis].
+ * The elements of the lattice are the integral combinations of the rows.
+ *
+ * Reduced bases can be obtained by [lllReduced] and [bkzReduced], see [LatticeReduction].
+ */
+class IntegerLattice(basis: Matrix<BigInteger>) : Lattice<BigInteger, Vector<BigInteger>> {
+
+    /**
+     * The basis of this lattice, whose rows are linearly independent.
+     */
+    val basis: Matrix<BigInteger> = basis
+
+    /**
+     * The count of vectors in the basis.
+     */
+    val rank: Int
+        get() = basis.row
+
+    /**
+     * The dimension of the space containing this lattice.
+     */
+    val dimension: Int
+        get() = basis.column
+
+    private val moduleCal = VectorCalRing(Calculators.bigInteger(), dimension)
+
+    override fun getAbelCal(): ModuleCalculator<BigInteger, Vector<BigInteger>> {
+        return moduleCal
+    }
+
+    /**
+     * Returns the Gram matrix `BB^T` of the basis.
+     */
+    fun gram(): Matrix<BigInteger> {
+        return basis * basis.transpose()
+    }
+
+    /**
+     * Returns the square of the volume of the fundamental parallelepiped, which is the determinant of the Gram matrix
+     * and does not depend on the choice of the basis.
+     */
+    fun volumeSquared(): BigInteger {
+        return gram().det()
+    }
+
+    /**
+     * Returns this lattice with an LLL-reduced basis.
+     *
+     * @see LatticeReduction.lll
+     */
+    @JvmOverloads
+    fun lllReduced(delta: Double = LatticeReduction.DEFAULT_DELTA): IntegerLattice {
+        return IntegerLattice(LatticeReduction.lll(basis, delta))
+    }
+
+    /**
+     * Returns this lattice with a BKZ-reduced basis of the given block size.
+     *
+     * @see LatticeReduction.bkz
+     */
+    @JvmOverloads
+    fun bkzReduced(blockSize: Int, delta: Double = LatticeReduction.DEFAULT_DELTA): IntegerLattice {
+        return IntegerLattice(LatticeReduction.bkz(basis, blockSize, delta))
+    }
+
+    /**
+     * Returns the rational coefficients `c` such that `v = cB` if `v` is in the space spanned by the basis `B`,
+     * or `null`.
+     */
+    private fun coefficientsOf(v: Vector<BigInteger>): List<BigFraction>? {
+        if (v.size != dimension) {
+            return null
+        }
+        val fc = BigFractionCalculator
+        val B = basis.mapTo(fc) { BigFraction.valueOf(it) }
+        val w = Vector.of(dimension, fc) { BigFraction.valueOf(v[it]) }
+        // c = (B B^T)^-1 B w, since the Gram matrix is symmetric
+        val c = (B * B.transpose()).inverse() * (B * w)
+        val coefficients = List(rank) { c[it] }
+        for (j in 0 until dimension) {
+            var s = BigFraction.ZERO
+            for (i in 0 until rank) {
+                s = fc.add(s, fc.multiply(coefficients[i], B[i, j]))
+            }
+            if (!fc.isEqual(s, w[j])) {
+                return null
+            }
+        }
+        return coefficients
+    }
+
+    override fun getSet(): MathSet<Vector<BigInteger>> {
+        return MathSet { v ->
+            coefficientsOf(v)?.all { it.isInteger() } ?: false
+        }
+    }
+
+    override val generators: FiniteGenerator<BigInteger, Vector<BigInteger>> =
+        object : FiniteGenerator<BigInteger, Vector<BigInteger>> {
+            override fun getElements(): List<Vector<BigInteger>> {
+                return basis.rowVectors()
+            }
+
+            override fun reduce(v: Vector<BigInteger>): Vector<BigInteger> {
+                val c = coefficientsOf(v)
+                require(c != null && c.all { it.isInteger() }) {
+                    "The vector is not in the lattice."
+                }
+                return Vector.of(rank, Calculators.bigInteger()) { c[it].numerator * BigInteger.valueOf(c[it].signum.toLong()) }
+            }
+
+            override fun produce(coefficients: Vector<BigInteger>): Vector<BigInteger> {
+                require(coefficients.size == rank)
+                return Vector.of(dimension, Calculators.bigInteger()) { j ->
+                    var s = BigInteger.ZERO
+                    for (i in 0 until rank) {
+                        s += coefficients[i] * basis[i, j]
+                    }
+                    s
+                }
+            }
+        }
+
+    override fun toString(): String {
+        return "IntegerLattice(rank=$rank, dimension=$dimension)"
+    }
+
+    companion object {
+
+        /**
+         * Returns the lattice generated by the rows of [generators], which may be linearly dependent. The basis is
+         * computed by the LLL reduction.
+         */
+        @JvmStatic
+        fun generatedBy(generators: Matrix<BigInteger>): IntegerLattice {
+            return IntegerLattice(LatticeReduction.lll(generators))
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package cn.ancono.math.algebra.abs.module
+
+import cn.ancono.math.algebra.linear.Matrix
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.math.RoundingMode
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+
+/**
+ * Provides lattice basis reduction algorithms for integer lattices, whose bases are given by the rows of matrices.
+ *
+ * The LLL reduction follows the floating-point variant of Nguyen and Stehlé (`L^2`): the basis and its Gram matrix
+ * are kept exact in `BigInteger`s, while the Gram-Schmidt coefficients are computed in doubles from the exact Gram
+ * matrix, and size reduction is repeated lazily until the coefficients computed are small. Linearly dependent
+ * generators are reduced to zero vectors, which are removed. If the floating-point computation fails, which happens
+ * when the elements of the Gram matrix exceed the range of doubles or the size reduction does not make progress, the
+ * reduction falls back to the exact integral algorithm of de Weger (Cohen, Algorithm 2.6.7), which requires the
+ * vectors to be linearly independent.
+ *
+ * The BKZ reduction repeatedly finds the shortest vectors of the projected blocks by Schnorr-Euchner enumeration
+ * and inserts them into the basis. Its cost grows exponentially with the block size, and block sizes up to about
+ * 20 are practical.
+ */
+object LatticeReduction {
+
+    /**
+     * The default parameter `delta` of the Lovász condition.
+     */
+    const val DEFAULT_DELTA = 0.99
+
+    /**
+     * Returns the LLL-reduced basis of the lattice generated by the rows of [basis]. The rows of the result form a
+     * basis of the same lattice, and the zero rows and the dependencies of the generators are removed.
+     *
+     * @param delta the parameter of the Lovász condition in `(0.25, 1)`
+     * @throws ArithmeticException if the floating-point computation fails and the generators are linearly dependent,
+     * or the lattice is zero
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun lll(basis: GenMatrix<BigInteger>, delta: Double = DEFAULT_DELTA): Matrix<BigInteger> {
+        val reducer = LatticeReducer(toRows(basis), delta)
+        reducer.lll(reducer.n)
+        return reducer.toMatrix()
+    }
+
+    /**
+     * Returns the BKZ-reduced basis with the given [blockSize] of the lattice generated by the rows of [basis].
+     * The first vector of the result is the shortest vector if `blockSize` is not less than the rank.
+     *
+     * @param delta the parameter of the Lovász condition in `(0.25, 1)`
+     * @throws ArithmeticException if the floating-point computation fails
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun bkz(basis: GenMatrix<BigInteger>, blockSize: Int, delta: Double = DEFAULT_DELTA): Matrix<BigInteger> {
+        require(blockSize >= 2) {
+            "The block size must be at least 2."
+        }
+        val reducer = LatticeReducer(toRows(basis), delta)
+        reducer.bkz(blockSize)
+        return reducer.toMatrix()
+    }
+
+    internal fun toRows(basis: GenMatrix<BigInteger>): List<Array<BigInteger>> {
+        return List(basis.row) { i -> Array(basis.column) { j -> basis[i, j] } }
+    }
+}
+
+/**
+ * The implementation of [LatticeReduction] working on the rows `b[0 until n]`.
+ */
+internal class LatticeReducer(rows: List<Array<BigInteger>>, val delta: Double) {
+
+    private class PrecisionFailure : RuntimeException(null, null, false, false)
+
+    init {
+        require(delta > 0.25 && delta < 1.0) {
+            "The parameter delta must be in (0.25,1)."
+        }
+        require(rows.isNotEmpty())
+    }
+
+    val dimension = rows[0].size
+
+    private val b = ArrayList<Array<BigInteger>>(rows.size + 1).also { list -> rows.mapTo(list) { it.clone() } }
+
+    val n: Int
+        get() = b.size
+
+    /**
+     * The exact Gram matrix.
+     */
+    private var g: Array<Array<BigInteger>> = emptyArray()
+
+    /**
+     * The Gram-Schmidt coefficients `mu[i][j] = <b_i, b*_j> / <b*_j, b*_j>`, and `r[i][j] = <b_i, b*_j>` for `j <= i`.
+     */
+    private var mu: Array<DoubleArray> = emptyArray()
+    private var r: Array<DoubleArray> = emptyArray()
+
+    init {
+        rebuild()
+    }
+
+    private fun dot(x: Array<BigInteger>, y: Array<BigInteger>): BigInteger {
+        var s = BigInteger.ZERO
+        for (i in x.indices) {
+            val a = x[i]
+            val c = y[i]
+            if (a.signum() != 0 && c.signum() != 0) {
+                s += a * c
+            }
+        }
+        return s
+    }
+
+    /**
+     * Recomputes the Gram matrix and reallocates the arrays after the count of vectors is changed.
+     */
+    private fun rebuild() {
+        val n = n
+        g = Array(n) { arrayOfNulls<BigInteger>(n) }.let { arr ->
+            for (i in 0 until n) {
+                for (j in 0..i) {
+                    val x = dot(b[i], b[j])
+                    arr[i][j] = x
+                    arr[j][i] = x
+                }
+            }
+            @Suppress("UNCHECKED_CAST")
+            arr as Array<Array<BigInteger>>
+        }
+        mu = Array(n) { DoubleArray(n) }
+        r = Array(n) { DoubleArray(n) }
+    }
+
+    private fun gd(i: Int, j: Int): Double {
+        val x = g[i][j].toDouble()
+        if (x.isInfinite()) {
+            throw PrecisionFailure()
+        }
+        return x
+    }
+
+    /**
+     * Computes `r[k][j]` and `mu[k][j]` for `j < k` from the exact Gram matrix.
+     */
+    private fun computeRow(k: Int) {
+        val rk = r[k]
+        val muk = mu[k]
+        for (j in 0 until k) {
+            var s = gd(k, j)
+            val muj = mu[j]
+            for (l in 0 until j) {
+                s -= muj[l] * rk[l]
+            }
+            rk[j] = s
+            muk[j] = s / r[j][j]
+        }
+    }
+
+    private fun computeDiagonal(k: Int) {
+        var s = gd(k, k)
+        for (j in 0 until k) {
+            s -= mu[k][j] * r[k][j]
+        }
+        r[k][k] = s
+    }
+
+    /**
+     * Recomputes the Gram-Schmidt coefficients of all the vectors.
+     */
+    private fun refreshGSO() {
+        for (k in 0 until n) {
+            computeRow(k)
+            computeDiagonal(k)
+        }
+    }
+
+    private fun round(x: Double): BigInteger {
+        if (abs(x) < 4.0E18) {
+            return BigInteger.valueOf(Math.round(x))
+        }
+        if (x.isNaN() || x.isInfinite()) {
+            throw PrecisionFailure()
+        }
+        return BigDecimal(x).setScale(0, RoundingMode.HALF_EVEN).toBigInteger()
+    }
+
+    /**
+     * Size-reduces `b_k` against `b_0, ..., b_(k-1)` lazily until the coefficients computed are not greater than
+     * [ETA] in absolute value.
+     */
+    private fun sizeReduce(k: Int) {
+        val coefficients = arrayOfNulls<BigInteger>(k)
+        var last = Double.POSITIVE_INFINITY
+        for (pass in 0 until MAX_PASSES) {
+            computeRow(k)
+            val muk = mu[k]
+            var max = 0.0
+            for (j in 0 until k) {
+                max = max(max, abs(muk[j]))
+            }
+            if (max <= ETA) {
+                return
+            }
+            if (pass > 2 && max >= last) {
+                // no progress, the precision is insufficient
+                throw PrecisionFailure()
+            }
+            last = max
+            coefficients.fill(null)
+            for (j in (k - 1) downTo 0) {
+                val x = round(muk[j])
+                if (x.signum() == 0) {
+                    continue
+                }
+                coefficients[j] = x
+                val xd = x.toDouble()
+                val muj = mu[j]
+                for (l in 0 until j) {
+                    muk[l] -= xd * muj[l]
+                }
+                muk[j] -= xd
+            }
+            // b_k = b_k - sum x_j b_j, and update the row k of the Gram matrix
+            val bk = b[k]
+            val gk = g[k]
+            for (j in 0 until k) {
+                val x = coefficients[j] ?: continue
+                val bj = b[j]
+                for (t in bk.indices) {
+                    if (bj[t].signum() != 0) {
+                        bk[t] -= x * bj[t]
+                    }
+                }
+                val gj = g[j]
+                for (i in 0 until n) {
+                    if (i != k) {
+                        gk[i] -= x * gj[i]
+                    }
+                }
+            }
+            for (i in 0 until n) {
+                if (i != k) {
+                    g[i][k] = gk[i]
+                }
+            }
+            gk[k] = dot(bk, bk)
+        }
+        throw PrecisionFailure()
+    }
+
+    private fun swap(i: Int, j: Int) {
+        b[i] = b[j].also { b[j] = b[i] }
+        g[i] = g[j].also { g[j] = g[i] }
+        for (row in g) {
+            row[i] = row[j].also { row[j] = row[i] }
+        }
+    }
+
+    /**
+     * LLL-reduces the vectors `b[0 until end]` in floating point, removing zero vectors.
+     *
+     * @return the count of vectors after reduction
+     */
+    private fun lllFloat(end0: Int): Int {
+        var end = end0
+        while (end > 0 && g[0][0].signum() == 0) {
+            b.removeAt(0)
+            end--
+            rebuild()
+        }
+        if (end == 0) {
+            return 0
+        }
+        computeDiagonal(0)
+        var k = 1
+        var iterations = 0L
+        val limit = iterationLimit(end)
+        while (k < end) {
+            if (++iterations > limit) {
+                throw PrecisionFailure()
+            }
+            sizeReduce(k)
+            if (g[k][k].signum() == 0) {
+                b.removeAt(k)
+                end--
+                rebuild()
+                // the coefficients of the previous vectors are unchanged
+                for (i in 0 until k) {
+                    computeRow(i)
+                    computeDiagonal(i)
+                }
+                continue
+            }
+            // s = r_kk + mu_(k,k-1) r_(k,k-1)
+            var s = gd(k, k)
+            for (j in 0 until k - 1) {
+                s -= mu[k][j] * r[k][j]
+            }
+            if (delta * r[k - 1][k - 1] <= s) {
+                r[k][k] = s - mu[k][k - 1] * r[k][k - 1]
+                k++
+            } else {
+                swap(k - 1, k)
+                k = max(k - 1, 1)
+                if (k == 1) {
+                    computeDiagonal(0)
+                }
+            }
+        }
+        return end
+    }
+
+    private fun iterationLimit(end: Int): Long {
+        var bits = 0
+        for (i in 0 until end) {
+            bits = max(bits, g[i][i].bitLength())
+        }
+        return 1000L + 100L * end * end * (bits + 1)
+    }
+
+    /**
+     * LLL-reduces the vectors `b[0 until end]` exactly, which requires them to be linearly independent.
+     */
+    private fun lllExact(end: Int) {
+        val p = BigInteger.valueOf(Math.round(delta * EXACT_SCALE))
+        val q = BigInteger.valueOf(EXACT_SCALE)
+        val d = arrayOfNulls<BigInteger>(end + 1)
+        val lam = Array(end) { arrayOfNulls<BigInteger>(end) }
+        d[0] = BigInteger.ONE
+        d[1] = dot(b[0], b[0])
+        if (d[1]!!.signum() == 0) {
+            throw ArithmeticException("The vectors are linearly dependent.")
+        }
+        var kmax = 0
+        var k = 1
+
+        fun redi(k: Int, l: Int) {
+            val x = lam[k][l]!!
+            val dl = d[l + 1]!!
+            if (x.shiftLeft(1).abs() <= dl) {
+                return
+            }
+            // round(x / dl) = floor((2x + dl) / (2dl))
+            val c = floorDiv(x.shiftLeft(1) + dl, dl.shiftLeft(1))
+            val bk = b[k]
+            val bl = b[l]
+            for (t in bk.indices) {
+                bk[t] -= c * bl[t]
+            }
+            lam[k][l] = x - c * dl
+            for (i in 0 until l) {
+                lam[k][i] = lam[k][i]!! - c * lam[l][i]!!
+            }
+        }
+
+        fun swapi(k: Int, kmax: Int) {
+            b[k] = b[k - 1].also { b[k - 1] = b[k] }
+            for (j in 0 until k - 1) {
+                lam[k][j] = lam[k - 1][j].also { lam[k - 1][j] = lam[k][j] }
+            }
+            val l = lam[k][k - 1]!!
+            val bb = (d[k - 1]!! * d[k + 1]!! + l * l) / d[k]!!
+            for (i in (k + 1)..kmax) {
+                val t = lam[i][k]!!
+                lam[i][k] = (d[k + 1]!! * lam[i][k - 1]!! - l * t) / d[k]!!
+                lam[i][k - 1] = (bb * t + l * lam[i][k]!!) / d[k + 1]!!
+            }
+            d[k] = bb
+        }
+
+        while (k < end) {
+            if (k > kmax) {
+                kmax = k
+                for (j in 0..k) {
+                    var u = dot(b[k], b[j])
+                    for (i in 0 until j) {
+                        u = (d[i + 1]!! * u - lam[k][i]!! * lam[j][i]!!) / d[i]!!
+                    }
+                    if (j < k) {
+                        lam[k][j] = u
+                    } else {
+                        if (u.signum() == 0) {
+                            throw ArithmeticException("The vectors are linearly dependent.")
+                        }
+                        d[k + 1] = u
+                    }
+                }
+            }
+            redi(k, k - 1)
+            val l = lam[k][k - 1]!!
+            if (q * d[k + 1]!! * d[k - 1]!! < p * d[k]!!.pow(2) - q * l * l) {
+                swapi(k, kmax)
+                k = max(1, k - 1)
+            } else {
+                for (i in (k - 2) downTo 0) {
+                    redi(k, i)
+                }
+                k++
+            }
+        }
+    }
+
+    private fun floorDiv(x: BigInteger, y: BigInteger): BigInteger {
+        val qr = x.divideAndRemainder(y)
+        return if (qr[1].signum() != 0 && (qr[1].signum() != y.signum())) qr[0] - BigInteger.ONE else qr[0]
+    }
+
+    /**
+     * LLL-reduces the vectors `b[0 until end]`, returning the count of vectors after reduction.
+     */
+    fun lll(end: Int): Int {
+        val e = try {
+            lllFloat(end)
+        } catch (ex: PrecisionFailure) {
+            lllExact(end)
+            rebuild()
+            end
+        }
+        if (n == 0) {
+            throw ArithmeticException("The lattice is zero.")
+        }
+        return e
+    }
+
+    /**
+     * Returns the coefficients of the shortest nonzero vector of the projected lattice of `b_k, ..., b_h` onto the
+     * orthogonal complement of `b[0 until k]` whose squared length is less than `delta * |b*_k|^2`,
+     * or `null` if there is no such vector.
+     */
+    private fun enumerate(k: Int, h: Int): LongArray? {
+        val m = h - k + 1
+        val rho = DoubleArray(m + 1)
+        val v = LongArray(m)
+        val c = DoubleArray(m)
+        val w = LongArray(m)
+        var bound = delta * r[k][k]
+        var best: LongArray? = null
+        v[0] = 1
+        var last = 0
+        var t = 0
+        while (true) {
+            val diff = v[t] - c[t]
+            rho[t] = rho[t + 1] + diff * diff * r[k + t][k + t]
+            if (rho[t] < bound) {
+                if (t == 0) {
+                    bound = rho[0]
+                    best = v.copyOf()
+                } else {
+                    t--
+                    var s = 0.0
+                    for (i in (t + 1) until m) {
+                        s += v[i] * mu[k + i][k + t]
+                    }
+                    c[t] = -s
+                    v[t] = Math.round(c[t])
+                    w[t] = 1
+                    continue
+                }
+            }
+            t++
+            if (t == m) {
+                return best
+            }
+            if (t >= last) {
+                last = t
+                v[t]++
+            } else {
+                if (v[t] > c[t]) {
+                    v[t] -= w[t]
+                } else {
+                    v[t] += w[t]
+                }
+                w[t]++
+            }
+        }
+    }
+
+    /**
+     * BKZ-reduces the basis with the given block size.
+     */
+    fun bkz(blockSize: Int) {
+        lll(n)
+        try {
+            refreshGSO()
+        } catch (ex: PrecisionFailure) {
+            throw ArithmeticException("The elements are too large for BKZ.")
+        }
+        var z = 0
+        var k = -1
+        while (z < n - 1) {
+            k = (k + 1) % (n - 1)
+            val h = min(k + blockSize - 1, n - 1)
+            val u = enumerate(k, h)
+            val end: Int
+            if (u != null) {
+                z = 0
+                val vec = Array(dimension) { BigInteger.ZERO }
+                for (i in u.indices) {
+                    if (u[i] == 0L) {
+                        continue
+                    }
+                    val x = BigInteger.valueOf(u[i])
+                    val bi = b[k + i]
+                    for (t in vec.indices) {
+                        vec[t] += x * bi[t]
+                    }
+                }
+                val unit = u.indices.lastOrNull { abs(u[it]) == 1L }
+                if (unit != null) {
+                    // replacing a vector whose coefficient is a unit keeps the basis
+                    b.removeAt(k + unit)
+                    b.add(k, vec)
+                    rebuild()
+                    end = min(h + 2, n)
+                } else {
+                    b.add(k, vec)
+                    rebuild()
+                    end = min(h + 3, n)
+                }
+            } else {
+                z++
+                end = min(h + 2, n)
+            }
+            lll(end)
+            try {
+                refreshGSO()
+            } catch (ex: PrecisionFailure) {
+                throw ArithmeticException("The elements are too large for BKZ.")
+            }
+        }
+    }
+
+    fun toMatrix(): Matrix<BigInteger> {
+        return Matrix(n, dimension, Calculators.bigInteger()) { i, j -> b[i][j] }
+    }
+
+    fun rows(): List<Array<BigInteger>> {
+        return b
+    }
+
+    companion object {
+        /**
+         * The bound of the Gram-Schmidt coefficients after size reduction.
+         */
+        private const val ETA = 0.51
+
+        /**
+         * The maximal count of passes of the lazy size reduction of a vector.
+         */
+        private const val MAX_PASSES = 100
+
+        /**
+         * The denominator used to represent `delta` as a fraction in the exact algorithm.
+         */
+        private const val EXACT_SCALE = 1L shl 20
+    }
+}
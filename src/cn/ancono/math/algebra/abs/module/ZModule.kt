@@ -8,10 +8,13 @@ import cn.ancono.math.algebra.abs.calculator.ModuleCalculator
 import cn.ancono.math.algebra.abs.calculator.RingCalculator
 import cn.ancono.math.algebra.abs.group.Homomorphism
 import cn.ancono.math.algebra.abs.structure.*
+import cn.ancono.math.algebra.linear.IntegerNormalForms
 import cn.ancono.math.algebra.linear.Matrix
+import cn.ancono.math.algebra.linear.MatrixUtils
 import cn.ancono.math.numberModels.api.IntCalculator
 import cn.ancono.math.numberModels.api.NumberFormatter
 import cn.ancono.math.set.MathSet
+import java.math.BigInteger
 import java.util.function.Function
 
 
@@ -26,9 +29,28 @@ object ZModules {
     }
 
 
+    /**
+     * Returns the (row) Hermite normal form of the integer matrix, whose rows span the same lattice.
+     *
+     * @see IntegerNormalForms.hermiteForm
+     */
     fun toHermiteForm(m: Matrix<Int>): Matrix<Int> {
-
-        TODO()
+        return IntegerNormalForms.hermiteForm(m, m.calculator) ?: MatrixUtils.toHermitForm(m)
+    }
+
+    /**
+     * Returns the invariant factors of the finitely generated abelian group `Z^n / L`, where `n` is the column
+     * count of [relations] and `L` is the subgroup spanned by its rows. The group is isomorphic to the direct sum of
+     * `Z/d_i` for the elements `d_i` of the result, which are greater than one and in ascending order with respect to
+     * divisibility, followed by zeros standing for the copies of `Z`.
+     */
+    fun invariantFactors(relations: Matrix<BigInteger>): List<BigInteger> {
+        val factors = IntegerNormalForms.invariantFactors(relations)
+        val result = factors.filter { it != BigInteger.ONE }.toMutableList()
+        repeat(relations.column - factors.size) {
+            result += BigInteger.ZERO
+        }
+        return result
     }
 
 
@@ -0,0 +1,617 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.numberTheory.ZModPCalculator
+import kotlin.random.Random
+
+
+/**
+ * Provides black-box algorithms for large sparse linear systems over prime fields `Z/p`, which only access the matrix
+ * through products with vectors. The memory used is proportional to the size of the matrix plus a few vectors,
+ * and the running time is dominated by `O(n)` products with vectors.
+ *
+ * The primitive methods work on a [MatVec] acting on `IntArray`s whose elements are in `[0, p)`, where `p` is a prime
+ * less than `2^31`. The methods on [Matrix] use the product with vectors of the matrix over a [ZModPCalculator],
+ * with a fast path for [SparseMatrix] of integers.
+ *
+ * The algorithms are randomized:
+ *  * Wiedemann's method computes the minimal polynomial of the Krylov sequence `u^T A^i b` with the
+ *    Berlekamp-Massey algorithm. Several random projections `u` are computed in one sweep over the Krylov sequence
+ *    and the least common multiple of their minimal polynomials is used, so that a bad projection is rarely met.
+ *    The kernel is computed on a randomly preconditioned operator, whose eigenvalue `0` is semisimple with high
+ *    probability, and the preconditioners add a product of polynomials of degree `n` to each product with a vector.
+ *  * Lanczos' method solves symmetric systems with three-term recurrences, and non-symmetric systems through
+ *    the symmetric system `A^T A x = A^T b`, which requires the products with the transpose as well.
+ *
+ * Solutions are always verified, and the kernel and rank computed are correct with high probability when `p` is
+ * large.
+ */
+object BlackBoxSolver {
+
+    /**
+     * Describes a linear operator `y = Ax` on `(Z/p)^n`.
+     */
+    fun interface MatVec {
+        /**
+         * Computes `y = Ax`, in which the elements of [x] are in `[0, p)` and the elements of [y] should be in
+         * `[0, p)` after the call.
+         */
+        fun apply(x: IntArray, y: IntArray)
+    }
+
+    /**
+     * The count of random projections used in one sweep of Wiedemann's method.
+     */
+    private const val PROJECTIONS = 2
+
+    /**
+     * The count of attempts before a randomized method gives up.
+     */
+    private const val TRIES = 4
+
+    private fun dot(x: IntArray, y: IntArray, p: Long): Long {
+        var s = 0L
+        for (i in x.indices) {
+            s = (s + x[i].toLong() * y[i]) % p
+        }
+        return s
+    }
+
+    private fun inverse(a: Long, p: Long): Long {
+        return MultiModular.inverseMod(a, p)
+    }
+
+    private fun randomVector(n: Int, p: Int, random: Random): IntArray {
+        return IntArray(n) { random.nextInt(p) }
+    }
+
+    /*
+    Polynomials modulo p, whose coefficients are stored from the constant term.
+     */
+
+    /**
+     * Returns the minimal polynomial, which is monic, of the linearly recurrent sequence [s] by the
+     * Berlekamp-Massey algorithm.
+     */
+    private fun berlekampMassey(s: LongArray, p: Long): LongArray {
+        var c = LongArray(s.size + 1).also { it[0] = 1 }
+        var b = LongArray(s.size + 1).also { it[0] = 1 }
+        var len = 0
+        var m = 1
+        var lastD = 1L
+        for (k in s.indices) {
+            var d = s[k]
+            for (i in 1..len) {
+                d = (d + c[i] * s[k - i]) % p
+            }
+            if (d == 0L) {
+                m++
+                continue
+            }
+            val coef = d * inverse(lastD, p) % p
+            val t = if (2 * len <= k) c.copyOf() else null
+            for (i in 0 until c.size - m) {
+                c[i + m] = Math.floorMod(c[i + m] - coef * b[i], p)
+            }
+            if (t != null) {
+                len = k + 1 - len
+                b = t
+                lastD = d
+                m = 1
+            } else {
+                m++
+            }
+        }
+        // c(x) = 1 + c_1 x + ... + c_L x^L  =>  f(x) = x^L + c_1 x^(L-1) + ... + c_L
+        return LongArray(len + 1) { j -> c[len - j] }
+    }
+
+    private fun trim(f: LongArray): LongArray {
+        var d = f.size - 1
+        while (d > 0 && f[d] == 0L) {
+            d--
+        }
+        return if (d == f.size - 1) f else f.copyOf(d + 1)
+    }
+
+    private fun isZero(f: LongArray) = f.size == 1 && f[0] == 0L
+
+    /**
+     * Returns the remainder of `f / g`, where `g` is non-zero.
+     */
+    private fun remainder(f: LongArray, g: LongArray, p: Long): LongArray {
+        val r = f.copyOf()
+        val dg = g.size - 1
+        val inv = inverse(g[dg], p)
+        for (d in r.size - 1 downTo dg) {
+            val q = r[d] * inv % p
+            if (q == 0L) {
+                continue
+            }
+            for (i in 0..dg) {
+                r[d - dg + i] = Math.floorMod(r[d - dg + i] - q * g[i], p)
+            }
+        }
+        if (dg == 0) {
+            return longArrayOf(0L)
+        }
+        return trim(r.copyOf(minOf(r.size, dg)))
+    }
+
+    /**
+     * Returns the quotient of `f / g`, where `g` divides `f`.
+     */
+    private fun quotient(f: LongArray, g: LongArray, p: Long): LongArray {
+        val r = f.copyOf()
+        val dg = g.size - 1
+        val q = LongArray(maxOf(1, f.size - dg))
+        val inv = inverse(g[dg], p)
+        for (d in r.size - 1 downTo dg) {
+            val c = r[d] * inv % p
+            q[d - dg] = c
+            if (c == 0L) {
+                continue
+            }
+            for (i in 0..dg) {
+                r[d - dg + i] = Math.floorMod(r[d - dg + i] - c * g[i], p)
+            }
+        }
+        return trim(q)
+    }
+
+    private fun multiply(f: LongArray, g: LongArray, p: Long): LongArray {
+        val r = LongArray(f.size + g.size - 1)
+        for (i in f.indices) {
+            for (j in g.indices) {
+                r[i + j] = (r[i + j] + f[i] * g[j]) % p
+            }
+        }
+        return trim(r)
+    }
+
+    private fun lcm(f: LongArray, g: LongArray, p: Long): LongArray {
+        var a = f
+        var b = g
+        while (!isZero(b)) {
+            val r = remainder(a, b, p)
+            a = b
+            b = r
+        }
+        val product = multiply(f, g, p)
+        val l = quotient(product, a, p)
+        val inv = inverse(l[l.size - 1], p)
+        return LongArray(l.size) { l[it] * inv % p }
+    }
+
+    /*
+    Wiedemann
+     */
+
+    /**
+     * Returns a monic polynomial `f` of degree not greater than `n` such that `f(A) v = 0` with high probability.
+     */
+    private fun minimalPolynomial(A: MatVec, v: IntArray, p: Int, random: Random): LongArray {
+        val n = v.size
+        val pl = p.toLong()
+        val us = Array(PROJECTIONS) { randomVector(n, p, random) }
+        val seqs = Array(PROJECTIONS) { LongArray(2 * n) }
+        var x = v.copyOf()
+        var y = IntArray(n)
+        for (i in 0 until 2 * n) {
+            for (k in us.indices) {
+                seqs[k][i] = dot(us[k], x, pl)
+            }
+            if (i < 2 * n - 1) {
+                A.apply(x, y)
+                x = y.also { y = x }
+            }
+        }
+        var f = berlekampMassey(seqs[0], pl)
+        for (k in 1 until PROJECTIONS) {
+            f = lcm(f, berlekampMassey(seqs[k], pl), pl)
+        }
+        return f
+    }
+
+    /**
+     * Returns `sum(c[j] A^(j - start) v, j >= start)` by Horner's rule.
+     */
+    private fun evaluate(A: MatVec, c: LongArray, start: Int, v: IntArray, p: Int): IntArray {
+        val n = v.size
+        val pl = p.toLong()
+        var y = IntArray(n)
+        var t = IntArray(n)
+        for (j in c.size - 1 downTo start) {
+            A.apply(y, t)
+            val cj = c[j]
+            for (i in 0 until n) {
+                t[i] = ((t[i] + cj * v[i]) % pl).toInt()
+            }
+            y = t.also { t = y }
+        }
+        return y
+    }
+
+    private fun isZero(x: IntArray) = x.all { it == 0 }
+
+    /**
+     * Solves the linear equation `Ax = b` over `Z/p` with Wiedemann's method, where `A` is an `n×n` matrix given
+     * by [A], `n` is the size of [b]. Returns `null` if no solution is found, which is the case when `A` is singular.
+     *
+     * @param p a prime less than `2^31`
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun solveWiedemann(A: MatVec, b: IntArray, p: Int, random: Random = Random.Default): IntArray? {
+        val n = b.size
+        if (isZero(b)) {
+            return IntArray(n)
+        }
+        val pl = p.toLong()
+        val check = IntArray(n)
+        repeat(TRIES) {
+            val f = minimalPolynomial(A, b, p, random)
+            if (f[0] == 0L) {
+                return@repeat
+            }
+            // f(A) b = 0  =>  A (sum(f_j A^(j-1) b, j >= 1)) = -f_0 b
+            val x = evaluate(A, f, 1, b, p)
+            val c = pl - inverse(f[0], pl)
+            for (i in 0 until n) {
+                x[i] = (x[i] * c % pl).toInt()
+            }
+            A.apply(x, check)
+            if (check.contentEquals(b)) {
+                return x
+            }
+        }
+        return null
+    }
+
+    /*
+    Preconditioners
+     */
+
+    /**
+     * The size below which polynomials are multiplied by the classical algorithm instead of Karatsuba's.
+     */
+    private const val KARATSUBA_CUTOFF = 32
+
+    /**
+     * Returns the product of the polynomials [f] and [g] of the same size modulo `p` by Karatsuba's algorithm.
+     */
+    private fun karatsuba(f: LongArray, g: LongArray, p: Long): LongArray {
+        val n = f.size
+        val r = LongArray(2 * n - 1)
+        if (n <= KARATSUBA_CUTOFF) {
+            for (i in 0 until n) {
+                if (f[i] == 0L) {
+                    continue
+                }
+                for (j in 0 until n) {
+                    r[i + j] = (r[i + j] + f[i] * g[j]) % p
+                }
+            }
+            return r
+        }
+        val h = n / 2
+        val m = n - h
+        val f0 = f.copyOf(h).copyOf(m)
+        val g0 = g.copyOf(h).copyOf(m)
+        val f1 = f.copyOfRange(h, n)
+        val g1 = g.copyOfRange(h, n)
+        val z0 = karatsuba(f0, g0, p)
+        val z2 = karatsuba(f1, g1, p)
+        val z1 = karatsuba(LongArray(m) { (f0[it] + f1[it]) % p }, LongArray(m) { (g0[it] + g1[it]) % p }, p)
+        for (i in z1.indices) {
+            r[i] = (r[i] + z0[i]) % p
+            r[i + h] = Math.floorMod(r[i + h] + z1[i] - z0[i] - z2[i], p)
+            r[i + 2 * h] = (r[i + 2 * h] + z2[i]) % p
+        }
+        return r
+    }
+
+    /**
+     * Computes `y = Tx`, where `T` is the lower triangular Toeplitz matrix whose first column is [t].
+     */
+    private fun lowerToeplitz(t: IntArray, x: IntArray, y: IntArray, p: Int) {
+        val r = karatsuba(LongArray(t.size) { t[it].toLong() }, LongArray(x.size) { x[it].toLong() }, p.toLong())
+        for (i in y.indices) {
+            y[i] = r[i].toInt()
+        }
+    }
+
+    /**
+     * Computes `y = Tx`, where `T` is the upper triangular Toeplitz matrix whose first row is [t].
+     */
+    private fun upperToeplitz(t: IntArray, x: IntArray, y: IntArray, p: Int) {
+        val n = x.size
+        val r = karatsuba(LongArray(n) { t[it].toLong() }, LongArray(n) { x[n - 1 - it].toLong() }, p.toLong())
+        for (i in y.indices) {
+            y[i] = r[n - 1 - i].toInt()
+        }
+    }
+
+    /**
+     * The operator `B = UAVD` on `(Z/p)^n`, where `U` and `V` are random unit upper and lower triangular Toeplitz
+     * matrices and `D` is a random non-singular diagonal matrix.
+     *
+     * By the theorem of Kaltofen and Saunders, the leading `r×r` minor of `UAV` is non-zero with high probability,
+     * where `r` is the rank of `A`, and then the random `D` makes the eigenvalue `0` of `B` semisimple. Since
+     * `U`, `V` and `D` are non-singular, `ker A = VD ker B`.
+     */
+    private class Preconditioned(val A: MatVec, val n: Int, val p: Int, random: Random) : MatVec {
+        val u = randomVector(n, p, random).also { it[0] = 1 }
+        val v = randomVector(n, p, random).also { it[0] = 1 }
+        val d = IntArray(n) { random.nextInt(1, p) }
+        private val t = IntArray(n)
+
+        /**
+         * Computes `y = VDx`.
+         */
+        fun restore(x: IntArray, y: IntArray) {
+            val dx = IntArray(n) { (x[it].toLong() * d[it] % p).toInt() }
+            lowerToeplitz(v, dx, y, p)
+        }
+
+        override fun apply(x: IntArray, y: IntArray) {
+            restore(x, y)
+            A.apply(y, t)
+            upperToeplitz(u, t, y, p)
+        }
+    }
+
+    /**
+     * Returns a non-zero vector in the kernel of `A`, or `null` if none is found. The vector is uniformly random in
+     * the kernel if the eigenvalue `0` of `A` is semisimple, which is the case for a [Preconditioned] operator with
+     * high probability. Otherwise, it is only found in the intersection of the kernel with the image of `A^(k-1)`,
+     * where `k` is the size of the largest Jordan block of the eigenvalue `0`.
+     */
+    private fun kernelVector(A: MatVec, n: Int, p: Int, random: Random): IntArray? {
+        val v = randomVector(n, p, random)
+        val f = minimalPolynomial(A, v, p, random)
+        var k = 0
+        while (k < f.size - 1 && f[k] == 0L) {
+            k++
+        }
+        if (k == 0) {
+            // A is invertible on the Krylov space of v
+            return null
+        }
+        // f = x^k g,  A^k g(A) v = 0
+        var z = evaluate(A, f.copyOfRange(k, f.size), 0, v, p)
+        if (isZero(z)) {
+            return null
+        }
+        var t = IntArray(n)
+        for (i in 0..k) {
+            A.apply(z, t)
+            if (isZero(t)) {
+                return z
+            }
+            z = t.also { t = z }
+        }
+        return null
+    }
+
+    /**
+     * Computes a basis of the kernel of the `n×n` matrix given by [A] over `Z/p`. Random kernel vectors of a
+     * [Preconditioned] operator of [A] are collected until [TRIES] consecutive of them are in the span of the
+     * collected ones.
+     *
+     * @return a list of linearly independent vectors in the kernel
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun kernel(A: MatVec, n: Int, p: Int, random: Random = Random.Default): List<IntArray> {
+        val pl = p.toLong()
+        val basis = ArrayList<IntArray>()
+        // the basis in echelon form and the pivots, for testing linear independence
+        val echelon = ArrayList<LongArray>()
+        val pivots = ArrayList<Int>()
+        if (n == 0) {
+            return basis
+        }
+        val B = Preconditioned(A, n, p, random)
+        var failures = 0
+        while (failures < TRIES && basis.size < n) {
+            val w = kernelVector(B, n, p, random)
+            if (w == null) {
+                failures++
+                continue
+            }
+            val z = IntArray(n)
+            B.restore(w, z)
+            val r = LongArray(n) { z[it].toLong() }
+            for ((e, pivot) in echelon.zip(pivots)) {
+                val c = r[pivot]
+                if (c != 0L) {
+                    for (i in 0 until n) {
+                        r[i] = Math.floorMod(r[i] - c * e[i], pl)
+                    }
+                }
+            }
+            val pivot = r.indexOfFirst { it != 0L }
+            if (pivot < 0) {
+                failures++
+                continue
+            }
+            failures = 0
+            val inv = inverse(r[pivot], pl)
+            for (i in 0 until n) {
+                r[i] = r[i] * inv % pl
+            }
+            echelon += r
+            pivots += pivot
+            basis += z
+        }
+        return basis
+    }
+
+    /*
+    Lanczos
+     */
+
+    /**
+     * Solves the linear equation `Ax = b` over `Z/p` with Lanczos' method, where `A` is a **symmetric** `n×n`
+     * matrix given by [A], `n` is the size of [b]. Returns `null` if no solution is found, which is the case when
+     * the method breaks down because of a self-orthogonal vector or `A` is singular.
+     *
+     * @param p a prime less than `2^31`
+     */
+    @JvmStatic
+    fun solveLanczosSymmetric(A: MatVec, b: IntArray, p: Int): IntArray? {
+        val n = b.size
+        val pl = p.toLong()
+        val x = LongArray(n)
+        var w = b.copyOf()
+        var aw = IntArray(n)
+        A.apply(w, aw)
+        var prevW: IntArray? = null
+        var prevAw: IntArray? = null
+        var prevWaw = 1L
+        var next = IntArray(n)
+        for (iteration in 0..n) {
+            if (isZero(w)) {
+                break
+            }
+            val waw = dot(w, aw, pl)
+            if (waw == 0L) {
+                return null
+            }
+            // x += (w.b / w.Aw) w
+            val c = dot(w, b, pl) * inverse(waw, pl) % pl
+            for (i in 0 until n) {
+                x[i] = (x[i] + c * w[i]) % pl
+            }
+            // w' = Aw - (Aw.Aw / w.Aw) w - (Aw'.Aw / w'.Aw') w'
+            val c1 = dot(aw, aw, pl) * inverse(waw, pl) % pl
+            val c2 = if (prevAw != null) dot(prevAw, aw, pl) * inverse(prevWaw, pl) % pl else 0L
+            for (i in 0 until n) {
+                var t = aw[i] - c1 * w[i]
+                if (prevW != null) {
+                    t -= c2 * prevW[i] % pl
+                }
+                next[i] = Math.floorMod(t, pl).toInt()
+            }
+            prevW = w
+            prevAw = aw
+            prevWaw = waw
+            w = next
+            aw = IntArray(n)
+            A.apply(w, aw)
+            next = IntArray(n)
+        }
+        val result = IntArray(n) { x[it].toInt() }
+        val check = IntArray(n)
+        A.apply(result, check)
+        return if (check.contentEquals(b)) result else null
+    }
+
+    /**
+     * Solves the linear equation `Ax = b` over `Z/p` with Lanczos' method applied to the symmetric system
+     * `A^T A x = A^T b`, where `A` is an `n×n` matrix given by [A] and its transpose is given by [AT].
+     * Returns `null` if no solution is found.
+     *
+     * @param p a prime less than `2^31`
+     */
+    @JvmStatic
+    fun solveLanczos(A: MatVec, AT: MatVec, b: IntArray, p: Int): IntArray? {
+        val n = b.size
+        val t = IntArray(n)
+        val normal = MatVec { x, y ->
+            A.apply(x, t)
+            AT.apply(t, y)
+        }
+        val atb = IntArray(n)
+        AT.apply(b, atb)
+        val x = solveLanczosSymmetric(normal, atb, p) ?: return null
+        A.apply(x, t)
+        return if (t.contentEquals(b)) x else null
+    }
+
+    /*
+    Matrices
+     */
+
+    /**
+     * Returns the product with vectors of the matrix over `Z/p`, which is computed with primitive arithmetic
+     * if the matrix is a [SparseMatrix].
+     */
+    @JvmStatic
+    fun matVecOf(A: Matrix<Int>): MatVec {
+        val p = (A.calculator as ZModPCalculator<Int>).p
+        val mc = A.calculator
+        val n = A.column
+        if (A is SparseMatrix) {
+            val csr = A.toCSR()
+            val ptr = csr.ptr
+            val indices = csr.indices
+            val values = IntArray(csr.nnz) { Math.floorMod(csr.values[it] as Int, p.toInt()) }
+            return MatVec { x, y ->
+                for (i in 0 until csr.row) {
+                    var s = 0L
+                    for (pos in ptr[i] until ptr[i + 1]) {
+                        s = (s + values[pos].toLong() * x[indices[pos]]) % p
+                    }
+                    y[i] = s.toInt()
+                }
+            }
+        }
+        return MatVec { x, y ->
+            val v = A.multiply(Vector.of(n, mc) { x[it] })
+            for (i in y.indices) {
+                y[i] = Math.floorMod(v[i], p.toInt())
+            }
+        }
+    }
+
+    private fun modulusOf(A: Matrix<Int>): Int {
+        val mc = A.calculator
+        require(mc is ZModPCalculator<*>) {
+            "The calculator must be a ZModPCalculator!"
+        }
+        require(mc.p < Int.MAX_VALUE)
+        return mc.p.toInt()
+    }
+
+    /**
+     * Solves the linear equation `Ax = b` over `Z/p` with Wiedemann's method, where `A` is a square matrix
+     * over a [ZModPCalculator]. Returns `null` if no solution is found.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun solve(A: Matrix<Int>, b: Vector<Int>, random: Random = Random.Default): Vector<Int>? {
+        require(A.isSquare() && A.row == b.size)
+        val p = modulusOf(A)
+        val x = solveWiedemann(matVecOf(A), IntArray(b.size) { Math.floorMod(b[it], p) }, p, random) ?: return null
+        return Vector.of(x.size, A.calculator) { x[it] }
+    }
+
+    /**
+     * Returns the kernel of the square matrix `A` over a [ZModPCalculator], computed with Wiedemann's method.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun kernel(A: Matrix<Int>, random: Random = Random.Default): VectorBasis<Int> {
+        require(A.isSquare())
+        val p = modulusOf(A)
+        val n = A.row
+        val mc = A.calculator as ZModPCalculator<Int>
+        val vectors = kernel(matVecOf(A), n, p, random)
+        if (vectors.isEmpty()) {
+            return VectorBasis.zero(n, mc)
+        }
+        return VectorBasis.createBaseWithoutCheck(vectors.map { z -> Vector.of(n, mc) { z[it] } })
+    }
+
+    /**
+     * Returns the rank of the square matrix `A` over a [ZModPCalculator], computed as `n - dim(ker A)`.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun rank(A: Matrix<Int>, random: Random = Random.Default): Int {
+        require(A.isSquare())
+        val p = modulusOf(A)
+        return A.row - kernel(matVecOf(A), A.row, p, random).size
+    }
+}
@@ -0,0 +1,636 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.IMathObject
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.exceptions.ExceptionUtil
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.ParallelKernels
+import cn.ancono.math.numberModels.api.GenMatrix
+import cn.ancono.math.numberModels.api.colIndices
+import cn.ancono.math.numberModels.api.requireSquare
+import cn.ancono.math.numberModels.api.rowIndices
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+
+/**
+ * A matrix of doubles whose elements are stored in a flat primitive array ordered from left to right and
+ * from up to down.
+ *
+ * Arithmetic operations between `DMatrix`es, the determinant, the inverse and the primary row and column
+ * operations are performed on primitive doubles directly instead of going through the calculator.
+ * The calculator is still used to determine whether an element is zero, so the deviation of
+ * [Calculators.doubleDev] is respected when choosing pivots.
+ *
+ * Matrices created by [Matrix.zero], [Matrix.of], [Matrix.identity] and [Matrix.copyOf] with one of the
+ * double calculators in [Calculators] are instances of this class.
+ */
+class DMatrix internal constructor(
+    mc: RingCalculator<Double>, row: Int, column: Int,
+    internal val data: DoubleArray
+) : MutableMatrix<Double>(mc, row, column) {
+
+    init {
+        require(row * column == data.size)
+        require(data.isNotEmpty())
+    }
+
+    private fun toPos(i: Int, j: Int): Int {
+        return i * column + j
+    }
+
+    override fun getChecked(i: Int, j: Int): Double {
+        return data[toPos(i, j)]
+    }
+
+    override fun setChecked(i: Int, j: Int, x: Double) {
+        invalidateCache()
+        data[toPos(i, j)] = x
+    }
+
+    override fun setAll(r: Int, c: Int, m: GenMatrix<Double>) {
+        invalidateCache()
+        if (m !is DMatrix) {
+            super.setAll(r, c, m)
+            return
+        }
+        val mData = m.data
+        for (i in m.rowIndices) {
+            System.arraycopy(mData, m.toPos(i, 0), data, toPos(i + r, c), m.column)
+        }
+    }
+
+    override fun copy(): DMatrix {
+        return DMatrix(calculator, row, column, data.clone())
+    }
+
+    override fun getRow(row: Int): Vector<Double> {
+        require(row in rowIndices)
+        val pos0 = toPos(row, 0)
+        return Vector.of(column, calculator) { j -> data[pos0 + j] }
+    }
+
+    override fun getColumn(col: Int): Vector<Double> {
+        require(col in colIndices)
+        return Vector.of(row, calculator) { i -> data[toPos(i, col)] }
+    }
+
+    override fun isZero(): Boolean {
+        val mc = calculator
+        return data.all { mc.isZero(it) }
+    }
+
+    override fun add(y: Matrix<Double>): MutableMatrix<Double> {
+        if (y is DMatrix) {
+            return apply2(this, y) { a, b -> a + b }
+        }
+        return super.add(y)
+    }
+
+    override fun subtract(y: Matrix<Double>): MutableMatrix<Double> {
+        if (y is DMatrix) {
+            return apply2(this, y) { a, b -> a - b }
+        }
+        return super.subtract(y)
+    }
+
+    override fun negate(): DMatrix {
+        return apply1(this) { -it }
+    }
+
+    override fun multiply(k: Double): DMatrix {
+        return apply1(this) { k * it }
+    }
+
+    override fun multiply(y: Matrix<Double>): DMatrix {
+        require(column == y.row) {
+            "Shape mismatch in multiplication: ($row,$column) (${y.row},${y.column})"
+        }
+        val result = MatrixKernels.multiplyDouble(data, MatrixKernels.flattenDouble(y), row, column, y.column)
+        return DMatrix(calculator, row, y.column, result)
+    }
+
+    override fun hadamard(y: Matrix<Double>): Matrix<Double> {
+        if (y is DMatrix) {
+            return apply2(this, y) { a, b -> a * b }
+        }
+        return super.hadamard(y)
+    }
+
+    override fun plusAssign(y: Matrix<Double>) {
+        invalidateCache()
+        if (y !is DMatrix) {
+            super.plusAssign(y)
+            return
+        }
+        require(isSameShape(y))
+        val d2 = y.data
+        for (k in data.indices) {
+            data[k] += d2[k]
+        }
+    }
+
+    override fun minusAssign(y: Matrix<Double>) {
+        invalidateCache()
+        if (y !is DMatrix) {
+            super.minusAssign(y)
+            return
+        }
+        require(isSameShape(y))
+        val d2 = y.data
+        for (k in data.indices) {
+            data[k] -= d2[k]
+        }
+    }
+
+    override fun timesAssign(k: Double) {
+        invalidateCache()
+        for (i in data.indices) {
+            data[i] *= k
+        }
+    }
+
+    override fun negateInplace() {
+        invalidateCache()
+        for (i in data.indices) {
+            data[i] = -data[i]
+        }
+    }
+
+    override fun trace(): Double {
+        requireSquare()
+        var t = 0.0
+        for (i in 0 until row) {
+            t += data[toPos(i, i)]
+        }
+        return t
+    }
+
+    override fun sum(): Double {
+        val data = data
+        return ParallelKernels.reduceChunks(data.size, chunk = { from, until ->
+            var t = 0.0
+            for (k in from until until) {
+                t += data[k]
+            }
+            t
+        }, combine = Double::plus)
+    }
+
+    /**
+     * Returns the transpose of this matrix as a new `DMatrix`.
+     */
+    override fun transpose(): DMatrix {
+        val result = DoubleArray(data.size)
+        var pos = 0
+        for (i in 0 until row) {
+            for (j in 0 until column) {
+                result[j * row + i] = data[pos++]
+            }
+        }
+        return DMatrix(calculator, column, row, result)
+    }
+
+    /**
+     * Returns the determinant of this matrix, which is computed by Gaussian elimination with partial pivoting.
+     */
+    override fun det(): Double {
+        requireSquare()
+        val n = row
+        val a = data.clone()
+        var d = 1.0
+        for (k in 0 until n) {
+            val p = pivotOf(a, n, n, k)
+            if (calculator.isZero(a[p * n + k])) {
+                return 0.0
+            }
+            if (p != k) {
+                swapRows(a, n, p, k, k)
+                d = -d
+            }
+            val rk = k * n
+            val pivot = a[rk + k]
+            d *= pivot
+            for (i in (k + 1) until n) {
+                val ri = i * n
+                val f = a[ri + k] / pivot
+                if (f == 0.0) {
+                    continue
+                }
+                for (j in (k + 1) until n) {
+                    a[ri + j] -= f * a[rk + j]
+                }
+            }
+        }
+        return d
+    }
+
+    /**
+     * Returns the inverse of this matrix, which is computed by Gauss-Jordan elimination with partial pivoting.
+     *
+     * @throws ArithmeticException if this matrix is not invertible
+     */
+    override fun inverse(): DMatrix {
+        requireSquare()
+        val n = row
+        val w = 2 * n
+        val a = DoubleArray(n * w)
+        for (i in 0 until n) {
+            System.arraycopy(data, i * n, a, i * w, n)
+            a[i * w + n + i] = 1.0
+        }
+        for (k in 0 until n) {
+            val p = pivotOf(a, w, n, k)
+            if (calculator.isZero(a[p * w + k])) {
+                ExceptionUtil.notInvertible()
+            }
+            if (p != k) {
+                swapRows(a, w, p, k, k)
+            }
+            val rk = k * w
+            val c = 1.0 / a[rk + k]
+            for (j in (k + 1) until w) {
+                a[rk + j] *= c
+            }
+            a[rk + k] = 1.0
+            for (i in 0 until n) {
+                if (i == k) {
+                    continue
+                }
+                val ri = i * w
+                val f = a[ri + k]
+                if (f == 0.0) {
+                    continue
+                }
+                for (j in (k + 1) until w) {
+                    a[ri + j] -= f * a[rk + j]
+                }
+                a[ri + k] = 0.0
+            }
+        }
+        val result = DoubleArray(n * n)
+        for (i in 0 until n) {
+            System.arraycopy(a, i * w + n, result, i * n, n)
+        }
+        return DMatrix(calculator, n, n, result)
+    }
+
+    /**
+     * Returns the upper Hessenberg form `H = Q^T A Q` of this matrix, which is computed by orthogonal similarity
+     * transformations with Householder reflections.
+     */
+    override fun toHessenbergForm(): DMatrix {
+        requireSquare()
+        val h = data.clone()
+        reduceToHessenberg(h, row, null)
+        return DMatrix(calculator, row, column, h)
+    }
+
+    override fun multiplyAddRow(r1: Int, r2: Int, k: Double, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val s1 = toPos(r1, 0)
+        val s2 = toPos(r2, 0)
+        for (l in colStart until colEnd) {
+            data[s2 + l] += k * data[s1 + l]
+        }
+    }
+
+    override fun multiplyAddCol(c1: Int, c2: Int, k: Double, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            val l = toPos(r, 0)
+            data[l + c2] += k * data[l + c1]
+        }
+    }
+
+    override fun swapRow(r1: Int, r2: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val s1 = toPos(r1, 0)
+        val s2 = toPos(r2, 0)
+        for (l in colStart until colEnd) {
+            val t = data[s1 + l]
+            data[s1 + l] = data[s2 + l]
+            data[s2 + l] = t
+        }
+    }
+
+    override fun swapCol(c1: Int, c2: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            val l = toPos(r, 0)
+            val t = data[l + c1]
+            data[l + c1] = data[l + c2]
+            data[l + c2] = t
+        }
+    }
+
+    override fun multiplyRow(r: Int, k: Double, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val d = toPos(r, 0)
+        for (l in colStart until colEnd) {
+            data[d + l] *= k
+        }
+    }
+
+    override fun divideRow(r: Int, k: Double, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val d = toPos(r, 0)
+        for (l in colStart until colEnd) {
+            data[d + l] /= k
+        }
+    }
+
+    override fun multiplyCol(c: Int, k: Double, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            data[toPos(r, c)] *= k
+        }
+    }
+
+    override fun divideCol(c: Int, k: Double, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            data[toPos(r, c)] /= k
+        }
+    }
+
+    override fun negateRow(r: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val d = toPos(r, 0)
+        for (l in colStart until colEnd) {
+            data[d + l] = -data[d + l]
+        }
+    }
+
+    override fun negateCol(c: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            val pos = toPos(r, c)
+            data[pos] = -data[pos]
+        }
+    }
+
+    override fun transformRows(
+        r1: Int, r2: Int,
+        a11: Double, a12: Double, a21: Double, a22: Double,
+        colStart: Int, colEnd: Int
+    ) {
+        invalidateCache()
+        val s1 = toPos(r1, 0)
+        val s2 = toPos(r2, 0)
+        for (l in colStart until colEnd) {
+            val x = data[s1 + l]
+            val y = data[s2 + l]
+            data[s1 + l] = a11 * x + a12 * y
+            data[s2 + l] = a21 * x + a22 * y
+        }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+
+        other as DMatrix
+
+        return row == other.row && column == other.column && data.contentEquals(other.data)
+    }
+
+    override fun hashCode(): Int {
+        var result = super.hashCode()
+        result = 31 * result + data.contentHashCode()
+        return result
+    }
+
+    override fun valueEquals(obj: IMathObject<Double>): Boolean {
+        if (obj !is DMatrix) {
+            return super.valueEquals(obj)
+        }
+        val mc = calculator
+        return row == obj.row && column == obj.column && data.indices.all { i ->
+            mc.isEqual(data[i], obj.data[i])
+        }
+    }
+
+
+    companion object {
+
+        private inline fun apply2(x: DMatrix, y: DMatrix, crossinline f: (Double, Double) -> Double): DMatrix {
+            require(x.isSameShape(y))
+            val d1 = x.data
+            val d2 = y.data
+            val ndata = DoubleArray(d1.size)
+            ParallelKernels.forChunks(d1.size) { from, until ->
+                for (k in from until until) {
+                    ndata[k] = f(d1[k], d2[k])
+                }
+            }
+            return DMatrix(x.calculator, x.row, x.column, ndata)
+        }
+
+        private inline fun apply1(x: DMatrix, crossinline f: (Double) -> Double): DMatrix {
+            val data = x.data
+            val newData = DoubleArray(data.size)
+            ParallelKernels.forChunks(data.size) { from, until ->
+                for (k in from until until) {
+                    newData[k] = f(data[k])
+                }
+            }
+            return DMatrix(x.calculator, x.row, x.column, newData)
+        }
+
+        /**
+         * Returns the index of the row in `[k, n)` whose element in column `k` has the maximal absolute value.
+         */
+        private fun pivotOf(a: DoubleArray, w: Int, n: Int, k: Int): Int {
+            var p = k
+            var max = abs(a[k * w + k])
+            for (i in (k + 1) until n) {
+                val v = abs(a[i * w + k])
+                if (v > max) {
+                    max = v
+                    p = i
+                }
+            }
+            return p
+        }
+
+        private fun swapRows(a: DoubleArray, w: Int, r1: Int, r2: Int, colStart: Int) {
+            val s1 = r1 * w
+            val s2 = r2 * w
+            for (l in colStart until w) {
+                val t = a[s1 + l]
+                a[s1 + l] = a[s2 + l]
+                a[s2 + l] = t
+            }
+        }
+
+        /**
+         * Reduces the `(n, n)` matrix [h] stored in row-major order to the upper Hessenberg form `Q^T A Q` in place
+         * with Householder reflections. If [q] is not `null`, the orthogonal matrix `Q` is stored in it.
+         */
+        internal fun reduceToHessenberg(h: DoubleArray, n: Int, q: DoubleArray?) {
+            // Refer to the procedure orthes of EISPACK
+            val ort = DoubleArray(n)
+            for (m in 1 until n - 1) {
+                var scale = 0.0
+                for (i in m until n) {
+                    scale += abs(h[i * n + m - 1])
+                }
+                if (scale == 0.0) {
+                    continue
+                }
+                var sq = 0.0
+                for (i in (n - 1) downTo m) {
+                    ort[i] = h[i * n + m - 1] / scale
+                    sq += ort[i] * ort[i]
+                }
+                var g = sqrt(sq)
+                if (ort[m] > 0) {
+                    g = -g
+                }
+                sq -= ort[m] * g
+                ort[m] -= g
+                // H = (I - u u^T / sq) H
+                for (j in m until n) {
+                    var f = 0.0
+                    for (i in (n - 1) downTo m) {
+                        f += ort[i] * h[i * n + j]
+                    }
+                    f /= sq
+                    for (i in m until n) {
+                        h[i * n + j] -= f * ort[i]
+                    }
+                }
+                // H = H (I - u u^T / sq)
+                for (i in 0 until n) {
+                    val ri = i * n
+                    var f = 0.0
+                    for (j in (n - 1) downTo m) {
+                        f += ort[j] * h[ri + j]
+                    }
+                    f /= sq
+                    for (j in m until n) {
+                        h[ri + j] -= f * ort[j]
+                    }
+                }
+                ort[m] *= scale
+                h[m * n + m - 1] = scale * g
+            }
+            if (q != null) {
+                q.fill(0.0)
+                for (i in 0 until n) {
+                    q[i * n + i] = 1.0
+                }
+                for (m in (n - 2) downTo 1) {
+                    val hm = h[m * n + m - 1]
+                    if (hm == 0.0) {
+                        continue
+                    }
+                    for (i in (m + 1) until n) {
+                        ort[i] = h[i * n + m - 1]
+                    }
+                    for (j in m until n) {
+                        var g = 0.0
+                        for (i in m until n) {
+                            g += ort[i] * q[i * n + j]
+                        }
+                        g = (g / ort[m]) / hm
+                        for (i in m until n) {
+                            q[i * n + j] += g * ort[i]
+                        }
+                    }
+                }
+            }
+            // clear the Householder vectors stored below the subdiagonal
+            for (i in 2 until n) {
+                for (j in 0 until i - 1) {
+                    h[i * n + j] = 0.0
+                }
+            }
+        }
+
+        /**
+         * Creates a new `DMatrix` of the given shape that wraps the flattened [data] ordered from left to right and
+         * from up to down. The array is not copied.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun wrap(row: Int, column: Int, data: DoubleArray, mc: RingCalculator<Double> = Calculators.doubleCal())
+                : DMatrix {
+            return DMatrix(mc, row, column, data)
+        }
+
+        @JvmStatic
+        fun zero(row: Int, column: Int, mc: RingCalculator<Double>): DMatrix {
+            require(row > 0 && column > 0)
+            return DMatrix(mc, row, column, DoubleArray(row * column))
+        }
+
+        @JvmStatic
+        fun identity(n: Int, mc: RingCalculator<Double>): DMatrix {
+            val result = zero(n, n, mc)
+            var l = 0
+            for (i in 0 until n) {
+                result.data[l] = 1.0
+                l += n + 1
+            }
+            return result
+        }
+
+        @JvmStatic
+        fun of(row: Int, column: Int, mc: RingCalculator<Double>, supplier: (Int, Int) -> Double): DMatrix {
+            require(row > 0 && column > 0)
+            val data = DoubleArray(row * column)
+            var pos = 0
+            for (i in 0 until row) {
+                for (j in 0 until column) {
+                    data[pos++] = supplier(i, j)
+                }
+            }
+            return DMatrix(mc, row, column, data)
+        }
+
+        @JvmStatic
+        fun of(row: Int, column: Int, mc: RingCalculator<Double>, elements: List<Double>): DMatrix {
+            require(elements.size == row * column) {
+                "Required $row * $column = ${row * column} elements, but ${elements.size} is given."
+            }
+            require(elements.isNotEmpty()) {
+                "The matrix must not be empty!"
+            }
+            return DMatrix(mc, row, column, elements.toDoubleArray())
+        }
+
+        @JvmStatic
+        fun of(mat: Array<Array<Double>>, mc: RingCalculator<Double>): DMatrix {
+            require(mat.isNotEmpty() && mat[0].isNotEmpty()) {
+                "The given array is empty!"
+            }
+            val row = mat.size
+            val column = mat[0].size
+            val result = zero(row, column, mc)
+            for (i in 0 until row) {
+                require(mat[i].size == column)
+                for (j in 0 until column) {
+                    result.data[i * column + j] = mat[i][j]
+                }
+            }
+            return result
+        }
+
+        @JvmStatic
+        fun copyOf(x: GenMatrix<Double>, mc: RingCalculator<Double>): DMatrix {
+            if (x is DMatrix) {
+                return DMatrix(mc, x.row, x.column, x.data.clone())
+            }
+            return of(x.row, x.column, mc) { i, j -> x[i, j] }
+        }
+
+        /**
+         * Determines whether matrices with the calculator [mc] should be stored as `DMatrix`.
+         */
+        internal fun isApplicable(mc: RingCalculator<*>): Boolean {
+            return Calculators.isDoubleCalculator(mc)
+        }
+    }
+}
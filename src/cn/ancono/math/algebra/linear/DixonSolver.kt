@@ -0,0 +1,267 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.MathUtils
+import cn.ancono.math.algebra.abs.calculator.FieldCalculator
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.numberModels.api.colIndices
+import java.math.BigInteger
+
+
+/**
+ * Solves non-singular linear systems `AX = B` over fractions exactly with Dixon's p-adic lifting.
+ *
+ * The system is turned into an integer one by clearing the denominators of each row. The inverse `C` of `A` modulo
+ * a prime `p` is computed only once, and then the `p`-adic digits of the solution are computed by the iteration
+ *
+ *     X_i = C R_i (mod p),   R_{i+1} = (R_i - A X_i) / p,   R_0 = B,
+ *
+ * in which only the residual `R` consists of big integers. The rational solution is recovered from its `p`-adic
+ * approximation by rational reconstruction, which is attempted each time the count of digits doubles and is
+ * verified exactly, so that the lifting usually stops long before the Hadamard bound of the solution is reached.
+ *
+ * [Matrix.solveLinear] uses this solver for square matrices of [cn.ancono.math.numberModels.Fraction] and
+ * [cn.ancono.math.numberModels.BigFraction] whose size is not less than [threshold].
+ * Singular systems are left to the elimination.
+ */
+object DixonSolver {
+
+    /**
+     * The minimal size of a square matrix for [Matrix.solveLinear] to use this solver.
+     * Set it to [Int.MAX_VALUE] to disable it.
+     */
+    @JvmStatic
+    @Volatile
+    var threshold: Int = 10
+
+    /**
+     * The count of primes tried before the matrix is regarded as singular.
+     */
+    private const val PRIME_TRIES = 3
+
+    /**
+     * The bound of `|A X_i|` that can be accumulated in a long.
+     */
+    private const val ACCUMULATE_BOUND = 1L shl 62
+
+    /**
+     * Solves the linear equations `Ax = b_j` for all the columns `b_j` of [B] in one batch, returning the solutions
+     * in order. The matrix `A` is reduced modulo the prime and inverted only once for all the equations.
+     */
+    @JvmStatic
+    fun <T> solveAll(A: AbstractMatrix<T>, B: AbstractMatrix<T>): List<LinearEquationSolution<T>> {
+        require(A.row == B.row)
+        val mc = A.calculator
+        val X = solveOrNull(A, B, mc)
+        if (X != null) {
+            val basis = VectorBasis.zero(A.column, mc as FieldCalculator)
+            return B.colIndices.map { j -> LinearEquationSolution.of(X.getColumn(j), basis, true) }
+        }
+        return B.colIndices.map { j -> Matrix.solveLinear(A, B.getColumn(j)) }
+    }
+
+    /**
+     * Returns the solution `X` of `AX = B`, or `null` if the method is not applicable, `A` is singular or
+     * the solution can not be represented exactly.
+     */
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> solveOrNull(A: AbstractMatrix<T>, B: AbstractMatrix<T>, mc: RingCalculator<T>): Matrix<T>? {
+        if (!A.isSquare()) {
+            return null
+        }
+        val domain = MultiModular.domainOf(mc)
+        if (domain != MultiModular.Domain.FRACTION && domain != MultiModular.Domain.BIG_FRACTION) {
+            return null
+        }
+        val n = A.row
+        val s = B.column
+        val w = n + s
+        val (expanded, _) = MultiModular.integerMatrixOf(Matrix.concatColumn(A, B), domain, false)
+        val a = MultiModular.IntegerMatrix(n, n, Array(n * n) { expanded.data[it / n * w + it % n] })
+        val b = Array(n * s) { expanded.data[it / s * w + n + it % s] }
+
+        val primes = MultiModular.primes(PRIME_TRIES)
+        var p = 0L
+        var c: LongArray? = null
+        for (q in primes) {
+            c = MultiModular.inverseMod(MultiModular.reduce(a, q), n, q)
+            if (c != null) {
+                p = q
+                break
+            }
+        }
+        if (c == null) {
+            return null
+        }
+        // the numerators and the denominator of the solution are minors of the expanded matrix
+        val boundBits = expanded.minorBoundBits()
+        val maxIteration = ((2 * boundBits + 2) / 30 + 1).toInt()
+        val solution = lift(a, b, n, s, c, p, maxIteration) ?: return null
+
+        val data = arrayOfNulls<Any>(n * s)
+        for (j in 0 until s) {
+            val (nums, den) = solution[j]
+            for (i in 0 until n) {
+                data[i * s + j] = MultiModular.elementOf(nums[i], den, domain) ?: return null
+            }
+        }
+        return AMatrix(mc, n, s, data)
+    }
+
+    /**
+     * Computes the `p`-adic digits of the solution and returns the numerators and the common denominator of
+     * each column of the solution, or `null` if the reconstruction fails.
+     */
+    private fun lift(
+        a: MultiModular.IntegerMatrix, b: Array<BigInteger>, n: Int, s: Int,
+        c: LongArray, p: Long, maxIteration: Int
+    ): Array<Pair<Array<BigInteger>, BigInteger>>? {
+        val bp = BigInteger.valueOf(p)
+        val small = a.small?.takeIf { arr -> arr.all { it > -(1L shl 31) && it < (1L shl 31) } }
+        val r = b.copyOf()
+        val digits = ArrayList<LongArray>()
+        val solved = arrayOfNulls<Pair<Array<BigInteger>, BigInteger>>(s)
+        var unsolved = s
+        var modulus = BigInteger.ONE
+        var checkpoint = 1
+        for (iteration in 1..maxIteration) {
+            // X_i = C R_i (mod p)
+            val rp = LongArray(n * s) { r[it].mod(bp).toLong() }
+            val x = LongArray(n * s)
+            for (i in 0 until n) {
+                for (k in 0 until n) {
+                    val cik = c[i * n + k]
+                    if (cik == 0L) {
+                        continue
+                    }
+                    for (j in 0 until s) {
+                        x[i * s + j] = (x[i * s + j] + cik * rp[k * s + j]) % p
+                    }
+                }
+            }
+            digits += x
+            modulus *= bp
+            // R_{i+1} = (R_i - A X_i) / p
+            for (i in 0 until n) {
+                for (j in 0 until s) {
+                    if (solved[j] != null) {
+                        continue
+                    }
+                    val ax = if (small != null) {
+                        var big = BigInteger.ZERO
+                        var acc = 0L
+                        for (k in 0 until n) {
+                            acc += small[i * n + k] * x[k * s + j]
+                            if (acc >= ACCUMULATE_BOUND || acc <= -ACCUMULATE_BOUND) {
+                                big += BigInteger.valueOf(acc)
+                                acc = 0L
+                            }
+                        }
+                        big + BigInteger.valueOf(acc)
+                    } else {
+                        var big = BigInteger.ZERO
+                        for (k in 0 until n) {
+                            big += a.data[i * n + k] * BigInteger.valueOf(x[k * s + j])
+                        }
+                        big
+                    }
+                    r[i * s + j] = (r[i * s + j] - ax).divide(bp)
+                }
+            }
+            if (iteration != checkpoint && iteration != maxIteration) {
+                continue
+            }
+            checkpoint *= 2
+            for (j in 0 until s) {
+                if (solved[j] != null) {
+                    continue
+                }
+                val approx = Array<BigInteger>(n) { i ->
+                    var t = BigInteger.ZERO
+                    for (d in digits.indices.reversed()) {
+                        t = t * bp + BigInteger.valueOf(digits[d][i * s + j])
+                    }
+                    t
+                }
+                val sol = reconstruct(approx, modulus) ?: continue
+                if (verify(a, b, n, s, j, sol.first, sol.second)) {
+                    solved[j] = sol
+                    unsolved--
+                }
+            }
+            if (unsolved == 0) {
+                @Suppress("UNCHECKED_CAST")
+                return solved as Array<Pair<Array<BigInteger>, BigInteger>>
+            }
+        }
+        return null
+    }
+
+    /**
+     * Returns the rational number `r/t` congruent to `x` modulo `m` such that `|r| <= bound` and `0 < t <= denBound`,
+     * or `null` if there is no such number.
+     */
+    private fun reconstruct(x: BigInteger, m: BigInteger, bound: BigInteger, denBound: BigInteger): Pair<BigInteger, BigInteger>? {
+        var r0 = m
+        var r1 = x.mod(m)
+        var t0 = BigInteger.ZERO
+        var t1 = BigInteger.ONE
+        while (r1 > bound) {
+            val q = r0 / r1
+            r0 = r1.also { r1 = r0 - q * r1 }
+            t0 = t1.also { t1 = t0 - q * t1 }
+        }
+        if (t1.signum() == 0 || t1.abs() > denBound) {
+            return null
+        }
+        return if (t1.signum() < 0) {
+            -r1 to -t1
+        } else {
+            r1 to t1
+        }
+    }
+
+    /**
+     * Reconstructs a rational vector with a common denominator from its residues modulo [m]. The denominators
+     * found so far are multiplied to the subsequent components so that their reconstruction is usually trivial.
+     */
+    private fun reconstruct(x: Array<BigInteger>, m: BigInteger): Pair<Array<BigInteger>, BigInteger>? {
+        val bound = (m.shiftRight(1)).sqrt()
+        val n = x.size
+        val nums = arrayOfNulls<BigInteger>(n)
+        val dens = arrayOfNulls<BigInteger>(n)
+        var d = BigInteger.ONE
+        for (i in 0 until n) {
+            val scaled = if (d <= bound) reconstruct(x[i] * d, m, bound, bound / d) else null
+            if (scaled != null) {
+                nums[i] = scaled.first
+                dens[i] = scaled.second * d
+            } else {
+                val (r, t) = reconstruct(x[i], m, bound, bound) ?: return null
+                nums[i] = r
+                dens[i] = t
+            }
+            d = MathUtils.lcm(d, dens[i]!!)
+        }
+        val result = Array<BigInteger>(n) { i -> nums[i]!! * (d / dens[i]!!) }
+        return result to d
+    }
+
+    /**
+     * Determines whether `A (nums / den) = b_j`.
+     */
+    private fun verify(
+        a: MultiModular.IntegerMatrix, b: Array<BigInteger>, n: Int, s: Int, j: Int,
+        nums: Array<BigInteger>, den: BigInteger
+    ): Boolean {
+        for (i in 0 until n) {
+            var t = BigInteger.ZERO
+            for (k in 0 until n) {
+                t += a.data[i * n + k] * nums[k]
+            }
+            if (t != b[i * s + j] * den) {
+                return false
+            }
+        }
+        return true
+    }
+}
@@ -0,0 +1,457 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import kotlin.math.min
+
+
+/**
+ * A mutable matrix over the binary field `GF(2)` whose elements are packed as bits, 64 of them in a long.
+ *
+ * Each row occupies [stride] longs in [bits], and the `j`-th element of a row is the `(j % 64)`-th bit of
+ * the `(j / 64)`-th long of it. Row operations are performed by XOR of whole words, Gaussian elimination uses
+ * the Method of Four Russians (M4RI) and multiplication uses the Method of Four Russians for multiplication (M4RM),
+ * in which tables of all the combinations of `k` rows are built so that `k` row operations are replaced with one
+ * table lookup.
+ *
+ * [Matrix.rank] and [Matrix.kernel] use this class for matrices over [Calculators.intMod2].
+ */
+class GF2Matrix(val row: Int, val column: Int) {
+
+    /**
+     * The count of longs in a row.
+     */
+    val stride: Int = (column + 63) ushr 6
+
+    /**
+     * The packed bits of this matrix in row-major order.
+     */
+    val bits: LongArray = LongArray(row * stride)
+
+    private fun checkIdx(i: Int, j: Int) {
+        require(i in 0 until row && j in 0 until column) {
+            "Index out of bound for ($i,$j), shape = ($row,$column)."
+        }
+    }
+
+    /**
+     * Gets the element at `(i, j)`, which is `0` or `1`.
+     */
+    operator fun get(i: Int, j: Int): Int {
+        checkIdx(i, j)
+        return bit(i, j)
+    }
+
+    /**
+     * Sets the element at `(i, j)` to `x mod 2`.
+     */
+    operator fun set(i: Int, j: Int, x: Int) {
+        checkIdx(i, j)
+        val w = i * stride + (j ushr 6)
+        val mask = 1L shl j
+        bits[w] = if (x and 1 == 0) bits[w] and mask.inv() else bits[w] or mask
+    }
+
+    private fun bit(i: Int, j: Int): Int {
+        return (bits[i * stride + (j ushr 6)] ushr j).toInt() and 1
+    }
+
+    /*
+    Row operations
+     */
+
+    /**
+     * Adds the row [src] to the row [dest], that is, `row[dest] ^= row[src]`.
+     */
+    fun addRow(src: Int, dest: Int) {
+        xorRow(bits, src * stride, bits, dest * stride, 0, stride)
+    }
+
+    /**
+     * Swaps the two rows.
+     */
+    fun swapRow(r1: Int, r2: Int) {
+        if (r1 == r2) {
+            return
+        }
+        val a = r1 * stride
+        val b = r2 * stride
+        for (w in 0 until stride) {
+            val t = bits[a + w]
+            bits[a + w] = bits[b + w]
+            bits[b + w] = t
+        }
+    }
+
+    /**
+     * Returns a copy of this matrix.
+     */
+    fun copy(): GF2Matrix {
+        val m = GF2Matrix(row, column)
+        bits.copyInto(m.bits)
+        return m
+    }
+
+    /**
+     * Determines whether all the elements in this matrix are zero.
+     */
+    fun isZero(): Boolean {
+        return bits.all { it == 0L }
+    }
+
+    fun transpose(): GF2Matrix {
+        val t = GF2Matrix(column, row)
+        for (i in 0 until row) {
+            val base = i * stride
+            for (w in 0 until stride) {
+                var x = bits[base + w]
+                while (x != 0L) {
+                    val j = (w shl 6) + java.lang.Long.numberOfTrailingZeros(x)
+                    t.bits[j * t.stride + (i ushr 6)] = t.bits[j * t.stride + (i ushr 6)] or (1L shl i)
+                    x = x and (x - 1)
+                }
+            }
+        }
+        return t
+    }
+
+    /**
+     * Returns the sum of this matrix and [y], that is, the XOR of them.
+     */
+    fun add(y: GF2Matrix): GF2Matrix {
+        require(row == y.row && column == y.column)
+        val m = GF2Matrix(row, column)
+        for (k in bits.indices) {
+            m.bits[k] = bits[k] xor y.bits[k]
+        }
+        return m
+    }
+
+    /**
+     * Returns the product of this matrix and [y] computed with the Method of Four Russians.
+     */
+    fun multiply(y: GF2Matrix): GF2Matrix {
+        require(column == y.row) {
+            "Shape mismatch in multiplication: ($row,$column) * (${y.row},${y.column})"
+        }
+        val c = GF2Matrix(row, y.column)
+        val s = y.stride
+        MatrixKernels.forRowBlocks(row, column.toLong() * s) { r0, r1 ->
+            val table = LongArray((1 shl K) * s)
+            for (k0 in 0 until column step K) {
+                val kc = min(K, column - k0)
+                buildTable(table, y.bits, s, IntArray(kc) { k0 + it }, 0)
+                val w = k0 ushr 6
+                val shift = k0 and 63
+                val mask = (1L shl kc) - 1
+                for (i in r0 until r1) {
+                    // K divides 64, so the K bits are in one word
+                    val idx = ((bits[i * stride + w] ushr shift) and mask).toInt()
+                    if (idx != 0) {
+                        xorRow(table, idx * s, c.bits, i * s, 0, s)
+                    }
+                }
+            }
+        }
+        return c
+    }
+
+    /**
+     * Returns the product of this matrix and the column vector [v].
+     */
+    fun multiply(v: BooleanArray): BooleanArray {
+        require(column == v.size)
+        val x = pack(v)
+        return BooleanArray(row) { i ->
+            var t = 0L
+            for (w in 0 until stride) {
+                t = t xor (bits[i * stride + w] and x[w])
+            }
+            java.lang.Long.bitCount(t) and 1 == 1
+        }
+    }
+
+    /*
+    Elimination
+     */
+
+    /**
+     * Transforms this matrix to the reduced row echelon form in place with the Method of Four Russians,
+     * only choosing pivots in the first [columnLimit] columns.
+     *
+     * @return the pivot columns, whose size is the rank
+     */
+    fun toReducedEchelon(columnLimit: Int = column): IntArray {
+        require(columnLimit in 0..column)
+        val pivots = ArrayList<Int>()
+        val table = LongArray((1 shl K) * stride)
+        var r = 0
+        var c = 0
+        while (c < columnLimit && r < row) {
+            val blockEnd = min(c + K, columnLimit)
+            val blockPivots = IntArray(K)
+            var found = 0
+            for (j in c until blockEnd) {
+                if (r + found == row) {
+                    break
+                }
+                // find a pivot row, reducing the candidates with the pivots found in this block
+                var p = -1
+                for (i in r + found until row) {
+                    for (t in 0 until found) {
+                        if (bit(i, blockPivots[t]) == 1) {
+                            xorRow(bits, (r + t) * stride, bits, i * stride, c ushr 6, stride)
+                        }
+                    }
+                    if (bit(i, j) == 1) {
+                        p = i
+                        break
+                    }
+                }
+                if (p < 0) {
+                    continue
+                }
+                val pr = r + found
+                swapRow(p, pr)
+                for (t in 0 until found) {
+                    if (bit(r + t, j) == 1) {
+                        xorRow(bits, pr * stride, bits, (r + t) * stride, c ushr 6, stride)
+                    }
+                }
+                blockPivots[found++] = j
+            }
+            if (found > 0) {
+                val cols = blockPivots.copyOf(found)
+                buildTable(table, bits, stride, IntArray(found) { r + it }, c ushr 6)
+                for (i in 0 until row) {
+                    if (i in r until r + found) {
+                        continue
+                    }
+                    var idx = 0
+                    for (t in 0 until found) {
+                        idx = idx or (bit(i, cols[t]) shl t)
+                    }
+                    if (idx != 0) {
+                        xorRow(table, idx * stride, bits, i * stride, c ushr 6, stride)
+                    }
+                }
+                for (j in cols) {
+                    pivots += j
+                }
+                r += found
+            }
+            c = blockEnd
+        }
+        return pivots.toIntArray()
+    }
+
+    /**
+     * Returns the rank of this matrix.
+     */
+    fun rank(): Int {
+        return copy().toReducedEchelon().size
+    }
+
+    /**
+     * Returns a matrix whose rows form a basis of the kernel of this matrix, that is, the vectors `x` such that
+     * `Ax = 0`.
+     */
+    fun kernel(): GF2Matrix {
+        val m = copy()
+        val pivots = m.toReducedEchelon()
+        val isPivot = BooleanArray(column)
+        for (j in pivots) {
+            isPivot[j] = true
+        }
+        val result = GF2Matrix(column - pivots.size, column)
+        var k = 0
+        for (f in 0 until column) {
+            if (isPivot[f]) {
+                continue
+            }
+            result[k, f] = 1
+            for (t in pivots.indices) {
+                if (m.bit(t, f) == 1) {
+                    result[k, pivots[t]] = 1
+                }
+            }
+            k++
+        }
+        return result
+    }
+
+    /**
+     * Returns the kernel of this matrix as a basis of vectors over [Calculators.intMod2].
+     */
+    fun kernelBasis(): VectorBasis<Int> {
+        val mc = Calculators.intMod2()
+        val k = kernel()
+        if (k.row == 0) {
+            return VectorBasis.zero(column, mc)
+        }
+        return VectorBasis.createBaseWithoutCheck((0 until k.row).map { i ->
+            Vector.of(column, mc) { j -> k.bit(i, j) }
+        })
+    }
+
+    /**
+     * Solves the linear equation `AX = B`, where `A` is this matrix. Returns a special solution `X`,
+     * or `null` if there is no solution. All the solutions are `X` plus combinations of the [kernel].
+     */
+    fun solve(B: GF2Matrix): GF2Matrix? {
+        require(row == B.row)
+        val n = column
+        val aug = GF2Matrix(row, n + B.column)
+        for (i in 0 until row) {
+            for (j in 0 until n) {
+                if (bit(i, j) == 1) aug[i, j] = 1
+            }
+            for (j in 0 until B.column) {
+                if (B.bit(i, j) == 1) aug[i, n + j] = 1
+            }
+        }
+        val pivots = aug.toReducedEchelon(n)
+        for (i in pivots.size until row) {
+            for (j in 0 until B.column) {
+                if (aug.bit(i, n + j) == 1) {
+                    return null
+                }
+            }
+        }
+        val x = GF2Matrix(n, B.column)
+        for (t in pivots.indices) {
+            for (j in 0 until B.column) {
+                if (aug.bit(t, n + j) == 1) {
+                    x[pivots[t], j] = 1
+                }
+            }
+        }
+        return x
+    }
+
+    /**
+     * Solves the linear equation `Ax = b`, where `A` is this matrix. Returns a special solution `x`,
+     * or `null` if there is no solution.
+     */
+    fun solve(b: BooleanArray): BooleanArray? {
+        require(row == b.size)
+        val B = GF2Matrix(row, 1)
+        for (i in b.indices) {
+            if (b[i]) B[i, 0] = 1
+        }
+        val x = solve(B) ?: return null
+        return BooleanArray(column) { x.bit(it, 0) == 1 }
+    }
+
+    /**
+     * Returns this matrix as a matrix of integers over [Calculators.intMod2].
+     */
+    fun toMatrix(): Matrix<Int> {
+        return Matrix.of(row, column, Calculators.intMod2()) { i, j -> bit(i, j) }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is GF2Matrix) return false
+        return row == other.row && column == other.column && bits.contentEquals(other.bits)
+    }
+
+    override fun hashCode(): Int {
+        return (row * 31 + column) * 31 + bits.contentHashCode()
+    }
+
+    override fun toString(): String {
+        return buildString {
+            for (i in 0 until row) {
+                for (j in 0 until column) {
+                    append(bit(i, j))
+                }
+                if (i < row - 1) append('\n')
+            }
+        }
+    }
+
+    companion object {
+
+        /**
+         * The count of rows combined in the tables of the Method of Four Russians, which divides 64.
+         */
+        private const val K = 8
+
+        /**
+         * Performs `dest[d + w] ^= src[s + w]` for `w` in `[from, to)`.
+         */
+        private fun xorRow(src: LongArray, s: Int, dest: LongArray, d: Int, from: Int, to: Int) {
+            for (w in from until to) {
+                dest[d + w] = dest[d + w] xor src[s + w]
+            }
+        }
+
+        /**
+         * Fills the [table] with all the combinations of the [rows] of the matrix [data], in which the `mask`-th
+         * entry is the sum of the rows `rows[t]` for the bits `t` set in `mask`. Only the words from [from]
+         * are computed.
+         */
+        private fun buildTable(table: LongArray, data: LongArray, stride: Int, rows: IntArray, from: Int) {
+            for (w in from until stride) {
+                table[w] = 0L
+            }
+            for (mask in 1 until (1 shl rows.size)) {
+                val t = Integer.numberOfTrailingZeros(mask)
+                val prev = (mask and (mask - 1)) * stride
+                val r = rows[t] * stride
+                val e = mask * stride
+                for (w in from until stride) {
+                    table[e + w] = table[prev + w] xor data[r + w]
+                }
+            }
+        }
+
+        private fun pack(v: BooleanArray): LongArray {
+            val x = LongArray((v.size + 63) ushr 6)
+            for (j in v.indices) {
+                if (v[j]) x[j ushr 6] = x[j ushr 6] or (1L shl j)
+            }
+            return x
+        }
+
+        /**
+         * Returns the identity matrix of size `n`.
+         */
+        @JvmStatic
+        fun identity(n: Int): GF2Matrix {
+            val m = GF2Matrix(n, n)
+            for (i in 0 until n) {
+                m[i, i] = 1
+            }
+            return m
+        }
+
+        /**
+         * Returns a matrix whose elements are `supplier(i, j) mod 2`.
+         */
+        @JvmStatic
+        inline fun of(row: Int, column: Int, supplier: (Int, Int) -> Int): GF2Matrix {
+            val m = GF2Matrix(row, column)
+            for (i in 0 until row) {
+                for (j in 0 until column) {
+                    m[i, j] = supplier(i, j)
+                }
+            }
+            return m
+        }
+
+        /**
+         * Returns the matrix of integers as a matrix over `GF(2)`, taking the elements modulo 2.
+         */
+        @JvmStatic
+        fun of(m: GenMatrix<Int>): GF2Matrix {
+            if (m is SparseMatrix) {
+                val result = GF2Matrix(m.row, m.column)
+                m.forEachNonZero { i, j, x -> result[i, j] = x }
+                return result
+            }
+            return of(m.row, m.column) { i, j -> m[i, j] }
+        }
+    }
+}
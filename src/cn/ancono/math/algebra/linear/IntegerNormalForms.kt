@@ -0,0 +1,634 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import java.math.BigInteger
+import kotlin.math.min
+
+
+/**
+ * Provides the Hermite and Smith normal forms of integer matrices computed modulo a multiple of the determinant,
+ * following Domich, Kannan and Trotter (Cohen, Algorithms 2.4.8 and 2.4.14).
+ *
+ * If the rows of a `(m, n)` matrix `A` span a lattice `L` of rank `n`, then `D Z^n` is contained in `L` for any
+ * multiple `D` of the determinant of `L`, such as the determinant of `n` linearly independent rows of `A`. All the
+ * entries can therefore be kept reduced modulo `D` during the elimination, and the modulus is divided by each
+ * diagonal element once it is found, so that the sizes of the entries are bounded by the size of `D` instead of
+ * growing exponentially. The independent rows are found modulo a word-size prime and `D` is computed with
+ * [MultiModular.det].
+ *
+ * The Smith normal form is computed from the Hermite normal form `H`. The rows of `H` whose diagonal elements are
+ * one, which are most of them for random matrices, are eliminated directly, and only the remaining block goes
+ * through the elimination modulo `D`. In particular, if at most one diagonal element of `H` is not one, the Smith
+ * normal form is read from the diagonal.
+ *
+ * Matrices whose rows span lattices of lower rank fall back to the elimination over the integers.
+ *
+ * [Matrix.toHermitForm] and [Matrix.toSmithForm] use these algorithms for matrices of [Int], [Long] and [BigInteger]
+ * whose size is not less than [MultiModular.threshold].
+ */
+object IntegerNormalForms {
+
+    /**
+     * The count of primes tried before the rows are regarded as spanning a lattice of lower rank.
+     */
+    private const val PRIME_TRIES = 3
+
+    private val bc: Calculators.BigIntegerCalculator
+        get() = Calculators.bigInteger()
+
+    private fun rowsOf(A: GenMatrix<BigInteger>): Array<Array<BigInteger>> {
+        return Array(A.row) { i -> Array(A.column) { j -> A[i, j] } }
+    }
+
+    private fun matrixOf(rows: Array<Array<BigInteger>>, row: Int, column: Int): Matrix<BigInteger> {
+        val data = arrayOfNulls<Any>(row * column)
+        data.fill(BigInteger.ZERO)
+        for (i in 0 until min(row, rows.size)) {
+            System.arraycopy(rows[i], 0, data, i * column, min(column, rows[i].size))
+        }
+        return AMatrix(bc, row, column, data)
+    }
+
+    /**
+     * Returns `(g, u, v)` such that `g = ua + vb = gcd(a, b)` and `g >= 0`.
+     */
+    internal fun gcdUV(a: BigInteger, b: BigInteger): Triple<BigInteger, BigInteger, BigInteger> {
+        var r0 = a
+        var r1 = b
+        var u0 = BigInteger.ONE
+        var u1 = BigInteger.ZERO
+        var v0 = BigInteger.ZERO
+        var v1 = BigInteger.ONE
+        while (r1.signum() != 0) {
+            val qr = r0.divideAndRemainder(r1)
+            val q = qr[0]
+            r0 = r1
+            r1 = qr[1]
+            u0 = u1.also { u1 = u0 - q * u1 }
+            v0 = v1.also { v1 = v0 - q * v1 }
+        }
+        return if (r0.signum() < 0) {
+            Triple(r0.negate(), u0.negate(), v0.negate())
+        } else {
+            Triple(r0, u0, v0)
+        }
+    }
+
+    /*
+    Independent rows
+     */
+
+    /**
+     * Returns the indices of `n` rows of the `(m, n)` matrix that are linearly independent, or `null` if they are
+     * not found modulo the primes tried, in which case the rows very likely span a lattice of rank less than `n`.
+     */
+    private fun independentRows(rows: Array<Array<BigInteger>>, n: Int): IntArray? {
+        val m = rows.size
+        if (m < n) {
+            return null
+        }
+        for (p in MultiModular.primes(PRIME_TRIES)) {
+            val bp = BigInteger.valueOf(p)
+            // the reduced rows accepted so far, in echelon form with the pivots normalized to one
+            val basis = ArrayList<LongArray>(n)
+            val pivots = IntArray(n)
+            val selected = IntArray(n)
+            for (i in 0 until m) {
+                val x = LongArray(n) { rows[i][it].mod(bp).toLong() }
+                for (k in basis.indices) {
+                    val c = x[pivots[k]]
+                    if (c == 0L) {
+                        continue
+                    }
+                    val b = basis[k]
+                    for (j in pivots[k] until n) {
+                        x[j] = Math.floorMod(x[j] - c * b[j] % p, p)
+                    }
+                }
+                val j0 = x.indexOfFirst { it != 0L }
+                if (j0 < 0) {
+                    continue
+                }
+                val inv = MultiModular.inverseMod(x[j0], p)
+                for (j in j0 until n) {
+                    x[j] = x[j] * inv % p
+                }
+                pivots[basis.size] = j0
+                selected[basis.size] = i
+                basis += x
+                if (basis.size == n) {
+                    return selected
+                }
+            }
+        }
+        return null
+    }
+
+    /**
+     * Returns the determinant of the rows of the given indices.
+     */
+    private fun detOfRows(rows: Array<Array<BigInteger>>, indices: IntArray): BigInteger {
+        val n = indices.size
+        val data = Array<BigInteger>(n * n) { k -> rows[indices[k / n]][k % n] }
+        return MultiModular.det(data, n)
+    }
+
+    /*
+    Hermite normal form
+     */
+
+    /**
+     * Computes the Hermite normal form of the lattice spanned by the rows of the `(m, n)` matrix [w] modulo [d],
+     * a positive multiple of the determinant of the lattice, whose rank must be `n`.
+     * The rows of [w] are modified. Returns the `n` rows of the Hermite normal form.
+     */
+    private fun hermiteModD(w: Array<Array<BigInteger>>, n: Int, d: BigInteger): Array<Array<BigInteger>> {
+        val m = w.size
+        var r = d
+        for (row in w) {
+            for (j in 0 until n) {
+                row[j] = row[j].mod(r)
+            }
+        }
+        val h = Array(n) { Array<BigInteger>(n) { BigInteger.ZERO } }
+        for (j in 0 until n) {
+            val wj = w[j]
+            for (k in (j + 1) until m) {
+                val wk = w[k]
+                val b = wk[j]
+                if (b.signum() == 0) {
+                    continue
+                }
+                val a = wj[j]
+                val (g, u, v) = gcdUV(a, b)
+                val a1 = a / g
+                val b1 = b / g
+                for (l in j until n) {
+                    val x = wj[l]
+                    val y = wk[l]
+                    wj[l] = (u * x + v * y).mod(r)
+                    wk[l] = (a1 * y - b1 * x).mod(r)
+                }
+            }
+            // the j-th diagonal element of the Hermite normal form is gcd(w[j][j], R)
+            val (g, u, _) = gcdUV(wj[j], r)
+            val hj = h[j]
+            hj[j] = g
+            for (l in (j + 1) until n) {
+                hj[l] = (u * wj[l]).mod(r)
+            }
+            r /= g
+        }
+        // reduces the elements above the diagonal
+        for (j in 1 until n) {
+            val hjj = h[j][j]
+            for (i in 0 until j) {
+                val hi = h[i]
+                val q = (hi[j] - hi[j].mod(hjj)) / hjj
+                if (q.signum() == 0) {
+                    continue
+                }
+                for (l in j until n) {
+                    hi[l] -= q * h[j][l]
+                }
+            }
+        }
+        return h
+    }
+
+    /**
+     * Determines whether `a` is not divisible by `b`.
+     */
+    private fun notDivisible(a: BigInteger, b: BigInteger): Boolean {
+        return a.rem(b).signum() != 0
+    }
+
+    /**
+     * Computes the Hermite normal form over the integers, returning the nonzero rows.
+     */
+    private fun hermiteExact(rows: Array<Array<BigInteger>>, n: Int): Array<Array<BigInteger>> {
+        val M = matrixOf(rows, rows.size, n).toMutable()
+        val rank = MatrixUtils.toHermitForm0(M).size
+        return Array(rank) { i -> Array(n) { j -> M[i, j] } }
+    }
+
+    /**
+     * Returns the nonzero rows of the Hermite normal form of the `(m, n)` matrix, together with the multiple of the
+     * determinant used, which is zero if the elimination is performed over the integers.
+     */
+    private fun hermiteRows(rows: Array<Array<BigInteger>>, n: Int): Pair<Array<Array<BigInteger>>, BigInteger> {
+        val indices = independentRows(rows, n) ?: return hermiteExact(rows, n) to BigInteger.ZERO
+        val d = detOfRows(rows, indices).abs()
+        val w = Array(rows.size) { rows[it].clone() }
+        return hermiteModD(w, n, d) to d
+    }
+
+    /**
+     * Returns the (row) Hermite normal form `H` of the integer matrix [A], which is in echelon form with positive
+     * pivots, and whose elements above each pivot are non-negative and less than the pivot. The rows of `H` span
+     * the same lattice as the rows of `A`, and the zero rows are placed last.
+     *
+     * The computation is performed modulo the determinant if the rank of `A` is equal to its column count.
+     */
+    @JvmStatic
+    fun hermiteForm(A: GenMatrix<BigInteger>): Matrix<BigInteger> {
+        val (h, _) = hermiteRows(rowsOf(A), A.column)
+        return matrixOf(h, A.row, A.column)
+    }
+
+    /**
+     * Returns the Hermite normal form `H` of the integer matrix [A] together with a unimodular matrix `U` such that
+     * `UA = H`.
+     *
+     * If `A` is square and non-singular, then `H` is computed modulo the determinant and `U` is recovered as
+     * `H adj(A) / det(A)` with [MultiModular.adjoint]. Otherwise, both of them are computed by the elimination over
+     * the integers.
+     */
+    @JvmStatic
+    fun hermiteFormU(A: GenMatrix<BigInteger>): Pair<Matrix<BigInteger>, Matrix<BigInteger>> {
+        val n = A.column
+        if (A.row != n) {
+            return MatrixUtils.toHermitFormU(matrixOf(rowsOf(A), A.row, n))
+        }
+        val rows = rowsOf(A)
+        if (independentRows(rows, n) == null) {
+            return MatrixUtils.toHermitFormU(matrixOf(rows, n, n))
+        }
+        val data = Array<BigInteger>(n * n) { k -> rows[k / n][k % n] }
+        val det = MultiModular.det(data, n)
+        val adj = MultiModular.adjoint(data, n)
+        val h = hermiteModD(Array(n) { rows[it].clone() }, n, det.abs())
+        val u = Array(n) { i ->
+            Array(n) { j ->
+                var s = BigInteger.ZERO
+                for (k in i until n) {
+                    val x = h[i][k]
+                    if (x.signum() != 0) {
+                        s += x * adj[k * n + j]
+                    }
+                }
+                s / det
+            }
+        }
+        return matrixOf(h, n, n) to matrixOf(u, n, n)
+    }
+
+    /*
+    Smith normal form
+     */
+
+    /**
+     * Eliminates the rows and columns of the non-singular upper triangular matrix [h] whose diagonal elements are
+     * one, returning the remaining block reduced modulo [d], which has the same invariant factors other than one.
+     */
+    private fun eliminateUnits(h: Array<Array<BigInteger>>, d: BigInteger): Array<Array<BigInteger>> {
+        val n = h.size
+        val rest = (0 until n).filter { h[it][it] != BigInteger.ONE }
+        val w = Array(n) { h[it].clone() }
+        for (i in 0 until n) {
+            if (h[i][i] != BigInteger.ONE) {
+                continue
+            }
+            // clears the column of the pivot with the rows remaining, and then the row of the pivot can be cleared by
+            // column transformations that do not affect the other rows
+            val wi = w[i]
+            for (k in rest) {
+                if (k >= i) {
+                    break
+                }
+                val wk = w[k]
+                val c = wk[i]
+                if (c.signum() == 0) {
+                    continue
+                }
+                for (l in (i + 1) until n) {
+                    if (wi[l].signum() != 0) {
+                        wk[l] = (wk[l] - c * wi[l]).mod(d)
+                    }
+                }
+                wk[i] = BigInteger.ZERO
+            }
+        }
+        return Array(rest.size) { i -> Array(rest.size) { j -> w[rest[i]][rest[j]].mod(d) } }
+    }
+
+    /**
+     * Returns the invariant factors of the non-singular `(k, k)` matrix [w], whose determinant divides [d], with the
+     * elimination modulo `d`. The matrix is modified.
+     */
+    private fun smithModD(w: Array<Array<BigInteger>>, d: BigInteger): List<BigInteger> {
+        val k = w.size
+        var r = d
+        val result = ArrayList<BigInteger>(k)
+        for (i in 0 until k) {
+            while (true) {
+                // clears the column
+                val wi = w[i]
+                for (s in (i + 1) until k) {
+                    val ws = w[s]
+                    val b = ws[i]
+                    if (b.signum() == 0) {
+                        continue
+                    }
+                    val (g, u, v) = gcdUV(wi[i], b)
+                    val a1 = wi[i] / g
+                    val b1 = b / g
+                    for (l in i until k) {
+                        val x = wi[l]
+                        val y = ws[l]
+                        wi[l] = (u * x + v * y).mod(r)
+                        ws[l] = (a1 * y - b1 * x).mod(r)
+                    }
+                }
+                // clears the row
+                for (t in (i + 1) until k) {
+                    val b = wi[t]
+                    if (b.signum() == 0) {
+                        continue
+                    }
+                    val (g, u, v) = gcdUV(wi[i], b)
+                    val a1 = wi[i] / g
+                    val b1 = b / g
+                    for (s in i until k) {
+                        val ws = w[s]
+                        val x = ws[i]
+                        val y = ws[t]
+                        ws[i] = (u * x + v * y).mod(r)
+                        ws[t] = (a1 * y - b1 * x).mod(r)
+                    }
+                }
+                if ((i + 1 until k).any { w[it][i].signum() != 0 }) {
+                    continue
+                }
+                val g = wi[i].gcd(r)
+                val bad = (i + 1 until k).firstOrNull { s -> (i + 1 until k).any { t -> notDivisible(w[s][t], g) } }
+                if (bad != null) {
+                    val ws = w[bad]
+                    for (l in i until k) {
+                        wi[l] = (wi[l] + ws[l]).mod(r)
+                    }
+                    continue
+                }
+                result += g
+                r /= g
+                break
+            }
+        }
+        return result
+    }
+
+    /**
+     * Returns the invariant factors of the non-singular Hermite normal form [h].
+     */
+    private fun smithOfHermite(h: Array<Array<BigInteger>>): List<BigInteger> {
+        val n = h.size
+        var d = BigInteger.ONE
+        var count = 0
+        for (i in 0 until n) {
+            d *= h[i][i]
+            if (h[i][i] != BigInteger.ONE) {
+                count++
+            }
+        }
+        val ones = List(n - count) { BigInteger.ONE }
+        if (count <= 1) {
+            // the count of invariant factors that are not one is at most the count of such diagonal elements
+            return if (count == 0) ones else ones + d
+        }
+        return ones + smithModD(eliminateUnits(h, d), d)
+    }
+
+    /**
+     * Returns the nonzero invariant factors of the integer matrix [A] in ascending order with respect to
+     * divisibility, whose count is the rank of `A`.
+     */
+    @JvmStatic
+    fun invariantFactors(A: GenMatrix<BigInteger>): List<BigInteger> {
+        var rows = rowsOf(A)
+        var n = A.column
+        if (A.row < n) {
+            // the Smith normal form of the transpose is the transpose
+            rows = Array(n) { j -> Array(A.row) { i -> rows[i][j] } }
+            n = A.row
+        }
+        if (n == 0) {
+            return emptyList()
+        }
+        var (h, d) = hermiteRows(rows, n)
+        if (d.signum() == 0) {
+            // the nonzero rows of the Hermite normal form are linearly independent, so their transpose has
+            // full column rank
+            if (h.isEmpty()) {
+                return emptyList()
+            }
+            val t = Array(n) { j -> Array(h.size) { i -> h[i][j] } }
+            h = hermiteRows(t, h.size).first
+        }
+        return smithOfHermite(h)
+    }
+
+    /**
+     * Returns the Smith normal form of the integer matrix [A], which is a diagonal matrix of the same size whose
+     * diagonal elements are the invariant factors of `A` followed by zeros.
+     *
+     * @see invariantFactors
+     */
+    @JvmStatic
+    fun smithForm(A: GenMatrix<BigInteger>): Matrix<BigInteger> {
+        val factors = invariantFactors(A)
+        val data = arrayOfNulls<Any>(A.row * A.column)
+        data.fill(BigInteger.ZERO)
+        for (i in factors.indices) {
+            data[i * A.column + i] = factors[i]
+        }
+        return AMatrix(bc, A.row, A.column, data)
+    }
+
+    /**
+     * Returns the Smith normal form `S` of the integer matrix [A] together with unimodular matrices `P` and `Q`
+     * such that `PAQ = S`.
+     *
+     * The matrix is first transformed to its Hermite normal form with [hermiteFormU], and then the transformations
+     * are accumulated by the elimination over the integers, whose intermediate elements may be much larger than
+     * the ones of [smithForm].
+     */
+    @JvmStatic
+    fun smithFormUV(A: GenMatrix<BigInteger>): Triple<Matrix<BigInteger>, Matrix<BigInteger>, Matrix<BigInteger>> {
+        val m = A.row
+        val n = A.column
+        val (H, U) = hermiteFormU(A)
+        val w = rowsOf(H)
+        val p = rowsOf(U)
+        val q = Array(n) { i -> Array<BigInteger>(n) { j -> if (i == j) BigInteger.ONE else BigInteger.ZERO } }
+        smithExact(w, p, q, m, n)
+        return Triple(matrixOf(w, m, n), matrixOf(p, m, m), matrixOf(q, n, n))
+    }
+
+    private fun swap(a: Array<Array<BigInteger>>, i: Int, j: Int) {
+        val t = a[i]
+        a[i] = a[j]
+        a[j] = t
+    }
+
+    private fun swapColumns(a: Array<Array<BigInteger>>, i: Int, j: Int) {
+        for (row in a) {
+            val t = row[i]
+            row[i] = row[j]
+            row[j] = t
+        }
+    }
+
+    /**
+     * `a[target] += k * a[source]` for rows of the matrices.
+     */
+    private fun addRow(a: Array<Array<BigInteger>>, source: Int, target: Int, k: BigInteger) {
+        val s = a[source]
+        val t = a[target]
+        for (l in t.indices) {
+            if (s[l].signum() != 0) {
+                t[l] += k * s[l]
+            }
+        }
+    }
+
+    private fun negateRow(a: Array<Array<BigInteger>>, i: Int) {
+        val r = a[i]
+        for (l in r.indices) {
+            r[l] = r[l].negate()
+        }
+    }
+
+    private fun addColumn(a: Array<Array<BigInteger>>, source: Int, target: Int, k: BigInteger) {
+        for (row in a) {
+            if (row[source].signum() != 0) {
+                row[target] += k * row[source]
+            }
+        }
+    }
+
+    /**
+     * Transforms [w] to its Smith normal form with elementary transformations over the integers, applying the row
+     * transformations to [p] and the column transformations to [q].
+     */
+    private fun smithExact(w: Array<Array<BigInteger>>, p: Array<Array<BigInteger>>, q: Array<Array<BigInteger>>,
+                           m: Int, n: Int) {
+        for (t in 0 until min(m, n)) {
+            while (true) {
+                // moves the nonzero element of the least absolute value to (t, t)
+                var pi = -1
+                var pj = -1
+                for (i in t until m) {
+                    for (j in t until n) {
+                        val x = w[i][j]
+                        if (x.signum() != 0 && (pi < 0 || x.abs() < w[pi][pj].abs())) {
+                            pi = i
+                            pj = j
+                        }
+                    }
+                }
+                if (pi < 0) {
+                    return
+                }
+                if (pi != t) {
+                    swap(w, pi, t)
+                    swap(p, pi, t)
+                }
+                if (pj != t) {
+                    swapColumns(w, pj, t)
+                    swapColumns(q, pj, t)
+                }
+                val a = w[t][t]
+                var done = true
+                for (i in (t + 1) until m) {
+                    if (w[i][t].signum() == 0) {
+                        continue
+                    }
+                    val k = w[i][t].divide(a).negate()
+                    addRow(w, t, i, k)
+                    addRow(p, t, i, k)
+                    if (w[i][t].signum() != 0) {
+                        done = false
+                    }
+                }
+                for (j in (t + 1) until n) {
+                    if (w[t][j].signum() == 0) {
+                        continue
+                    }
+                    val k = w[t][j].divide(a).negate()
+                    addColumn(w, t, j, k)
+                    addColumn(q, t, j, k)
+                    if (w[t][j].signum() != 0) {
+                        done = false
+                    }
+                }
+                if (!done) {
+                    continue
+                }
+                val bad = (t + 1 until m).firstOrNull { i -> (t + 1 until n).any { j -> notDivisible(w[i][j], a) } }
+                if (bad != null) {
+                    addRow(w, bad, t, BigInteger.ONE)
+                    addRow(p, bad, t, BigInteger.ONE)
+                    continue
+                }
+                if (a.signum() < 0) {
+                    negateRow(w, t)
+                    negateRow(p, t)
+                }
+                break
+            }
+        }
+    }
+
+    /*
+    Matrices of integers
+     */
+
+    private fun integerDomainOf(mc: RingCalculator<*>): MultiModular.Domain? {
+        val domain = MultiModular.domainOf(mc) ?: return null
+        return when (domain) {
+            MultiModular.Domain.INT, MultiModular.Domain.LONG, MultiModular.Domain.BIG_INTEGER -> domain
+            else -> null
+        }
+    }
+
+    private fun <T> convert(m: GenMatrix<T>, mc: RingCalculator<T>, f: (Matrix<BigInteger>) -> Matrix<BigInteger>)
+            : Matrix<T>? {
+        val domain = integerDomainOf(mc) ?: return null
+        val a = MultiModular.integerMatrixOf(m, domain, false).first
+        val result = f(AMatrix(bc, a.row, a.column, arrayOf<Any?>(*a.data)))
+        val data = arrayOfNulls<Any>(result.row * result.column)
+        for (i in 0 until result.row) {
+            for (j in 0 until result.column) {
+                data[i * result.column + j] = MultiModular.elementOf(result[i, j], BigInteger.ONE, domain)
+                    ?: return null
+            }
+        }
+        return AMatrix(mc, result.row, result.column, data)
+    }
+
+    /**
+     * Returns the Hermite normal form of the matrix, or `null` if the calculator is not one of the integers
+     * or the result can not be represented exactly.
+     */
+    internal fun <T> hermiteForm(m: GenMatrix<T>, mc: RingCalculator<T>): Matrix<T>? {
+        return convert(m, mc) { hermiteForm(it) }
+    }
+
+    /**
+     * Returns the Smith normal form of the matrix, or `null` if the calculator is not one of the integers
+     * or the result can not be represented exactly.
+     */
+    internal fun <T> smithForm(m: GenMatrix<T>, mc: RingCalculator<T>): Matrix<T>? {
+        return convert(m, mc) { smithForm(it) }
+    }
+
+    /**
+     * Determines whether the algorithms can be applied to matrices with the calculator.
+     */
+    @JvmStatic
+    fun isApplicable(mc: RingCalculator<*>): Boolean {
+        return integerDomainOf(mc) != null
+    }
+}
@@ -110,6 +110,9 @@ object LambdaMatrixSup {
     @JvmStatic
     fun <T> toSmithForm(matrix: Matrix<T>): Matrix<T> {
         require(matrix.isSquare())
+        if (matrix.row >= MultiModular.threshold) {
+            IntegerNormalForms.smithForm(matrix, matrix.calculator)?.let { return it }
+        }
         @Suppress("UNCHECKED_CAST")
         val data = matrix.getValues() as Array<Array<T>>
 
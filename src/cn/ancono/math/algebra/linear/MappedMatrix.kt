@@ -0,0 +1,908 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.algebra.abs.calculator.UnitRingCalculator
+import cn.ancono.math.exceptions.ExceptionUtil
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import kotlin.math.abs
+import kotlin.math.min
+
+
+/**
+ * A dense matrix of doubles or longs stored in a file, whose square tiles are mapped into memory on demand, so that
+ * matrices larger than the heap can be processed.
+ *
+ * The file format is as follows, in which all the numbers are little-endian:
+ *
+ * | Offset | Size | Content                                                              |
+ * |--------|------|----------------------------------------------------------------------|
+ * | 0      | 8    | the magic bytes `ANCMATRX` in ASCII                                  |
+ * | 8      | 4    | the version of the format, which is `1`                              |
+ * | 12     | 4    | the element type: `1` for IEEE 754 doubles and `2` for 64-bit longs  |
+ * | 16     | 4    | the layout: `0` for row-major and `1` for column-major               |
+ * | 20     | 4    | the tile size `t`                                                    |
+ * | 24     | 8    | the row count `m`                                                    |
+ * | 32     | 8    | the column count `n`                                                 |
+ * | 40     | 24   | reserved, filled with zeros                                          |
+ * | 64     |      | the tiles                                                            |
+ *
+ * The matrix is divided into `ceil(m/t) * ceil(n/t)` tiles of `(t, t)`, each of which occupies `8 t^2` bytes, and
+ * the elements of the tiles exceeding the matrix are zeros. The tile `(I, J)` is the `(I * ceil(n/t) + J)`-th tile
+ * in the row-major layout and the `(J * ceil(m/t) + I)`-th tile in the column-major layout, and the elements in a
+ * tile are ordered in the same way.
+ *
+ * Existing files are opened with [openDouble] and [openLong] without copying. At most [maxMappedTiles] tiles are
+ * kept mapped at the same time; the others are mapped again when accessed. The element access of the [Matrix] API
+ * works on any matrix, but the tiled operations [multiply], [transposeTo] and [factorLU] read and write whole tiles
+ * at a time and are far more efficient.
+ *
+ * A `MappedMatrix` should be [closed][close] after use. The changes are written to the file by the operating system,
+ * and [flush] forces them to be written.
+ */
+class MappedMatrix<T> private constructor(
+    mc: RingCalculator<T>, row: Int, column: Int,
+    /**
+     * The path of the file of this matrix.
+     */
+    val path: Path,
+    /**
+     * The row and column count of the tiles.
+     */
+    val tileSize: Int,
+    /**
+     * The order of the tiles and the elements in the tiles.
+     */
+    val layout: Layout,
+    private val type: Int,
+    private val channel: FileChannel,
+    private val writable: Boolean,
+    /**
+     * The maximal count of tiles mapped at the same time.
+     */
+    val maxMappedTiles: Int,
+    private val deleteOnClose: Boolean = false
+) : MutableMatrix<T>(mc, row, column), Closeable {
+
+    /**
+     * The order of elements in a file.
+     */
+    enum class Layout {
+        ROW_MAJOR, COLUMN_MAJOR
+    }
+
+    /**
+     * The row count of the grid of tiles.
+     */
+    val tileRows: Int = (row + tileSize - 1) / tileSize
+
+    /**
+     * The column count of the grid of tiles.
+     */
+    val tileColumns: Int = (column + tileSize - 1) / tileSize
+
+    private val tileBytes: Long = 8L * tileSize * tileSize
+
+    private val tiles = object : LinkedHashMap<Int, MappedByteBuffer>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, MappedByteBuffer>?): Boolean {
+            return size > maxMappedTiles
+        }
+    }
+
+    private fun tileIndex(I: Int, J: Int): Int {
+        return if (layout == Layout.ROW_MAJOR) {
+            I * tileColumns + J
+        } else {
+            J * tileRows + I
+        }
+    }
+
+    private fun tile(I: Int, J: Int): MappedByteBuffer {
+        val k = tileIndex(I, J)
+        synchronized(tiles) {
+            return tiles.getOrPut(k) {
+                val mode = if (writable) FileChannel.MapMode.READ_WRITE else FileChannel.MapMode.READ_ONLY
+                val buffer = channel.map(mode, HEADER_SIZE + k * tileBytes, tileBytes)
+                buffer.order(ByteOrder.LITTLE_ENDIAN)
+                buffer
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the element `(i, j)` in its tile, in bytes.
+     */
+    private fun offsetOf(i: Int, j: Int): Int {
+        val t = tileSize
+        val ii = i % t
+        val jj = j % t
+        return 8 * if (layout == Layout.ROW_MAJOR) {
+            ii * t + jj
+        } else {
+            jj * t + ii
+        }
+    }
+
+    /**
+     * Determines whether the elements are doubles.
+     */
+    val isDouble: Boolean
+        get() = type == TYPE_DOUBLE
+
+    override fun getChecked(i: Int, j: Int): T {
+        val b = tile(i / tileSize, j / tileSize)
+        val off = offsetOf(i, j)
+        val x: Any = if (type == TYPE_DOUBLE) b.getDouble(off) else b.getLong(off)
+        @Suppress("UNCHECKED_CAST")
+        return x as T
+    }
+
+    override fun setChecked(i: Int, j: Int, x: T) {
+        invalidateCache()
+        val b = tile(i / tileSize, j / tileSize)
+        val off = offsetOf(i, j)
+        if (type == TYPE_DOUBLE) {
+            b.putDouble(off, x as Double)
+        } else {
+            b.putLong(off, x as Long)
+        }
+    }
+
+    /*
+    Tile input and output
+     */
+
+    /**
+     * Reads the tile `(I, J)` into [dest] in row-major order.
+     */
+    internal fun readTile(I: Int, J: Int, dest: DoubleArray) {
+        tile(I, J).asDoubleBuffer().get(0, dest)
+        if (layout == Layout.COLUMN_MAJOR) {
+            transposeTile(dest, tileSize)
+        }
+    }
+
+    /**
+     * Writes the tile `(I, J)` from [src] in row-major order, which is modified if the layout is column-major.
+     */
+    internal fun writeTile(I: Int, J: Int, src: DoubleArray) {
+        invalidateCache()
+        if (layout == Layout.COLUMN_MAJOR) {
+            transposeTile(src, tileSize)
+        }
+        tile(I, J).asDoubleBuffer().put(0, src)
+    }
+
+    /**
+     * Reads the tile `(I, J)` into [dest] in row-major order as raw bits.
+     */
+    internal fun readTile(I: Int, J: Int, dest: LongArray) {
+        tile(I, J).asLongBuffer().get(0, dest)
+        if (layout == Layout.COLUMN_MAJOR) {
+            transposeTile(dest, tileSize)
+        }
+    }
+
+    /**
+     * Writes the tile `(I, J)` from [src] in row-major order as raw bits, which is modified if the layout is
+     * column-major.
+     */
+    internal fun writeTile(I: Int, J: Int, src: LongArray) {
+        invalidateCache()
+        if (layout == Layout.COLUMN_MAJOR) {
+            transposeTile(src, tileSize)
+        }
+        tile(I, J).asLongBuffer().put(0, src)
+    }
+
+    /**
+     * Forces the changes of the mapped tiles to be written to the file.
+     */
+    fun flush() {
+        synchronized(tiles) {
+            for (b in tiles.values) {
+                b.force()
+            }
+        }
+    }
+
+    /**
+     * Releases the mapped tiles and closes the file. A temporary file created by [multiply] is also deleted.
+     */
+    override fun close() {
+        synchronized(tiles) {
+            if (writable) {
+                for (b in tiles.values) {
+                    b.force()
+                }
+            }
+            tiles.clear()
+        }
+        channel.close()
+        if (deleteOnClose) {
+            Files.deleteIfExists(path)
+        }
+    }
+
+    /*
+    Primary operations
+     */
+
+    override fun multiplyAddRow(r1: Int, r2: Int, k: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val mc = calculator
+        for (l in colStart until colEnd) {
+            setChecked(r2, l, mc.add(getChecked(r2, l), mc.multiply(k, getChecked(r1, l))))
+        }
+    }
+
+    override fun multiplyAddCol(c1: Int, c2: Int, k: T, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        val mc = calculator
+        for (r in rowStart until rowEnd) {
+            setChecked(r, c2, mc.add(getChecked(r, c2), mc.multiply(k, getChecked(r, c1))))
+        }
+    }
+
+    override fun swapRow(r1: Int, r2: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        for (l in colStart until colEnd) {
+            val t = getChecked(r1, l)
+            setChecked(r1, l, getChecked(r2, l))
+            setChecked(r2, l, t)
+        }
+    }
+
+    override fun swapCol(c1: Int, c2: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            val t = getChecked(r, c1)
+            setChecked(r, c1, getChecked(r, c2))
+            setChecked(r, c2, t)
+        }
+    }
+
+    override fun multiplyRow(r: Int, k: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val mc = calculator
+        for (l in colStart until colEnd) {
+            setChecked(r, l, mc.multiply(k, getChecked(r, l)))
+        }
+    }
+
+    override fun divideRow(r: Int, k: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val mc = calculator as UnitRingCalculator
+        for (l in colStart until colEnd) {
+            setChecked(r, l, mc.exactDivide(getChecked(r, l), k))
+        }
+    }
+
+    override fun multiplyCol(c: Int, k: T, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        val mc = calculator
+        for (r in rowStart until rowEnd) {
+            setChecked(r, c, mc.multiply(k, getChecked(r, c)))
+        }
+    }
+
+    override fun divideCol(c: Int, k: T, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        val mc = calculator as UnitRingCalculator
+        for (r in rowStart until rowEnd) {
+            setChecked(r, c, mc.exactDivide(getChecked(r, c), k))
+        }
+    }
+
+    override fun negateRow(r: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val mc = calculator
+        for (l in colStart until colEnd) {
+            setChecked(r, l, mc.negate(getChecked(r, l)))
+        }
+    }
+
+    override fun negateCol(c: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        val mc = calculator
+        for (r in rowStart until rowEnd) {
+            setChecked(r, c, mc.negate(getChecked(r, c)))
+        }
+    }
+
+    override fun transformRows(r1: Int, r2: Int, a11: T, a12: T, a21: T, a22: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val mc = calculator
+        for (l in colStart until colEnd) {
+            val x = getChecked(r1, l)
+            val y = getChecked(r2, l)
+            setChecked(r1, l, mc.add(mc.multiply(a11, x), mc.multiply(a12, y)))
+            setChecked(r2, l, mc.add(mc.multiply(a21, x), mc.multiply(a22, y)))
+        }
+    }
+
+    /*
+    Tiled operations
+     */
+
+    /**
+     * Computes the product `this * y` tile by tile and stores it in a new file at [path], which has the same tile
+     * size as the operands and the given [layout]. Only three tiles are held in memory for each thread.
+     *
+     * It is required that [y] has the same element type and tile size as this matrix.
+     */
+    fun multiply(y: MappedMatrix<T>, path: Path, layout: Layout = this.layout): MappedMatrix<T> {
+        require(column == y.row) {
+            "Shape mismatch in multiplication: ($row,$column) * (${y.row},${y.column})"
+        }
+        require(type == y.type && tileSize == y.tileSize) {
+            "The operands must have the same element type and tile size."
+        }
+        val result = create(calculator, path, row, y.column, tileSize, layout, type)
+        multiplyTiles(this, y, result)
+        return result
+    }
+
+    /**
+     * Returns the product `this * y`. If [y] is a `MappedMatrix` with the same element type and tile size, the
+     * product is computed tile by tile into a `MappedMatrix` of a temporary file, which should be [closed][close]
+     * after use so that the file is closed and deleted. Otherwise, the file is only deleted when the virtual machine
+     * exits.
+     */
+    override fun multiply(y: Matrix<T>): MutableMatrix<T> {
+        if (y is MappedMatrix && y.type == type && y.tileSize == tileSize) {
+            require(column == y.row) {
+                "Shape mismatch in multiplication: ($row,$column) * (${y.row},${y.column})"
+            }
+            val file = Files.createTempFile("matrix", ".mat")
+            file.toFile().deleteOnExit()
+            val result = create(calculator, file, row, y.column, tileSize, layout, type, deleteOnClose = true)
+            multiplyTiles(this, y, result)
+            return result
+        }
+        return super.multiply(y)
+    }
+
+    /**
+     * Writes the transpose of this matrix tile by tile to a new file at [path] with the same tile size.
+     */
+    fun transposeTo(path: Path, layout: Layout = this.layout): MappedMatrix<T> {
+        val result = create(calculator, path, column, row, tileSize, layout, type)
+        val t = tileSize
+        MatrixKernels.forRowBlocks(tileRows, tileColumns.toLong() * t * t) { i0, i1 ->
+            val buffer = LongArray(t * t)
+            for (I in i0 until i1) {
+                for (J in 0 until tileColumns) {
+                    readTile(I, J, buffer)
+                    transposeTile(buffer, t)
+                    result.writeTile(J, I, buffer)
+                }
+            }
+        }
+        return result
+    }
+
+    /**
+     * Copies this matrix to a new file at [path], optionally with a different [layout].
+     */
+    fun copyTo(path: Path, layout: Layout = this.layout): MappedMatrix<T> {
+        val result = create(calculator, path, row, column, tileSize, layout, type)
+        val t = tileSize
+        val buffer = LongArray(t * t)
+        for (I in 0 until tileRows) {
+            for (J in 0 until tileColumns) {
+                readTile(I, J, buffer)
+                result.writeTile(I, J, buffer)
+            }
+        }
+        return result
+    }
+
+    /**
+     * Computes the LU decomposition with partial pivoting `PA = LU` of this square matrix of doubles in a copy
+     * stored at [path], with the blocked right-looking algorithm whose blocks are the tiles.
+     *
+     * Each panel of one tile column is factored through the mapped tiles, and the rows of the trailing matrix are
+     * updated in parallel with three tiles held in memory for each thread.
+     */
+    fun factorLU(path: Path): MappedLUFactorization {
+        require(type == TYPE_DOUBLE) {
+            "The LU decomposition requires a matrix of doubles."
+        }
+        require(row == column) {
+            "The matrix must be square."
+        }
+        @Suppress("UNCHECKED_CAST")
+        val lu = copyTo(path) as MappedMatrix<Double>
+        return lu.factorLUInPlace()
+    }
+
+    private fun factorLUInPlace(): MappedLUFactorization {
+        @Suppress("UNCHECKED_CAST")
+        val A = this as MappedMatrix<Double>
+        val n = row
+        val t = tileSize
+        val nt = tileRows
+        val pivots = IntArray(n)
+        var singular = false
+        for (K in 0 until nt) {
+            val c0 = K * t
+            val c1 = min(c0 + t, n)
+            // factors the panel of the columns [c0, c1) through the mapped tiles
+            for (c in c0 until c1) {
+                var p = c
+                var max = abs(A.getChecked(c, c))
+                for (i in (c + 1) until n) {
+                    val v = abs(A.getChecked(i, c))
+                    if (v > max) {
+                        max = v
+                        p = i
+                    }
+                }
+                pivots[c] = p
+                if (max == 0.0) {
+                    singular = true
+                    continue
+                }
+                if (p != c) {
+                    A.swapRow(p, c, 0, n)
+                }
+                val d = A.getChecked(c, c)
+                for (i in (c + 1) until n) {
+                    val l = A.getChecked(i, c) / d
+                    A.setChecked(i, c, l)
+                    if (l == 0.0) {
+                        continue
+                    }
+                    for (j in (c + 1) until c1) {
+                        A.setChecked(i, j, A.getChecked(i, j) - l * A.getChecked(c, j))
+                    }
+                }
+            }
+            if (K == nt - 1) {
+                break
+            }
+            // U_KJ = L_KK^-1 A_KJ
+            val lkk = DoubleArray(t * t)
+            A.readTile(K, K, lkk)
+            MatrixKernels.forRowBlocks(nt - K - 1, t.toLong() * t * t) { j0, j1 ->
+                val u = DoubleArray(t * t)
+                for (J in (K + 1 + j0) until (K + 1 + j1)) {
+                    A.readTile(K, J, u)
+                    for (i in 1 until t) {
+                        for (k in 0 until i) {
+                            val l = lkk[i * t + k]
+                            if (l == 0.0) {
+                                continue
+                            }
+                            for (j in 0 until t) {
+                                u[i * t + j] -= l * u[k * t + j]
+                            }
+                        }
+                    }
+                    A.writeTile(K, J, u)
+                }
+            }
+            // A_IJ -= L_IK U_KJ
+            MatrixKernels.forRowBlocks(nt - K - 1, (nt - K - 1).toLong() * t * t * t) { i0, i1 ->
+                val l = DoubleArray(t * t)
+                val u = DoubleArray(t * t)
+                val a = DoubleArray(t * t)
+                for (I in (K + 1 + i0) until (K + 1 + i1)) {
+                    A.readTile(I, K, l)
+                    for (J in (K + 1) until nt) {
+                        A.readTile(K, J, u)
+                        A.readTile(I, J, a)
+                        multiplySubtract(l, u, a, t)
+                        A.writeTile(I, J, a)
+                    }
+                }
+            }
+        }
+        return MappedLUFactorization(A, pivots, singular)
+    }
+
+    companion object {
+
+        /**
+         * The size of the header of the file format, in bytes.
+         */
+        const val HEADER_SIZE = 64L
+
+        /**
+         * The default tile size, with which a tile occupies 2 MB.
+         */
+        const val DEFAULT_TILE_SIZE = 512
+
+        /**
+         * The default maximal count of tiles mapped at the same time.
+         */
+        const val DEFAULT_MAX_MAPPED_TILES = 256
+
+        private const val VERSION = 1
+        private const val TYPE_DOUBLE = 1
+        private const val TYPE_LONG = 2
+        private val MAGIC = "ANCMATRX".toByteArray(Charsets.US_ASCII)
+
+        private fun transposeTile(a: DoubleArray, t: Int) {
+            for (i in 0 until t) {
+                for (j in (i + 1) until t) {
+                    val x = a[i * t + j]
+                    a[i * t + j] = a[j * t + i]
+                    a[j * t + i] = x
+                }
+            }
+        }
+
+        private fun transposeTile(a: LongArray, t: Int) {
+            for (i in 0 until t) {
+                for (j in (i + 1) until t) {
+                    val x = a[i * t + j]
+                    a[i * t + j] = a[j * t + i]
+                    a[j * t + i] = x
+                }
+            }
+        }
+
+        /**
+         * `c -= a * b` for row-major tiles of `(t, t)`.
+         */
+        private fun multiplySubtract(a: DoubleArray, b: DoubleArray, c: DoubleArray, t: Int) {
+            for (i in 0 until t) {
+                for (k in 0 until t) {
+                    val x = a[i * t + k]
+                    if (x == 0.0) {
+                        continue
+                    }
+                    for (j in 0 until t) {
+                        c[i * t + j] -= x * b[k * t + j]
+                    }
+                }
+            }
+        }
+
+        private fun <T> multiplyTiles(x: MappedMatrix<T>, y: MappedMatrix<T>, dest: MappedMatrix<T>) {
+            val t = x.tileSize
+            val kt = x.tileColumns
+            MatrixKernels.forRowBlocks(x.tileRows, dest.tileColumns.toLong() * kt * t * t * t) { i0, i1 ->
+                if (x.type == TYPE_DOUBLE) {
+                    val a = DoubleArray(t * t)
+                    val b = DoubleArray(t * t)
+                    val c = DoubleArray(t * t)
+                    for (I in i0 until i1) {
+                        for (J in 0 until dest.tileColumns) {
+                            c.fill(0.0)
+                            for (K in 0 until kt) {
+                                x.readTile(I, K, a)
+                                y.readTile(K, J, b)
+                                for (i in 0 until t) {
+                                    for (k in 0 until t) {
+                                        val v = a[i * t + k]
+                                        if (v == 0.0) {
+                                            continue
+                                        }
+                                        for (j in 0 until t) {
+                                            c[i * t + j] += v * b[k * t + j]
+                                        }
+                                    }
+                                }
+                            }
+                            dest.writeTile(I, J, c)
+                        }
+                    }
+                } else {
+                    val a = LongArray(t * t)
+                    val b = LongArray(t * t)
+                    val c = LongArray(t * t)
+                    for (I in i0 until i1) {
+                        for (J in 0 until dest.tileColumns) {
+                            c.fill(0L)
+                            for (K in 0 until kt) {
+                                x.readTile(I, K, a)
+                                y.readTile(K, J, b)
+                                for (i in 0 until t) {
+                                    for (k in 0 until t) {
+                                        val v = a[i * t + k]
+                                        if (v == 0L) {
+                                            continue
+                                        }
+                                        for (j in 0 until t) {
+                                            c[i * t + j] += v * b[k * t + j]
+                                        }
+                                    }
+                                }
+                            }
+                            dest.writeTile(I, J, c)
+                        }
+                    }
+                }
+            }
+        }
+
+        private fun <T> create(
+            mc: RingCalculator<T>, path: Path, row: Int, column: Int,
+            tileSize: Int, layout: Layout, type: Int, maxMappedTiles: Int = DEFAULT_MAX_MAPPED_TILES,
+            deleteOnClose: Boolean = false
+        ): MappedMatrix<T> {
+            require(row > 0 && column > 0 && tileSize > 0)
+            val channel = FileChannel.open(
+                path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE
+            )
+            val tileRows = (row + tileSize - 1) / tileSize.toLong()
+            val tileColumns = (column + tileSize - 1) / tileSize.toLong()
+            val size = HEADER_SIZE + tileRows * tileColumns * 8L * tileSize * tileSize
+            val header = ByteBuffer.allocate(HEADER_SIZE.toInt()).order(ByteOrder.LITTLE_ENDIAN)
+            header.put(MAGIC)
+            header.putInt(VERSION)
+            header.putInt(type)
+            header.putInt(layout.ordinal)
+            header.putInt(tileSize)
+            header.putLong(row.toLong())
+            header.putLong(column.toLong())
+            header.rewind()
+            channel.write(header, 0)
+            // extends the file, whose tiles are read as zeros
+            channel.write(ByteBuffer.allocate(1), size - 1)
+            return MappedMatrix(
+                mc, row, column, path, tileSize, layout, type, channel, true, maxMappedTiles, deleteOnClose
+            )
+        }
+
+        private fun <T> open(
+            mc: RingCalculator<T>, path: Path, type: Int, writable: Boolean, maxMappedTiles: Int
+        ): MappedMatrix<T> {
+            val channel = if (writable) {
+                FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            } else {
+                FileChannel.open(path, StandardOpenOption.READ)
+            }
+            try {
+                val header = ByteBuffer.allocate(HEADER_SIZE.toInt()).order(ByteOrder.LITTLE_ENDIAN)
+                while (header.hasRemaining()) {
+                    if (channel.read(header, header.position().toLong()) < 0) {
+                        throw IOException("The file is too short: $path")
+                    }
+                }
+                header.rewind()
+                val magic = ByteArray(MAGIC.size)
+                header.get(magic)
+                if (!magic.contentEquals(MAGIC) || header.getInt() != VERSION) {
+                    throw IOException("Not a matrix file of version $VERSION: $path")
+                }
+                val fileType = header.getInt()
+                if (fileType != type) {
+                    throw IOException("Unexpected element type $fileType in the file: $path")
+                }
+                val layout = Layout.values().getOrNull(header.getInt())
+                    ?: throw IOException("Unknown layout in the file: $path")
+                val tileSize = header.getInt()
+                val row = header.getLong()
+                val column = header.getLong()
+                if (tileSize <= 0 || row <= 0 || column <= 0 || row > Int.MAX_VALUE || column > Int.MAX_VALUE) {
+                    throw IOException("Invalid shape in the file: $path")
+                }
+                val tileRows = (row + tileSize - 1) / tileSize
+                val tileColumns = (column + tileSize - 1) / tileSize
+                if (channel.size() < HEADER_SIZE + tileRows * tileColumns * 8L * tileSize * tileSize) {
+                    throw IOException("The file is too short: $path")
+                }
+                return MappedMatrix(
+                    mc, row.toInt(), column.toInt(), path, tileSize, layout, type, channel, writable, maxMappedTiles
+                )
+            } catch (e: Exception) {
+                channel.close()
+                throw e
+            }
+        }
+
+        /**
+         * Creates a matrix of doubles filled with zeros in a new file at [path], replacing the existing one.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun createDouble(
+            path: Path, row: Int, column: Int,
+            tileSize: Int = DEFAULT_TILE_SIZE, layout: Layout = Layout.ROW_MAJOR,
+            mc: RingCalculator<Double> = Calculators.doubleCal(),
+            maxMappedTiles: Int = DEFAULT_MAX_MAPPED_TILES
+        ): MappedMatrix<Double> {
+            return create(mc, path, row, column, tileSize, layout, TYPE_DOUBLE, maxMappedTiles)
+        }
+
+        /**
+         * Creates a matrix of longs filled with zeros in a new file at [path], replacing the existing one.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun createLong(
+            path: Path, row: Int, column: Int,
+            tileSize: Int = DEFAULT_TILE_SIZE, layout: Layout = Layout.ROW_MAJOR,
+            maxMappedTiles: Int = DEFAULT_MAX_MAPPED_TILES
+        ): MappedMatrix<Long> {
+            return create(Calculators.longCal(), path, row, column, tileSize, layout, TYPE_LONG, maxMappedTiles)
+        }
+
+        /**
+         * Opens an existing file of a matrix of doubles without copying it.
+         *
+         * @throws IOException if the file is not a valid file of a matrix of doubles
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun openDouble(
+            path: Path, writable: Boolean = false,
+            mc: RingCalculator<Double> = Calculators.doubleCal(),
+            maxMappedTiles: Int = DEFAULT_MAX_MAPPED_TILES
+        ): MappedMatrix<Double> {
+            return open(mc, path, TYPE_DOUBLE, writable, maxMappedTiles)
+        }
+
+        /**
+         * Opens an existing file of a matrix of longs without copying it.
+         *
+         * @throws IOException if the file is not a valid file of a matrix of longs
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun openLong(
+            path: Path, writable: Boolean = false,
+            maxMappedTiles: Int = DEFAULT_MAX_MAPPED_TILES
+        ): MappedMatrix<Long> {
+            return open(Calculators.longCal(), path, TYPE_LONG, writable, maxMappedTiles)
+        }
+
+        /**
+         * Writes the matrix of doubles to a new file at [path].
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun copyOfDouble(
+            m: GenMatrix<Double>, path: Path,
+            tileSize: Int = DEFAULT_TILE_SIZE, layout: Layout = Layout.ROW_MAJOR
+        ): MappedMatrix<Double> {
+            val result = createDouble(path, m.row, m.column, tileSize, layout)
+            val t = tileSize
+            val buffer = DoubleArray(t * t)
+            for (I in 0 until result.tileRows) {
+                for (J in 0 until result.tileColumns) {
+                    buffer.fill(0.0)
+                    for (i in 0 until min(t, m.row - I * t)) {
+                        for (j in 0 until min(t, m.column - J * t)) {
+                            buffer[i * t + j] = m[I * t + i, J * t + j]
+                        }
+                    }
+                    result.writeTile(I, J, buffer)
+                }
+            }
+            return result
+        }
+    }
+}
+
+/**
+ * The LU decomposition with partial pivoting `PA = LU` of a [MappedMatrix] of doubles, in which `L` is unit lower
+ * triangular and stored below the diagonal of [factors], and `U` is stored on and above it. Row `i` was exchanged
+ * with row `pivots[i]` at step `i`.
+ *
+ * The factorization of a singular matrix completes, but [solve] throws [ArithmeticException].
+ *
+ * @see MappedMatrix.factorLU
+ */
+class MappedLUFactorization internal constructor(
+    val factors: MappedMatrix<Double>,
+    private val pivots: IntArray,
+    /**
+     * Determines whether the matrix is singular.
+     */
+    val isSingular: Boolean
+) {
+
+    val n: Int
+        get() = factors.row
+
+    /**
+     * Returns the row exchanged with row `i` at step `i` of the decomposition.
+     */
+    fun pivot(i: Int): Int = pivots[i]
+
+    /**
+     * Returns the determinant of the matrix.
+     */
+    fun det(): Double {
+        if (isSingular) {
+            return 0.0
+        }
+        var d = 1.0
+        for (i in 0 until n) {
+            d *= factors[i, i]
+            if (pivots[i] != i) {
+                d = -d
+            }
+        }
+        return d
+    }
+
+    /**
+     * Solves `Ax = b` and returns `x`, reading the factors tile by tile.
+     *
+     * @throws ArithmeticException if the matrix is singular
+     */
+    fun solve(b: DoubleArray): DoubleArray {
+        require(b.size == n) {
+            "Size mismatch: $n != ${b.size}"
+        }
+        if (isSingular) {
+            ExceptionUtil.notInvertible()
+        }
+        val t = factors.tileSize
+        val nt = factors.tileRows
+        val x = DoubleArray(nt * t)
+        b.copyInto(x)
+        for (i in 0 until n) {
+            val p = pivots[i]
+            if (p != i) {
+                val v = x[i]
+                x[i] = x[p]
+                x[p] = v
+            }
+        }
+        val tile = DoubleArray(t * t)
+        // L y = P b
+        for (I in 0 until nt) {
+            val r0 = I * t
+            for (K in 0 until I) {
+                factors.readTile(I, K, tile)
+                val c0 = K * t
+                for (i in 0 until t) {
+                    var s = 0.0
+                    for (k in 0 until t) {
+                        s += tile[i * t + k] * x[c0 + k]
+                    }
+                    x[r0 + i] -= s
+                }
+            }
+            factors.readTile(I, I, tile)
+            for (i in 0 until t) {
+                var s = x[r0 + i]
+                for (k in 0 until i) {
+                    s -= tile[i * t + k] * x[r0 + k]
+                }
+                x[r0 + i] = s
+            }
+        }
+        // U x = y
+        for (I in (nt - 1) downTo 0) {
+            val r0 = I * t
+            for (K in (I + 1) until nt) {
+                factors.readTile(I, K, tile)
+                val c0 = K * t
+                for (i in 0 until t) {
+                    var s = 0.0
+                    for (k in 0 until t) {
+                        s += tile[i * t + k] * x[c0 + k]
+                    }
+                    x[r0 + i] -= s
+                }
+            }
+            factors.readTile(I, I, tile)
+            for (i in min(t, n - r0) - 1 downTo 0) {
+                var s = x[r0 + i]
+                for (k in (i + 1) until min(t, n - r0)) {
+                    s -= tile[i * t + k] * x[r0 + k]
+                }
+                x[r0 + i] = s / tile[i * t + i]
+            }
+        }
+        return x.copyOf(n)
+    }
+}
@@ -6,13 +6,15 @@ import cn.ancono.math.algebra.abs.calculator.*
 import cn.ancono.math.equation.EquationSolver
 import cn.ancono.math.equation.SVPEquation
 import cn.ancono.math.exceptions.ExceptionUtil
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.ParallelKernels
 import cn.ancono.math.numberModels.api.*
 import cn.ancono.math.numberModels.structure.Polynomial
 import cn.ancono.utilities.ArraySup
 import cn.ancono.utilities.IterUtils
-import cn.ancono.utilities.ModelPatterns
 import cn.ancono.utilities.StringSup
 import java.util.function.Function
+import kotlin.math.max
 import kotlin.math.min
 
 typealias TransformResult<T> = Pair<MutableMatrix<T>, List<MatrixOperation<T>>>
@@ -21,7 +23,10 @@ typealias TransformResult<T> = Pair<MutableMatrix<T>, List<MatrixOperation<T>>>
 
 
 /**
- * Defines the collection of basic methods for a matrix that is
+ * Defines the collection of basic methods for a matrix.
+ *
+ * Element-wise operations and reductions of large matrices call the calculator and the given functions
+ * concurrently, which must therefore be thread-safe, see [ParallelKernels].
  */
 abstract class AbstractMatrix<T>(
     mc: RingCalculator<T>,
@@ -55,7 +60,9 @@ abstract class AbstractMatrix<T>(
     }
 
     /**
-     * Applies the function to this matrix to get a
+     * Applies the function to this matrix element-wise to get a new matrix.
+     *
+     * The function may be called concurrently for large matrices, see [ParallelKernels].
      */
     override fun applyAll(f: (T) -> T): AbstractMatrix<T> {
         return MatrixImpl.apply1(this, calculator, f)
@@ -322,6 +329,11 @@ abstract class AbstractMatrix<T>(
     }
 
 
+    /**
+     * Returns a new matrix of applying the [mapper] to this matrix element-wise.
+     *
+     * The mapper may be called concurrently for large matrices, see [ParallelKernels].
+     */
     override fun <N> mapTo(newCalculator: EqualPredicate<N>, mapper: Function<T, N>): AbstractMatrix<N> {
         return MatrixImpl.apply1(this, newCalculator as RingCalculator<N>) {
             mapper.apply(it)
@@ -350,6 +362,92 @@ abstract class Matrix<T>(
 
      */
 
+    @Volatile
+    private var cache: MatrixCache<T>? = null
+
+    /**
+     * Enables the cache of derived quantities of this matrix and returns this matrix.
+     *
+     * Once enabled, the results of [det], [rank], [isInvertible], [inverse], [kernel], [charPoly], [toEchelonWay]
+     * and [decompPLU] are computed at most once, and the results of one computation are used to obtain the others
+     * without redoing the elimination. For example, the determinant and the rank are read from the decomposition
+     * `PA = LU`, and the inverse is obtained from the operations recorded by the elimination for the kernel.
+     *
+     * The cache is cleared whenever a [MutableMatrix] is modified through its methods, but not when the array
+     * [AMatrix.data] is written directly, after which the cache should be disabled and enabled again. The cached
+     * matrices are returned as they are, so they should not be modified. Methods specialized by subclasses, such as
+     * [DMatrix.det] and [ModPMatrix.rank], are computed directly without the cache.
+     *
+     * Views of other matrices, such as [TransposeMatrixView], [SubMatrixView], [KroneckerMatrixView] and
+     * [LazyMatrix], are not notified when their origins change, so their cache can not be enabled. Copy them first
+     * instead.
+     *
+     * The cache is not thread-safe: a matrix with its cache enabled should not be accessed by several threads
+     * concurrently without external synchronization.
+     *
+     * @throws UnsupportedOperationException if this matrix is a view
+     */
+    fun enableCache(): Matrix<T> {
+        if (isView) {
+            throw UnsupportedOperationException("The cache of a view can not be enabled.")
+        }
+        if (cache == null) {
+            cache = MatrixCache()
+        }
+        return this
+    }
+
+    /**
+     * Disables the cache of derived quantities of this matrix.
+     *
+     * @see enableCache
+     */
+    fun disableCache() {
+        cache = null
+    }
+
+    /**
+     * Determines whether the cache of derived quantities of this matrix is enabled.
+     *
+     * @see enableCache
+     */
+    val isCacheEnabled: Boolean
+        get() = cache != null
+
+    /**
+     * Determines whether this matrix is a view whose elements may change with other matrices, in which case its
+     * cache can not be enabled.
+     */
+    internal open val isView: Boolean
+        get() = false
+
+    /**
+     * Clears the cached derived quantities, which must be called whenever the elements of this matrix are changed.
+     */
+    internal fun invalidateCache() {
+        cache?.clear()
+    }
+
+    override fun det(): T {
+        val c = cache ?: return super.det()
+        return c.det(this)
+    }
+
+    override fun rank(): Int {
+        val c = cache ?: return super.rank()
+        return c.rank(this)
+    }
+
+    override fun isInvertible(): Boolean {
+        val c = cache ?: return super.isInvertible()
+        return c.isInvertible(this)
+    }
+
+    override fun kernel(): VectorBasis<T> {
+        val c = cache ?: return super.kernel()
+        return c.kernel(this)
+    }
+
     /**
      * Determines whether this matrix is all zeros.
      */
@@ -366,6 +464,11 @@ abstract class Matrix<T>(
     }
 
 
+    /**
+     * Returns a new matrix of applying the [mapper] to this matrix element-wise.
+     *
+     * The mapper may be called concurrently for large matrices, see [ParallelKernels].
+     */
     override fun <N> mapTo(newCalculator: EqualPredicate<N>, mapper: Function<T, N>): Matrix<N> {
         return MatrixImpl.apply1(this, newCalculator as RingCalculator<N>) {
             mapper.apply(it)
@@ -374,7 +477,9 @@ abstract class Matrix<T>(
 
 
     /**
-     * Applies the function to this matrix to get a
+     * Applies the function to this matrix element-wise to get a new matrix.
+     *
+     * The function may be called concurrently for large matrices, see [ParallelKernels].
      */
     override fun applyAll(f: (T) -> T): Matrix<T> {
         return MatrixImpl.apply1(this, calculator, f)
@@ -440,6 +545,25 @@ abstract class Matrix<T>(
         return MatrixImpl.kronecker(this, y)
     }
 
+    /**
+     * Returns the Kronecker product `this ⊗ y` as a view, whose elements are computed when they are accessed.
+     * The view shares its elements with `this` and [y], so later modifications of them are reflected in it.
+     * Use [kronecker] to get a copy instead.
+     */
+    infix fun kroneckerView(y: Matrix<T>): Matrix<T> {
+        return KroneckerMatrixView(this, y)
+    }
+
+    /**
+     * Returns a lazy view of this matrix, on which element-wise operations are deferred and fused until
+     * [LazyMatrix.eval] is called.
+     *
+     * @see LazyMatrix
+     */
+    open fun lazy(): LazyMatrix<T> {
+        return LazyMatrix.of(this)
+    }
+
     /*
     Slices, sub matrix:
      */
@@ -490,6 +614,7 @@ abstract class Matrix<T>(
     }
 
     open fun toEchelonWay(): TransformResult<T> {
+        cache?.let { return it.toEchelonWay(this) }
         val m = copyOf(this)
         val list = mutableListOf<MatrixOperation<T>>()
         MatrixImpl.toEchelon(m, column, list)
@@ -509,9 +634,19 @@ abstract class Matrix<T>(
      */
 
     override fun inverse(): Matrix<T> {
+        cache?.let { return it.inverse(this) }
         return MatrixImpl.inverse(this)
     }
 
+    /**
+     * Computes the inverse of this matrix with the buffers of the [workspace] and stores it in [dest].
+     *
+     * @see MatrixWorkspace.inverse
+     */
+    fun inverseInto(dest: MutableMatrix<T>, workspace: MatrixWorkspace<T>) {
+        workspace.inverse(this, dest)
+    }
+
     /**
      * Returns the right inverse of a matrix `A`.
      *
@@ -579,9 +714,20 @@ abstract class Matrix<T>(
      * @return a tuple a matrices `(P,L,U)`
      */
     open fun decompPLU(): Triple<Matrix<T>, Matrix<T>, Matrix<T>> {
+        cache?.let { return it.decompPLU(this) }
         return MatrixUtils.decompositionLU(this)
     }
 
+    /**
+     * Returns the LU-decomposition `PA = LU` of this matrix computed in the given [workspace], whose buffers are
+     * returned and will be overwritten by the next call on it.
+     *
+     * @see MatrixWorkspace.decompPLU
+     */
+    fun decompPLU(workspace: MatrixWorkspace<T>): Triple<Matrix<T>, Matrix<T>, Matrix<T>> {
+        return workspace.decompPLU(this)
+    }
+
     /**
      * Returns the QR-decomposition of this square matrix. `Q` is an orthogonal matrix and `R` is an
      * upper-triangle matrix.
@@ -597,6 +743,16 @@ abstract class Matrix<T>(
         return MatrixUtils.decompQR(this)
     }
 
+    /**
+     * Returns the QR-decomposition `A = QR` of this matrix computed in the given [workspace], whose buffers are
+     * returned and will be overwritten by the next call on it.
+     *
+     * @see MatrixWorkspace.decompQR
+     */
+    fun decompQR(workspace: MatrixWorkspace<T>): Pair<Matrix<T>, Matrix<T>> {
+        return workspace.decompQR(this)
+    }
+
     /**
      * Returns the KAN-decomposition of a square matrix `A = KAN`, where `K` is an orthogonal matrix, `D` diagonal and
      * `R` upper-triangle matrix.
@@ -711,6 +867,7 @@ abstract class Matrix<T>(
      * this matrix is a square matrix.
      */
     open fun charPoly(): Polynomial<T> {
+        cache?.let { return it.charPoly(this) }
         return MatrixImpl.charPolyOf(this)
     }
 
@@ -769,11 +926,38 @@ abstract class Matrix<T>(
 
     companion object {
 
+        /**
+         * Evaluates the matrix expression in [block] lazily and returns the result, which is computed in one pass.
+         * In the block, element-wise operators like `A + B`, `A - B`, `-A` and `k * A` build lazy matrix expressions
+         * instead of intermediate matrices. For example,
+         *
+         *     val r = Matrix.lazy { A * B + k * C - D }
+         *
+         * only allocates the product `A * B` and the result.
+         *
+         * @see LazyMatrix
+         */
+        @JvmStatic
+        inline fun <T> lazy(block: MatrixExpressionScope.() -> Matrix<T>): MutableMatrix<T> {
+            val m = MatrixExpressionScope.block()
+            if (m is LazyMatrix) {
+                return m.eval()
+            }
+            return copyOf(m)
+        }
+
         /**
          * Creates a new matrix with all zeros.
          */
         @JvmStatic
+        @Suppress("UNCHECKED_CAST")
         fun <T> zero(row: Int, column: Int, mc: RingCalculator<T>): MutableMatrix<T> {
+            if (DMatrix.isApplicable(mc)) {
+                return DMatrix.zero(row, column, mc as RingCalculator<Double>) as MutableMatrix<T>
+            }
+            if (ModPMatrix.isApplicable(mc)) {
+                return ModPMatrix.zero(row, column, mc as RingCalculator<Int>) as MutableMatrix<T>
+            }
             return AMatrix.zero(row, column, mc)
         }
 
@@ -781,7 +965,16 @@ abstract class Matrix<T>(
          * Creates a new matrix with the [supplier].
          */
         @JvmStatic
+        @Suppress("UNCHECKED_CAST")
         fun <T> of(row: Int, column: Int, mc: RingCalculator<T>, supplier: (Int, Int) -> T): MutableMatrix<T> {
+            if (DMatrix.isApplicable(mc)) {
+                return DMatrix.of(row, column, mc as RingCalculator<Double>, supplier as (Int, Int) -> Double)
+                        as MutableMatrix<T>
+            }
+            if (ModPMatrix.isApplicable(mc)) {
+                return ModPMatrix.of(row, column, mc as RingCalculator<Int>, supplier as (Int, Int) -> Int)
+                        as MutableMatrix<T>
+            }
             return AMatrix.of(row, column, mc, supplier)
         }
 
@@ -790,7 +983,7 @@ abstract class Matrix<T>(
          */
         operator fun <T> invoke(row: Int, column: Int, mc: RingCalculator<T>, supplier: (Int, Int) -> T)
                 : MutableMatrix<T> {
-            return AMatrix.of(row, column, mc, supplier)
+            return of(row, column, mc, supplier)
         }
 
         /**
@@ -805,7 +998,14 @@ abstract class Matrix<T>(
          *
          */
         @JvmStatic
+        @Suppress("UNCHECKED_CAST")
         fun <T> of(mat: Array<Array<T>>, mc: RingCalculator<T>): MutableMatrix<T> {
+            if (DMatrix.isApplicable(mc)) {
+                return DMatrix.of(mat as Array<Array<Double>>, mc as RingCalculator<Double>) as MutableMatrix<T>
+            }
+            if (ModPMatrix.isApplicable(mc)) {
+                return ModPMatrix.of(mat as Array<Array<Int>>, mc as RingCalculator<Int>) as MutableMatrix<T>
+            }
             return AMatrix.of(mat, mc)
         }
 
@@ -816,7 +1016,16 @@ abstract class Matrix<T>(
          * For example, `of(2, 2, mc, 1, 2, 3, 4)` will result in a matrix `[[1, 2], [3, 4]]`
          */
         @JvmStatic
+        @Suppress("UNCHECKED_CAST")
         fun <T> of(row: Int, column: Int, mc: RingCalculator<T>, elements: List<T>): MutableMatrix<T> {
+            if (DMatrix.isApplicable(mc)) {
+                return DMatrix.of(row, column, mc as RingCalculator<Double>, elements as List<Double>)
+                        as MutableMatrix<T>
+            }
+            if (ModPMatrix.isApplicable(mc)) {
+                return ModPMatrix.of(row, column, mc as RingCalculator<Int>, elements as List<Int>)
+                        as MutableMatrix<T>
+            }
             return AMatrix.of(row, column, mc, elements)
         }
 
@@ -829,7 +1038,7 @@ abstract class Matrix<T>(
         @SafeVarargs
         @JvmStatic
         fun <T> of(row: Int, column: Int, mc: RingCalculator<T>, vararg elements: T): MutableMatrix<T> {
-            return AMatrix.of(row, column, mc, elements.asList())
+            return of(row, column, mc, elements.asList())
         }
 
 
@@ -871,7 +1080,14 @@ abstract class Matrix<T>(
          * Creates an identity matrix of rank [n].
          */
         @JvmStatic
+        @Suppress("UNCHECKED_CAST")
         fun <T> identity(n: Int, mc: UnitRingCalculator<T>): MutableMatrix<T> {
+            if (DMatrix.isApplicable(mc)) {
+                return DMatrix.identity(n, mc as RingCalculator<Double>) as MutableMatrix<T>
+            }
+            if (ModPMatrix.isApplicable(mc)) {
+                return ModPMatrix.identity(n, mc as RingCalculator<Int>) as MutableMatrix<T>
+            }
             return AMatrix.identity(n, mc)
         }
 
@@ -894,17 +1110,7 @@ abstract class Matrix<T>(
         @JvmStatic
         @SafeVarargs
         fun <T> product(mats: List<Matrix<T>>): Matrix<T> {
-            require(mats.isNotEmpty())
-            val toModel = Function { x: Matrix<T> -> intArrayOf(x.row, x.column) }
-            return ModelPatterns.reduceDP(0, mats.size,
-                { x: Int -> mats[x] },
-                { m1, m2 -> m1.multiply(m2) }, toModel,
-                { x: IntArray, y: IntArray ->
-                    intArrayOf(
-                        x[0],
-                        y[1]
-                    )
-                }) { x: IntArray, y: IntArray -> x[0] * y[0] * y[1] }
+            return MatrixImpl.product(mats)
         }
 
         /**
@@ -1057,6 +1263,51 @@ abstract class Matrix<T>(
             return MatrixImpl.solveHomo(A)
         }
 
+        /*
+        Destination-passing operations
+         */
+
+        /**
+         * Computes the product `x * y` and stores it in [dest], which must be a different matrix of the shape
+         * `(x.row, y.column)`. No new matrix is created if `dest` is an [AMatrix], a [DMatrix] or a [ModPMatrix].
+         */
+        @JvmStatic
+        fun <T> multiplyInto(x: Matrix<T>, y: Matrix<T>, dest: MutableMatrix<T>) {
+            MatrixImpl.multiplyInto(x, y, dest)
+        }
+
+        /**
+         * Stores the transpose of [x] in [dest], which must be a different matrix of the shape `(x.column, x.row)`.
+         */
+        @JvmStatic
+        fun <T> transposeInto(x: GenMatrix<T>, dest: MutableMatrix<T>) {
+            MatrixImpl.transposeInto(x, dest)
+        }
+
+        /**
+         * Performs `dest += k * x`, which is the `axpy` operation for matrices.
+         */
+        @JvmStatic
+        fun <T> addScaledInto(dest: MutableMatrix<T>, k: T, x: GenMatrix<T>) {
+            MatrixImpl.addScaledInto(dest, k, x)
+        }
+
+        /**
+         * Solves the linear equation `AX = B` for an invertible square matrix `A` and stores `X` in [dest], which must
+         * be a different matrix of the same shape as `B`. The LU decomposition is computed in the given [workspace],
+         * which can be reused for matrices of the same size.
+         *
+         * @throws ArithmeticException if `A` is not invertible
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun <T> solveInto(
+            A: AbstractMatrix<T>, B: GenMatrix<T>, dest: MutableMatrix<T>,
+            workspace: MatrixWorkspace<T> = MatrixWorkspace(A.calculator as FieldCalculator, A.row)
+        ) {
+            workspace.solve(A, B, dest)
+        }
+
         /**
          * Determines whether the two matrices are similar.
          */
@@ -1115,6 +1366,11 @@ abstract class MutableMatrix<T>(mc: RingCalculator<T>, row: Int, column: Int) :
     internal abstract fun setChecked(i: Int, j: Int, x: T)
 
 
+    /**
+     * Applies the function to this matrix element-wise to get a new matrix.
+     *
+     * The function may be called concurrently for large matrices, see [ParallelKernels].
+     */
     override fun applyAll(f: (T) -> T): MutableMatrix<T> {
         return MatrixImpl.apply1(this, calculator, f)
     }
@@ -1287,6 +1543,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun setChecked(i: Int, j: Int, x: T) {
+        invalidateCache()
         try {
             data[toPos(i, j)] = x
 
@@ -1296,6 +1553,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun setAll(r: Int, c: Int, m: GenMatrix<T>) {
+        invalidateCache()
         if (m !is AMatrix) {
             super.setAll(r, c, m)
             return
@@ -1312,6 +1570,23 @@ class AMatrix<T> internal constructor(
         return AMatrix(calculator, row, column, data.clone())
     }
 
+    /**
+     * Returns the sum of all elements in this matrix, which is computed with partial sums of chunks of the data,
+     * see [ParallelKernels].
+     */
+    override fun sum(): T {
+        val mc = calculator
+        val data = data
+        return ParallelKernels.reduceChunks(data.size, chunk = { from, until ->
+            var z = mc.zero
+            for (k in from until until) {
+                @Suppress("UNCHECKED_CAST")
+                mc.eval { z += data[k] as T }
+            }
+            z
+        }, combine = mc::add)
+    }
+
     override fun add(y: Matrix<T>): MutableMatrix<T> {
         if (y is AMatrix<T>) {
             val mc = calculator
@@ -1344,6 +1619,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun negateInplace() {
+        invalidateCache()
         for (i in data.indices) {
             val mc = calculator
             @Suppress("UNCHECKED_CAST")
@@ -1358,6 +1634,7 @@ class AMatrix<T> internal constructor(
 
     @Suppress("UNCHECKED_CAST")
     override fun multiplyAddRow(r1: Int, r2: Int, k: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
         val s1 = toPos(r1, 0)
         val s2 = toPos(r2, 0)
         val mc = calculator
@@ -1368,6 +1645,7 @@ class AMatrix<T> internal constructor(
 
     @Suppress("UNCHECKED_CAST")
     override fun multiplyAddCol(c1: Int, c2: Int, k: T, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
         val mc = calculator
         for (r in rowStart until rowEnd) {
             val l = toPos(r, 0)
@@ -1376,6 +1654,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun swapRow(r1: Int, r2: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
         val s1 = toPos(r1, 0)
         val s2 = toPos(r2, 0)
         for (l in colStart until colEnd) {
@@ -1386,6 +1665,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun swapCol(c1: Int, c2: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
         var l = toPos(rowStart, 0)
         for (r in rowStart until rowEnd) {
             val t = data[l + c1]
@@ -1396,6 +1676,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun multiplyRow(r: Int, k: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
         val d = toPos(r, 0)
         val mc = calculator
         for (l in colStart until colEnd) {
@@ -1405,6 +1686,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun divideRow(r: Int, k: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
         val d = toPos(r, 0)
         val mc = calculator as UnitRingCalculator
         for (l in colStart until colEnd) {
@@ -1414,6 +1696,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun multiplyCol(c: Int, k: T, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
         val mc = calculator
         for (r in rowStart until rowEnd) {
             val pos = toPos(r, c)
@@ -1423,6 +1706,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun divideCol(c: Int, k: T, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
         val mc = calculator as UnitRingCalculator
         for (r in rowStart until rowEnd) {
             val pos = toPos(r, c)
@@ -1432,6 +1716,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun negateRow(r: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
         val d = toPos(r, 0)
         val mc = calculator as UnitRingCalculator
         for (l in colStart until colEnd) {
@@ -1441,6 +1726,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun negateCol(c: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
         val mc = calculator
         for (r in rowStart until rowEnd) {
             val pos = toPos(r, c)
@@ -1451,6 +1737,7 @@ class AMatrix<T> internal constructor(
 
     @Suppress("UNCHECKED_CAST")
     override fun transformRows(r1: Int, r2: Int, a11: T, a12: T, a21: T, a22: T, colStart: Int, colEnd: Int) {
+        invalidateCache()
         val s1 = toPos(r1, 0)
         val s2 = toPos(r2, 0)
         calculator.eval {
@@ -1464,6 +1751,7 @@ class AMatrix<T> internal constructor(
     }
 
     override fun setRow(r: Int, v: Vector<T>) {
+        invalidateCache()
         require(v.size == column)
         if (v !is AVector) {
             super.setRow(r, v)
@@ -1501,21 +1789,27 @@ class AMatrix<T> internal constructor(
     companion object {
 
         @Suppress("UNCHECKED_CAST")
-        private inline fun <T> apply2(x: AMatrix<T>, y: AMatrix<T>, f: (T, T) -> T): AMatrix<T> {
+        private inline fun <T> apply2(x: AMatrix<T>, y: AMatrix<T>, crossinline f: (T, T) -> T): AMatrix<T> {
             require(x.isSameShape(y))
             val d1 = x.data
             val d2 = y.data
-            val ndata = Array<Any?>(d1.size) { k ->
-                f(d1[k] as T, d2[k] as T)
+            val ndata = arrayOfNulls<Any>(d1.size)
+            ParallelKernels.forChunks(d1.size) { from, until ->
+                for (k in from until until) {
+                    ndata[k] = f(d1[k] as T, d2[k] as T)
+                }
             }
             return AMatrix(x.calculator, x.row, x.column, ndata)
         }
 
-        private inline fun <T> apply1(x: AMatrix<T>, f: (T) -> T): AMatrix<T> {
+        private inline fun <T> apply1(x: AMatrix<T>, crossinline f: (T) -> T): AMatrix<T> {
             val data = x.data
-            val newData = Array<Any?>(data.size) { k ->
-                @Suppress("UNCHECKED_CAST")
-                f(data[k] as T)
+            val newData = arrayOfNulls<Any>(data.size)
+            ParallelKernels.forChunks(data.size) { from, until ->
+                for (k in from until until) {
+                    @Suppress("UNCHECKED_CAST")
+                    newData[k] = f(data[k] as T)
+                }
             }
             return AMatrix(x.calculator, x.row, x.column, newData)
         }
@@ -1679,10 +1973,17 @@ class AMatrix<T> internal constructor(
 
 internal object MatrixImpl {
 
+    @Suppress("UNCHECKED_CAST")
     fun <T> copyOf(matrix: GenMatrix<T>, mc: RingCalculator<T>): MutableMatrix<T> {
         if (matrix is MutableMatrix) {
             return matrix.copy()
         }
+        if (DMatrix.isApplicable(mc)) {
+            return DMatrix.copyOf(matrix as GenMatrix<Double>, mc as RingCalculator<Double>) as MutableMatrix<T>
+        }
+        if (ModPMatrix.isApplicable(mc)) {
+            return ModPMatrix.copyOf(matrix as GenMatrix<Int>, mc as RingCalculator<Int>) as MutableMatrix<T>
+        }
         return AMatrix.copyOf(matrix, mc)
     }
 
@@ -1711,6 +2012,9 @@ internal object MatrixImpl {
                         m[0, 2] * m[1, 1] * m[2, 0]
             }
         }
+        if (m.row >= MultiModular.threshold) {
+            MultiModular.det(m, mc)?.let { return it }
+        }
         if (mc is FieldCalculator) {
             return detGaussBareiss(copyOf(m), mc, mc::divide)
         }
@@ -1810,22 +2114,163 @@ internal object MatrixImpl {
         return result
     }
 
-    internal fun <T> multiply(x: Matrix<T>, y: Matrix<T>): AMatrix<T> {
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> multiply(x: Matrix<T>, y: Matrix<T>): MutableMatrix<T> {
         require(x.column == y.row) {
             "Shape mismatch in multiplication: (${x.row},${x.column}) (${y.row},${y.column})"
         }
         val mc = x.calculator
-        val result = AMatrix.zero(x.row, y.column, mc)
-        for (i in x.rowIndices) {
-            for (j in y.colIndices) {
-                var t = mc.zero
-                for (k in x.colIndices) {
-                    t = mc.eval { t + x[i, k] * y[k, j] }
+        if (DMatrix.isApplicable(mc)) {
+            val data = MatrixKernels.multiplyDouble(
+                MatrixKernels.flattenDouble(x as Matrix<Double>), MatrixKernels.flattenDouble(y as Matrix<Double>),
+                x.row, x.column, y.column
+            )
+            return DMatrix(mc as RingCalculator<Double>, x.row, y.column, data) as MutableMatrix<T>
+        }
+        if (ModPMatrix.isApplicable(mc)) {
+            return ModPMatrix.multiply(x as Matrix<Int>, y as Matrix<Int>, mc as RingCalculator<Int>) as MutableMatrix<T>
+        }
+        val a = MatrixKernels.flatten(x)
+        val b = MatrixKernels.flatten(y)
+        val threshold = MatrixKernels.strassenThreshold
+        val large = x.row >= threshold && x.column >= threshold && y.column >= threshold
+        val data = if (large && MatrixKernels.strassenApplicable(mc)) {
+            MatrixKernels.multiplyStrassen(a, b, x.row, x.column, y.column, mc)
+        } else {
+            MatrixKernels.multiply(a, b, x.row, x.column, y.column, mc)
+        }
+        return AMatrix(mc, x.row, y.column, data)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> multiplyInto(x: Matrix<T>, y: Matrix<T>, dest: MutableMatrix<T>) {
+        require(x.column == y.row && dest.row == x.row && dest.column == y.column) {
+            "Shape mismatch in multiplication: (${x.row},${x.column}) (${y.row},${y.column}) -> (${dest.row},${dest.column})"
+        }
+        require(dest !== x && dest !== y) {
+            "The destination must not be one of the operands."
+        }
+        dest.invalidateCache()
+        when (dest) {
+            is DMatrix -> {
+                MatrixKernels.multiplyDouble(
+                    MatrixKernels.flattenDouble(x as Matrix<Double>), MatrixKernels.flattenDouble(y as Matrix<Double>),
+                    x.row, x.column, y.column, dest.data
+                )
+            }
+            is ModPMatrix -> {
+                ModPMatrix.multiplyInto(x as Matrix<Int>, y as Matrix<Int>, dest)
+            }
+            is AMatrix -> {
+                MatrixKernels.multiply(
+                    MatrixKernels.flatten(x), MatrixKernels.flatten(y),
+                    x.row, x.column, y.column, x.calculator, dest.data
+                )
+            }
+            else -> dest.setAll(0, 0, multiply(x, y))
+        }
+    }
+
+    internal fun <T> transposeInto(x: GenMatrix<T>, dest: MutableMatrix<T>) {
+        require(dest.row == x.column && dest.column == x.row) {
+            "Shape mismatch: (${x.row},${x.column}) -> (${dest.row},${dest.column})"
+        }
+        require(dest !== x)
+        dest.invalidateCache()
+        if (x is DMatrix && dest is DMatrix) {
+            val a = x.data
+            val b = dest.data
+            var pos = 0
+            for (i in 0 until x.row) {
+                for (j in 0 until x.column) {
+                    b[j * x.row + i] = a[pos++]
                 }
-                result.setChecked(i, j, t)
+            }
+            return
+        }
+        for (i in 0 until x.row) {
+            for (j in 0 until x.column) {
+                dest[j, i] = x[i, j]
             }
         }
-        return result
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> addScaledInto(dest: MutableMatrix<T>, k: T, x: GenMatrix<T>) {
+        require(dest.row == x.row && dest.column == x.column) {
+            "Shape mismatch: (${dest.row},${dest.column}) and (${x.row},${x.column})"
+        }
+        dest.invalidateCache()
+        if (dest is DMatrix && x is DMatrix) {
+            val a = dest.data
+            val b = x.data
+            val kd = k as Double
+            for (l in a.indices) {
+                a[l] += kd * b[l]
+            }
+            return
+        }
+        if (dest is AMatrix && x is AMatrix) {
+            val a = dest.data
+            val b = x.data
+            val mc = dest.calculator
+            for (l in a.indices) {
+                a[l] = mc.eval { (a[l] as T) + k * (b[l] as T) }
+            }
+            return
+        }
+        for (i in 0 until dest.row) {
+            for (j in 0 until dest.column) {
+                dest[i, j] = dest.calculator.eval { dest[i, j] + k * x[i, j] }
+            }
+        }
+    }
+
+    /**
+     * Multiplies the matrices in order, choosing the order of multiplications that minimizes the count of
+     * element multiplications by dynamic programming over the shapes.
+     */
+    fun <T> product(mats: List<Matrix<T>>): Matrix<T> {
+        require(mats.isNotEmpty())
+        val n = mats.size
+        for (i in 0 until (n - 1)) {
+            require(mats[i].column == mats[i + 1].row) {
+                "Shape mismatch in multiplication at $i: (${mats[i].row},${mats[i].column}) " +
+                        "(${mats[i + 1].row},${mats[i + 1].column})"
+            }
+        }
+        val dims = LongArray(n + 1)
+        dims[0] = mats[0].row.toLong()
+        for (i in 0 until n) {
+            dims[i + 1] = mats[i].column.toLong()
+        }
+        // costs[i][j] = minimal cost of mats[i] * ... * mats[j],
+        // splits[i][j] = s means (mats[i] ... mats[s]) (mats[s+1] ... mats[j])
+        val costs = Array(n) { LongArray(n) }
+        val splits = Array(n) { IntArray(n) }
+        for (d in 1 until n) {
+            for (i in 0 until (n - d)) {
+                val j = i + d
+                var minCost = Long.MAX_VALUE
+                for (s in i until j) {
+                    val c = costs[i][s] + costs[s + 1][j] + dims[i] * dims[s + 1] * dims[j + 1]
+                    if (c < minCost) {
+                        minCost = c
+                        splits[i][j] = s
+                    }
+                }
+                costs[i][j] = minCost
+            }
+        }
+
+        fun reduce(i: Int, j: Int): Matrix<T> {
+            if (i == j) {
+                return mats[i]
+            }
+            val s = splits[i][j]
+            return reduce(i, s).multiply(reduce(s + 1, j))
+        }
+        return reduce(0, n - 1)
     }
 
     fun <T> hadamard(x: Matrix<T>, y: Matrix<T>): Matrix<T> {
@@ -1852,27 +2297,36 @@ internal object MatrixImpl {
 //
 //    }
 
-    private inline fun <T> apply2(x: Matrix<T>, y: Matrix<T>, f: (T, T) -> T): AMatrix<T> {
+    /*
+    The rows of the results are computed in chunks by ParallelKernels, writing to the data directly.
+     */
+
+    private inline fun <T> apply2(x: Matrix<T>, y: Matrix<T>, crossinline f: (T, T) -> T): AMatrix<T> {
         require(x.isSameShape(y))
-        val mc = x.calculator
-        val result = AMatrix.zero(x.row, x.column, mc)
-        for (i in x.rowIndices) {
-            for (j in x.colIndices) {
-                result.setChecked(i, j, f(x[i, j], y[i, j]))
+        val column = x.column
+        val data = arrayOfNulls<Any>(x.row * column)
+        ParallelKernels.forChunks(x.row, column.toLong()) { r0, r1 ->
+            for (i in r0 until r1) {
+                for (j in 0 until column) {
+                    data[i * column + j] = f(x[i, j], y[i, j])
+                }
             }
         }
-        return result
+        return AMatrix(x.calculator, x.row, column, data)
     }
 
-    internal inline fun <T, N> apply1(x: AbstractMatrix<T>, nc: RingCalculator<N>, f: (T) -> N)
+    internal inline fun <T, N> apply1(x: AbstractMatrix<T>, nc: RingCalculator<N>, crossinline f: (T) -> N)
             : AMatrix<N> {
-        val result = AMatrix.zero(x.row, x.column, nc)
-        for (i in x.rowIndices) {
-            for (j in x.colIndices) {
-                result.setChecked(i, j, f(x[i, j]))
+        val column = x.column
+        val data = arrayOfNulls<Any>(x.row * column)
+        ParallelKernels.forChunks(x.row, column.toLong()) { r0, r1 ->
+            for (i in r0 until r1) {
+                for (j in 0 until column) {
+                    data[i * column + j] = f(x[i, j])
+                }
             }
         }
-        return result
+        return AMatrix(nc, x.row, column, data)
     }
 
 
@@ -1958,6 +2412,13 @@ internal object MatrixImpl {
 
 
     fun <T> rank(matrix: AbstractMatrix<T>): Int {
+        if (Calculators.isIntMod2Calculator(matrix.calculator)) {
+            @Suppress("UNCHECKED_CAST")
+            return GF2Matrix.of(matrix as GenMatrix<Int>).rank()
+        }
+        if (max(matrix.row, matrix.column) >= MultiModular.threshold) {
+            MultiModular.rank(matrix, matrix.calculator)?.let { return it }
+        }
         val copy = copyOf(matrix)
         return toUpperTriangle(copy).size
     }
@@ -1973,13 +2434,25 @@ internal object MatrixImpl {
     ): List<Int> {
         //Created by lyc at 2021-04-29
         val pivots = toUpperTriangle(M, operations, column)
+        toEchelonFromUpper(M, pivots, operations)
+        return pivots
+    }
+
+    /**
+     * Transforms the upper triangle matrix returned by [toUpperTriangle] with the [pivots] to its echelon form.
+     */
+    internal fun <T> toEchelonFromUpper(
+        M: MutableMatrix<T>,
+        pivots: List<Int>,
+        operations: MutableList<MatrixOperation<T>>? = null
+    ) {
         val mc = M.calculator as FieldCalculator
         for (i in pivots.lastIndex downTo 0) {
             val j = pivots[i]
             if (!mc.isEqual(M[i, j], mc.one)) {
+                operations?.add(MatrixOperation.multiplyRow(i, mc.reciprocal(M[i, j])))
                 M.divideRow(i, M[i, j], j + 1)
                 M[i, j] = mc.one
-                operations?.add(MatrixOperation.multiplyRow(i, mc.reciprocal(M[i, j])))
             }
             for (k in (i - 1) downTo 0) {
                 if (mc.isZero(M[k, j])) {
@@ -1991,7 +2464,6 @@ internal object MatrixImpl {
                 operations?.add(MatrixOperation.multiplyAddRow(i, k, q))
             }
         }
-        return pivots
     }
 
     internal fun <T> nullSpaceGenerator(matrix: MutableMatrix<T>, column: Int, pivots: List<Int>): List<Vector<T>> {
@@ -2062,12 +2534,22 @@ internal object MatrixImpl {
 
     fun <T> solveLinear(m: AbstractMatrix<T>, b: AbstractMatrix<T>): Triple<Matrix<T>, VectorBasis<T>, Boolean> {
         require(m.row == b.row)
+        if (m.isSquare() && m.row >= DixonSolver.threshold) {
+            DixonSolver.solveOrNull(m, b, m.calculator)?.let {
+                return Triple(it, VectorBasis.zero(m.column, m.calculator as FieldCalculator), true)
+            }
+        }
         val expanded = Matrix.concatColumn(m, b)
         return solveLinear(expanded, m.column)
     }
 
     fun <T> solveLinear(m: AbstractMatrix<T>, b: AbstractVector<T>): Triple<Vector<T>, VectorBasis<T>, Boolean> {
         require(m.row == b.size)
+        if (m.isSquare() && m.row >= DixonSolver.threshold) {
+            DixonSolver.solveOrNull(m, Matrix.fromVectors(listOf(b)), m.calculator)?.let {
+                return Triple(it.getColumn(0), VectorBasis.zero(m.column, m.calculator as FieldCalculator), true)
+            }
+        }
         val expanded = AMatrix.zero(m.row, m.column + 1, m.calculator)
         val col = m.column
         expanded.setAll(0, 0, m)
@@ -2080,6 +2562,10 @@ internal object MatrixImpl {
     }
 
     fun <T> solveHomo(m: AbstractMatrix<T>): VectorBasis<T> {
+        if (Calculators.isIntMod2Calculator(m.calculator)) {
+            @Suppress("UNCHECKED_CAST")
+            return GF2Matrix.of(m as GenMatrix<Int>).kernelBasis() as VectorBasis<T>
+        }
         val expanded = Matrix.copyOf(m)
         val pivots = toEchelon(expanded)
         return nullSpaceOf(expanded, m.column, pivots)
@@ -2150,6 +2636,9 @@ internal object MatrixImpl {
             return Matrix.identity(1, matrix.calculator as UnitRingCalculator<T>)
         }
         val mc = matrix.calculator
+        if (matrix.row >= MultiModular.threshold) {
+            MultiModular.adjoint(matrix, mc)?.let { return it }
+        }
         if (mc is UnitRingCalculator) {
             try {
                 return adjointAndCharPoly(matrix, mc).first
@@ -2172,6 +2661,9 @@ internal object MatrixImpl {
     fun <T> charPolyOf(matrix: AbstractMatrix<T>): Polynomial<T> {
         matrix.requireSquare()
         val mc = matrix.calculator
+        if (matrix.row >= MultiModular.threshold) {
+            MultiModular.charPoly(matrix, mc)?.let { return it }
+        }
         if (mc is UnitRingCalculator) {
             try {
                 return adjointAndCharPoly(matrix, mc).second
@@ -0,0 +1,197 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.algebra.abs.calculator.FieldCalculator
+import cn.ancono.math.algebra.abs.calculator.UnitRingCalculator
+import cn.ancono.math.exceptions.ExceptionUtil
+import cn.ancono.math.numberModels.api.requireSquare
+import cn.ancono.math.numberModels.structure.Polynomial
+
+
+/**
+ * Stores the derived quantities of a matrix whose cache is enabled by [Matrix.enableCache].
+ *
+ * The results of one computation seed the others whenever possible:
+ *
+ * * The Gaussian elimination performed for [Matrix.toEchelonWay] or [Matrix.kernel] over a field records the
+ *   determinant and the rank, and the inverse is obtained by applying the recorded operations to the identity.
+ * * The decomposition `PA = LU` of [Matrix.decompPLU] gives the determinant and the rank.
+ * * The characteristic polynomial gives the determinant.
+ *
+ * The cache is cleared by the mutating methods of [MutableMatrix].
+ */
+internal class MatrixCache<T> {
+
+    /**
+     * The result of the elimination over a field: the echelon form, the pivots, the operations and the
+     * determinant, which is `null` if the matrix is not square.
+     */
+    private class Elimination<T>(
+        val echelon: MutableMatrix<T>,
+        val pivots: List<Int>,
+        val operations: List<MatrixOperation<T>>,
+        val det: T?
+    )
+
+    private var elimination: Elimination<T>? = null
+    private var det: T? = null
+    private var rank = -1
+    private var inverse: Matrix<T>? = null
+    private var kernel: VectorBasis<T>? = null
+    private var charPoly: Polynomial<T>? = null
+    private var plu: Triple<Matrix<T>, Matrix<T>, Matrix<T>>? = null
+
+    fun clear() {
+        elimination = null
+        det = null
+        rank = -1
+        inverse = null
+        kernel = null
+        charPoly = null
+        plu = null
+    }
+
+    private fun eliminationOf(A: Matrix<T>): Elimination<T> {
+        elimination?.let { return it }
+        val mc = A.calculator as FieldCalculator
+        val M = MatrixImpl.copyOf(A)
+        val operations = ArrayList<MatrixOperation<T>>()
+        val pivots = MatrixImpl.toUpperTriangle(M, operations)
+        var d: T? = null
+        if (A.isSquare()) {
+            d = if (pivots.size < A.row) {
+                mc.zero
+            } else {
+                var p = mc.one
+                for (i in 0 until A.row) {
+                    p = mc.multiply(p, M[i, i])
+                }
+                val swaps = operations.count { it.ope == MatrixOperation.Operation.EXCHANGE_ROW }
+                if (swaps % 2 == 0) p else mc.negate(p)
+            }
+        }
+        MatrixImpl.toEchelonFromUpper(M, pivots, operations)
+        return Elimination(M, pivots, operations, d).also { elimination = it }
+    }
+
+    private fun detOfPLU(plu: Triple<Matrix<T>, Matrix<T>, Matrix<T>>): T {
+        val (P, _, U) = plu
+        val mc = U.calculator
+        val n = U.row
+        var d = U[0, 0]
+        for (i in 1 until n) {
+            d = mc.multiply(d, U[i, i])
+        }
+        // the parity of the permutation is the parity of n minus the count of its cycles
+        val visited = BooleanArray(n)
+        var cycles = 0
+        for (i in 0 until n) {
+            if (visited[i]) {
+                continue
+            }
+            cycles++
+            var k = i
+            while (!visited[k]) {
+                visited[k] = true
+                k = (0 until n).first { !mc.isZero(P[k, it]) }
+            }
+        }
+        return if ((n - cycles) % 2 == 0) d else mc.negate(d)
+    }
+
+    fun det(A: Matrix<T>): T {
+        det?.let { return it }
+        val d = elimination?.det
+            ?: plu?.let { detOfPLU(it) }
+            ?: charPoly?.let { f ->
+                if (A.row % 2 == 0) f.get(0) else A.calculator.negate(f.get(0))
+            }
+            ?: MatrixImpl.det(A)
+        det = d
+        return d
+    }
+
+    fun rank(A: Matrix<T>): Int {
+        if (rank >= 0) {
+            return rank
+        }
+        val e = elimination
+        val r = when {
+            e != null -> e.pivots.size
+            plu != null || inverse != null -> A.row
+            else -> MatrixImpl.rank(A)
+        }
+        rank = r
+        return r
+    }
+
+    fun toEchelonWay(A: Matrix<T>): TransformResult<T> {
+        val e = eliminationOf(A)
+        return e.echelon.copy() to e.operations
+    }
+
+    fun kernel(A: Matrix<T>): VectorBasis<T> {
+        kernel?.let { return it }
+        val k = if (A.calculator is FieldCalculator) {
+            val e = eliminationOf(A)
+            MatrixImpl.nullSpaceOf(e.echelon, A.column, e.pivots)
+        } else {
+            MatrixImpl.solveHomo(A)
+        }
+        kernel = k
+        return k
+    }
+
+    fun inverse(A: Matrix<T>): Matrix<T> {
+        inverse?.let { return it }
+        A.requireSquare()
+        val mc = A.calculator
+        det?.let { d ->
+            if (mc is UnitRingCalculator && !mc.isUnit(d)) {
+                ExceptionUtil.notInvertible()
+            }
+        }
+        val inv = if (mc is FieldCalculator) {
+            val e = eliminationOf(A)
+            if (e.pivots.size < A.row) {
+                ExceptionUtil.notInvertible()
+            }
+            // the operations transform A to the identity, so they transform the identity to the inverse
+            val I = Matrix.identity(A.row, mc)
+            for (op in e.operations) {
+                when (op.ope) {
+                    MatrixOperation.Operation.EXCHANGE_ROW -> I.swapRow(op.arg0, op.arg1)
+                    MatrixOperation.Operation.MULTIPLY_ROW -> I.multiplyRow(op.arg0, op.num)
+                    MatrixOperation.Operation.MULTIPLY_ADD_ROW -> I.multiplyAddRow(op.arg0, op.arg1, op.num)
+                    else -> throw AssertionError()
+                }
+            }
+            I
+        } else {
+            MatrixImpl.inverse(A)
+        }
+        inverse = inv
+        return inv
+    }
+
+    fun charPoly(A: Matrix<T>): Polynomial<T> {
+        charPoly?.let { return it }
+        val f = MatrixImpl.charPolyOf(A)
+        charPoly = f
+        return f
+    }
+
+    fun decompPLU(A: Matrix<T>): Triple<Matrix<T>, Matrix<T>, Matrix<T>> {
+        plu?.let { return it }
+        val r = MatrixUtils.decompositionLU(A)
+        plu = r
+        return r
+    }
+
+    fun isInvertible(A: Matrix<T>): Boolean {
+        val mc = A.calculator
+        if (mc is FieldCalculator && (elimination != null || plu != null || inverse != null)) {
+            return rank(A) == A.row
+        }
+        return (mc as UnitRingCalculator).isUnit(det(A))
+    }
+}
@@ -0,0 +1,336 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.algebra.abs.calculator.eval
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
+import kotlin.math.max
+import kotlin.math.min
+
+
+/**
+ * Provides the kernels of matrix multiplication working on the flat row-major storage of [AMatrix] and [DMatrix].
+ *
+ * The kernels are tiled so that blocks of the operands stay in cache, and the rows of the result are split into
+ * blocks computed in [pool] when the amount of work, measured by the count of element multiplications,
+ * is not less than [parallelThreshold]. Products of large matrices whose elements are expensive to multiply are
+ * computed with the Strassen-Winograd algorithm, see [strassenThreshold] and [strassenApplicable].
+ */
+object MatrixKernels {
+
+    /**
+     * The minimal count of element multiplications of a product for the rows of the result
+     * to be computed in parallel.
+     */
+    @JvmStatic
+    @Volatile
+    var parallelThreshold: Long = 64L * 64 * 64
+
+    /**
+     * The pool in which parallel computations are performed.
+     */
+    @JvmStatic
+    @Volatile
+    var pool: ForkJoinPool = ForkJoinPool.commonPool()
+
+    /**
+     * The minimal row and column count of both operands for a product of matrices to be computed with the
+     * Strassen-Winograd algorithm, see [multiplyStrassen], if [strassenApplicable] accepts their calculator.
+     * Set it to [Int.MAX_VALUE] to always use the classical algorithm.
+     */
+    @JvmStatic
+    @Volatile
+    var strassenThreshold: Int = 128
+
+    /**
+     * Determines whether large products of matrices with the given calculator are computed with the
+     * Strassen-Winograd algorithm, see [strassenThreshold].
+     *
+     * By default, it rejects the calculators of doubles, [Int], [Long] and integers modulo `n`, whose
+     * multiplication costs about as much as an addition, so that the extra additions and temporary matrices of the
+     * algorithm do not pay off. It accepts the other calculators, such as those of big integers, fractions and
+     * polynomials.
+     */
+    @JvmStatic
+    @Volatile
+    var strassenApplicable: (RingCalculator<*>) -> Boolean = { mc -> !hasCheapMultiplication(mc) }
+
+    private fun hasCheapMultiplication(mc: RingCalculator<*>): Boolean {
+        return Calculators.isDoubleCalculator(mc) || mc is Calculators.IntegerCalculator ||
+                mc is Calculators.LongCalculator || mc is Calculators.ZModNCalculator
+    }
+
+    /**
+     * The size below which the recursion of the Strassen-Winograd algorithm falls back to the classical kernel.
+     */
+    @JvmStatic
+    @Volatile
+    var strassenCutoff: Int = 64
+
+    /**
+     * The block size in the summation dimension of the tiled kernels.
+     */
+    private const val BLOCK_K = 64
+
+    /**
+     * The block size in the column dimension of the tiled kernels.
+     */
+    private const val BLOCK_J = 256
+
+    private class RowTask(
+        val r0: Int, val r1: Int, val grain: Int,
+        val action: (Int, Int) -> Unit
+    ) : RecursiveAction() {
+        override fun compute() {
+            if (r1 - r0 <= grain) {
+                action(r0, r1)
+                return
+            }
+            val mid = (r0 + r1) ushr 1
+            invokeAll(RowTask(r0, mid, grain, action), RowTask(mid, r1, grain, action))
+        }
+    }
+
+    /**
+     * Performs the [action] on blocks of rows `[r0, r1)` covering `[0, n)`, in parallel if the total
+     * work `n * workPerRow` reaches [parallelThreshold].
+     */
+    internal fun forRowBlocks(n: Int, workPerRow: Long, action: (Int, Int) -> Unit) {
+        val p = pool
+        val parallelism = p.parallelism
+        if (n < 2 || parallelism <= 1 || n * workPerRow < parallelThreshold) {
+            action(0, n)
+            return
+        }
+        val grain = max(1, n / (parallelism * 4))
+        val task = RowTask(0, n, grain, action)
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke()
+        } else {
+            p.invoke(task)
+        }
+    }
+
+    /**
+     * Returns the elements of the matrix as a flat row-major array, which is the backing array itself if [x] is
+     * an [AMatrix].
+     */
+    internal fun <T> flatten(x: GenMatrix<T>): Array<Any?> {
+        if (x is AMatrix) {
+            return x.data
+        }
+        val column = x.column
+        val data = arrayOfNulls<Any>(x.row * column)
+        for (i in 0 until x.row) {
+            val r = i * column
+            for (j in 0 until column) {
+                data[r + j] = x[i, j]
+            }
+        }
+        return data
+    }
+
+    /**
+     * Returns the elements of the matrix as a flat row-major array, which is the backing array itself if [x] is
+     * a [DMatrix].
+     */
+    internal fun flattenDouble(x: GenMatrix<Double>): DoubleArray {
+        if (x is DMatrix) {
+            return x.data
+        }
+        val column = x.column
+        val data = DoubleArray(x.row * column)
+        for (i in 0 until x.row) {
+            val r = i * column
+            for (j in 0 until column) {
+                data[r + j] = x[i, j]
+            }
+        }
+        return data
+    }
+
+    /**
+     * Returns the transpose of the `(row, column)` matrix stored in [data].
+     */
+    internal fun transpose(data: Array<Any?>, row: Int, column: Int): Array<Any?> {
+        val result = arrayOfNulls<Any>(data.size)
+        var pos = 0
+        for (i in 0 until row) {
+            for (j in 0 until column) {
+                result[j * row + i] = data[pos++]
+            }
+        }
+        return result
+    }
+
+    /**
+     * Computes the product of a `(n, m)` matrix [a] and a `(m, p)` matrix [b], both of which are stored in
+     * row-major flat arrays. The second matrix is packed in its transposed form so that each element of the result
+     * is a dot product of two contiguous segments. The result is stored in [c], which must not be [a] or [b].
+     */
+    @Suppress("UNCHECKED_CAST")
+    @JvmOverloads
+    fun <T> multiply(
+        a: Array<Any?>, b: Array<Any?>, n: Int, m: Int, p: Int, mc: RingCalculator<T>,
+        c: Array<Any?> = arrayOfNulls(n * p)
+    ): Array<Any?> {
+        require(a.size == n * m && b.size == m * p && c.size == n * p)
+        val bt = transpose(b, m, p)
+        forRowBlocks(n, m.toLong() * p) { r0, r1 ->
+            for (jj in 0 until p step BLOCK_J) {
+                val jEnd = min(jj + BLOCK_J, p)
+                for (i in r0 until r1) {
+                    val ri = i * m
+                    val ci = i * p
+                    for (j in jj until jEnd) {
+                        val rj = j * m
+                        var t = mc.multiply(a[ri] as T, bt[rj] as T)
+                        for (k in 1 until m) {
+                            t = mc.eval { t + (a[ri + k] as T) * (bt[rj + k] as T) }
+                        }
+                        c[ci + j] = t
+                    }
+                }
+            }
+        }
+        return c
+    }
+
+    /**
+     * Computes the product of a `(n, m)` matrix [a] and a `(m, p)` matrix [b] of doubles, both of which are stored in
+     * row-major flat arrays. The result is stored in [c], which must not be [a] or [b].
+     */
+    @JvmOverloads
+    fun multiplyDouble(a: DoubleArray, b: DoubleArray, n: Int, m: Int, p: Int, c: DoubleArray = DoubleArray(n * p))
+            : DoubleArray {
+        require(a.size == n * m && b.size == m * p && c.size == n * p)
+        c.fill(0.0)
+        forRowBlocks(n, m.toLong() * p) { r0, r1 ->
+            for (kk in 0 until m step BLOCK_K) {
+                val kEnd = min(kk + BLOCK_K, m)
+                for (jj in 0 until p step BLOCK_J) {
+                    val jEnd = min(jj + BLOCK_J, p)
+                    for (i in r0 until r1) {
+                        val ri = i * m
+                        val ci = i * p
+                        for (k in kk until kEnd) {
+                            val aik = a[ri + k]
+                            val rk = k * p
+                            for (j in jj until jEnd) {
+                                c[ci + j] += aik * b[rk + j]
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return c
+    }
+
+    /**
+     * Copies the block `[r0, r0 + rows) * [c0, c0 + cols)` of the `(row, column)` matrix stored in [data], padding
+     * the part out of range with [zero].
+     */
+    private fun block(
+        data: Array<Any?>, row: Int, column: Int,
+        r0: Int, c0: Int, rows: Int, cols: Int, zero: Any?
+    ): Array<Any?> {
+        val result = arrayOfNulls<Any>(rows * cols)
+        for (i in 0 until rows) {
+            val r = r0 + i
+            for (j in 0 until cols) {
+                val c = c0 + j
+                result[i * cols + j] = if (r < row && c < column) data[r * column + c] else zero
+            }
+        }
+        return result
+    }
+
+    /**
+     * Copies the block [x] of shape `(rows, cols)` to the position `(r0, c0)` in the `(row, column)` matrix
+     * stored in [dest], dropping the part out of range.
+     */
+    private fun putBlock(x: Array<Any?>, rows: Int, cols: Int, dest: Array<Any?>, row: Int, column: Int, r0: Int, c0: Int) {
+        val rEnd = min(rows, row - r0)
+        val cEnd = min(cols, column - c0)
+        for (i in 0 until rEnd) {
+            System.arraycopy(x, i * cols, dest, (r0 + i) * column + c0, cEnd)
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T> zip(x: Array<Any?>, y: Array<Any?>, f: (T, T) -> T): Array<Any?> {
+        return Array(x.size) { k -> f(x[k] as T, y[k] as T) }
+    }
+
+    /**
+     * Computes the product of a `(n, m)` matrix [a] and a `(m, p)` matrix [b] with the Strassen-Winograd algorithm,
+     * which uses 7 multiplications and 15 additions of blocks in each level of the recursion instead of 8
+     * multiplications and 4 additions. The recursion falls back to the classical kernel [multiply] once one of
+     * the dimensions is not greater than [cutoff]. Blocks of odd size are padded with zeros.
+     *
+     * This algorithm pays off when one multiplication of elements costs much more than one addition, for example
+     * for fractions, big integers and polynomials. It only requires that [mc] is a ring calculator, and
+     * the commutativity of multiplication is not required.
+     */
+    @JvmOverloads
+    fun <T> multiplyStrassen(
+        a: Array<Any?>, b: Array<Any?>, n: Int, m: Int, p: Int,
+        mc: RingCalculator<T>, cutoff: Int = strassenCutoff
+    ): Array<Any?> {
+        require(a.size == n * m && b.size == m * p)
+        require(cutoff > 0)
+        if (n <= cutoff || m <= cutoff || p <= cutoff) {
+            return multiply(a, b, n, m, p, mc)
+        }
+        val nh = (n + 1) / 2
+        val mh = (m + 1) / 2
+        val ph = (p + 1) / 2
+        val z = mc.zero
+        val a11 = block(a, n, m, 0, 0, nh, mh, z)
+        val a12 = block(a, n, m, 0, mh, nh, mh, z)
+        val a21 = block(a, n, m, nh, 0, nh, mh, z)
+        val a22 = block(a, n, m, nh, mh, nh, mh, z)
+        val b11 = block(b, m, p, 0, 0, mh, ph, z)
+        val b12 = block(b, m, p, 0, ph, mh, ph, z)
+        val b21 = block(b, m, p, mh, 0, mh, ph, z)
+        val b22 = block(b, m, p, mh, ph, mh, ph, z)
+
+        val add: (T, T) -> T = mc::add
+        val sub: (T, T) -> T = mc::subtract
+        val s1 = zip(a21, a22, add)
+        val s2 = zip(s1, a11, sub)
+        val s3 = zip(a11, a21, sub)
+        val s4 = zip(a12, s2, sub)
+        val t1 = zip(b12, b11, sub)
+        val t2 = zip(b22, t1, sub)
+        val t3 = zip(b22, b12, sub)
+        val t4 = zip(t2, b21, sub)
+
+        val m1 = multiplyStrassen(a11, b11, nh, mh, ph, mc, cutoff)
+        val m2 = multiplyStrassen(a12, b21, nh, mh, ph, mc, cutoff)
+        val m3 = multiplyStrassen(s4, b22, nh, mh, ph, mc, cutoff)
+        val m4 = multiplyStrassen(a22, t4, nh, mh, ph, mc, cutoff)
+        val m5 = multiplyStrassen(s1, t1, nh, mh, ph, mc, cutoff)
+        val m6 = multiplyStrassen(s2, t2, nh, mh, ph, mc, cutoff)
+        val m7 = multiplyStrassen(s3, t3, nh, mh, ph, mc, cutoff)
+
+        val c11 = zip(m1, m2, add)
+        val u2 = zip(m1, m6, add)
+        val u3 = zip(u2, m7, add)
+        val u4 = zip(u2, m5, add)
+        val c12 = zip(u4, m3, add)
+        val c21 = zip(u3, m4, sub)
+        val c22 = zip(u3, m5, add)
+
+        val c = arrayOfNulls<Any>(n * p)
+        putBlock(c11, nh, ph, c, n, p, 0, 0)
+        putBlock(c12, nh, ph, c, n, p, 0, ph)
+        putBlock(c21, nh, ph, c, n, p, nh, 0)
+        putBlock(c22, nh, ph, c, n, p, nh, ph)
+        return c
+    }
+}
@@ -4,6 +4,7 @@ import cn.ancono.math.algebra.abs.calculator.*
 import cn.ancono.math.exceptions.ExceptionUtil
 import cn.ancono.math.numberModels.api.*
 import java.util.*
+import kotlin.math.max
 import kotlin.math.min
 
 
@@ -404,21 +405,26 @@ object MatrixUtils {
     internal fun <T> toHermitForm0(M: MutableMatrix<T>, column: Int = M.column): List<Int> {
         val pivots = toUpperEUD0(M, column)
         val mc = M.calculator as IntCalculator<T>
-        for (i in pivots.lastIndex downTo 0) {
-            val j = pivots[i]
-            if (mc.isNegative(M[i, j])) {
+        for (i in pivots.indices) {
+            if (mc.isNegative(M[i, pivots[i]])) {
                 M.negateRow(i)
             }
+        }
+        // reducing with the i-th row only changes the columns after the i-th pivot, so the pivots are processed
+        // from left to right
+        for (i in pivots.indices) {
+            val j = pivots[i]
             val d = M[i, j]
-            for (k in (i - 1) downTo 0) {
-                if (mc.isZero(M[k, j])) {
-                    continue
+            for (k in 0 until i) {
+                val a = M[k, j]
+                var q = mc.divideToInteger(a, d)
+                if (mc.isNegative(mc.subtract(a, mc.multiply(q, d)))) {
+                    q = mc.decrease(q)
                 }
-                var q = mc.eval { -divideToInteger(M[k, j], d) }
-                if (mc.isNegative(M[k, j])) {
-                    q = mc.increase(q)
+                if (mc.isZero(q)) {
+                    continue
                 }
-                M.multiplyAddRow(i, k, q, j)
+                M.multiplyAddRow(i, k, mc.negate(q), j)
             }
         }
         return pivots
@@ -427,8 +433,14 @@ object MatrixUtils {
     /**
      * Transform this matrix to (row) Hermit Form. It is required that the calculator is an
      * [IntCalculator].
+     *
+     * Large matrices of [Int], [Long] and [java.math.BigInteger] are transformed modulo the determinant
+     * with [IntegerNormalForms].
      */
     fun <T> toHermitForm(A: AbstractMatrix<T>): Matrix<T> {
+        if (max(A.row, A.column) >= MultiModular.threshold) {
+            IntegerNormalForms.hermiteForm(A, A.calculator)?.let { return it }
+        }
         val M = A.toMutable()
         toHermitForm0(M)
         return M
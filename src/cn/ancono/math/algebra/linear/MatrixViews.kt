@@ -1,6 +1,7 @@
 package cn.ancono.math.algebra.linear
 
 import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.algebra.abs.calculator.UnitRingCalculator
 import cn.ancono.math.numberModels.api.colIndices
 import cn.ancono.math.numberModels.api.rowIndices
 import java.util.*
@@ -14,6 +15,10 @@ import java.util.*
 class TransposeMatrixView<T>(
         val origin: AbstractMatrix<T>) :
         Matrix<T>(origin.calculator, origin.column, origin.row) {
+
+    override val isView: Boolean
+        get() = true
+
     override fun getChecked(i: Int, j: Int): T {
         return origin[j, i]
     }
@@ -37,6 +42,10 @@ class TransposeMatrixView<T>(
 class SubMatrixView<T>
 internal constructor(mc: RingCalculator<T>, row: Int, column: Int,
                      val dRow: Int, val dCol: Int, val m: AbstractMatrix<T>) : Matrix<T>(mc, row, column) {
+
+    override val isView: Boolean
+        get() = true
+
     override fun getChecked(i: Int, j: Int): T {
         return m[i + dRow, j + dCol]
     }
@@ -58,6 +67,9 @@ internal constructor(
         val m: AbstractMatrix<T>)
     : Matrix<T>(m.calculator, rowMap.size, columnMap.size) {
 
+    override val isView: Boolean
+        get() = true
+
     override fun getChecked(i: Int, j: Int): T {
         return m[rowMap[i], columnMap[j]]
     }
@@ -119,4 +131,166 @@ internal constructor(
 
 
     }
-}
\ No newline at end of file
+}
+
+/**
+ * A view of the Kronecker product `x ⊗ y` of two matrices, whose elements are computed on demand.
+ */
+class KroneckerMatrixView<T>
+internal constructor(val x: Matrix<T>, val y: Matrix<T>) :
+        Matrix<T>(x.calculator, x.row * y.row, x.column * y.column) {
+
+    override val isView: Boolean
+        get() = true
+
+    override fun getChecked(i: Int, j: Int): T {
+        val r = y.row
+        val c = y.column
+        return calculator.multiply(x[i / r, j / c], y[i % r, j % c])
+    }
+}
+
+/**
+ * A lazy matrix expression, whose elements are computed from its operands only when they are accessed.
+ *
+ * Element-wise operations on a lazy matrix, including addition, subtraction, negation, multiplication and division
+ * by a scalar, [hadamard] and [applyAll], as well as [transpose], [subMatrix] and [kronecker], return new lazy
+ * matrices without computing anything, so that an expression like `A.lazy() + B * k - C` is fused into a single
+ * function of the indices. The result is materialized in one pass by [eval]. Matrix multiplication is not
+ * element-wise, so it evaluates its operands and returns a usual matrix.
+ *
+ * The operands are not copied, so modifications to them are visible through the lazy matrix.
+ * Elements are computed again each time they are accessed, so a lazy matrix should be evaluated before it is
+ * accessed repeatedly.
+ *
+ * @see Matrix.lazy
+ */
+class LazyMatrix<T>
+internal constructor(mc: RingCalculator<T>, row: Int, column: Int, private val f: (Int, Int) -> T) :
+        Matrix<T>(mc, row, column) {
+
+    override val isView: Boolean
+        get() = true
+
+    override fun getChecked(i: Int, j: Int): T {
+        return f(i, j)
+    }
+
+    /**
+     * Computes all the elements of this lazy matrix in one pass and returns them as a new matrix.
+     */
+    fun eval(): MutableMatrix<T> {
+        return Matrix.of(row, column, calculator, f)
+    }
+
+    /**
+     * Returns a new matrix with the elements of this lazy matrix, which is the same as [eval].
+     */
+    fun copy(): MutableMatrix<T> {
+        return eval()
+    }
+
+    override fun lazy(): LazyMatrix<T> {
+        return this
+    }
+
+    override fun applyAll(f: (T) -> T): LazyMatrix<T> {
+        return map1(this, f)
+    }
+
+    override fun add(y: Matrix<T>): LazyMatrix<T> {
+        return map2(this, y, calculator::add)
+    }
+
+    override fun negate(): LazyMatrix<T> {
+        return map1(this, calculator::negate)
+    }
+
+    override fun subtract(y: Matrix<T>): LazyMatrix<T> {
+        return map2(this, y, calculator::subtract)
+    }
+
+    override fun multiply(k: T): LazyMatrix<T> {
+        val mc = calculator
+        return map1(this) { mc.multiply(k, it) }
+    }
+
+    override fun divide(k: T): LazyMatrix<T> {
+        val mc = calculator as UnitRingCalculator
+        return map1(this) { mc.exactDivide(it, k) }
+    }
+
+    override fun hadamard(y: Matrix<T>): LazyMatrix<T> {
+        return map2(this, y, calculator::multiply)
+    }
+
+    override fun kronecker(y: Matrix<T>): LazyMatrix<T> {
+        return of(KroneckerMatrixView(this, y))
+    }
+
+    override fun transpose(): LazyMatrix<T> {
+        val g = f
+        return LazyMatrix(calculator, column, row) { i, j -> g(j, i) }
+    }
+
+    override fun subMatrix(rowStart: Int, colStart: Int, rowEnd: Int, colEnd: Int): LazyMatrix<T> {
+        return of(SubMatrixView.subMatrixOf(this, rowStart, rowEnd, colStart, colEnd))
+    }
+
+    override fun multiply(y: Matrix<T>): Matrix<T> {
+        val x = eval()
+        if (y is LazyMatrix) {
+            return x.multiply(y.eval())
+        }
+        return x.multiply(y)
+    }
+
+    companion object {
+
+        /**
+         * Returns a lazy matrix that views the given matrix.
+         */
+        @JvmStatic
+        fun <T> of(m: Matrix<T>): LazyMatrix<T> {
+            if (m is LazyMatrix) {
+                return m
+            }
+            return LazyMatrix(m.calculator, m.row, m.column) { i, j -> m[i, j] }
+        }
+
+        private inline fun <T> map1(x: LazyMatrix<T>, crossinline op: (T) -> T): LazyMatrix<T> {
+            val f = x.f
+            return LazyMatrix(x.calculator, x.row, x.column) { i, j -> op(f(i, j)) }
+        }
+
+        private inline fun <T> map2(x: LazyMatrix<T>, y: Matrix<T>, crossinline op: (T, T) -> T): LazyMatrix<T> {
+            require(x.isSameShape(y)) {
+                "Shape mismatch: (${x.row},${x.column}) and (${y.row},${y.column})"
+            }
+            val f = x.f
+            if (y is LazyMatrix) {
+                val g = y.f
+                return LazyMatrix(x.calculator, x.row, x.column) { i, j -> op(f(i, j), g(i, j)) }
+            }
+            return LazyMatrix(x.calculator, x.row, x.column) { i, j -> op(f(i, j), y[i, j]) }
+        }
+    }
+}
+
+/**
+ * The scope of [Matrix.lazy], in which the element-wise operators on matrices build lazy matrix expressions
+ * instead of computing new matrices.
+ *
+ * Matrix multiplication `A * B` and the scalar multiplication `A * k` are member functions of [Matrix], so they
+ * still compute eagerly unless `A` is already lazy; write `k * A` to defer a scalar multiplication.
+ */
+object MatrixExpressionScope {
+
+    operator fun <T> Matrix<T>.plus(y: Matrix<T>): LazyMatrix<T> = lazy().add(y)
+
+    operator fun <T> Matrix<T>.minus(y: Matrix<T>): LazyMatrix<T> = lazy().subtract(y)
+
+    operator fun <T> Matrix<T>.unaryMinus(): LazyMatrix<T> = lazy().negate()
+
+    operator fun <T> T.times(m: Matrix<T>): LazyMatrix<T> = m.lazy().multiply(this)
+}
@@ -0,0 +1,256 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.algebra.abs.calculator.FieldCalculator
+import cn.ancono.math.algebra.abs.calculator.OrderedFieldCal
+import cn.ancono.math.algebra.abs.calculator.eval
+import cn.ancono.math.exceptions.ExceptionUtil
+import cn.ancono.math.numberModels.api.GenMatrix
+import cn.ancono.math.numberModels.api.RealCalculator
+
+
+/**
+ * Buffers for the decompositions, inverses and solutions of `(n, n)` matrices that can be reused across calls
+ * of the same size, so that loops performing many such operations do not create new matrices each time.
+ *
+ * The buffers are created by [Matrix.zero], so they are primitive-backed matrices such as [DMatrix] whenever the
+ * calculator allows, and the elimination is performed through the primary row operations of them.
+ *
+ * The matrices returned by [decompPLU] and [decompQR] are the buffers themselves, which are overwritten by the next
+ * call on this workspace. A workspace must not be used by multiple threads at the same time.
+ *
+ * @see Matrix.solveInto
+ */
+class MatrixWorkspace<T>(val calculator: FieldCalculator<T>, val n: Int) {
+
+    init {
+        require(n > 0)
+    }
+
+    private val lu: MutableMatrix<T> = Matrix.zero(n, n, calculator)
+    private val perm = IntArray(n)
+
+    private val bufferP: MutableMatrix<T> by lazy { Matrix.zero(n, n, calculator) }
+    private val bufferL: MutableMatrix<T> by lazy { Matrix.zero(n, n, calculator) }
+    private val bufferU: MutableMatrix<T> by lazy { Matrix.zero(n, n, calculator) }
+    private val bufferQ: MutableMatrix<T> by lazy { Matrix.zero(n, n, calculator) }
+    private val bufferR: MutableMatrix<T> by lazy { Matrix.zero(n, n, calculator) }
+    private val bufferW: MutableMatrix<T> by lazy { Matrix.zero(n, n, calculator) }
+
+    private fun requireSize(m: GenMatrix<T>) {
+        require(m.row == n && m.column == n) {
+            "The workspace is for ($n,$n) matrices, but (${m.row},${m.column}) is given."
+        }
+    }
+
+    /**
+     * Computes the LU decomposition `PA = LU` with partial pivoting in place, in which `L` is stored below the
+     * diagonal of [lu] and `U` on and above it, and row `i` of `PA` is row `perm[i]` of `A`.
+     *
+     * @return `false` if `A` is singular
+     */
+    private fun factorLU(A: GenMatrix<T>): Boolean {
+        requireSize(A)
+        val mc = calculator
+        lu.setAll(0, 0, A)
+        for (i in 0 until n) {
+            perm[i] = i
+        }
+        for (k in 0 until n) {
+            val p = pivotOf(k)
+            if (mc.isZero(lu[p, k])) {
+                return false
+            }
+            if (p != k) {
+                lu.swapRow(k, p)
+                val t = perm[k]
+                perm[k] = perm[p]
+                perm[p] = t
+            }
+            val pivot = lu[k, k]
+            for (i in (k + 1) until n) {
+                val x = lu[i, k]
+                if (mc.isZero(x)) {
+                    continue
+                }
+                val lambda = mc.divide(x, pivot)
+                lu[i, k] = lambda
+                lu.multiplyAddRow(k, i, mc.negate(lambda), k + 1)
+            }
+        }
+        return true
+    }
+
+    /**
+     * Returns the row in `[k, n)` of the pivot in column `k`, which has the maximal absolute value if the calculator
+     * is ordered, or otherwise is the first non-zero one.
+     */
+    private fun pivotOf(k: Int): Int {
+        val mc = calculator
+        if (mc is OrderedFieldCal) {
+            var p = k
+            var max = mc.abs(lu[k, k])
+            for (i in (k + 1) until n) {
+                val v = mc.abs(lu[i, k])
+                if (mc.compare(v, max) > 0) {
+                    p = i
+                    max = v
+                }
+            }
+            return p
+        }
+        for (i in k until n) {
+            if (!mc.isZero(lu[i, k])) {
+                return i
+            }
+        }
+        return k
+    }
+
+    /**
+     * Solves `LUX = X` in place by forward and backward substitution.
+     */
+    private fun substitute(X: MutableMatrix<T>) {
+        val mc = calculator
+        for (i in 1 until n) {
+            for (k in 0 until i) {
+                val l = lu[i, k]
+                if (!mc.isZero(l)) {
+                    X.multiplyAddRow(k, i, mc.negate(l))
+                }
+            }
+        }
+        for (i in (n - 1) downTo 0) {
+            for (k in (i + 1) until n) {
+                val u = lu[i, k]
+                if (!mc.isZero(u)) {
+                    X.multiplyAddRow(k, i, mc.negate(u))
+                }
+            }
+            X.divideRow(i, lu[i, i])
+        }
+    }
+
+    /**
+     * Solves the linear equation `AX = B` for an invertible `A` and stores `X` in [dest].
+     *
+     * @throws ArithmeticException if `A` is not invertible
+     */
+    fun solve(A: GenMatrix<T>, B: GenMatrix<T>, dest: MutableMatrix<T>) {
+        require(B.row == n && dest.row == n && dest.column == B.column) {
+            "Shape mismatch: ($n,$n) X = (${B.row},${B.column}), X: (${dest.row},${dest.column})"
+        }
+        if (!factorLU(A)) {
+            ExceptionUtil.notInvertible()
+        }
+        for (i in 0 until n) {
+            val r = perm[i]
+            for (j in 0 until B.column) {
+                dest[i, j] = B[r, j]
+            }
+        }
+        substitute(dest)
+    }
+
+    /**
+     * Computes the inverse of [A] and stores it in [dest].
+     *
+     * @throws ArithmeticException if `A` is not invertible
+     */
+    fun inverse(A: GenMatrix<T>, dest: MutableMatrix<T>) {
+        requireSize(dest)
+        if (!factorLU(A)) {
+            ExceptionUtil.notInvertible()
+        }
+        val mc = calculator
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                dest[i, j] = if (perm[i] == j) mc.one else mc.zero
+            }
+        }
+        substitute(dest)
+    }
+
+    /**
+     * Returns the inverse of [A] as a new matrix, reusing the buffers of the decomposition.
+     *
+     * @throws ArithmeticException if `A` is not invertible
+     */
+    fun inverse(A: GenMatrix<T>): MutableMatrix<T> {
+        val dest = Matrix.zero(n, n, calculator)
+        inverse(A, dest)
+        return dest
+    }
+
+    /**
+     * Returns the LU decomposition `PA = LU` of the invertible matrix [A] with partial pivoting.
+     * The returned matrices are the buffers of this workspace.
+     *
+     * @throws ArithmeticException if `A` is not invertible
+     * @see Matrix.decompPLU
+     */
+    fun decompPLU(A: GenMatrix<T>): Triple<Matrix<T>, Matrix<T>, Matrix<T>> {
+        if (!factorLU(A)) {
+            ExceptionUtil.notInvertible()
+        }
+        val mc = calculator
+        val P = bufferP
+        val L = bufferL
+        val U = bufferU
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                P[i, j] = if (perm[i] == j) mc.one else mc.zero
+                L[i, j] = when {
+                    j < i -> lu[i, j]
+                    j == i -> mc.one
+                    else -> mc.zero
+                }
+                U[i, j] = if (j >= i) lu[i, j] else mc.zero
+            }
+        }
+        return Triple(P, L, U)
+    }
+
+    /**
+     * Returns the QR decomposition `A = QR` of [A] computed by the Gram-Schmidt process, which requires the
+     * calculator to be a [RealCalculator]. The returned matrices are the buffers of this workspace.
+     *
+     * @see Matrix.decompQR
+     */
+    fun decompQR(A: GenMatrix<T>): Pair<Matrix<T>, Matrix<T>> {
+        requireSize(A)
+        val mc = calculator as RealCalculator
+        // the rows of W are the orthonormal vectors
+        val W = bufferW
+        val R = bufferR
+        Matrix.transposeInto(A, W)
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                R[i, j] = mc.zero
+            }
+        }
+        for (i in 0 until n) {
+            for (j in 0 until i) {
+                val k = innerOfRows(W, i, j)
+                W.multiplyAddRow(j, i, mc.negate(k))
+                R[j, i] = k
+            }
+            val sq = innerOfRows(W, i, i)
+            if (!mc.isZero(sq)) {
+                val length = mc.squareRoot(sq)
+                R[i, i] = length
+                W.divideRow(i, length)
+            }
+        }
+        Matrix.transposeInto(W, bufferQ)
+        return bufferQ to R
+    }
+
+    private fun innerOfRows(W: MutableMatrix<T>, r1: Int, r2: Int): T {
+        val mc = calculator
+        var re = mc.zero
+        for (l in 0 until n) {
+            re = mc.eval { re + W[r1, l] * W[r2, l] }
+        }
+        return re
+    }
+}
@@ -0,0 +1,814 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.IMathObject
+import cn.ancono.math.algebra.abs.calculator.FieldCalculator
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.exceptions.ExceptionUtil
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import cn.ancono.math.numberModels.api.colIndices
+import cn.ancono.math.numberModels.api.requireSquare
+import cn.ancono.math.numberModels.api.rowIndices
+import cn.ancono.math.numberModels.structure.Polynomial
+import cn.ancono.math.numberTheory.ZModPCalculator
+
+
+/**
+ * A matrix over the prime field `Z/p` whose elements are stored as integers in `[0, p)` in a flat primitive array
+ * ordered from left to right and from up to down.
+ *
+ * Arithmetic is performed on primitive integers instead of going through the calculator. Products are
+ * accumulated in longs and reduced only when the accumulator may overflow, and the reductions use Barrett's
+ * method instead of the division instruction. Multiplication, the echelon form, the rank, the determinant,
+ * the inverse, the kernel and the characteristic polynomial (through the Hessenberg form) have dedicated kernels,
+ * and the primary row and column operations used by the generic algorithms are performed on the array directly.
+ *
+ * Matrices created by [Matrix.zero], [Matrix.of], [Matrix.identity] and [Matrix.copyOf] with a calculator
+ * returned by [Calculators.intModP] for an odd prime `p` are instances of this class.
+ */
+class ModPMatrix internal constructor(
+    mc: RingCalculator<Int>, row: Int, column: Int,
+    internal val data: IntArray
+) : MutableMatrix<Int>(mc, row, column) {
+
+    init {
+        require(row * column == data.size)
+        require(data.isNotEmpty())
+    }
+
+    /**
+     * The modulus of this matrix.
+     */
+    val p: Int = modulusOf(mc)
+
+    private val reducer = Barrett.of(p)
+
+    private fun toPos(i: Int, j: Int): Int {
+        return i * column + j
+    }
+
+    override fun getChecked(i: Int, j: Int): Int {
+        return data[toPos(i, j)]
+    }
+
+    override fun setChecked(i: Int, j: Int, x: Int) {
+        invalidateCache()
+        data[toPos(i, j)] = Math.floorMod(x, p)
+    }
+
+    override fun setAll(r: Int, c: Int, m: GenMatrix<Int>) {
+        invalidateCache()
+        if (m !is ModPMatrix || m.p != p) {
+            super.setAll(r, c, m)
+            return
+        }
+        val mData = m.data
+        for (i in m.rowIndices) {
+            System.arraycopy(mData, m.toPos(i, 0), data, toPos(i + r, c), m.column)
+        }
+    }
+
+    override fun copy(): ModPMatrix {
+        return ModPMatrix(calculator, row, column, data.clone())
+    }
+
+    override fun getRow(row: Int): Vector<Int> {
+        require(row in rowIndices)
+        val pos0 = toPos(row, 0)
+        return Vector.of(column, calculator) { j -> data[pos0 + j] }
+    }
+
+    override fun getColumn(col: Int): Vector<Int> {
+        require(col in colIndices)
+        return Vector.of(row, calculator) { i -> data[toPos(i, col)] }
+    }
+
+    override fun isZero(): Boolean {
+        return data.all { it == 0 }
+    }
+
+    private fun sameField(y: Matrix<Int>): Boolean {
+        return y is ModPMatrix && y.p == p
+    }
+
+    override fun add(y: Matrix<Int>): MutableMatrix<Int> {
+        if (sameField(y)) {
+            return apply2(this, y as ModPMatrix) { a, b -> addMod(a, b, p) }
+        }
+        return super.add(y)
+    }
+
+    override fun subtract(y: Matrix<Int>): MutableMatrix<Int> {
+        if (sameField(y)) {
+            return apply2(this, y as ModPMatrix) { a, b -> subMod(a, b, p) }
+        }
+        return super.subtract(y)
+    }
+
+    override fun negate(): ModPMatrix {
+        return apply1(this) { if (it == 0) 0 else p - it }
+    }
+
+    override fun multiply(k: Int): ModPMatrix {
+        val kk = Math.floorMod(k, p).toLong()
+        return apply1(this) { reducer.reduce(kk * it) }
+    }
+
+    override fun multiply(y: Matrix<Int>): ModPMatrix {
+        require(column == y.row) {
+            "Shape mismatch in multiplication: ($row,$column) (${y.row},${y.column})"
+        }
+        val result = multiplyMod(data, dataOf(y, p), row, column, y.column, p)
+        return ModPMatrix(calculator, row, y.column, result)
+    }
+
+    override fun hadamard(y: Matrix<Int>): Matrix<Int> {
+        if (sameField(y)) {
+            return apply2(this, y as ModPMatrix) { a, b -> reducer.reduce(a.toLong() * b) }
+        }
+        return super.hadamard(y)
+    }
+
+    override fun plusAssign(y: Matrix<Int>) {
+        invalidateCache()
+        if (!sameField(y)) {
+            super.plusAssign(y)
+            return
+        }
+        require(isSameShape(y))
+        val d2 = (y as ModPMatrix).data
+        for (k in data.indices) {
+            data[k] = addMod(data[k], d2[k], p)
+        }
+    }
+
+    override fun minusAssign(y: Matrix<Int>) {
+        invalidateCache()
+        if (!sameField(y)) {
+            super.minusAssign(y)
+            return
+        }
+        require(isSameShape(y))
+        val d2 = (y as ModPMatrix).data
+        for (k in data.indices) {
+            data[k] = subMod(data[k], d2[k], p)
+        }
+    }
+
+    override fun timesAssign(k: Int) {
+        invalidateCache()
+        val kk = Math.floorMod(k, p).toLong()
+        for (i in data.indices) {
+            data[i] = reducer.reduce(kk * data[i])
+        }
+    }
+
+    override fun negateInplace() {
+        invalidateCache()
+        for (i in data.indices) {
+            data[i] = if (data[i] == 0) 0 else p - data[i]
+        }
+    }
+
+    override fun trace(): Int {
+        requireSquare()
+        var t = 0L
+        for (i in 0 until row) {
+            t += data[toPos(i, i)]
+        }
+        return reducer.reduce(t)
+    }
+
+    override fun sum(): Int {
+        var t = 0L
+        for (x in data) {
+            t += x
+        }
+        return reducer.reduce(t)
+    }
+
+    /**
+     * Returns the transpose of this matrix as a new `ModPMatrix`.
+     */
+    override fun transpose(): ModPMatrix {
+        val result = IntArray(data.size)
+        var pos = 0
+        for (i in 0 until row) {
+            for (j in 0 until column) {
+                result[j * row + i] = data[pos++]
+            }
+        }
+        return ModPMatrix(calculator, column, row, result)
+    }
+
+    /*
+    Elimination
+     */
+
+    override fun det(): Int {
+        requireSquare()
+        val n = row
+        val a = data.clone()
+        var d = 1L
+        for (k in 0 until n) {
+            var r = k
+            while (r < n && a[r * n + k] == 0) {
+                r++
+            }
+            if (r == n) {
+                return 0
+            }
+            if (r != k) {
+                swapRows(a, n, r, k, k)
+                d = p - d
+            }
+            val pivot = a[k * n + k]
+            d = reducer.reduce(d * pivot).toLong()
+            val inv = inverseOf(pivot, p).toLong()
+            for (i in (k + 1) until n) {
+                val aik = a[i * n + k]
+                if (aik == 0) {
+                    continue
+                }
+                val f = p - reducer.reduce(aik * inv)
+                rowAddMultiple(a, n, k, i, f, k + 1, n, reducer)
+            }
+        }
+        return reducer.reduce(d)
+    }
+
+    override fun rank(): Int {
+        return echelonMod(data.clone(), row, column, column, p, false).size
+    }
+
+    /**
+     * Returns the reduced row echelon form of this matrix, in which the pivots are all one.
+     */
+    override fun toEchelon(): ModPMatrix {
+        val a = data.clone()
+        echelonMod(a, row, column, column, p, true)
+        return ModPMatrix(calculator, row, column, a)
+    }
+
+    /**
+     * Returns the inverse of this matrix, which is computed by Gauss-Jordan elimination.
+     *
+     * @throws ArithmeticException if this matrix is not invertible
+     */
+    override fun inverse(): ModPMatrix {
+        requireSquare()
+        val n = row
+        val w = 2 * n
+        val a = IntArray(n * w)
+        for (i in 0 until n) {
+            System.arraycopy(data, i * n, a, i * w, n)
+            a[i * w + n + i] = 1
+        }
+        val pivots = echelonMod(a, n, w, n, p, true)
+        if (pivots.size != n) {
+            ExceptionUtil.notInvertible()
+        }
+        val result = IntArray(n * n)
+        for (i in 0 until n) {
+            System.arraycopy(a, i * w + n, result, i * n, n)
+        }
+        return ModPMatrix(calculator, n, n, result)
+    }
+
+    override fun isInvertible(): Boolean {
+        return isSquare() && rank() == row
+    }
+
+    /**
+     * Returns the kernel of this matrix. The basis vectors are the same as the ones produced by the generic
+     * algorithm, one for each non-pivot column of the echelon form.
+     */
+    override fun kernel(): VectorBasis<Int> {
+        val a = data.clone()
+        val pivots = echelonMod(a, row, column, column, p, true)
+        val mc = calculator as FieldCalculator
+        if (pivots.size == column) {
+            return VectorBasis.zero(column, mc)
+        }
+        val isPivot = BooleanArray(column)
+        for (j in pivots) {
+            isPivot[j] = true
+        }
+        val vectors = ArrayList<Vector<Int>>(column - pivots.size)
+        for (f in 0 until column) {
+            if (isPivot[f]) {
+                continue
+            }
+            val v = IntArray(column)
+            v[f] = p - 1
+            for (t in pivots.indices) {
+                v[pivots[t]] = a[t * column + f]
+            }
+            vectors += Vector.of(column, mc) { v[it] }
+        }
+        return VectorBasis.createBaseWithoutCheck(vectors)
+    }
+
+    /**
+     * Returns the characteristic polynomial of this matrix, which is computed from the Hessenberg form.
+     */
+    override fun charPoly(): Polynomial<Int> {
+        requireSquare()
+        val c = charPolyMod(data.clone(), row, p)
+        return Polynomial.of(calculator, c.asList())
+    }
+
+    /*
+    Primary operations
+     */
+
+    override fun multiplyAddRow(r1: Int, r2: Int, k: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        rowAddMultiple(data, column, r1, r2, Math.floorMod(k, p), colStart, colEnd, reducer)
+    }
+
+    override fun multiplyAddCol(c1: Int, c2: Int, k: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        val kk = Math.floorMod(k, p).toLong()
+        for (r in rowStart until rowEnd) {
+            val l = toPos(r, 0)
+            data[l + c2] = reducer.reduce(data[l + c2] + kk * data[l + c1])
+        }
+    }
+
+    override fun swapRow(r1: Int, r2: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val s1 = toPos(r1, 0)
+        val s2 = toPos(r2, 0)
+        for (l in colStart until colEnd) {
+            val t = data[s1 + l]
+            data[s1 + l] = data[s2 + l]
+            data[s2 + l] = t
+        }
+    }
+
+    override fun swapCol(c1: Int, c2: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            val l = toPos(r, 0)
+            val t = data[l + c1]
+            data[l + c1] = data[l + c2]
+            data[l + c2] = t
+        }
+    }
+
+    override fun multiplyRow(r: Int, k: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val kk = Math.floorMod(k, p).toLong()
+        val d = toPos(r, 0)
+        for (l in colStart until colEnd) {
+            data[d + l] = reducer.reduce(kk * data[d + l])
+        }
+    }
+
+    override fun divideRow(r: Int, k: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        multiplyRow(r, inverseOf(Math.floorMod(k, p), p), colStart, colEnd)
+    }
+
+    override fun multiplyCol(c: Int, k: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        val kk = Math.floorMod(k, p).toLong()
+        for (r in rowStart until rowEnd) {
+            val pos = toPos(r, c)
+            data[pos] = reducer.reduce(kk * data[pos])
+        }
+    }
+
+    override fun divideCol(c: Int, k: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        multiplyCol(c, inverseOf(Math.floorMod(k, p), p), rowStart, rowEnd)
+    }
+
+    override fun negateRow(r: Int, colStart: Int, colEnd: Int) {
+        invalidateCache()
+        val d = toPos(r, 0)
+        for (l in colStart until colEnd) {
+            data[d + l] = if (data[d + l] == 0) 0 else p - data[d + l]
+        }
+    }
+
+    override fun negateCol(c: Int, rowStart: Int, rowEnd: Int) {
+        invalidateCache()
+        for (r in rowStart until rowEnd) {
+            val pos = toPos(r, c)
+            data[pos] = if (data[pos] == 0) 0 else p - data[pos]
+        }
+    }
+
+    override fun transformRows(
+        r1: Int, r2: Int,
+        a11: Int, a12: Int, a21: Int, a22: Int,
+        colStart: Int, colEnd: Int
+    ) {
+        invalidateCache()
+        val b11 = Math.floorMod(a11, p).toLong()
+        val b12 = Math.floorMod(a12, p).toLong()
+        val b21 = Math.floorMod(a21, p).toLong()
+        val b22 = Math.floorMod(a22, p).toLong()
+        val s1 = toPos(r1, 0)
+        val s2 = toPos(r2, 0)
+        for (l in colStart until colEnd) {
+            val x = data[s1 + l]
+            val y = data[s2 + l]
+            data[s1 + l] = reducer.reduce(b11 * x + b12 * y)
+            data[s2 + l] = reducer.reduce(b21 * x + b22 * y)
+        }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+
+        other as ModPMatrix
+
+        return row == other.row && column == other.column && p == other.p && data.contentEquals(other.data)
+    }
+
+    override fun hashCode(): Int {
+        var result = super.hashCode()
+        result = 31 * result + data.contentHashCode()
+        return result
+    }
+
+    override fun valueEquals(obj: IMathObject<Int>): Boolean {
+        if (obj !is ModPMatrix || obj.p != p) {
+            return super.valueEquals(obj)
+        }
+        return row == obj.row && column == obj.column && data.contentEquals(obj.data)
+    }
+
+
+    /**
+     * Reduces non-negative longs modulo `p` with Barrett's method, which replaces the division with a multiplication
+     * by the precomputed `m = floor((2^64 - 1) / p)` and at most two subtractions. It is required that `p > 2`.
+     */
+    internal class Barrett private constructor(val p: Int) {
+        private val pl = p.toLong()
+        private val m = java.lang.Long.divideUnsigned(-1L, pl)
+
+        /**
+         * Returns `x mod p` for `0 <= x < 2^63`.
+         */
+        fun reduce(x: Long): Int {
+            val q = Math.multiplyHigh(x, m)
+            var r = x - q * pl
+            while (r >= pl) {
+                r -= pl
+            }
+            return r.toInt()
+        }
+
+        companion object {
+            @Volatile
+            private var cached = Barrett(3)
+
+            fun of(p: Int): Barrett {
+                val c = cached
+                if (c.p == p) {
+                    return c
+                }
+                return Barrett(p).also { cached = it }
+            }
+        }
+    }
+
+    companion object {
+
+        private inline fun apply2(x: ModPMatrix, y: ModPMatrix, f: (Int, Int) -> Int): ModPMatrix {
+            require(x.isSameShape(y))
+            val d1 = x.data
+            val d2 = y.data
+            val ndata = IntArray(d1.size) { k ->
+                f(d1[k], d2[k])
+            }
+            return ModPMatrix(x.calculator, x.row, x.column, ndata)
+        }
+
+        private inline fun apply1(x: ModPMatrix, f: (Int) -> Int): ModPMatrix {
+            val data = x.data
+            val newData = IntArray(data.size) { k ->
+                f(data[k])
+            }
+            return ModPMatrix(x.calculator, x.row, x.column, newData)
+        }
+
+        private fun addMod(a: Int, b: Int, p: Int): Int {
+            val s = a + b - p
+            return if (s < 0) s + p else s
+        }
+
+        private fun subMod(a: Int, b: Int, p: Int): Int {
+            val s = a - b
+            return if (s < 0) s + p else s
+        }
+
+        private fun inverseOf(a: Int, p: Int): Int {
+            if (a == 0) {
+                ExceptionUtil.dividedByZero()
+            }
+            return Math.floorMod(MultiModular.inverseMod(a.toLong(), p.toLong()), p.toLong()).toInt()
+        }
+
+        /**
+         * Returns the count of products of two elements in `[0, p)` that can be added to a long in `[0, p)`
+         * without overflow.
+         */
+        private fun delayOf(p: Int): Int {
+            val sq = (p - 1).toLong() * (p - 1)
+            if (sq == 0L) {
+                return Int.MAX_VALUE
+            }
+            return minOf((Long.MAX_VALUE - p) / sq, Int.MAX_VALUE.toLong()).toInt()
+        }
+
+        private fun swapRows(a: IntArray, w: Int, r1: Int, r2: Int, colStart: Int) {
+            val s1 = r1 * w
+            val s2 = r2 * w
+            for (l in colStart until w) {
+                val t = a[s1 + l]
+                a[s1 + l] = a[s2 + l]
+                a[s2 + l] = t
+            }
+        }
+
+        /**
+         * Performs `row[r2] += k * row[r1]` on the columns in `[colStart, colEnd)`, where `0 <= k < p`.
+         */
+        private fun rowAddMultiple(
+            a: IntArray, w: Int, r1: Int, r2: Int, k: Int,
+            colStart: Int, colEnd: Int, reducer: Barrett
+        ) {
+            if (k == 0) {
+                return
+            }
+            val kk = k.toLong()
+            val s1 = r1 * w
+            val s2 = r2 * w
+            for (l in colStart until colEnd) {
+                val x = a[s1 + l]
+                if (x != 0) {
+                    a[s2 + l] = reducer.reduce(a[s2 + l] + kk * x)
+                }
+            }
+        }
+
+        /**
+         * Returns the product of the `(n, m)` matrix [a] and the `(m, l)` matrix [b] modulo `p`, which is stored
+         * in [c]. Products are accumulated in longs and only reduced before an overflow may happen.
+         */
+        internal fun multiplyMod(
+            a: IntArray, b: IntArray, n: Int, m: Int, l: Int, p: Int,
+            c: IntArray = IntArray(n * l)
+        ): IntArray {
+            val reducer = Barrett.of(p)
+            val delay = delayOf(p)
+            MatrixKernels.forRowBlocks(n, m.toLong() * l) { r0, r1 ->
+                val acc = LongArray(l)
+                for (i in r0 until r1) {
+                    acc.fill(0L)
+                    var count = 0
+                    for (k in 0 until m) {
+                        val aik = a[i * m + k].toLong()
+                        if (aik == 0L) {
+                            continue
+                        }
+                        if (count == delay) {
+                            for (j in 0 until l) {
+                                acc[j] = reducer.reduce(acc[j]).toLong()
+                            }
+                            count = 0
+                        }
+                        val rk = k * l
+                        for (j in 0 until l) {
+                            acc[j] += aik * b[rk + j]
+                        }
+                        count++
+                    }
+                    val ri = i * l
+                    for (j in 0 until l) {
+                        c[ri + j] = reducer.reduce(acc[j])
+                    }
+                }
+            }
+            return c
+        }
+
+        /**
+         * Transforms the `(row, w)` matrix [a] to the row echelon form in place, only choosing pivots in the first
+         * [column] columns. If [reduced] is `true`, the pivots are made one and the elements above them are
+         * eliminated as well.
+         *
+         * @return the pivot columns, whose size is the rank
+         */
+        internal fun echelonMod(a: IntArray, row: Int, w: Int, column: Int, p: Int, reduced: Boolean): IntArray {
+            val reducer = Barrett.of(p)
+            val pivots = IntArray(minOf(row, column))
+            var r = 0
+            for (j in 0 until column) {
+                if (r == row) {
+                    break
+                }
+                var s = r
+                while (s < row && a[s * w + j] == 0) {
+                    s++
+                }
+                if (s == row) {
+                    continue
+                }
+                if (s != r) {
+                    swapRows(a, w, s, r, j)
+                }
+                val inv = inverseOf(a[r * w + j], p).toLong()
+                if (reduced) {
+                    val rr = r * w
+                    for (l in j + 1 until w) {
+                        a[rr + l] = reducer.reduce(inv * a[rr + l])
+                    }
+                    a[rr + j] = 1
+                }
+                val start = if (reduced) 0 else r + 1
+                for (i in start until row) {
+                    if (i == r) {
+                        continue
+                    }
+                    val aij = a[i * w + j]
+                    if (aij == 0) {
+                        continue
+                    }
+                    val f = if (reduced) p - aij else p - reducer.reduce(aij * inv)
+                    rowAddMultiple(a, w, r, i, f, j + 1, w, reducer)
+                    a[i * w + j] = 0
+                }
+                pivots[r++] = j
+            }
+            return pivots.copyOf(r)
+        }
+
+        /**
+         * Returns the coefficients of the characteristic polynomial of the `(n, n)` matrix [a] modulo `p`,
+         * the constant term first. The array [a] is transformed to the Hessenberg form in place.
+         */
+        internal fun charPolyMod(a: IntArray, n: Int, p: Int): IntArray {
+            // Refer to 'A Course in Computational Algebraic Number Theory' Algorithm 2.2.9
+            val reducer = Barrett.of(p)
+            for (k in 0 until n - 2) {
+                var r = k + 1
+                while (r < n && a[r * n + k] == 0) {
+                    r++
+                }
+                if (r == n) {
+                    continue
+                }
+                if (r != k + 1) {
+                    swapRows(a, n, r, k + 1, 0)
+                    for (i in 0 until n) {
+                        val t = a[i * n + r]
+                        a[i * n + r] = a[i * n + k + 1]
+                        a[i * n + k + 1] = t
+                    }
+                }
+                val inv = inverseOf(a[(k + 1) * n + k], p).toLong()
+                for (i in k + 2 until n) {
+                    val u = reducer.reduce(a[i * n + k] * inv)
+                    if (u == 0) {
+                        continue
+                    }
+                    // row_i -= u * row_{k+1}
+                    rowAddMultiple(a, n, k + 1, i, p - u, k, n, reducer)
+                    // col_{k+1} += u * col_i
+                    for (j in 0 until n) {
+                        val pos = j * n + k + 1
+                        a[pos] = reducer.reduce(a[pos] + u.toLong() * a[j * n + i])
+                    }
+                }
+            }
+            val polys = ArrayList<IntArray>(n + 1)
+            polys += intArrayOf(1)
+            for (m in 1..n) {
+                val prev = polys[m - 1]
+                val c = IntArray(m + 1)
+                val h = (p - a[(m - 1) * n + m - 1]).toLong()
+                for (d in 0 until m) {
+                    c[d + 1] = prev[d]
+                    c[d] = reducer.reduce(c[d] + h * prev[d])
+                }
+                var t = 1L
+                for (i in m - 1 downTo 1) {
+                    t = reducer.reduce(t * a[i * n + i - 1]).toLong()
+                    val f = subMod(0, reducer.reduce(t * a[(i - 1) * n + m - 1]), p).toLong()
+                    if (f == 0L) {
+                        continue
+                    }
+                    val q = polys[i - 1]
+                    for (d in q.indices) {
+                        c[d] = reducer.reduce(c[d] + f * q[d])
+                    }
+                }
+                polys += c
+            }
+            return polys[n]
+        }
+
+        private fun modulusOf(mc: RingCalculator<Int>): Int {
+            return (mc as ZModPCalculator<*>).p.toInt()
+        }
+
+        /**
+         * Returns the elements of [m] reduced to `[0, p)` as a flat array.
+         */
+        private fun dataOf(m: GenMatrix<Int>, p: Int): IntArray {
+            if (m is ModPMatrix && m.p == p) {
+                return m.data
+            }
+            val data = MatrixKernels.flatten(m)
+            return IntArray(data.size) { Math.floorMod(data[it] as Int, p) }
+        }
+
+        internal fun multiply(x: GenMatrix<Int>, y: GenMatrix<Int>, mc: RingCalculator<Int>): ModPMatrix {
+            val p = modulusOf(mc)
+            val data = multiplyMod(dataOf(x, p), dataOf(y, p), x.row, x.column, y.column, p)
+            return ModPMatrix(mc, x.row, y.column, data)
+        }
+
+        internal fun multiplyInto(x: GenMatrix<Int>, y: GenMatrix<Int>, dest: ModPMatrix) {
+            val p = dest.p
+            multiplyMod(dataOf(x, p), dataOf(y, p), x.row, x.column, y.column, p, dest.data)
+        }
+
+        @JvmStatic
+        fun zero(row: Int, column: Int, mc: RingCalculator<Int>): ModPMatrix {
+            require(row > 0 && column > 0)
+            return ModPMatrix(mc, row, column, IntArray(row * column))
+        }
+
+        @JvmStatic
+        fun identity(n: Int, mc: RingCalculator<Int>): ModPMatrix {
+            val result = zero(n, n, mc)
+            var l = 0
+            for (i in 0 until n) {
+                result.data[l] = 1
+                l += n + 1
+            }
+            return result
+        }
+
+        @JvmStatic
+        fun of(row: Int, column: Int, mc: RingCalculator<Int>, supplier: (Int, Int) -> Int): ModPMatrix {
+            require(row > 0 && column > 0)
+            val p = modulusOf(mc)
+            val data = IntArray(row * column)
+            var pos = 0
+            for (i in 0 until row) {
+                for (j in 0 until column) {
+                    data[pos++] = Math.floorMod(supplier(i, j), p)
+                }
+            }
+            return ModPMatrix(mc, row, column, data)
+        }
+
+        @JvmStatic
+        fun of(row: Int, column: Int, mc: RingCalculator<Int>, elements: List<Int>): ModPMatrix {
+            require(elements.size == row * column) {
+                "Required $row * $column = ${row * column} elements, but ${elements.size} is given."
+            }
+            require(elements.isNotEmpty()) {
+                "The matrix must not be empty!"
+            }
+            val p = modulusOf(mc)
+            return ModPMatrix(mc, row, column, IntArray(elements.size) { Math.floorMod(elements[it], p) })
+        }
+
+        @JvmStatic
+        fun of(mat: Array<Array<Int>>, mc: RingCalculator<Int>): ModPMatrix {
+            require(mat.isNotEmpty() && mat[0].isNotEmpty()) {
+                "The given array is empty!"
+            }
+            val row = mat.size
+            val column = mat[0].size
+            mat.forEach { require(it.size == column) }
+            return of(row, column, mc) { i, j -> mat[i][j] }
+        }
+
+        @JvmStatic
+        fun copyOf(x: GenMatrix<Int>, mc: RingCalculator<Int>): ModPMatrix {
+            val p = modulusOf(mc)
+            if (x is ModPMatrix && x.p == p) {
+                return ModPMatrix(mc, x.row, x.column, x.data.clone())
+            }
+            return of(x.row, x.column, mc) { i, j -> x[i, j] }
+        }
+
+        /**
+         * Determines whether matrices with the calculator [mc] should be stored as `ModPMatrix`.
+         */
+        internal fun isApplicable(mc: RingCalculator<*>): Boolean {
+            return Calculators.isIntModPCalculator(mc)
+        }
+    }
+}
@@ -0,0 +1,668 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.MathUtils
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.numberModels.BigFraction
+import cn.ancono.math.numberModels.BigFractionCalculator
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.Fraction
+import cn.ancono.math.numberModels.api.GenMatrix
+import cn.ancono.math.numberModels.structure.Polynomial
+import java.math.BigInteger
+import kotlin.math.max
+import kotlin.math.min
+
+
+/**
+ * Provides multi-modular algorithms computing the determinant, rank, characteristic polynomial and adjoint of
+ * integer and rational matrices.
+ *
+ * The matrix is first turned into an integer matrix by clearing the denominators. The quantity is then computed
+ * modulo word-size primes with primitive arithmetic, and the exact result is reconstructed with the
+ * Chinese remainder theorem. The count of primes is determined by a Hadamard-type bound of the result, so that the
+ * results are always exact. The computations for different primes are independent and are performed in
+ * [MatrixKernels.pool] when the work is large enough.
+ *
+ * The methods of [Matrix] use these algorithms for matrices of [Int], [Long], [BigInteger], [Fraction] and
+ * [BigFraction] whose size is not less than [threshold], as the intermediate entries of the fraction-free
+ * elimination grow to big integers while the primitive arithmetic here does not.
+ */
+object MultiModular {
+
+    /**
+     * The minimal size of a matrix for [Matrix.det], [Matrix.rank], [Matrix.charPoly] and [Matrix.adjoint] to
+     * use the multi-modular algorithms. Set it to [Int.MAX_VALUE] to disable them.
+     */
+    @JvmStatic
+    @Volatile
+    var threshold: Int = 10
+
+    /*
+    Primes and the Chinese remainder theorem
+     */
+
+    /**
+     * The primes just below `2^31` in descending order, so that the product of two residues fits in a long.
+     */
+    private val primes = ArrayList<Long>()
+
+    @Synchronized
+    internal fun primes(count: Int): LongArray {
+        var c = if (primes.isEmpty()) (1L shl 31) else primes.last()
+        while (primes.size < count) {
+            c--
+            if (BigInteger.valueOf(c).isProbablePrime(50)) {
+                primes += c
+            }
+        }
+        return LongArray(count) { primes[it] }
+    }
+
+    /**
+     * Returns the count of primes whose product is greater than `2^(bits+1)`, which is enough to reconstruct
+     * an integer whose absolute value is less than `2^bits`.
+     */
+    private fun primeCount(bits: Long): Int {
+        // every prime is greater than 2^30
+        return ((bits + 1) / 30 + 1).toInt()
+    }
+
+    internal fun inverseMod(a: Long, p: Long): Long {
+        return Math.floorMod(MathUtils.modInverse(a, p), p)
+    }
+
+    /**
+     * Reconstructs integers from their residues modulo the [primes] with Garner's algorithm. The mixed-radix digits
+     * are computed with primitive arithmetic and only the final evaluation uses big integers.
+     */
+    private class Crt(val primes: LongArray) {
+        private val k = primes.size
+
+        /**
+         * `inv[j][i]` is the inverse of `primes[i]` modulo `primes[j]` for `i < j`.
+         */
+        private val inv = Array(k) { j -> LongArray(j) { i -> inverseMod(primes[i] % primes[j], primes[j]) } }
+        private val bigPrimes = Array<BigInteger>(k) { BigInteger.valueOf(primes[it]) }
+        private val modulus = bigPrimes.fold(BigInteger.ONE, BigInteger::multiply)
+        private val half = modulus.shiftRight(1)
+
+        /**
+         * Returns the integer of the least absolute value whose residue modulo `primes[j]` is `residues(j)`.
+         */
+        inline fun reconstruct(residues: (Int) -> Long): BigInteger {
+            val v = LongArray(k)
+            for (j in 0 until k) {
+                val p = primes[j]
+                var t = residues(j)
+                val c = inv[j]
+                for (i in 0 until j) {
+                    t = (t - v[i]) % p
+                    if (t < 0) t += p
+                    t = t * c[i] % p
+                }
+                v[j] = t
+            }
+            var x = BigInteger.valueOf(v[k - 1])
+            for (j in k - 2 downTo 0) {
+                x = x.multiply(bigPrimes[j]).add(BigInteger.valueOf(v[j]))
+            }
+            if (x > half) {
+                x -= modulus
+            }
+            return x
+        }
+    }
+
+    /**
+     * Computes [f] for each of the [primes], in parallel if the total work reaches [MatrixKernels.parallelThreshold].
+     */
+    private inline fun <reified R> mapPrimes(primes: LongArray, work: Long, crossinline f: (Long) -> R): Array<R?> {
+        val results = arrayOfNulls<R>(primes.size)
+        MatrixKernels.forRowBlocks(primes.size, work) { r0, r1 ->
+            for (i in r0 until r1) {
+                results[i] = f(primes[i])
+            }
+        }
+        return results
+    }
+
+    /*
+    Algorithms modulo a prime. All the matrices are row-major and their elements are in [0, p).
+     */
+
+    internal fun reduce(a: IntegerMatrix, p: Long): LongArray {
+        val small = a.small
+        if (small != null) {
+            return LongArray(small.size) { Math.floorMod(small[it], p) }
+        }
+        val bp = BigInteger.valueOf(p)
+        return LongArray(a.data.size) { a.data[it].mod(bp).toLong() }
+    }
+
+    private fun swapRows(a: LongArray, column: Int, r1: Int, r2: Int, from: Int = 0) {
+        for (j in from until column) {
+            val t = a[r1 * column + j]
+            a[r1 * column + j] = a[r2 * column + j]
+            a[r2 * column + j] = t
+        }
+    }
+
+    private fun detMod(a: LongArray, n: Int, p: Long): Long {
+        var d = 1L
+        for (k in 0 until n) {
+            var r = k
+            while (r < n && a[r * n + k] == 0L) {
+                r++
+            }
+            if (r == n) {
+                return 0L
+            }
+            if (r != k) {
+                swapRows(a, n, r, k, k)
+                d = p - d
+            }
+            val pivot = a[k * n + k]
+            d = d * pivot % p
+            val inv = inverseMod(pivot, p)
+            for (i in k + 1 until n) {
+                val f = a[i * n + k] * inv % p
+                if (f == 0L) {
+                    continue
+                }
+                for (j in k + 1 until n) {
+                    var v = a[i * n + j] - f * a[k * n + j] % p
+                    if (v < 0) v += p
+                    a[i * n + j] = v
+                }
+            }
+        }
+        return d % p
+    }
+
+    private fun rankMod(a: LongArray, row: Int, column: Int, p: Long): Int {
+        var rank = 0
+        for (k in 0 until column) {
+            if (rank == row) {
+                break
+            }
+            var r = rank
+            while (r < row && a[r * column + k] == 0L) {
+                r++
+            }
+            if (r == row) {
+                continue
+            }
+            if (r != rank) {
+                swapRows(a, column, r, rank, k)
+            }
+            val inv = inverseMod(a[rank * column + k], p)
+            for (i in rank + 1 until row) {
+                val f = a[i * column + k] * inv % p
+                if (f == 0L) {
+                    continue
+                }
+                for (j in k + 1 until column) {
+                    var v = a[i * column + j] - f * a[rank * column + j] % p
+                    if (v < 0) v += p
+                    a[i * column + j] = v
+                }
+            }
+            rank++
+        }
+        return rank
+    }
+
+    /**
+     * Returns the inverse of the matrix modulo `p`, or `null` if it is singular.
+     */
+    internal fun inverseMod(a: LongArray, n: Int, p: Long): LongArray? {
+        val w = 2 * n
+        val m = LongArray(n * w)
+        for (i in 0 until n) {
+            System.arraycopy(a, i * n, m, i * w, n)
+            m[i * w + n + i] = 1L
+        }
+        for (k in 0 until n) {
+            var r = k
+            while (r < n && m[r * w + k] == 0L) {
+                r++
+            }
+            if (r == n) {
+                return null
+            }
+            if (r != k) {
+                swapRows(m, w, r, k, k)
+            }
+            val inv = inverseMod(m[k * w + k], p)
+            for (j in k until w) {
+                m[k * w + j] = m[k * w + j] * inv % p
+            }
+            for (i in 0 until n) {
+                val f = m[i * w + k]
+                if (i == k || f == 0L) {
+                    continue
+                }
+                for (j in k until w) {
+                    var v = m[i * w + j] - f * m[k * w + j] % p
+                    if (v < 0) v += p
+                    m[i * w + j] = v
+                }
+            }
+        }
+        val result = LongArray(n * n)
+        for (i in 0 until n) {
+            System.arraycopy(m, i * w + n, result, i * n, n)
+        }
+        return result
+    }
+
+    /**
+     * Returns the coefficients of `det(xI - A)` modulo `p` from the constant term. The matrix is first reduced to
+     * the Hessenberg form by similarity transformations, and then the characteristic polynomials of
+     * the leading principal sub-matrices are computed by recursion.
+     */
+    private fun charPolyMod(a: LongArray, n: Int, p: Long): LongArray {
+        // Refer to 'A Course in Computational Algebraic Number Theory' Algorithm 2.2.9
+        for (k in 0 until n - 2) {
+            var r = k + 1
+            while (r < n && a[r * n + k] == 0L) {
+                r++
+            }
+            if (r == n) {
+                continue
+            }
+            if (r != k + 1) {
+                swapRows(a, n, r, k + 1)
+                for (i in 0 until n) {
+                    val t = a[i * n + r]
+                    a[i * n + r] = a[i * n + k + 1]
+                    a[i * n + k + 1] = t
+                }
+            }
+            val inv = inverseMod(a[(k + 1) * n + k], p)
+            for (i in k + 2 until n) {
+                val u = a[i * n + k] * inv % p
+                if (u == 0L) {
+                    continue
+                }
+                // row_i -= u * row_{k+1}
+                for (j in k until n) {
+                    var v = a[i * n + j] - u * a[(k + 1) * n + j] % p
+                    if (v < 0) v += p
+                    a[i * n + j] = v
+                }
+                // col_{k+1} += u * col_i
+                for (j in 0 until n) {
+                    a[j * n + k + 1] = (a[j * n + k + 1] + u * a[j * n + i]) % p
+                }
+            }
+        }
+        val polys = ArrayList<LongArray>(n + 1)
+        polys += longArrayOf(1L)
+        for (m in 1..n) {
+            val prev = polys[m - 1]
+            val c = LongArray(m + 1)
+            val h = a[(m - 1) * n + m - 1]
+            for (d in 0 until m) {
+                c[d + 1] = prev[d]
+                c[d] = (c[d] + (p - h) * prev[d]) % p
+            }
+            var t = 1L
+            for (i in m - 1 downTo 1) {
+                t = t * a[i * n + i - 1] % p
+                val f = (p - t * a[(i - 1) * n + m - 1] % p) % p
+                if (f == 0L) {
+                    continue
+                }
+                val q = polys[i - 1]
+                for (d in q.indices) {
+                    c[d] = (c[d] + f * q[d]) % p
+                }
+            }
+            polys += c
+        }
+        return polys[n]
+    }
+
+    private fun multiplyMod(a: LongArray, b: LongArray, n: Int, p: Long): LongArray {
+        val c = LongArray(n * n)
+        for (i in 0 until n) {
+            for (k in 0 until n) {
+                val aik = a[i * n + k]
+                if (aik == 0L) {
+                    continue
+                }
+                for (j in 0 until n) {
+                    c[i * n + j] = (c[i * n + j] + aik * b[k * n + j]) % p
+                }
+            }
+        }
+        return c
+    }
+
+    private fun adjointMod(a: LongArray, n: Int, p: Long): LongArray {
+        val inv = inverseMod(a, n, p)
+        if (inv != null) {
+            val d = detMod(a.copyOf(), n, p)
+            for (i in inv.indices) {
+                inv[i] = inv[i] * d % p
+            }
+            return inv
+        }
+        // adj(A) = (-1)^(n-1) (A^(n-1) + c[n-1] A^(n-2) + ... + c[1] I) by the Cayley-Hamilton theorem
+        val c = charPolyMod(a.copyOf(), n, p)
+        var q = LongArray(n * n)
+        for (i in 0 until n) {
+            q[i * n + i] = 1L
+        }
+        for (k in n - 1 downTo 1) {
+            q = multiplyMod(a, q, n, p)
+            for (i in 0 until n) {
+                q[i * n + i] = (q[i * n + i] + c[k]) % p
+            }
+        }
+        if (n % 2 == 0) {
+            for (i in q.indices) {
+                q[i] = (p - q[i]) % p
+            }
+        }
+        return q
+    }
+
+    /*
+    Integer matrices
+     */
+
+    /**
+     * An integer matrix stored in row-major order, together with the elements as longs if all of them fit.
+     */
+    internal class IntegerMatrix(val row: Int, val column: Int, val data: Array<BigInteger>) {
+        val small: LongArray? = if (data.all { it.bitLength() < 64 }) {
+            LongArray(data.size) { data[it].toLong() }
+        } else {
+            null
+        }
+
+        /**
+         * Returns the count of bits of the upper bound `prod(max(1, |r_i|))` of the absolute values of all minors,
+         * where `r_i` are the rows.
+         */
+        fun minorBoundBits(): Long {
+            var bits = 0L
+            for (i in 0 until row) {
+                bits += (sumOfSquares(i).bitLength() + 1) / 2
+            }
+            return bits
+        }
+
+        /**
+         * Returns the count of bits of the upper bound `(1 + max|r_i|)^n` of the absolute values of the coefficients
+         * of the characteristic polynomial, where `r_i` are the rows.
+         */
+        fun charPolyBoundBits(): Long {
+            var m = 0
+            for (i in 0 until row) {
+                m = max(m, (sumOfSquares(i).bitLength() + 1) / 2)
+            }
+            return row.toLong() * (m + 1)
+        }
+
+        private fun sumOfSquares(i: Int): BigInteger {
+            var s = BigInteger.ZERO
+            for (j in 0 until column) {
+                val x = data[i * column + j]
+                s += x * x
+            }
+            return s
+        }
+    }
+
+    private fun requireSquare(a: IntegerMatrix) {
+        require(a.row == a.column) {
+            "The matrix must be square!"
+        }
+    }
+
+    private fun work(a: IntegerMatrix): Long {
+        return a.row.toLong() * a.column * max(a.row, a.column)
+    }
+
+    private fun det(a: IntegerMatrix): BigInteger {
+        requireSquare(a)
+        val n = a.row
+        val ps = primes(primeCount(a.minorBoundBits()))
+        val residues = mapPrimes(ps, work(a)) { p -> detMod(reduce(a, p), n, p) }
+        return Crt(ps).reconstruct { residues[it]!! }
+    }
+
+    private fun rank(a: IntegerMatrix): Int {
+        // rank(A mod p) <= rank(A), and the equality holds for at least one of the primes whose product
+        // exceeds the bound of a non-zero minor of the maximal size
+        val full = min(a.row, a.column)
+        val ps = primes(primeCount(a.minorBoundBits()))
+        var rank = 0
+        for (p in ps) {
+            rank = max(rank, rankMod(reduce(a, p), a.row, a.column, p))
+            if (rank == full) {
+                break
+            }
+        }
+        return rank
+    }
+
+    private fun charPoly(a: IntegerMatrix): Array<BigInteger> {
+        requireSquare(a)
+        val n = a.row
+        val ps = primes(primeCount(a.charPolyBoundBits()))
+        val residues = mapPrimes(ps, work(a)) { p -> charPolyMod(reduce(a, p), n, p) }
+        val crt = Crt(ps)
+        return Array(n + 1) { d -> crt.reconstruct { residues[it]!![d] } }
+    }
+
+    private fun adjoint(a: IntegerMatrix): Array<BigInteger> {
+        requireSquare(a)
+        val n = a.row
+        val ps = primes(primeCount(a.minorBoundBits()))
+        val residues = mapPrimes(ps, work(a)) { p -> adjointMod(reduce(a, p), n, p) }
+        val crt = Crt(ps)
+        return Array(n * n) { k -> crt.reconstruct { residues[it]!![k] } }
+    }
+
+    /**
+     * Returns the determinant of the `(n, n)` integer matrix stored in row-major order in [data].
+     */
+    @JvmStatic
+    fun det(data: Array<BigInteger>, n: Int): BigInteger {
+        return det(IntegerMatrix(n, n, data))
+    }
+
+    /**
+     * Returns the rank of the `(row, column)` integer matrix stored in row-major order in [data].
+     */
+    @JvmStatic
+    fun rank(data: Array<BigInteger>, row: Int, column: Int): Int {
+        return rank(IntegerMatrix(row, column, data))
+    }
+
+    /**
+     * Returns the coefficients of the characteristic polynomial `det(xI - A)`, from the constant term to the leading
+     * term, of the `(n, n)` integer matrix `A` stored in row-major order in [data].
+     */
+    @JvmStatic
+    fun charPoly(data: Array<BigInteger>, n: Int): Array<BigInteger> {
+        return charPoly(IntegerMatrix(n, n, data))
+    }
+
+    /**
+     * Returns the adjoint matrix, in row-major order, of the `(n, n)` integer matrix stored in row-major order
+     * in [data].
+     */
+    @JvmStatic
+    fun adjoint(data: Array<BigInteger>, n: Int): Array<BigInteger> {
+        return adjoint(IntegerMatrix(n, n, data))
+    }
+
+    /*
+    Matrices of integers and fractions
+     */
+
+    internal enum class Domain {
+        INT, LONG, BIG_INTEGER, FRACTION, BIG_FRACTION
+    }
+
+    internal fun domainOf(mc: RingCalculator<*>): Domain? {
+        return when (mc) {
+            is Calculators.IntegerCalculator -> Domain.INT
+            is Calculators.LongCalculator -> Domain.LONG
+            is Calculators.BigIntegerCalculator -> Domain.BIG_INTEGER
+            is Fraction.FractionCalculator -> Domain.FRACTION
+            is BigFractionCalculator -> Domain.BIG_FRACTION
+            else -> null
+        }
+    }
+
+    /**
+     * Determines whether the multi-modular algorithms can be applied to matrices with the calculator.
+     */
+    @JvmStatic
+    fun isApplicable(mc: RingCalculator<*>): Boolean {
+        return domainOf(mc) != null
+    }
+
+    /**
+     * Returns the numerator and the denominator of the element.
+     */
+    private fun rationalOf(x: Any?, domain: Domain): Pair<BigInteger, BigInteger> {
+        return when (domain) {
+            Domain.INT -> BigInteger.valueOf((x as Int).toLong()) to BigInteger.ONE
+            Domain.LONG -> BigInteger.valueOf(x as Long) to BigInteger.ONE
+            Domain.BIG_INTEGER -> (x as BigInteger) to BigInteger.ONE
+            Domain.FRACTION -> {
+                val f = x as Fraction
+                BigInteger.valueOf(f.numerator) to BigInteger.valueOf(f.denominator)
+            }
+            Domain.BIG_FRACTION -> (x as BigFraction).ndPairWithSign()
+        }
+    }
+
+    /**
+     * Returns the element `num / den`, or `null` if it can not be represented exactly.
+     */
+    internal fun elementOf(num: BigInteger, den: BigInteger, domain: Domain): Any? {
+        if (den == BigInteger.ONE || num.signum() == 0) {
+            return when (domain) {
+                Domain.INT -> if (num.bitLength() < 32) num.toInt() else null
+                Domain.LONG -> if (num.bitLength() < 64) num.toLong() else null
+                Domain.BIG_INTEGER -> num
+                Domain.FRACTION -> if (num.bitLength() < 64) Fraction.of(num.toLong()) else null
+                Domain.BIG_FRACTION -> BigFraction.valueOf(num)
+            }
+        }
+        return when (domain) {
+            Domain.FRACTION -> {
+                val g = num.gcd(den)
+                val n = num / g
+                val d = den / g
+                if (n.bitLength() < 64 && d.bitLength() < 64) Fraction.of(n.toLong(), d.toLong()) else null
+            }
+            Domain.BIG_FRACTION -> BigFraction.valueOf(num, den)
+            else -> null
+        }
+    }
+
+    /**
+     * Returns an integer matrix `DA` together with the diagonal elements of the diagonal matrix `D`. If [common] is
+     * `true`, then all the diagonal elements are equal to the least common denominator of the elements,
+     * otherwise the `i`-th one is the least common denominator of the `i`-th row.
+     */
+    internal fun <T> integerMatrixOf(m: GenMatrix<T>, domain: Domain, common: Boolean): Pair<IntegerMatrix, Array<BigInteger>> {
+        val row = m.row
+        val column = m.column
+        val nums = arrayOfNulls<BigInteger>(row * column)
+        val dens = arrayOfNulls<BigInteger>(row * column)
+        val rowDens = Array<BigInteger>(row) { BigInteger.ONE }
+        for (i in 0 until row) {
+            var d = BigInteger.ONE
+            for (j in 0 until column) {
+                val (a, b) = rationalOf(m[i, j], domain)
+                nums[i * column + j] = a
+                dens[i * column + j] = b
+                if (b != BigInteger.ONE) {
+                    d = MathUtils.lcm(d, b)
+                }
+            }
+            rowDens[i] = d
+        }
+        if (common) {
+            val d = rowDens.fold(BigInteger.ONE, MathUtils::lcm)
+            rowDens.fill(d)
+        }
+        val data = Array<BigInteger>(row * column) { k ->
+            val d = rowDens[k / column]
+            val b = dens[k]!!
+            if (d == b) nums[k]!! else nums[k]!! * (d / b)
+        }
+        return IntegerMatrix(row, column, data) to rowDens
+    }
+
+    /**
+     * Returns the determinant of the matrix, or `null` if the multi-modular algorithm is not applicable or the
+     * result can not be represented exactly.
+     */
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> det(m: GenMatrix<T>, mc: RingCalculator<T>): T? {
+        val domain = domainOf(mc) ?: return null
+        val (a, d) = integerMatrixOf(m, domain, false)
+        val den = d.fold(BigInteger.ONE, BigInteger::multiply)
+        return elementOf(det(a), den, domain) as T?
+    }
+
+    /**
+     * Returns the rank of the matrix, or `null` if the multi-modular algorithm is not applicable.
+     */
+    internal fun <T> rank(m: GenMatrix<T>, mc: RingCalculator<T>): Int? {
+        val domain = domainOf(mc) ?: return null
+        return rank(integerMatrixOf(m, domain, false).first)
+    }
+
+    /**
+     * Returns the characteristic polynomial of the matrix, or `null` if the multi-modular algorithm is not applicable
+     * or the result can not be represented exactly.
+     */
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> charPoly(m: GenMatrix<T>, mc: RingCalculator<T>): Polynomial<T>? {
+        val domain = domainOf(mc) ?: return null
+        val (a, d) = integerMatrixOf(m, domain, true)
+        val n = a.row
+        // det(xI - DA) = D^n det(x/D I - A)
+        val c = charPoly(a)
+        val coes = ArrayList<T>(n + 1)
+        var den = BigInteger.ONE
+        for (k in n downTo 0) {
+            coes += (elementOf(c[k], den, domain) ?: return null) as T
+            if (k > 0) {
+                den *= d[0]
+            }
+        }
+        return Polynomial.of(mc, coes.asReversed())
+    }
+
+    /**
+     * Returns the adjoint of the matrix, or `null` if the multi-modular algorithm is not applicable
+     * or the result can not be represented exactly.
+     */
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> adjoint(m: GenMatrix<T>, mc: RingCalculator<T>): Matrix<T>? {
+        val domain = domainOf(mc) ?: return null
+        val (a, d) = integerMatrixOf(m, domain, true)
+        val n = a.row
+        // adj(DA) = D^(n-1) adj(A)
+        val den = d[0].pow(n - 1)
+        val adj = adjoint(a)
+        val data = arrayOfNulls<Any>(n * n)
+        for (k in data.indices) {
+            data[k] = elementOf(adj[k], den, domain) ?: return null
+        }
+        return AMatrix(mc, n, n, data)
+    }
+}
@@ -0,0 +1,646 @@
+package cn.ancono.math.algebra.linear
+
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.algebra.abs.calculator.UnitRingCalculator
+import cn.ancono.math.algebra.abs.calculator.eval
+
+
+/**
+ * Describes a sparse matrix, which only stores the non-zero elements in a compressed form.
+ *
+ * The elements are grouped by rows in a [CSRMatrix] and by columns in a [CSCMatrix], which are called the major
+ * dimension of them. For each major index `a`, the minor indices of the non-zero elements in it are stored in
+ * ascending order in `indices[ptr[a] until ptr[a+1]]`, and the elements are stored in the same positions
+ * of `values`. Zeros are never stored.
+ *
+ * Sparse matrices are usually built with a [Builder], which accepts elements in the coordinate (COO) form.
+ * Multiplications with matrices and vectors, transposition, addition and scalar multiplication keep the sparsity,
+ * while other operations of [Matrix] fall back to the element access.
+ *
+ * @see CSRMatrix
+ * @see CSCMatrix
+ */
+sealed class SparseMatrix<T>(
+    mc: RingCalculator<T>, row: Int, column: Int,
+    internal val ptr: IntArray,
+    internal val indices: IntArray,
+    internal val values: Array<Any?>
+) : Matrix<T>(mc, row, column) {
+
+    /**
+     * The count of non-zero elements in this matrix.
+     */
+    val nnz: Int
+        get() = ptr[ptr.size - 1]
+
+    /**
+     * The size of the major dimension, which is [row] for CSR and [column] for CSC.
+     */
+    internal abstract val major: Int
+
+    /**
+     * The size of the minor dimension, which is [column] for CSR and [row] for CSC.
+     */
+    internal abstract val minor: Int
+
+    /**
+     * Creates a sparse matrix of the same layout from the compressed data.
+     */
+    internal abstract fun create(ptr: IntArray, indices: IntArray, values: Array<Any?>): SparseMatrix<T>
+
+    /**
+     * Returns the element at the major index [a] and the minor index [b].
+     */
+    @Suppress("UNCHECKED_CAST")
+    internal fun getMajor(a: Int, b: Int): T {
+        val pos = indices.binarySearch(b, ptr[a], ptr[a + 1])
+        return if (pos >= 0) {
+            values[pos] as T
+        } else {
+            calculator.zero
+        }
+    }
+
+    /**
+     * Returns this matrix in the CSR layout.
+     */
+    abstract fun toCSR(): CSRMatrix<T>
+
+    /**
+     * Returns this matrix in the CSC layout.
+     */
+    abstract fun toCSC(): CSCMatrix<T>
+
+    /**
+     * Returns a dense copy of this matrix.
+     */
+    fun toDense(): AMatrix<T> {
+        val result = AMatrix.zero(row, column, calculator)
+        val data = result.data
+        val transposed = this is CSCMatrix
+        for (a in 0 until major) {
+            for (pos in ptr[a] until ptr[a + 1]) {
+                val b = indices[pos]
+                if (transposed) {
+                    data[b * column + a] = values[pos]
+                } else {
+                    data[a * column + b] = values[pos]
+                }
+            }
+        }
+        return result
+    }
+
+    /**
+     * Performs the action for each non-zero element in this matrix with its row and column index.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun forEachNonZero(action: (i: Int, j: Int, x: T) -> Unit) {
+        val transposed = this is CSCMatrix
+        for (a in 0 until major) {
+            for (pos in ptr[a] until ptr[a + 1]) {
+                val b = indices[pos]
+                if (transposed) {
+                    action(b, a, values[pos] as T)
+                } else {
+                    action(a, b, values[pos] as T)
+                }
+            }
+        }
+    }
+
+    override fun isZero(): Boolean {
+        return nnz == 0
+    }
+
+    /**
+     * Returns a sparse matrix of the same layout whose elements are `f(x)` for the non-zero elements `x`,
+     * it is required that `f(0) = 0`.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private inline fun mapNonZero(f: (T) -> T): SparseMatrix<T> {
+        val mc = calculator
+        val newPtr = IntArray(major + 1)
+        val newIndices = IntArray(nnz)
+        val newValues = arrayOfNulls<Any>(nnz)
+        var k = 0
+        for (a in 0 until major) {
+            for (pos in ptr[a] until ptr[a + 1]) {
+                val x = f(values[pos] as T)
+                if (!mc.isZero(x)) {
+                    newIndices[k] = indices[pos]
+                    newValues[k] = x
+                    k++
+                }
+            }
+            newPtr[a + 1] = k
+        }
+        return create(newPtr, newIndices.copyOf(k), newValues.copyOf(k))
+    }
+
+    /**
+     * Merges this matrix and [y] of the same layout element-wise with [f], it is required that `f(0,0) = 0`.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private inline fun merge(y: SparseMatrix<T>, f: (T, T) -> T): SparseMatrix<T> {
+        val mc = calculator
+        val z = mc.zero
+        val capacity = nnz + y.nnz
+        val newPtr = IntArray(major + 1)
+        val newIndices = IntArray(capacity)
+        val newValues = arrayOfNulls<Any>(capacity)
+        var k = 0
+        for (a in 0 until major) {
+            var p = ptr[a]
+            var q = y.ptr[a]
+            val pEnd = ptr[a + 1]
+            val qEnd = y.ptr[a + 1]
+            while (p < pEnd || q < qEnd) {
+                val bp = if (p < pEnd) indices[p] else Int.MAX_VALUE
+                val bq = if (q < qEnd) y.indices[q] else Int.MAX_VALUE
+                val b: Int
+                val x: T
+                if (bp == bq) {
+                    b = bp
+                    x = f(values[p++] as T, y.values[q++] as T)
+                } else if (bp < bq) {
+                    b = bp
+                    x = f(values[p++] as T, z)
+                } else {
+                    b = bq
+                    x = f(z, y.values[q++] as T)
+                }
+                if (!mc.isZero(x)) {
+                    newIndices[k] = b
+                    newValues[k] = x
+                    k++
+                }
+            }
+            newPtr[a + 1] = k
+        }
+        return create(newPtr, newIndices.copyOf(k), newValues.copyOf(k))
+    }
+
+    private fun sameLayout(y: SparseMatrix<T>): SparseMatrix<T> {
+        return if (this is CSRMatrix) y.toCSR() else y.toCSC()
+    }
+
+    override fun add(y: Matrix<T>): Matrix<T> {
+        if (y is SparseMatrix) {
+            require(isSameShape(y))
+            return merge(sameLayout(y), calculator::add)
+        }
+        return super.add(y)
+    }
+
+    override fun subtract(y: Matrix<T>): Matrix<T> {
+        if (y is SparseMatrix) {
+            require(isSameShape(y))
+            return merge(sameLayout(y), calculator::subtract)
+        }
+        return super.subtract(y)
+    }
+
+    override fun negate(): SparseMatrix<T> {
+        return mapNonZero(calculator::negate)
+    }
+
+    override fun multiply(k: T): SparseMatrix<T> {
+        return mapNonZero { calculator.multiply(k, it) }
+    }
+
+    override fun applyAll(f: (T) -> T): Matrix<T> {
+        if (calculator.isZero(f(calculator.zero))) {
+            return mapNonZero(f)
+        }
+        return super.applyAll(f)
+    }
+
+    /**
+     * Returns the product of this matrix and [y]. If [y] is also sparse, the result is a [CSRMatrix] computed
+     * with Gustavson's row-by-row algorithm, otherwise the result is dense.
+     */
+    override fun multiply(y: Matrix<T>): Matrix<T> {
+        require(column == y.row) {
+            "Shape mismatch in multiplication: ($row,$column) * (${y.row},${y.column})"
+        }
+        val x = toCSR()
+        return if (y is SparseMatrix) {
+            SparseMatrix.multiplySparse(x, y.toCSR())
+        } else {
+            SparseMatrix.multiplyDense(x, y)
+        }
+    }
+
+    abstract override fun transpose(): SparseMatrix<T>
+
+    /**
+     * Returns the rows `[rowStart, rowEnd)` of this matrix as a [CSRMatrix].
+     */
+    open fun rows(rowStart: Int, rowEnd: Int): CSRMatrix<T> {
+        return toCSR().rows(rowStart, rowEnd)
+    }
+
+    companion object {
+
+        /**
+         * Returns a new builder of a `(row, column)` sparse matrix.
+         */
+        @JvmStatic
+        fun <T> builder(row: Int, column: Int, mc: RingCalculator<T>): Builder<T> {
+            return Builder(row, column, mc)
+        }
+
+        /**
+         * Returns a sparse matrix of all zeros.
+         */
+        @JvmStatic
+        fun <T> zero(row: Int, column: Int, mc: RingCalculator<T>): CSRMatrix<T> {
+            return CSRMatrix(mc, row, column, IntArray(row + 1), IntArray(0), arrayOfNulls(0))
+        }
+
+        /**
+         * Returns a sparse identity matrix.
+         */
+        @JvmStatic
+        fun <T> identity(n: Int, mc: UnitRingCalculator<T>): CSRMatrix<T> {
+            val one = mc.one
+            return CSRMatrix(mc, n, n, IntArray(n + 1) { it }, IntArray(n) { it }, Array(n) { one })
+        }
+
+        /**
+         * Returns a sparse matrix in the CSR layout containing the non-zero elements of the matrix.
+         */
+        @JvmStatic
+        fun <T> fromDense(m: AbstractMatrix<T>): CSRMatrix<T> {
+            if (m is SparseMatrix) {
+                return m.toCSR()
+            }
+            val mc = m.calculator
+            val ptr = IntArray(m.row + 1)
+            val indices = ArrayList<Int>()
+            val values = ArrayList<Any?>()
+            for (i in 0 until m.row) {
+                for (j in 0 until m.column) {
+                    val x = m[i, j]
+                    if (!mc.isZero(x)) {
+                        indices += j
+                        values += x
+                    }
+                }
+                ptr[i + 1] = indices.size
+            }
+            return CSRMatrix(mc, m.row, m.column, ptr, indices.toIntArray(), values.toTypedArray())
+        }
+
+        /**
+         * Returns the compressed data of the transpose of the compressed data, that is, converts between
+         * CSR and CSC layouts.
+         */
+        internal fun transposeCompressed(
+            ptr: IntArray, indices: IntArray, values: Array<Any?>, major: Int, minor: Int
+        ): Pair<IntArray, Pair<IntArray, Array<Any?>>> {
+            val nnz = ptr[major]
+            val newPtr = IntArray(minor + 1)
+            for (k in 0 until nnz) {
+                newPtr[indices[k] + 1]++
+            }
+            for (b in 0 until minor) {
+                newPtr[b + 1] += newPtr[b]
+            }
+            val next = newPtr.copyOf(minor)
+            val newIndices = IntArray(nnz)
+            val newValues = arrayOfNulls<Any>(nnz)
+            for (a in 0 until major) {
+                for (pos in ptr[a] until ptr[a + 1]) {
+                    val k = next[indices[pos]]++
+                    newIndices[k] = a
+                    newValues[k] = values[pos]
+                }
+            }
+            return newPtr to (newIndices to newValues)
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        internal fun <T> multiplySparse(x: CSRMatrix<T>, y: CSRMatrix<T>): CSRMatrix<T> {
+            val mc = x.calculator
+            val n = x.row
+            val p = y.column
+            val rowIndices = arrayOfNulls<IntArray>(n)
+            val rowValues = arrayOfNulls<Array<Any?>>(n)
+            val work = (x.nnz.toLong() / maxOf(1, n) + 1) * (y.nnz.toLong() / maxOf(1, y.row) + 1)
+            MatrixKernels.forRowBlocks(n, work) { r0, r1 ->
+                // the dense accumulator of a row and the columns in it
+                val acc = arrayOfNulls<Any>(p)
+                val mark = IntArray(p) { -1 }
+                val cols = IntArray(p)
+                for (i in r0 until r1) {
+                    var count = 0
+                    for (pos in x.ptr[i] until x.ptr[i + 1]) {
+                        val k = x.indices[pos]
+                        val a = x.values[pos] as T
+                        for (q in y.ptr[k] until y.ptr[k + 1]) {
+                            val j = y.indices[q]
+                            val t = mc.multiply(a, y.values[q] as T)
+                            if (mark[j] != i) {
+                                mark[j] = i
+                                acc[j] = t
+                                cols[count++] = j
+                            } else {
+                                acc[j] = mc.add(acc[j] as T, t)
+                            }
+                        }
+                    }
+                    cols.sort(0, count)
+                    val idx = IntArray(count)
+                    val vals = arrayOfNulls<Any>(count)
+                    var c = 0
+                    for (l in 0 until count) {
+                        val j = cols[l]
+                        if (!mc.isZero(acc[j] as T)) {
+                            idx[c] = j
+                            vals[c] = acc[j]
+                            c++
+                        }
+                        acc[j] = null
+                    }
+                    rowIndices[i] = idx.copyOf(c)
+                    rowValues[i] = vals.copyOf(c)
+                }
+            }
+            val ptr = IntArray(n + 1)
+            for (i in 0 until n) {
+                ptr[i + 1] = ptr[i] + rowIndices[i]!!.size
+            }
+            val indices = IntArray(ptr[n])
+            val values = arrayOfNulls<Any>(ptr[n])
+            for (i in 0 until n) {
+                System.arraycopy(rowIndices[i]!!, 0, indices, ptr[i], rowIndices[i]!!.size)
+                System.arraycopy(rowValues[i]!!, 0, values, ptr[i], rowValues[i]!!.size)
+            }
+            return CSRMatrix(mc, n, p, ptr, indices, values)
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        internal fun <T> multiplyDense(x: CSRMatrix<T>, y: Matrix<T>): AMatrix<T> {
+            val mc = x.calculator
+            val n = x.row
+            val p = y.column
+            val b = MatrixKernels.flatten(y)
+            val z = mc.zero
+            val c = Array<Any?>(n * p) { z }
+            MatrixKernels.forRowBlocks(n, (x.nnz.toLong() / maxOf(1, n) + 1) * p) { r0, r1 ->
+                for (i in r0 until r1) {
+                    val ci = i * p
+                    for (pos in x.ptr[i] until x.ptr[i + 1]) {
+                        val a = x.values[pos] as T
+                        val rk = x.indices[pos] * p
+                        for (j in 0 until p) {
+                            c[ci + j] = mc.eval { (c[ci + j] as T) + a * (b[rk + j] as T) }
+                        }
+                    }
+                }
+            }
+            return AMatrix(mc, n, p, c)
+        }
+    }
+
+    /**
+     * A builder of sparse matrices accepting elements in the coordinate (COO) form. Elements added at the same
+     * position are summed up.
+     */
+    class Builder<T> internal constructor(val row: Int, val column: Int, val mc: RingCalculator<T>) {
+        private var rows = IntArray(16)
+        private var cols = IntArray(16)
+        private var values = arrayOfNulls<Any>(16)
+
+        /**
+         * The count of elements added.
+         */
+        var size = 0
+            private set
+
+        /**
+         * Adds [x] to the element at `(i, j)`.
+         */
+        fun add(i: Int, j: Int, x: T): Builder<T> {
+            require(i in 0 until row && j in 0 until column) {
+                "Index out of bound for ($i,$j), shape = ($row,$column)."
+            }
+            if (size == rows.size) {
+                val capacity = size * 2
+                rows = rows.copyOf(capacity)
+                cols = cols.copyOf(capacity)
+                values = values.copyOf(capacity)
+            }
+            rows[size] = i
+            cols[size] = j
+            values[size] = x
+            size++
+            return this
+        }
+
+        /**
+         * Compresses the elements by the major indices, sorting them by the minor indices, summing up duplicates
+         * and dropping zeros.
+         */
+        @Suppress("UNCHECKED_CAST")
+        private fun compress(
+            majorOf: IntArray, minorOf: IntArray, major: Int, minor: Int
+        ): Pair<IntArray, Pair<IntArray, Array<Any?>>> {
+            // bucket by the minor indices and then stably by the major indices
+            val order = IntArray(size)
+            val count = IntArray(maxOf(major, minor) + 1)
+            for (k in 0 until size) count[minorOf[k] + 1]++
+            for (b in 0 until minor) count[b + 1] += count[b]
+            for (k in 0 until size) order[count[minorOf[k]]++] = k
+
+            val ptr = IntArray(major + 1)
+            for (k in 0 until size) ptr[majorOf[k] + 1]++
+            for (a in 0 until major) ptr[a + 1] += ptr[a]
+            val next = ptr.copyOf(major)
+            val sorted = IntArray(size)
+            for (k in order) sorted[next[majorOf[k]]++] = k
+
+            val indices = IntArray(size)
+            val newValues = arrayOfNulls<Any>(size)
+            var c = 0
+            var start = 0
+            for (a in 0 until major) {
+                val end = ptr[a + 1]
+                var pos = start
+                while (pos < end) {
+                    val b = minorOf[sorted[pos]]
+                    var x = values[sorted[pos]] as T
+                    pos++
+                    while (pos < end && minorOf[sorted[pos]] == b) {
+                        x = mc.add(x, values[sorted[pos]] as T)
+                        pos++
+                    }
+                    if (!mc.isZero(x)) {
+                        indices[c] = b
+                        newValues[c] = x
+                        c++
+                    }
+                }
+                start = end
+                ptr[a + 1] = c
+            }
+            return ptr to (indices.copyOf(c) to newValues.copyOf(c))
+        }
+
+        /**
+         * Builds a sparse matrix in the CSR layout.
+         */
+        fun toCSR(): CSRMatrix<T> {
+            val (ptr, p) = compress(rows, cols, row, column)
+            return CSRMatrix(mc, row, column, ptr, p.first, p.second)
+        }
+
+        /**
+         * Builds a sparse matrix in the CSC layout.
+         */
+        fun toCSC(): CSCMatrix<T> {
+            val (ptr, p) = compress(cols, rows, column, row)
+            return CSCMatrix(mc, row, column, ptr, p.first, p.second)
+        }
+    }
+}
+
+/**
+ * A sparse matrix in the compressed sparse row (CSR) layout.
+ */
+class CSRMatrix<T> internal constructor(
+    mc: RingCalculator<T>, row: Int, column: Int,
+    ptr: IntArray, indices: IntArray, values: Array<Any?>
+) : SparseMatrix<T>(mc, row, column, ptr, indices, values) {
+
+    override val major: Int
+        get() = row
+    override val minor: Int
+        get() = column
+
+    override fun create(ptr: IntArray, indices: IntArray, values: Array<Any?>): CSRMatrix<T> {
+        return CSRMatrix(calculator, row, column, ptr, indices, values)
+    }
+
+    override fun getChecked(i: Int, j: Int): T {
+        return getMajor(i, j)
+    }
+
+    override fun toCSR(): CSRMatrix<T> {
+        return this
+    }
+
+    override fun toCSC(): CSCMatrix<T> {
+        val (ptr, p) = transposeCompressed(ptr, indices, values, row, column)
+        return CSCMatrix(calculator, row, column, ptr, p.first, p.second)
+    }
+
+    /**
+     * Returns the transpose of this matrix in the CSC layout, which shares the data with this matrix.
+     */
+    override fun transpose(): CSCMatrix<T> {
+        return CSCMatrix(calculator, column, row, ptr, indices, values)
+    }
+
+    override fun getRow(row: Int): Vector<T> {
+        require(row in 0 until this.row)
+        val z = calculator.zero
+        val data = Array<Any?>(column) { z }
+        for (pos in ptr[row] until ptr[row + 1]) {
+            data[indices[pos]] = values[pos]
+        }
+        return AVector(calculator, data)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun multiply(v: Vector<T>): Vector<T> {
+        require(column == v.size) { "mat.column != v.size" }
+        val mc = calculator
+        val result = Array<Any?>(row) { i ->
+            var t = mc.zero
+            for (pos in ptr[i] until ptr[i + 1]) {
+                t = mc.eval { t + (values[pos] as T) * v[indices[pos]] }
+            }
+            t
+        }
+        return AVector(mc, result)
+    }
+
+    override fun rows(rowStart: Int, rowEnd: Int): CSRMatrix<T> {
+        require(rowStart in 0..rowEnd && rowEnd <= row)
+        val s = ptr[rowStart]
+        val e = ptr[rowEnd]
+        val newPtr = IntArray(rowEnd - rowStart + 1) { ptr[rowStart + it] - s }
+        return CSRMatrix(calculator, rowEnd - rowStart, column, newPtr,
+            indices.copyOfRange(s, e), values.copyOfRange(s, e))
+    }
+}
+
+/**
+ * A sparse matrix in the compressed sparse column (CSC) layout.
+ */
+class CSCMatrix<T> internal constructor(
+    mc: RingCalculator<T>, row: Int, column: Int,
+    ptr: IntArray, indices: IntArray, values: Array<Any?>
+) : SparseMatrix<T>(mc, row, column, ptr, indices, values) {
+
+    override val major: Int
+        get() = column
+    override val minor: Int
+        get() = row
+
+    override fun create(ptr: IntArray, indices: IntArray, values: Array<Any?>): CSCMatrix<T> {
+        return CSCMatrix(calculator, row, column, ptr, indices, values)
+    }
+
+    override fun getChecked(i: Int, j: Int): T {
+        return getMajor(j, i)
+    }
+
+    override fun toCSR(): CSRMatrix<T> {
+        val (ptr, p) = transposeCompressed(ptr, indices, values, column, row)
+        return CSRMatrix(calculator, row, column, ptr, p.first, p.second)
+    }
+
+    override fun toCSC(): CSCMatrix<T> {
+        return this
+    }
+
+    /**
+     * Returns the transpose of this matrix in the CSR layout, which shares the data with this matrix.
+     */
+    override fun transpose(): CSRMatrix<T> {
+        return CSRMatrix(calculator, column, row, ptr, indices, values)
+    }
+
+    override fun getColumn(col: Int): Vector<T> {
+        require(col in 0 until column)
+        val z = calculator.zero
+        val data = Array<Any?>(row) { z }
+        for (pos in ptr[col] until ptr[col + 1]) {
+            data[indices[pos]] = values[pos]
+        }
+        return AVector(calculator, data)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun multiply(v: Vector<T>): Vector<T> {
+        require(column == v.size) { "mat.column != v.size" }
+        val mc = calculator
+        val z = mc.zero
+        val result = Array<Any?>(row) { z }
+        for (j in 0 until column) {
+            val vj = v[j]
+            if (mc.isZero(vj)) {
+                continue
+            }
+            for (pos in ptr[j] until ptr[j + 1]) {
+                val i = indices[pos]
+                result[i] = mc.eval { (result[i] as T) + (values[pos] as T) * vj }
+            }
+        }
+        return AVector(mc, result)
+    }
+}
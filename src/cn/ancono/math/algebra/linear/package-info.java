@@ -4,5 +4,7 @@
 /**
  * @author liyicheng
  *
+ * <p>Dense matrices larger than the heap are stored in files of the tiled binary format described in
+ * {@link cn.ancono.math.algebra.linear.MappedMatrix}.
  */
 package cn.ancono.math.algebra.linear;
\ No newline at end of file
@@ -1593,6 +1593,14 @@ public final class Calculators {
         return new DoubleCalculatorWithDeviation(Math.abs(dev));
     }
 
+    /**
+     * Determines whether the given calculator is one of the double calculators returned by {@link #doubleCal()} or
+     * {@link #doubleDev()}, whose arithmetic operations are exactly the primitive operations of double.
+     */
+    public static boolean isDoubleCalculator(EqualPredicate<?> mc) {
+        return mc instanceof DoubleCalculator;
+    }
+
     public static class ZModNCalculator implements UnitRingCalculator<Integer>, OrderedRingCal<Integer> {
         protected final int n;
 
@@ -1950,6 +1958,14 @@ public final class Calculators {
         return ZMod2Calculator.INSTANCE;
     }
 
+    /**
+     * Determines whether the given calculator is the calculator of <code>Z<sub>2</sub></code> returned by
+     * {@link #intMod2()}.
+     */
+    public static boolean isIntMod2Calculator(EqualPredicate<?> mc) {
+        return mc instanceof ZMod2Calculator;
+    }
+
     /**
      * Returns a calculator for prime field <code>Z<sub>p</sub></code>, where <code>p</code> is a prime number.
      * The implementation guarantees that no overflow will happen in this calculator.
@@ -1979,6 +1995,14 @@ public final class Calculators {
         }
     }
 
+    /**
+     * Determines whether the given calculator is a calculator of <code>Z<sub>p</sub></code> returned by
+     * {@link #intModP(int)} for an odd prime <code>p</code>.
+     */
+    public static boolean isIntModPCalculator(EqualPredicate<?> mc) {
+        return mc instanceof ZModPCalculatorCached || mc instanceof ZModPCalculatorGCD;
+    }
+
     /**
      * Returns a calculator for ring <code>Z<sub>n</sub></code>, where <code>n >= 2</code>.
      */
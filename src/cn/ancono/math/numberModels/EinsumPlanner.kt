@@ -0,0 +1,502 @@
+package cn.ancono.math.numberModels
+
+import cn.ancono.math.algebra.abs.calculator.UnitRingCalculator
+import cn.ancono.math.algebra.abs.calculator.eval
+import cn.ancono.math.algebra.linear.MatrixKernels
+
+
+/**
+ * A plan to evaluate an einsum expression as a sequence of pairwise contractions, created by [EinsumPlanner.plan].
+ *
+ * First, the operands with repeated labels or labels summed within themselves are reduced alone. Then each
+ * [step][steps] removes two operands from the list of operands and appends their contraction to it, until only one
+ * operand remains, whose axes are finally permuted to the output.
+ */
+class EinsumPlan internal constructor(
+    /**
+     * The labels of the axes of the operands.
+     */
+    val operandLabels: List<List<String>>,
+    /**
+     * The labels of the axes of the result.
+     */
+    val outputLabels: List<String>,
+    /**
+     * The single-operand expressions to reduce the operands, or `null` if the operand is used as it is.
+     */
+    internal val reductions: List<String?>,
+    /**
+     * The labels of the operands after the reduction.
+     */
+    internal val reducedLabels: List<List<String>>,
+    /**
+     * The pairwise contractions.
+     */
+    val steps: List<Step>,
+    /**
+     * The estimated count of multiplications of the contractions.
+     */
+    val cost: Double
+) {
+
+    /**
+     * A pairwise contraction of the operands of the indices [first] `<` [second] in the current list of operands,
+     * whose result has the axes of [labels].
+     */
+    class Step internal constructor(val first: Int, val second: Int, val labels: List<String>) {
+        override fun toString(): String {
+            return "($first, $second) -> ${labels.joinToString("")}"
+        }
+    }
+
+    override fun toString(): String {
+        return "EinsumPlan(steps=$steps, cost=$cost)"
+    }
+}
+
+/**
+ * Plans and evaluates einsum expressions of several operands as sequences of pairwise contractions.
+ *
+ * Evaluating an expression such as `ij,jk,kl->il` directly loops over the product of all the labels, which costs
+ * `O(n^4)`, while contracting the operands pairwise costs two products of matrices, `O(n^3)`. The order of the
+ * contractions is chosen to minimize the estimated count of multiplications: optimally by dynamic programming
+ * over the subsets of operands if there are at most [optimalLimit] operands, and greedily otherwise.
+ *
+ * Each contraction permutes the operands to `(batch, free, summed)` and `(batch, summed, free)` and computes the
+ * products of the flattened matrices, with [MatrixKernels.multiply] if there is no batch axis. Plans are cached by
+ * the expression and the shapes of the operands.
+ *
+ * [Tensor.einsum] uses this planner for expressions of at least two operands.
+ */
+object EinsumPlanner {
+
+    /**
+     * Determines how the order of the contractions is chosen.
+     */
+    enum class Strategy {
+        /**
+         * Chooses the pair of the least cost at each step.
+         */
+        GREEDY,
+
+        /**
+         * Chooses the order of the least total cost, whose planning time is exponential in the count of operands.
+         */
+        OPTIMAL,
+
+        /**
+         * Uses [OPTIMAL] if there are at most [optimalLimit] operands, and [GREEDY] otherwise.
+         */
+        AUTO
+    }
+
+    /**
+     * The maximal count of operands for which the optimal order is searched with [Strategy.AUTO].
+     */
+    @JvmStatic
+    @Volatile
+    var optimalLimit: Int = 8
+
+    /**
+     * The maximal count of cached plans.
+     */
+    private const val CACHE_SIZE = 256
+
+    private val cache = object : LinkedHashMap<String, EinsumPlan>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, EinsumPlan>?): Boolean {
+            return size > CACHE_SIZE
+        }
+    }
+
+    private fun parseLabels(s: String): List<String> {
+        return TensorImpl.CHAR_PATTERN.findAll(s.trim()).map { it.value }.toList()
+    }
+
+    /**
+     * Returns the plan for the einsum expression [expr] of operands of the given [shapes], which is cached.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun plan(expr: String, shapes: List<IntArray>, strategy: Strategy = Strategy.AUTO): EinsumPlan {
+        val key = buildString {
+            append(expr).append('|').append(strategy)
+            for (s in shapes) {
+                append('|').append(s.joinToString(","))
+            }
+        }
+        synchronized(cache) {
+            cache[key]?.let { return it }
+        }
+        val p = createPlan(expr, shapes, strategy)
+        synchronized(cache) {
+            cache[key] = p
+        }
+        return p
+    }
+
+    private fun createPlan(expr: String, shapes: List<IntArray>, strategy: Strategy): EinsumPlan {
+        val i1 = expr.indexOf("->")
+        val parts = (if (i1 >= 0) expr.substring(0, i1) else expr).split(",")
+        require(parts.size == shapes.size) {
+            "Count mismatch: ${parts.size} tensors are required but ${shapes.size} is given. "
+        }
+        val labels = parts.map { parseLabels(it) }
+        val dims = HashMap<String, Int>()
+        for (k in labels.indices) {
+            val ls = labels[k]
+            val shape = shapes[k]
+            require(ls.size == shape.size) {
+                "Dim mismatch for ${k + 1}-th tensor: ${ls.size} is required but given tensor dim = ${shape.size}. " +
+                        "Expr=[${expr}]"
+            }
+            for (l in ls.indices) {
+                val d = dims.getOrPut(ls[l]) { shape[l] }
+                require(d == shape[l]) {
+                    "Shape mismatch for ${k + 1}-th tensor at axis $l, required length=$d but ${shape[l]} is given. " +
+                            "Expr=[${expr}]"
+                }
+            }
+        }
+        val output = if (i1 >= 0) {
+            parseLabels(expr.substring(i1 + 2))
+        } else {
+            val count = sortedMapOf<String, Int>()
+            labels.asSequence().flatten().forEach { count.merge(it, 1, Int::plus) }
+            count.entries.filter { it.value == 1 }.map { it.key }
+        }
+        require(output.toSet().size == output.size && output.all { it in dims }) {
+            "Invalid output labels in the expression: $expr"
+        }
+        val n = labels.size
+        // reduces the operands with repeated labels or labels summed within themselves
+        val reductions = ArrayList<String?>(n)
+        val reduced = ArrayList<List<String>>(n)
+        for (k in 0 until n) {
+            val others = HashSet(output)
+            for (k2 in 0 until n) {
+                if (k2 != k) {
+                    others.addAll(labels[k2])
+                }
+            }
+            val kept = labels[k].distinct().filter { it in others }
+            if (kept.size == labels[k].size) {
+                reductions += null
+                reduced += labels[k]
+            } else {
+                reductions += labels[k].joinToString(" ") + "->" + kept.joinToString(" ")
+                reduced += kept
+            }
+        }
+        val useOptimal = when (strategy) {
+            Strategy.GREEDY -> false
+            Strategy.OPTIMAL -> true
+            Strategy.AUTO -> n <= optimalLimit
+        }
+        val outputSet = output.toSet()
+        val (steps, cost) = if (useOptimal && n > 2) {
+            optimalOrder(reduced, outputSet, dims)
+        } else {
+            greedyOrder(reduced, outputSet, dims)
+        }
+        return EinsumPlan(labels, output, reductions, reduced, steps, cost)
+    }
+
+    private fun sizeOf(ls: Collection<String>, dims: Map<String, Int>): Double {
+        var s = 1.0
+        for (l in ls) {
+            s *= dims.getValue(l)
+        }
+        return s
+    }
+
+    /**
+     * Returns the labels of the contraction of [x] and [y] that are in [needed], ordered as batch labels, the free
+     * labels of `x` and the free labels of `y`.
+     */
+    private fun contractedLabels(x: List<String>, y: List<String>, needed: Set<String>): List<String> {
+        val ys = y.toSet()
+        val xs = x.toSet()
+        return x.filter { it in ys && it in needed } + x.filter { it !in ys } + y.filter { it !in xs }
+    }
+
+    private fun neededLabels(operands: List<List<String>>, except1: Int, except2: Int, output: Set<String>)
+            : Set<String> {
+        val needed = HashSet(output)
+        for (k in operands.indices) {
+            if (k != except1 && k != except2) {
+                needed.addAll(operands[k])
+            }
+        }
+        return needed
+    }
+
+    private fun greedyOrder(reduced: List<List<String>>, output: Set<String>, dims: Map<String, Int>)
+            : Pair<List<EinsumPlan.Step>, Double> {
+        val operands = reduced.toMutableList()
+        val steps = ArrayList<EinsumPlan.Step>()
+        var total = 0.0
+        while (operands.size > 1) {
+            var best: EinsumPlan.Step? = null
+            var bestCost = Double.MAX_VALUE
+            var bestSize = Double.MAX_VALUE
+            for (i in operands.indices) {
+                for (j in (i + 1) until operands.size) {
+                    val cost = sizeOf(operands[i].union(operands[j]), dims)
+                    val result = contractedLabels(operands[i], operands[j], neededLabels(operands, i, j, output))
+                    val size = sizeOf(result, dims)
+                    if (cost < bestCost || (cost == bestCost && size < bestSize)) {
+                        best = EinsumPlan.Step(i, j, result)
+                        bestCost = cost
+                        bestSize = size
+                    }
+                }
+            }
+            val s = best!!
+            steps += s
+            total += bestCost
+            operands.removeAt(s.second)
+            operands.removeAt(s.first)
+            operands += s.labels
+        }
+        return steps to total
+    }
+
+    private fun optimalOrder(reduced: List<List<String>>, output: Set<String>, dims: Map<String, Int>)
+            : Pair<List<EinsumPlan.Step>, Double> {
+        val n = reduced.size
+        val full = (1 shl n) - 1
+        val sets = reduced.map { it.toSet() }
+        // the labels of the contraction of the operands in a subset that are needed outside of it
+        val keptOf = arrayOfNulls<Set<String>>(full + 1)
+        for (mask in 1..full) {
+            val inside = HashSet<String>()
+            val outside = HashSet(output)
+            for (k in 0 until n) {
+                if (mask and (1 shl k) != 0) {
+                    inside.addAll(sets[k])
+                } else {
+                    outside.addAll(sets[k])
+                }
+            }
+            inside.retainAll(outside)
+            keptOf[mask] = inside
+        }
+        val best = DoubleArray(full + 1) { Double.MAX_VALUE }
+        val split = IntArray(full + 1)
+        for (k in 0 until n) {
+            best[1 shl k] = 0.0
+        }
+        for (mask in 1..full) {
+            if (mask and (mask - 1) == 0) {
+                continue
+            }
+            // enumerates the splits {s, mask - s} once each, with the lowest operand in s
+            val low = mask and -mask
+            var s = (mask - 1) and mask
+            while (s > 0) {
+                if (s and low != 0) {
+                    val t = mask xor s
+                    val cost = best[s] + best[t] + sizeOf(keptOf[s]!!.union(keptOf[t]!!), dims)
+                    if (cost < best[mask]) {
+                        best[mask] = cost
+                        split[mask] = s
+                    }
+                }
+                s = (s - 1) and mask
+            }
+        }
+        // converts the tree of contractions to steps on the list of operands
+        val operands = reduced.toMutableList()
+        val ids = (0 until n).toMutableList()
+        val steps = ArrayList<EinsumPlan.Step>()
+        var nextId = n
+        fun build(mask: Int): Int {
+            if (mask and (mask - 1) == 0) {
+                return Integer.numberOfTrailingZeros(mask)
+            }
+            val a = build(split[mask])
+            val b = build(mask xor split[mask])
+            var i = ids.indexOf(a)
+            var j = ids.indexOf(b)
+            if (i > j) {
+                val tmp = i
+                i = j
+                j = tmp
+            }
+            val result = contractedLabels(operands[i], operands[j], neededLabels(operands, i, j, output))
+            steps += EinsumPlan.Step(i, j, result)
+            operands.removeAt(j)
+            operands.removeAt(i)
+            operands += result
+            ids.removeAt(j)
+            ids.removeAt(i)
+            ids += nextId
+            return nextId++
+        }
+        build(full)
+        return steps to best[full]
+    }
+
+    /*
+    Evaluation
+     */
+
+    /**
+     * Returns the elements of [t], whose axes have the given [labels], in the row-major order of the axes permuted
+     * to [order].
+     */
+    private fun <T> flatten(t: Tensor<T>, labels: List<String>, order: List<String>, dims: Map<String, Int>)
+            : Array<Any?> {
+        val data: Array<Any?> = if (t is ATensor) {
+            @Suppress("UNCHECKED_CAST")
+            (t.data as Array<Any?>)
+        } else if (t is SparseTensor) {
+            @Suppress("UNCHECKED_CAST")
+            (t.toDense().data as Array<Any?>)
+        } else {
+            @Suppress("UNCHECKED_CAST")
+            (ATensor.copyOf(t).data as Array<Any?>)
+        }
+        if (labels == order) {
+            return data
+        }
+        val d = order.size
+        val strides = IntArray(labels.size)
+        var s = 1
+        for (l in labels.indices.reversed()) {
+            strides[l] = s
+            s *= dims.getValue(labels[l])
+        }
+        val lens = IntArray(d) { dims.getValue(order[it]) }
+        val st = IntArray(d) { strides[labels.indexOf(order[it])] }
+        val result = arrayOfNulls<Any>(data.size)
+        val idx = IntArray(d)
+        var offset = 0
+        for (pos in result.indices) {
+            result[pos] = data[offset]
+            var a = d - 1
+            while (a >= 0) {
+                idx[a]++
+                offset += st[a]
+                if (idx[a] < lens[a]) {
+                    break
+                }
+                offset -= st[a] * lens[a]
+                idx[a] = 0
+                a--
+            }
+        }
+        return result
+    }
+
+    /**
+     * Returns [t] with its axes, which have the given [labels], permuted to [order].
+     */
+    private fun <T> permuted(t: Tensor<T>, labels: List<String>, order: List<String>): Tensor<T> {
+        if (labels == order) {
+            return t
+        }
+        return t.permute(*IntArray(order.size) { labels.indexOf(order[it]) })
+    }
+
+    private fun <T> contract(
+        x: Tensor<T>, lx: List<String>, y: Tensor<T>, ly: List<String>, result: List<String>,
+        dims: Map<String, Int>, mc: UnitRingCalculator<T>
+    ): Tensor<T> {
+        val resultSet = result.toSet()
+        val ys = ly.toSet()
+        val batch = lx.filter { it in ys && it in resultSet }
+        val summed = lx.filter { it in ys && it !in resultSet }
+        val xFree = lx.filter { it !in ys }
+        val yFree = ly.filter { it !in lx }
+        val shape = if (result.isEmpty()) intArrayOf(1) else IntArray(result.size) { dims.getValue(result[it]) }
+        if (x is SparseTensor || y is SparseTensor) {
+            return SparseTensor.multiplyBatched(
+                    permuted(x, lx, batch + xFree + summed), permuted(y, ly, batch + summed + yFree),
+                    sizeOf(batch, dims).toLong(), sizeOf(xFree, dims).toLong(),
+                    sizeOf(summed, dims).toLong(), sizeOf(yFree, dims).toLong(), shape, mc)
+        }
+        val a = flatten(x, lx, batch + xFree + summed, dims)
+        val b = flatten(y, ly, batch + summed + yFree, dims)
+        val nb = sizeOf(batch, dims).toInt()
+        val n = sizeOf(xFree, dims).toInt()
+        val m = sizeOf(summed, dims).toInt()
+        val p = sizeOf(yFree, dims).toInt()
+        val data = if (nb == 1) {
+            MatrixKernels.multiply(a, b, n, m, p, mc)
+        } else {
+            val c = arrayOfNulls<Any>(nb * n * p)
+            for (k in 0 until nb) {
+                val a0 = k * n * m
+                val b0 = k * m * p
+                val c0 = k * n * p
+                for (i in 0 until n) {
+                    for (j in 0 until p) {
+                        @Suppress("UNCHECKED_CAST")
+                        var s = mc.multiply(a[a0 + i * m] as T, b[b0 + j] as T)
+                        for (l in 1 until m) {
+                            @Suppress("UNCHECKED_CAST")
+                            s = mc.eval { s + (a[a0 + i * m + l] as T) * (b[b0 + l * p + j] as T) }
+                        }
+                        c[c0 + i * p + j] = s
+                    }
+                }
+            }
+            c
+        }
+        @Suppress("UNCHECKED_CAST")
+        return ATensor(mc, shape, data as Array<T>)
+    }
+
+    /**
+     * Evaluates the einsum of the tensors with the plan.
+     */
+    @JvmStatic
+    fun <T> evaluate(plan: EinsumPlan, ts: List<Tensor<T>>): MutableTensor<T> {
+        require(ts.size == plan.operandLabels.size)
+        val mc = ts[0].calculator as UnitRingCalculator
+        val dims = HashMap<String, Int>()
+        for (k in ts.indices) {
+            val ls = plan.operandLabels[k]
+            for (l in ls.indices) {
+                dims[ls[l]] = ts[k].lengthAt(l)
+            }
+        }
+        val operands = ArrayList<Tensor<T>>(ts.size)
+        val labels = ArrayList<List<String>>(ts.size)
+        for (k in ts.indices) {
+            val r = plan.reductions[k]
+            operands += if (r == null) ts[k] else TensorImpl.einsum(listOf(ts[k]), r)
+            labels += plan.reducedLabels[k]
+        }
+        for (s in plan.steps) {
+            val z = contract(operands[s.first], labels[s.first], operands[s.second], labels[s.second], s.labels, dims, mc)
+            operands.removeAt(s.second)
+            operands.removeAt(s.first)
+            labels.removeAt(s.second)
+            labels.removeAt(s.first)
+            operands += z
+            labels += s.labels
+        }
+        val t = operands[0]
+        val output = plan.outputLabels
+        if (labels[0] == output && t is ATensor && plan.steps.isNotEmpty()) {
+            return t
+        }
+        val data = flatten(t, labels[0], output, dims)
+        val shape = if (output.isEmpty()) intArrayOf(1) else IntArray(output.size) { dims.getValue(output[it]) }
+        @Suppress("UNCHECKED_CAST")
+        return ATensor(mc, shape, (if (data === (t as? ATensor)?.data) data.clone() else data) as Array<T>)
+    }
+
+    /**
+     * Returns the einsum of the tensors defined by the expression, evaluated by pairwise contractions.
+     *
+     * @see Tensor.einsum
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun <T> einsum(expr: String, ts: List<Tensor<T>>, strategy: Strategy = Strategy.AUTO): MutableTensor<T> {
+        return evaluate(plan(expr, ts.map { it.shape }, strategy), ts)
+    }
+}
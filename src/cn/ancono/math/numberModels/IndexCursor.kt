@@ -0,0 +1,174 @@
+package cn.ancono.math.numberModels
+
+import cn.ancono.math.numberModels.api.Index
+
+
+/**
+ * An odometer over the indices of a shape that advances in place, iterating the last axis first. It is the
+ * allocation-free counterpart of `IterUtils.prodIdxN`.
+ *
+ * The cursor also keeps the linear offsets of the current index in several operands described by their strides:
+ *
+ *     offsets[k] = index[0] * strides[k][0] + ... + index[dim-1] * strides[k][dim-1]
+ *
+ * which are updated incrementally on each step. A stride of zero makes the operand constant along that axis,
+ * which is how broadcasting and reductions are expressed.
+ *
+ * A typical loop is
+ *
+ *     val c = IndexCursor(shape, stridesX, stridesY)
+ *     do {
+ *         data[c.position] = f(x[c.offsets[0]], y[c.offsets[1]])
+ *     } while (c.next())
+ *
+ * or equivalently [forEachIndexed].
+ *
+ * @param shape a non-empty array of positive integers
+ * @param strides the strides of the operands, each of which has the same size as [shape]
+ */
+class IndexCursor(shape: IntArray, vararg strides: IntArray) {
+    private val sh: IntArray = shape.clone()
+    private val st: Array<out IntArray> = strides
+
+    /**
+     * The current index. It is updated in place and should not be modified.
+     */
+    val index: Index = IntArray(sh.size)
+
+    /**
+     * The current offsets in the operands. It is updated in place and should not be modified.
+     */
+    val offsets: IntArray = IntArray(st.size)
+
+    /**
+     * The ordinal of the current index, starting from zero.
+     */
+    var position: Int = 0
+        private set
+
+    init {
+        require(sh.isNotEmpty() && sh.all { it > 0 }) {
+            "Invalid shape: ${sh.contentToString()}"
+        }
+        for (s in st) {
+            require(s.size == sh.size) {
+                "Strides ${s.contentToString()} mismatch the shape ${sh.contentToString()}."
+            }
+        }
+    }
+
+    /**
+     * Advances to the next index. Returns `false` and resets this cursor to the first index if the current index is
+     * the last one.
+     */
+    fun next(): Boolean {
+        val idx = index
+        var l = sh.size - 1
+        while (l >= 0) {
+            idx[l]++
+            for (k in st.indices) {
+                offsets[k] += st[k][l]
+            }
+            if (idx[l] < sh[l]) {
+                position++
+                return true
+            }
+            val len = sh[l]
+            for (k in st.indices) {
+                offsets[k] -= st[k][l] * len
+            }
+            idx[l] = 0
+            l--
+        }
+        position = 0
+        return false
+    }
+
+    /**
+     * Resets this cursor to the first index.
+     */
+    fun reset() {
+        index.fill(0)
+        offsets.fill(0)
+        position = 0
+    }
+
+    /**
+     * Moves this cursor to the index of the given ordinal, so that a range of positions can be traversed
+     * independently of the others.
+     */
+    fun moveTo(position: Int) {
+        require(position >= 0) {
+            "Invalid position: $position"
+        }
+        var p = position
+        offsets.fill(0)
+        for (l in sh.indices.reversed()) {
+            val i = p % sh[l]
+            p /= sh[l]
+            index[l] = i
+            for (k in st.indices) {
+                offsets[k] += i * st[k][l]
+            }
+        }
+        require(p == 0) {
+            "Position $position out of bound for the shape ${sh.contentToString()}."
+        }
+        this.position = position
+    }
+
+    /**
+     * Calls [action] for each index from the first one with the ordinal of the index, leaving this cursor at the
+     * first index. The index array is reused and should not be modified or kept, and [offsets] correspond to it
+     * during the call.
+     */
+    inline fun forEachIndexed(action: (pos: Int, idx: Index) -> Unit) {
+        reset()
+        do {
+            action(position, index)
+        } while (next())
+    }
+
+    private class CursorIterator(shape: IntArray) : Iterator<Index> {
+        private val cursor = IndexCursor(shape)
+
+        // 0: the current index is not returned yet, 1: returned, 2: exhausted
+        private var state = 0
+
+        override fun hasNext(): Boolean {
+            if (state == 1) {
+                state = if (cursor.next()) 0 else 2
+            }
+            return state == 0
+        }
+
+        override fun next(): Index {
+            if (!hasNext()) {
+                throw NoSuchElementException()
+            }
+            state = 1
+            return cursor.index
+        }
+    }
+
+    companion object {
+
+        /**
+         * Returns the indices of the given shape as a read-only-traversable sequence, iterating the last axis first.
+         * The same index array is returned by each step of an iterator, so it should only be used before the next
+         * step.
+         */
+        fun indices(shape: IntArray): Sequence<Index> {
+            val sh = shape.clone()
+            return Sequence { CursorIterator(sh) }
+        }
+
+        /**
+         * Calls [action] for each index of the given shape with the ordinal of the index, iterating the last
+         * axis first. The index array is reused and should not be modified or kept.
+         */
+        inline fun forEachIndexed(shape: IntArray, action: (pos: Int, idx: Index) -> Unit) {
+            IndexCursor(shape).forEachIndexed(action)
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package cn.ancono.math.numberModels
+
+import cn.ancono.math.algebra.abs.calculator.*
+import cn.ancono.math.discrete.combination.Permutation
+import cn.ancono.math.discrete.combination.Permutations
+import cn.ancono.math.numberModels.api.Index
+import java.util.*
+
+
+/**
+ * A lazy tensor expression, which is a node in a directed acyclic graph of operations over tensors.
+ *
+ * Element-wise operations on a lazy tensor, including addition, subtraction, multiplication and division
+ * (with broadcasting), negation, scalar multiplication and division and [applyAll], as well as the views
+ * [slice], [newAxisAt], [reshape], [broadcastTo], [permute], [transpose] and [diagonal] and the reduction [sum],
+ * return new lazy tensors without computing anything.
+ * The expression is evaluated by [eval] in the following way:
+ *
+ *  * Chains of element-wise operations and views are fused into one pass, so that no intermediate tensor
+ *    is created. The views are the usual views of tensors, applied to the fused operands.
+ *  * A reduction reads its fused operand directly and is materialized once at its boundary.
+ *  * Equal subexpressions, including those built separately from the same operands, are recognized and
+ *    materialized once if they are used more than once.
+ *
+ * For example, in `((a + b) * c).subtract(d.sum(1).reshape(3, 1))` with `a.lazy()`, the sum of `d` is computed into
+ * a tensor, and then the whole result is computed in one pass without creating `a + b` or `(a + b) * c`.
+ *
+ * Products that are not element-wise, such as [matmul] and [wedge], evaluate their operands and compute
+ * eagerly, while [sumAll] and [inner] are fused.
+ *
+ * The operands are not copied, so modifications to them are visible through the lazy tensor.
+ * Accessing elements of a lazy tensor computes them from the operands each time, including the
+ * reductions, so a lazy tensor should be evaluated before it is accessed repeatedly.
+ *
+ * @see Tensor.lazy
+ */
+class LazyTensor<T>
+internal constructor(mc: EqualPredicate<T>, internal val node: ExprNode<T>) : AbstractTensor<T>(mc, node.shape) {
+
+    /**
+     * The fused view of this expression that computes elements on access.
+     */
+    private val fused: Tensor<T> by kotlin.lazy { LazyEvaluator(calculator, false).compile(node) }
+
+    override fun getChecked(idx: Index): T {
+        return fused[idx]
+    }
+
+    /**
+     * Evaluates this expression and returns the result as a new tensor.
+     */
+    fun eval(): MutableTensor<T> {
+        val t = LazyEvaluator(calculator, true).compile(node)
+        if (node is ReduceNode) {
+            // already a new tensor
+            return t as MutableTensor<T>
+        }
+        return TensorImpl.materialize(t)
+    }
+
+    /**
+     * Returns a new tensor with the elements of this lazy tensor, which is the same as [eval].
+     */
+    fun copy(): MutableTensor<T> {
+        return eval()
+    }
+
+    override fun lazy(): LazyTensor<T> {
+        return this
+    }
+
+    private fun map(op: Any, f: (T) -> T): LazyTensor<T> {
+        return LazyTensor(calculator, MapNode(node, op, f))
+    }
+
+    private fun zip(y: Tensor<T>, op: String, f: (T, T) -> T): LazyTensor<T> {
+        val mc = calculator
+        val (bx, by) = TensorImpl.broadcast(ShapeOnly(mc, sh), ShapeOnly(mc, y.shape))
+        val shape = bx.shape
+        val xNode = broadcastNode(node, shape)
+        val yNode = broadcastNode(nodeOf(y), by.shape)
+        return LazyTensor(mc, ZipNode(xNode, yNode, op, f))
+    }
+
+    private fun view(op: List<Any?>, f: (Tensor<T>) -> Tensor<T>): LazyTensor<T> {
+        val shape = f(ShapeOnly(calculator, sh)).shape
+        return LazyTensor(calculator, ViewNode(node, op, shape, f))
+    }
+
+    override fun applyAll(f: (T) -> T): LazyTensor<T> {
+        return map(f, f)
+    }
+
+    override fun add(y: Tensor<T>): LazyTensor<T> {
+        val mc = calculator as AbelSemigroupCal<T>
+        return zip(y, "add") { a, b -> mc.add(a, b) }
+    }
+
+    override fun negate(): LazyTensor<T> {
+        val mc = calculator as AbelGroupCal<T>
+        return map("negate") { mc.negate(it) }
+    }
+
+    override fun subtract(y: Tensor<T>): LazyTensor<T> {
+        val mc = calculator as AbelGroupCal<T>
+        return zip(y, "subtract") { a, b -> mc.subtract(a, b) }
+    }
+
+    override fun multiply(k: T): LazyTensor<T> {
+        val mc = calculator as RingCalculator<T>
+        return map(listOf("multiply", k)) { mc.multiply(k, it) }
+    }
+
+    override fun divide(k: T): LazyTensor<T> {
+        val mc = calculator as DivisionRingCalculator<T>
+        return map(listOf("divide", k)) { mc.divide(it, k) }
+    }
+
+    override fun multiply(y: Tensor<T>): LazyTensor<T> {
+        val mc = calculator as RingCalculator<T>
+        return zip(y, "multiply") { a, b -> mc.multiply(a, b) }
+    }
+
+    override fun divide(y: Tensor<T>): LazyTensor<T> {
+        val mc = calculator as DivisionRingCalculator<T>
+        return zip(y, "divide") { a, b -> mc.divide(a, b) }
+    }
+
+    override fun sum(vararg axes: Int): LazyTensor<T> {
+        val axesSet = axes.asSequence().map {
+            val axis = TensorImpl.addIfNegative(it, dim)
+            require(axis in 0 until dim)
+            axis
+        }.toSortedSet()
+        if (axesSet.isEmpty() || axesSet.size == dim) {
+            return LazyTensor(calculator, ReduceNode(node, IntArray(dim) { it }, intArrayOf(1)))
+        }
+        val shape = (0 until dim).filter { it !in axesSet }.map { sh[it] }.toIntArray()
+        return LazyTensor(calculator, ReduceNode(node, axesSet.toIntArray(), shape))
+    }
+
+    override fun sumAll(): T {
+        return TensorImpl.sumAll(LazyEvaluator(calculator, true).compile(node))
+    }
+
+    override fun inner(y: Tensor<T>): T {
+        require(isSameShape(y)) {
+            "Two tensor must have the same shape for inner!" +
+                    "Given shapes: ${sh.contentToString()}, ${y.shape.contentToString()}."
+        }
+        return multiply(y).sumAll()
+    }
+
+    override fun matmul(y: Tensor<T>, r: Int): MutableTensor<T> {
+        return eval().matmul(evalIfLazy(y), r)
+    }
+
+    override fun wedge(y: Tensor<T>): Tensor<T> {
+        return eval().wedge(evalIfLazy(y))
+    }
+
+    override fun slice(slices: List<Any?>): LazyTensor<T> {
+        val sl = slices.toList()
+        return view(listOf("slice", sl)) { it.slice(sl) }
+    }
+
+    override fun slice(vararg slices: Any?): LazyTensor<T> {
+        return slice(slices.asList())
+    }
+
+    override fun newAxisAt(axis: Int): LazyTensor<T> {
+        return view(listOf("newAxisAt", axis)) { it.newAxisAt(axis) }
+    }
+
+    override fun reshape(vararg newShape: Int): LazyTensor<T> {
+        val ns = newShape.clone()
+        return view(listOf("reshape", ns.toList())) { it.reshape(*ns) }
+    }
+
+    override fun ravel(): LazyTensor<T> {
+        return reshape(-1)
+    }
+
+    override fun broadcastTo(vararg newShape: Int): LazyTensor<T> {
+        if (sh.contentEquals(newShape)) {
+            return this
+        }
+        val ns = newShape.clone()
+        return view(listOf("broadcastTo", ns.toList())) { it.broadcastTo(*ns) }
+    }
+
+    override fun permute(p: Permutation): LazyTensor<T> {
+        return view(listOf("permute", p.array.toList())) { it.permute(p) }
+    }
+
+    override fun permute(vararg newAxis: Int): LazyTensor<T> {
+        return permute(Permutations.valueOf(*newAxis))
+    }
+
+    override fun transpose(axis1: Int, axis2: Int): LazyTensor<T> {
+        return permute(Permutations.swap(dim,
+                TensorImpl.addIfNegative(axis1, dim),
+                TensorImpl.addIfNegative(axis2, dim)))
+    }
+
+    override fun diagonal(offset: Int, axis1: Int, axis2: Int): LazyTensor<T> {
+        return view(listOf("diagonal", offset, axis1, axis2)) { it.diagonal(offset, axis1, axis2) }
+    }
+
+    companion object {
+
+        /**
+         * Returns a lazy tensor that views the given tensor.
+         */
+        @JvmStatic
+        fun <T> of(t: Tensor<T>): LazyTensor<T> {
+            if (t is LazyTensor) {
+                return t
+            }
+            return LazyTensor(t.calculator, LeafNode(t))
+        }
+
+        private fun <T> nodeOf(t: Tensor<T>): ExprNode<T> {
+            return if (t is LazyTensor) t.node else LeafNode(t)
+        }
+
+        private fun <T> evalIfLazy(t: Tensor<T>): Tensor<T> {
+            return if (t is LazyTensor) t.eval() else t
+        }
+
+        private fun <T> broadcastNode(x: ExprNode<T>, shape: IntArray): ExprNode<T> {
+            if (x.shape.contentEquals(shape)) {
+                return x
+            }
+            val ns = shape.clone()
+            return ViewNode(x, listOf("broadcastTo", ns.toList()), ns) { it.broadcastTo(*ns) }
+        }
+    }
+}
+
+/*
+Expression nodes:
+ */
+
+/**
+ * A node in the expression graph of lazy tensors. Nodes are compared structurally by their [key]s, so that
+ * equal subexpressions built separately are recognized, except that leaves are compared by the identity of
+ * their tensors.
+ */
+internal sealed class ExprNode<T>(val shape: IntArray) {
+
+    /**
+     * The operation and the operands of this node, which determine its equality.
+     */
+    abstract val key: List<Any?>
+
+    abstract val children: List<ExprNode<T>>
+
+    /**
+     * Whether computing the elements of this node involves arithmetic, so that it is materialized once if it is
+     * used more than once.
+     */
+    abstract val isCompute: Boolean
+
+    private var hash = 0
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) {
+            return true
+        }
+        return other is ExprNode<*> && other.javaClass == javaClass && other.hashCode() == hashCode() && key == other.key
+    }
+
+    override fun hashCode(): Int {
+        if (hash == 0) {
+            hash = 31 * javaClass.hashCode() + key.hashCode()
+        }
+        return hash
+    }
+}
+
+internal class LeafNode<T>(val t: Tensor<T>) : ExprNode<T>(t.shape) {
+    override val key: List<Any?>
+        get() = emptyList()
+    override val children: List<ExprNode<T>>
+        get() = emptyList()
+    override val isCompute: Boolean
+        get() = false
+
+    override fun equals(other: Any?): Boolean {
+        return other is LeafNode<*> && other.t === t
+    }
+
+    override fun hashCode(): Int {
+        return System.identityHashCode(t)
+    }
+}
+
+internal class MapNode<T>(val x: ExprNode<T>, op: Any, val f: (T) -> T) : ExprNode<T>(x.shape) {
+    override val key: List<Any?> = listOf(op, x)
+    override val children: List<ExprNode<T>>
+        get() = listOf(x)
+    override val isCompute: Boolean
+        get() = true
+}
+
+/**
+ * An element-wise operation on two operands of the same shape, which are broadcast by [ViewNode]s if necessary.
+ */
+internal class ZipNode<T>(val x: ExprNode<T>, val y: ExprNode<T>, op: String, val f: (T, T) -> T)
+    : ExprNode<T>(x.shape) {
+    override val key: List<Any?> = listOf(op, x, y)
+    override val children: List<ExprNode<T>>
+        get() = listOf(x, y)
+    override val isCompute: Boolean
+        get() = true
+}
+
+/**
+ * A view of the operand, which is given by applying [f] to the fused operand.
+ */
+internal class ViewNode<T>(val x: ExprNode<T>, op: List<Any?>, shape: IntArray, val f: (Tensor<T>) -> Tensor<T>)
+    : ExprNode<T>(shape) {
+    override val key: List<Any?> = listOf(op, x)
+    override val children: List<ExprNode<T>>
+        get() = listOf(x)
+    override val isCompute: Boolean
+        get() = x.isCompute
+}
+
+/**
+ * The sum of the operand in the given sorted [axes], which is a scalar tensor if all the axes are summed.
+ */
+internal class ReduceNode<T>(val x: ExprNode<T>, val axes: IntArray, shape: IntArray) : ExprNode<T>(shape) {
+    override val key: List<Any?> = listOf("sum", axes.toList(), x)
+    override val children: List<ExprNode<T>>
+        get() = listOf(x)
+    override val isCompute: Boolean
+        get() = true
+}
+
+/**
+ * Compiles an expression graph into a tensor. The element-wise nodes are compiled into views that compute their
+ * elements on access. If [materialize] is `true`, reductions and shared computing nodes are computed into tensors,
+ * otherwise reductions are also compiled into views.
+ */
+internal class LazyEvaluator<T>(private val mc: EqualPredicate<T>, private val materialize: Boolean) {
+    private val canonical = HashMap<ExprNode<T>, ExprNode<T>>()
+    private val uses = IdentityHashMap<ExprNode<T>, Int>()
+    private val results = IdentityHashMap<ExprNode<T>, Tensor<T>>()
+
+    private fun count(node: ExprNode<T>) {
+        val c = canonical.getOrPut(node) { node }
+        val u = uses[c] ?: 0
+        uses[c] = u + 1
+        if (u == 0) {
+            for (child in c.children) {
+                count(child)
+            }
+        }
+    }
+
+    fun compile(root: ExprNode<T>): Tensor<T> {
+        count(root)
+        return compile0(root)
+    }
+
+    private fun compile0(node: ExprNode<T>): Tensor<T> {
+        val c = canonical.getValue(node)
+        results[c]?.let { return it }
+        val t = when (c) {
+            is LeafNode -> c.t
+            is MapNode -> MappedView(mc, compile0(c.x), c.f)
+            is ZipNode -> ZippedView(mc, compile0(c.x), compile0(c.y), c.f)
+            is ViewNode -> c.f(compile0(c.x))
+            is ReduceNode -> {
+                val x = compile0(c.x)
+                if (materialize) {
+                    TensorImpl.sum(x, c.axes.asList())
+                } else {
+                    ReducedView(mc, x, c.axes, c.shape)
+                }
+            }
+        }
+        val re = if (materialize && c !is ReduceNode && c.isCompute && uses.getValue(c) > 1) {
+            TensorImpl.materialize(t)
+        } else {
+            t
+        }
+        results[c] = re
+        return re
+    }
+}
+
+/*
+Views compiled from the nodes:
+ */
+
+/**
+ * A tensor that only provides a shape, which is used to compute the shapes of views and broadcasting.
+ */
+private class ShapeOnly<T>(mc: EqualPredicate<T>, shape: IntArray) : AbstractTensor<T>(mc, shape) {
+    override fun getChecked(idx: Index): T {
+        throw UnsupportedOperationException()
+    }
+}
+
+private class MappedView<T>(mc: EqualPredicate<T>, val x: Tensor<T>, val f: (T) -> T)
+    : AbstractTensor<T>(mc, x.shape) {
+    override fun getChecked(idx: Index): T {
+        return f(x[idx])
+    }
+}
+
+private class ZippedView<T>(mc: EqualPredicate<T>, val x: Tensor<T>, val y: Tensor<T>, val f: (T, T) -> T)
+    : AbstractTensor<T>(mc, x.shape) {
+    override fun getChecked(idx: Index): T {
+        return f(x[idx], y[idx])
+    }
+}
+
+private class ReducedView<T>(mc: EqualPredicate<T>, val x: Tensor<T>, val axes: IntArray, shape: IntArray)
+    : AbstractTensor<T>(mc, shape) {
+    private val remAxes = (0 until x.dim).filter { it !in axes }.toIntArray()
+    private val sumShape = IntArray(axes.size) { x.lengthAt(axes[it]) }
+
+    override fun getChecked(idx: Index): T {
+        val mc = calculator as AbelSemigroupCal<T>
+        val xIdx = IntArray(x.dim)
+        for (i in remAxes.indices) {
+            xIdx[remAxes[i]] = idx[i]
+        }
+        var re: T? = null
+        IndexCursor.forEachIndexed(sumShape) { pos, sIdx ->
+            for (i in axes.indices) {
+                xIdx[axes[i]] = sIdx[i]
+            }
+            val a = x[xIdx]
+            @Suppress("UNCHECKED_CAST")
+            re = if (pos == 0) a else mc.add(re as T, a)
+        }
+        @Suppress("UNCHECKED_CAST")
+        return re as T
+    }
+}
@@ -0,0 +1,126 @@
+package cn.ancono.math.numberModels
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.RecursiveTask
+import kotlin.math.max
+
+
+/**
+ * Provides the chunking of element-wise operations and reductions over a range of flat positions `[0, n)`, which is
+ * shared by tensors and matrices.
+ *
+ * The range is split into chunks computed in [pool] when the amount of work, measured by the count of elements
+ * times the work per element, is not less than [parallelThreshold]. Reductions compute a partial result for each
+ * chunk and combine the partial results in the order of the chunks, so that the result does not depend on the
+ * scheduling. Set [parallelThreshold] to [Long.MAX_VALUE] to always compute sequentially.
+ *
+ * Tensors and matrices use these kernels for their element-wise operations, such as `applyAll`, `mapTo`, `add` and
+ * `sum`, so the functions passed to them and the calculators of the elements are called concurrently from several
+ * threads for large operands. They must therefore be thread-safe. A calculator that keeps mutable state, such as
+ * an [cn.ancono.math.numberModels.expression.ExprCalculator] whose properties may be changed, is not, and should
+ * only be used while [parallelThreshold] is [Long.MAX_VALUE].
+ */
+object ParallelKernels {
+
+    /**
+     * The minimal amount of work of an operation, measured by the count of elements times the work per element,
+     * for it to be computed in parallel.
+     */
+    @JvmStatic
+    @Volatile
+    var parallelThreshold: Long = 1L shl 15
+
+    /**
+     * The pool in which parallel computations are performed.
+     */
+    @JvmStatic
+    @Volatile
+    var pool: ForkJoinPool = ForkJoinPool.commonPool()
+
+    private class ChunkAction(
+        val from: Int, val until: Int, val grain: Int,
+        val action: (Int, Int) -> Unit
+    ) : RecursiveAction() {
+        override fun compute() {
+            if (until - from <= grain) {
+                action(from, until)
+                return
+            }
+            val mid = (from + until) ushr 1
+            invokeAll(ChunkAction(from, mid, grain, action), ChunkAction(mid, until, grain, action))
+        }
+    }
+
+    private class ChunkTask<R>(
+        val from: Int, val until: Int, val grain: Int,
+        val chunk: (Int, Int) -> R, val combine: (R, R) -> R
+    ) : RecursiveTask<R>() {
+        override fun compute(): R {
+            if (until - from <= grain) {
+                return chunk(from, until)
+            }
+            val mid = (from + until) ushr 1
+            val left = ChunkTask(from, mid, grain, chunk, combine)
+            left.fork()
+            val right = ChunkTask(mid, until, grain, chunk, combine).compute()
+            return combine(left.join(), right)
+        }
+    }
+
+    /**
+     * Returns the size of chunks for `n` elements, or `-1` if they should be computed sequentially.
+     */
+    private fun grainOf(p: ForkJoinPool, n: Int, workPerItem: Long): Int {
+        val parallelism = p.parallelism
+        if (n < 2 || parallelism <= 1 || n * workPerItem < parallelThreshold) {
+            return -1
+        }
+        return max(1, n / (parallelism * 4))
+    }
+
+    private fun <R> run(p: ForkJoinPool, task: ForkJoinTask<R>): R {
+        return if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke()
+        } else {
+            p.invoke(task)
+        }
+    }
+
+    /**
+     * Performs the [action] on chunks `[from, until)` covering `[0, n)`, in parallel if the total
+     * work `n * workPerItem` reaches [parallelThreshold]. The chunks are disjoint, so the action may write to
+     * the positions of its chunk without synchronization.
+     */
+    fun forChunks(n: Int, workPerItem: Long = 1L, action: (from: Int, until: Int) -> Unit) {
+        if (n <= 0) {
+            return
+        }
+        val p = pool
+        val grain = grainOf(p, n, workPerItem)
+        if (grain < 0) {
+            action(0, n)
+            return
+        }
+        run(p, ChunkAction(0, n, grain, action))
+    }
+
+    /**
+     * Computes a partial result with [chunk] for each chunk `[from, until)` covering `[0, n)` and combines the
+     * partial results with [combine] in the order of the chunks, in parallel if the total work `n * workPerItem`
+     * reaches [parallelThreshold]. It is required that `n > 0`, so that each chunk is non-empty.
+     */
+    fun <R> reduceChunks(
+        n: Int, workPerItem: Long = 1L,
+        chunk: (from: Int, until: Int) -> R, combine: (R, R) -> R
+    ): R {
+        require(n > 0)
+        val p = pool
+        val grain = grainOf(p, n, workPerItem)
+        if (grain < 0) {
+            return chunk(0, n)
+        }
+        return run(p, ChunkTask(0, n, grain, chunk, combine))
+    }
+}
@@ -0,0 +1,860 @@
+package cn.ancono.math.numberModels
+
+import cn.ancono.math.MathUtils
+import cn.ancono.math.algebra.abs.calculator.DivisionRingCalculator
+import cn.ancono.math.algebra.abs.calculator.RingCalculator
+import cn.ancono.math.algebra.abs.calculator.eval
+import cn.ancono.math.discrete.combination.Permutation
+import cn.ancono.math.discrete.combination.Permutations
+import cn.ancono.math.numberModels.api.Index
+import cn.ancono.math.numberModels.api.shapeString
+import java.util.*
+
+
+/**
+ * Describes a sparse tensor, which only stores the non-zero elements. Zeros are never stored.
+ *
+ * The elements are stored in the coordinate (COO) form in a [COOTensor], as the linear row-major keys of their
+ * indices in ascending order together with the elements. A [CSFTensor] stores them in the compressed sparse fiber
+ * (CSF) form, which is a tree whose `l`-th level contains the distinct `l`-th components of the indices under each
+ * prefix, so that common prefixes of indices are stored only once.
+ *
+ * Sparse tensors are usually built with a [Builder] or from a dense tensor by [fromDense]. The following operations
+ * keep the sparsity, whose time and memory scale with the count of non-zero elements [nnz] instead of [size]:
+ *
+ *  * addition and subtraction of sparse tensors of the same shape, negation and scalar multiplication;
+ *  * element-wise multiplication with a tensor of the same shape, and [applyAll] with a function mapping zero to
+ *    zero;
+ *  * [sum] in axes, [permute] and [transpose];
+ *  * [matmul], [tensorDot] and [wedge] with sparse tensors, whose results are sparse, and with dense tensors, whose
+ *    results are dense;
+ *  * einsum with sparse operands, see [Tensor.einsum].
+ *
+ * The results of these operations are in the COO form. Other operations of [Tensor] fall back to the element access,
+ * in which an element is found by binary search.
+ *
+ * @see COOTensor
+ * @see CSFTensor
+ */
+sealed class SparseTensor<T>(mc: RingCalculator<T>, shape: IntArray) : AbstractTensor<T>(mc, shape) {
+
+    /**
+     * The row-major strides of the linear keys of indices.
+     */
+    internal val keyStrides: LongArray = keyStridesOf(shape)
+
+    /**
+     * The count of non-zero elements in this tensor.
+     */
+    abstract val nnz: Int
+
+    /**
+     * Returns this tensor in the COO form.
+     */
+    abstract fun toCOO(): COOTensor<T>
+
+    /**
+     * Returns this tensor in the CSF form.
+     */
+    abstract fun toCSF(): CSFTensor<T>
+
+    /**
+     * Performs the action for each non-zero element in this tensor with its index, in the order of the indices.
+     * The index array is reused and should not be modified or kept.
+     */
+    abstract fun forEachNonZero(action: (idx: Index, x: T) -> Unit)
+
+    internal val ring: RingCalculator<T>
+        get() = calculator as RingCalculator<T>
+
+    internal fun keyOf(idx: Index): Long {
+        var key = 0L
+        for (l in idx.indices) {
+            key += idx[l] * keyStrides[l]
+        }
+        return key
+    }
+
+    internal fun decode(key: Long, idx: IntArray) {
+        var k = key
+        for (l in idx.size - 1 downTo 0) {
+            idx[l] = (k % sh[l]).toInt()
+            k /= sh[l]
+        }
+    }
+
+    /**
+     * Returns a dense copy of this tensor.
+     */
+    fun toDense(): ATensor<T> {
+        val mc = ring
+        val z = mc.zero
+        val data = Array<Any?>(size) { z }
+        forEachNonZero { idx, x -> data[keyOf(idx).toInt()] = x }
+        @Suppress("UNCHECKED_CAST")
+        return ATensor(mc, shape, data as Array<T>)
+    }
+
+    override fun isZero(): Boolean {
+        return nnz == 0
+    }
+
+    override fun sumAll(): T {
+        val mc = ring
+        var re = mc.zero
+        forEachNonZero { _, x -> re = mc.add(re, x) }
+        return re
+    }
+
+    /**
+     * Returns a sparse tensor whose elements are `f(x)` for the non-zero elements `x`, it is required that
+     * `f(0) = 0`.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private inline fun mapNonZero(f: (T) -> T): COOTensor<T> {
+        val x = toCOO()
+        val mc = ring
+        val n = x.nnz
+        val newKeys = LongArray(n)
+        val newValues = arrayOfNulls<Any>(n)
+        var c = 0
+        for (k in 0 until n) {
+            val v = f(x.values[k] as T)
+            if (!mc.isZero(v)) {
+                newKeys[c] = x.keys[k]
+                newValues[c] = v
+                c++
+            }
+        }
+        return COOTensor(mc, sh, newKeys.copyOf(c), newValues.copyOf(c))
+    }
+
+    /**
+     * Merges this tensor and [y] of the same shape element-wise with [f], it is required that `f(0,0) = 0`.
+     * If [union] is `false`, it is also required that `f(x,0) = f(0,y) = 0`, so that only the common positions
+     * are merged.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private inline fun merge(y: SparseTensor<T>, union: Boolean, f: (T, T) -> T): COOTensor<T> {
+        val x = toCOO()
+        val w = y.toCOO()
+        val mc = ring
+        val z = mc.zero
+        val capacity = if (union) x.nnz + w.nnz else minOf(x.nnz, w.nnz)
+        val newKeys = LongArray(capacity)
+        val newValues = arrayOfNulls<Any>(capacity)
+        var c = 0
+        var p = 0
+        var q = 0
+        while (p < x.nnz || q < w.nnz) {
+            val kp = if (p < x.nnz) x.keys[p] else Long.MAX_VALUE
+            val kq = if (q < w.nnz) w.keys[q] else Long.MAX_VALUE
+            val key: Long
+            val v: T
+            if (kp == kq) {
+                key = kp
+                v = f(x.values[p++] as T, w.values[q++] as T)
+            } else if (!union) {
+                if (kp < kq) p++ else q++
+                continue
+            } else if (kp < kq) {
+                key = kp
+                v = f(x.values[p++] as T, z)
+            } else {
+                key = kq
+                v = f(z, w.values[q++] as T)
+            }
+            if (!mc.isZero(v)) {
+                newKeys[c] = key
+                newValues[c] = v
+                c++
+            }
+        }
+        return COOTensor(mc, sh, newKeys.copyOf(c), newValues.copyOf(c))
+    }
+
+    override fun add(y: Tensor<T>): Tensor<T> {
+        if (y is SparseTensor && isSameShape(y)) {
+            val mc = ring
+            return merge(y, true) { a, b -> mc.add(a, b) }
+        }
+        return super.add(y)
+    }
+
+    override fun subtract(y: Tensor<T>): Tensor<T> {
+        if (y is SparseTensor && isSameShape(y)) {
+            val mc = ring
+            return merge(y, true) { a, b -> mc.subtract(a, b) }
+        }
+        return super.subtract(y)
+    }
+
+    override fun negate(): SparseTensor<T> {
+        val mc = ring
+        return mapNonZero { mc.negate(it) }
+    }
+
+    override fun multiply(k: T): SparseTensor<T> {
+        val mc = ring
+        return mapNonZero { mc.multiply(k, it) }
+    }
+
+    override fun divide(k: T): SparseTensor<T> {
+        val mc = calculator as DivisionRingCalculator<T>
+        return mapNonZero { mc.divide(it, k) }
+    }
+
+    /**
+     * Returns the **element-wise** product of this tensor and `y`. If `y` has the same shape as this tensor,
+     * the result is sparse.
+     */
+    @Suppress("UNCHECKED_CAST")
+    override fun multiply(y: Tensor<T>): Tensor<T> {
+        if (!isSameShape(y)) {
+            return super.multiply(y)
+        }
+        val mc = ring
+        if (y is SparseTensor) {
+            return merge(y, false) { a, b -> mc.multiply(a, b) }
+        }
+        val x = toCOO()
+        val idx = IntArray(dim)
+        var k = 0
+        return mapNonZero { a ->
+            decode(x.keys[k++], idx)
+            mc.multiply(a, y[idx])
+        }
+    }
+
+    override fun applyAll(f: (T) -> T): Tensor<T> {
+        val mc = ring
+        if (mc.isZero(f(mc.zero))) {
+            return mapNonZero(f)
+        }
+        return super.applyAll(f)
+    }
+
+    override fun inner(y: Tensor<T>): T {
+        return inner(this, y)
+    }
+
+    /**
+     * Returns the sum of elements in the given axes as a sparse tensor, see [Tensor.sum].
+     */
+    override fun sum(vararg axes: Int): SparseTensor<T> {
+        val axesSet = axes.asSequence().map {
+            val axis = TensorImpl.addIfNegative(it, dim)
+            require(axis in 0 until dim)
+            axis
+        }.toSet()
+        val remAxes = if (axesSet.isEmpty()) {
+            IntArray(0)
+        } else {
+            (0 until dim).filter { it !in axesSet }.toIntArray()
+        }
+        val shape = if (remAxes.isEmpty()) intArrayOf(1) else IntArray(remAxes.size) { sh[remAxes[it]] }
+        val st = keyStridesOf(shape)
+        val x = toCOO()
+        val keys = LongArray(x.nnz)
+        var k = 0
+        x.forEachNonZero { idx, _ ->
+            var key = 0L
+            for (i in remAxes.indices) {
+                key += idx[remAxes[i]] * st[i]
+            }
+            keys[k++] = key
+        }
+        return compress(ring, shape, keys, x.values, x.nnz)
+    }
+
+    /**
+     * Returns the axis-permuted tensor of this tensor as a new sparse tensor, see [Tensor.permute].
+     */
+    override fun permute(p: Permutation): SparseTensor<T> {
+        require(p.size() == dim)
+        val am = p.array
+        val shape = IntArray(dim) { sh[am[it]] }
+        val st = keyStridesOf(shape)
+        val x = toCOO()
+        val keys = LongArray(x.nnz)
+        var k = 0
+        x.forEachNonZero { idx, _ ->
+            var key = 0L
+            for (i in am.indices) {
+                key += idx[am[i]] * st[i]
+            }
+            keys[k++] = key
+        }
+        return compress(ring, shape, keys, x.values, x.nnz)
+    }
+
+    override fun permute(vararg newAxis: Int): SparseTensor<T> {
+        return permute(Permutations.valueOf(*newAxis))
+    }
+
+    override fun transpose(axis1: Int, axis2: Int): SparseTensor<T> {
+        return permute(Permutations.swap(dim,
+                TensorImpl.addIfNegative(axis1, dim),
+                TensorImpl.addIfNegative(axis2, dim)))
+    }
+
+    /**
+     * Returns the matrix multiplication of this and [y], see [Tensor.matmul]. The result is sparse if `y` is sparse,
+     * and dense otherwise.
+     */
+    override fun matmul(y: Tensor<T>, r: Int): Tensor<T> {
+        return matmul(this, y, r)
+    }
+
+    /**
+     * Returns the tensor dot product of this and [y] of rank [r], which sums over the last `r` axes of both
+     * tensors. The result has the shape of `x.shape[:-r] + y.shape[:-r]`, and it is sparse if `y` is sparse.
+     */
+    fun tensorDot(y: Tensor<T>, r: Int): Tensor<T> {
+        val d2 = y.dim
+        require(r in 0..d2)
+        val axes = IntArray(d2) { if (it < r) d2 - r + it else it - r }
+        return matmul(this, y.permute(*axes), r)
+    }
+
+    /**
+     * Returns the wedge product of this tensor and [y], which is sparse if `y` is sparse.
+     */
+    override fun wedge(y: Tensor<T>): Tensor<T> {
+        if (y !is SparseTensor) {
+            return super.wedge(y)
+        }
+        val x = toCOO()
+        val w = y.toCOO()
+        val mc = ring
+        val ySize = keyStridesOf(y.shape)[0] * y.lengthAt(0)
+        val n = x.nnz * w.nnz
+        val keys = LongArray(n)
+        val values = arrayOfNulls<Any>(n)
+        var c = 0
+        for (p in 0 until x.nnz) {
+            for (q in 0 until w.nnz) {
+                @Suppress("UNCHECKED_CAST")
+                val v = mc.multiply(x.values[p] as T, w.values[q] as T)
+                if (!mc.isZero(v)) {
+                    keys[c] = x.keys[p] * ySize + w.keys[q]
+                    values[c] = v
+                    c++
+                }
+            }
+        }
+        return COOTensor(mc, sh + y.shape, keys.copyOf(c), values.copyOf(c))
+    }
+
+    /**
+     * Returns the general einsum of this tensor alone, see `TensorImpl.einsum`, which accumulates the non-zero
+     * elements whose indices are consistent with the repeated axes.
+     */
+    internal fun einsumUnary(resShape: IntArray, mulDim: Int, tToRes: IntArray, tToMul: IntArray): ATensor<T> {
+        val mc = ring
+        val z = mc.zero
+        val st = keyStridesOf(resShape)
+        val data = Array<Any?>(MathUtils.product(resShape)) { z }
+        val rIdx = IntArray(resShape.size)
+        val mIdx = IntArray(mulDim)
+        fun place(idx: Index, tToPart: IntArray, partIdx: IntArray): Boolean {
+            partIdx.fill(-1)
+            for (l in tToPart.indices step 2) {
+                val v = idx[tToPart[l]]
+                val a = tToPart[l + 1]
+                if (partIdx[a] < 0) {
+                    partIdx[a] = v
+                } else if (partIdx[a] != v) {
+                    return false
+                }
+            }
+            return true
+        }
+        forEachNonZero { idx, x ->
+            if (place(idx, tToRes, rIdx) && place(idx, tToMul, mIdx)) {
+                var pos = 0L
+                for (l in rIdx.indices) {
+                    pos += rIdx[l] * st[l]
+                }
+                @Suppress("UNCHECKED_CAST")
+                data[pos.toInt()] = mc.add(data[pos.toInt()] as T, x)
+            }
+        }
+        @Suppress("UNCHECKED_CAST")
+        return ATensor(mc, resShape, data as Array<T>)
+    }
+
+    companion object {
+
+        /**
+         * Returns a new builder of a sparse tensor of the given shape.
+         */
+        @JvmStatic
+        fun <T> builder(shape: IntArray, mc: RingCalculator<T>): Builder<T> {
+            return Builder(shape, mc)
+        }
+
+        /**
+         * Returns a sparse tensor of all zeros.
+         */
+        @JvmStatic
+        fun <T> zeros(shape: IntArray, mc: RingCalculator<T>): COOTensor<T> {
+            return COOTensor(mc, shape.clone(), LongArray(0), arrayOfNulls(0))
+        }
+
+        /**
+         * Returns a sparse tensor in the COO form containing the non-zero elements of the tensor.
+         */
+        @JvmStatic
+        fun <T> fromDense(t: Tensor<T>): COOTensor<T> {
+            if (t is SparseTensor) {
+                return t.toCOO()
+            }
+            val mc = t.calculator as RingCalculator<T>
+            var keys = LongArray(16)
+            var values = arrayOfNulls<Any>(16)
+            var c = 0
+            var pos = 0L
+            for (x in t.elementSequence()) {
+                if (!mc.isZero(x)) {
+                    if (c == keys.size) {
+                        keys = keys.copyOf(c * 2)
+                        values = values.copyOf(c * 2)
+                    }
+                    keys[c] = pos
+                    values[c] = x
+                    c++
+                }
+                pos++
+            }
+            return COOTensor(mc, t.shape, keys.copyOf(c), values.copyOf(c))
+        }
+
+        /**
+         * Returns the row-major strides of the linear keys of the shape.
+         */
+        internal fun keyStridesOf(shape: IntArray): LongArray {
+            require(shape.isNotEmpty() && shape.all { it > 0 }) {
+                "Invalid shape: ${shape.contentToString()}"
+            }
+            val st = LongArray(shape.size)
+            var s = 1L
+            for (l in shape.indices.reversed()) {
+                st[l] = s
+                s = Math.multiplyExact(s, shape[l].toLong())
+            }
+            return st
+        }
+
+        /**
+         * Creates a sparse tensor from the first [n] keys and values, sorting them by the keys, summing up duplicates
+         * and dropping zeros.
+         */
+        @Suppress("UNCHECKED_CAST")
+        internal fun <T> compress(
+            mc: RingCalculator<T>, shape: IntArray, keys: LongArray, values: Array<Any?>, n: Int
+        ): COOTensor<T> {
+            val sorted = keys.copyOf(n)
+            sorted.sort()
+            var u = 0
+            for (k in 0 until n) {
+                if (u == 0 || sorted[u - 1] != sorted[k]) {
+                    sorted[u++] = sorted[k]
+                }
+            }
+            val acc = arrayOfNulls<Any>(u)
+            val filled = BooleanArray(u)
+            for (k in 0 until n) {
+                val pos = Arrays.binarySearch(sorted, 0, u, keys[k])
+                acc[pos] = if (filled[pos]) mc.add(acc[pos] as T, values[k] as T) else values[k]
+                filled[pos] = true
+            }
+            var c = 0
+            for (p in 0 until u) {
+                if (!mc.isZero(acc[p] as T)) {
+                    sorted[c] = sorted[p]
+                    acc[c] = acc[p]
+                    c++
+                }
+            }
+            return COOTensor(mc, shape, sorted.copyOf(c), acc.copyOf(c))
+        }
+
+        private fun sizeOf(shape: IntArray, from: Int, until: Int): Long {
+            var s = 1L
+            for (l in from until until) {
+                s *= shape[l]
+            }
+            return s
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun <T> denseData(t: Tensor<T>): Array<Any?> {
+            val d = if (t is ATensor) t else TensorImpl.materialize(t)
+            return d.data as Array<Any?>
+        }
+
+        /**
+         * Returns the inner product of [x] and [y], at least one of which is sparse.
+         */
+        @Suppress("UNCHECKED_CAST")
+        internal fun <T> inner(x: Tensor<T>, y: Tensor<T>): T {
+            require(x.isSameShape(y)) {
+                "Two tensor must have the same shape for inner!" +
+                        "Given shapes: ${x.shapeString}, ${y.shapeString}."
+            }
+            val mc = x.calculator as RingCalculator<T>
+            var re = mc.zero
+            if (x is SparseTensor && y is SparseTensor) {
+                val a = x.toCOO()
+                val b = y.toCOO()
+                var p = 0
+                var q = 0
+                while (p < a.nnz && q < b.nnz) {
+                    val kp = a.keys[p]
+                    val kq = b.keys[q]
+                    when {
+                        kp < kq -> p++
+                        kp > kq -> q++
+                        else -> re = mc.eval { re + (a.values[p++] as T) * (b.values[q++] as T) }
+                    }
+                }
+            } else if (x is SparseTensor) {
+                x.forEachNonZero { idx, a -> re = mc.eval { re + a * y[idx] } }
+            } else {
+                (y as SparseTensor).forEachNonZero { idx, b -> re = mc.eval { re + x[idx] * b } }
+            }
+            return re
+        }
+
+        /**
+         * Returns the matrix multiplication of rank [r] of [x] and [y], at least one of which is sparse,
+         * see [Tensor.matmul].
+         */
+        internal fun <T> matmul(x: Tensor<T>, y: Tensor<T>, r: Int): Tensor<T> {
+            val s1 = x.shape
+            val s2 = y.shape
+            val d1 = s1.size
+            val d2 = s2.size
+            require(d1 >= r && d2 >= r)
+            require(s1.sliceArray(d1 - r until d1).contentEquals(s2.sliceArray(0 until r))) {
+                "Shape mismatch in matmul of rank $r: ${x.shapeString} and ${y.shapeString}"
+            }
+            val mc = x.calculator as RingCalculator<T>
+            if (d1 == r && d2 == r) {
+                return Tensor.scalar(inner(x, y), mc)
+            }
+            val shape = s1.sliceArray(0 until d1 - r) + s2.sliceArray(r until d2)
+            return multiplyBatched(x, y, 1, sizeOf(s1, 0, d1 - r), sizeOf(s1, d1 - r, d1), sizeOf(s2, r, d2),
+                    shape, mc)
+        }
+
+        /**
+         * Computes the batched products
+         *
+         *     z[b,i,j] = sum(l; x[b,i,l] * y[b,l,j])
+         *
+         * where the elements of [x] and [y] are in the row-major order of the shapes `(nb,n,m)` and `(nb,m,p)`,
+         * at least one of which is sparse, and returns the result of the given [shape]. The result is sparse if both
+         * of them are sparse, and dense otherwise.
+         */
+        @Suppress("UNCHECKED_CAST")
+        internal fun <T> multiplyBatched(
+            x: Tensor<T>, y: Tensor<T>, nb: Long, n: Long, m: Long, p: Long,
+            shape: IntArray, mc: RingCalculator<T>
+        ): Tensor<T> {
+            if (x is SparseTensor && y is SparseTensor) {
+                return multiplySparse(x.toCOO(), y.toCOO(), n, m, p, shape, mc)
+            }
+            val z = mc.zero
+            val c = Array<Any?>((nb * n * p).toInt()) { z }
+            val ni = n.toInt()
+            val mi = m.toInt()
+            val pi = p.toInt()
+            if (x is SparseTensor) {
+                val a = x.toCOO()
+                val yd = denseData(y)
+                for (k in 0 until a.nnz) {
+                    val rx = (a.keys[k] / m).toInt()
+                    val l = (a.keys[k] % m).toInt()
+                    val v = a.values[k] as T
+                    val yBase = ((rx / ni) * mi + l) * pi
+                    val cBase = rx * pi
+                    for (j in 0 until pi) {
+                        c[cBase + j] = mc.eval { (c[cBase + j] as T) + v * (yd[yBase + j] as T) }
+                    }
+                }
+            } else {
+                val b = (y as SparseTensor).toCOO()
+                val xd = denseData(x)
+                for (k in 0 until b.nnz) {
+                    val ry = (b.keys[k] / p).toInt()
+                    val j = (b.keys[k] % p).toInt()
+                    val v = b.values[k] as T
+                    val bn = (ry / mi) * ni
+                    val l = ry % mi
+                    for (i in bn until bn + ni) {
+                        val u = xd[i * mi + l] as T
+                        if (!mc.isZero(u)) {
+                            c[i * pi + j] = mc.eval { (c[i * pi + j] as T) + u * v }
+                        }
+                    }
+                }
+            }
+            return ATensor(mc, shape, c as Array<T>)
+        }
+
+        /**
+         * Computes the batched products of two sparse tensors with Gustavson's row-by-row algorithm,
+         * see [multiplyBatched].
+         */
+        @Suppress("UNCHECKED_CAST")
+        private fun <T> multiplySparse(
+            x: COOTensor<T>, y: COOTensor<T>, n: Long, m: Long, p: Long,
+            shape: IntArray, mc: RingCalculator<T>
+        ): COOTensor<T> {
+            // the distinct rows `b*m + l` of y and their ranges
+            val yRows = LongArray(y.nnz)
+            val yPtr = IntArray(y.nnz + 1)
+            var rows = 0
+            for (q in 0 until y.nnz) {
+                val row = y.keys[q] / p
+                if (rows == 0 || yRows[rows - 1] != row) {
+                    yRows[rows] = row
+                    yPtr[rows] = q
+                    rows++
+                }
+            }
+            yPtr[rows] = y.nnz
+
+            var keys = LongArray(maxOf(16, x.nnz))
+            var values = arrayOfNulls<Any>(keys.size)
+            var c = 0
+            val acc = HashMap<Long, Any?>()
+            var start = 0
+            while (start < x.nnz) {
+                val rx = x.keys[start] / m
+                var end = start
+                while (end < x.nnz && x.keys[end] / m == rx) {
+                    end++
+                }
+                val rowBase = (rx / n) * m
+                acc.clear()
+                for (k in start until end) {
+                    val pos = yRows.binarySearch(rowBase + x.keys[k] % m, 0, rows)
+                    if (pos < 0) {
+                        continue
+                    }
+                    val a = x.values[k] as T
+                    for (q in yPtr[pos] until yPtr[pos + 1]) {
+                        val j = y.keys[q] % p
+                        val t = mc.multiply(a, y.values[q] as T)
+                        acc[j] = if (acc.containsKey(j)) mc.add(acc[j] as T, t) else t
+                    }
+                }
+                val cols = acc.keys.toLongArray()
+                cols.sort()
+                for (j in cols) {
+                    val v = acc[j] as T
+                    if (mc.isZero(v)) {
+                        continue
+                    }
+                    if (c == keys.size) {
+                        keys = keys.copyOf(c * 2)
+                        values = values.copyOf(c * 2)
+                    }
+                    keys[c] = rx * p + j
+                    values[c] = v
+                    c++
+                }
+                start = end
+            }
+            return COOTensor(mc, shape, keys.copyOf(c), values.copyOf(c))
+        }
+    }
+
+    /**
+     * A builder of sparse tensors accepting elements with their indices. Elements added at the same index are
+     * summed up.
+     */
+    class Builder<T> internal constructor(shape: IntArray, val mc: RingCalculator<T>) {
+        private val sh = shape.clone()
+        private val strides = keyStridesOf(sh)
+        private var keys = LongArray(16)
+        private var values = arrayOfNulls<Any>(16)
+
+        /**
+         * The count of elements added.
+         */
+        var size = 0
+            private set
+
+        /**
+         * Adds [x] to the element at the index.
+         */
+        fun add(idx: Index, x: T): Builder<T> {
+            require(idx.size == sh.size && idx.indices.all { idx[it] in 0 until sh[it] }) {
+                "Index out of bound for ${idx.contentToString()}, shape = ${sh.contentToString()}."
+            }
+            if (size == keys.size) {
+                val capacity = size * 2
+                keys = keys.copyOf(capacity)
+                values = values.copyOf(capacity)
+            }
+            var key = 0L
+            for (l in idx.indices) {
+                key += idx[l] * strides[l]
+            }
+            keys[size] = key
+            values[size] = x
+            size++
+            return this
+        }
+
+        /**
+         * Builds a sparse tensor in the COO form.
+         */
+        fun toCOO(): COOTensor<T> {
+            return compress(mc, sh, keys, values, size)
+        }
+
+        /**
+         * Builds a sparse tensor in the CSF form.
+         */
+        fun toCSF(): CSFTensor<T> {
+            return toCOO().toCSF()
+        }
+    }
+}
+
+/**
+ * A sparse tensor in the coordinate (COO) form, which stores the linear row-major keys of the indices of the
+ * non-zero elements in ascending order and the elements in the same positions.
+ */
+class COOTensor<T> internal constructor(
+    mc: RingCalculator<T>, shape: IntArray,
+    internal val keys: LongArray,
+    internal val values: Array<Any?>
+) : SparseTensor<T>(mc, shape) {
+
+    override val nnz: Int
+        get() = keys.size
+
+    override fun getChecked(idx: Index): T {
+        val pos = keys.binarySearch(keyOf(idx))
+        @Suppress("UNCHECKED_CAST")
+        return if (pos >= 0) values[pos] as T else ring.zero
+    }
+
+    override fun forEachNonZero(action: (idx: Index, x: T) -> Unit) {
+        val idx = IntArray(dim)
+        for (k in keys.indices) {
+            decode(keys[k], idx)
+            @Suppress("UNCHECKED_CAST")
+            action(idx, values[k] as T)
+        }
+    }
+
+    override fun toCOO(): COOTensor<T> {
+        return this
+    }
+
+    override fun toCSF(): CSFTensor<T> {
+        val d = dim
+        val n = nnz
+        val ids = Array(d) { IntArray(n) }
+        val ptrs = Array(d - 1) { IntArray(n + 1) }
+        val counts = IntArray(d)
+        val prev = IntArray(d)
+        val idx = IntArray(d)
+        for (k in 0 until n) {
+            decode(keys[k], idx)
+            // the first level at which the index differs from the previous one, the keys are distinct
+            var l = 0
+            if (k > 0) {
+                while (idx[l] == prev[l]) {
+                    l++
+                }
+            }
+            for (a in l until d) {
+                ids[a][counts[a]++] = idx[a]
+                if (a > 0) {
+                    ptrs[a - 1][counts[a - 1]] = counts[a]
+                }
+            }
+            idx.copyInto(prev)
+        }
+        return CSFTensor(ring, sh, Array(d - 1) { ptrs[it].copyOf(counts[it] + 1) },
+                Array(d) { ids[it].copyOf(counts[it]) }, values)
+    }
+}
+
+/**
+ * A sparse tensor in the compressed sparse fiber (CSF) form.
+ *
+ * The indices of the non-zero elements form a tree, whose nodes at level `l` are stored in `ids[l]` as the `l`-th
+ * components of the indices. The children of the `k`-th node at level `l` are the nodes of level `l+1` in
+ * `ptrs[l][k] until ptrs[l][k+1]`, sorted in ascending order. The leaves are at the last level, and the elements are
+ * stored in the same positions of `values`.
+ */
+class CSFTensor<T> internal constructor(
+    mc: RingCalculator<T>, shape: IntArray,
+    internal val ptrs: Array<IntArray>,
+    internal val ids: Array<IntArray>,
+    internal val values: Array<Any?>
+) : SparseTensor<T>(mc, shape) {
+
+    override val nnz: Int
+        get() = values.size
+
+    /**
+     * Returns the count of fibers at each level, that is, the count of distinct prefixes of each length of the
+     * indices of the non-zero elements.
+     */
+    fun fiberCounts(): IntArray {
+        return IntArray(dim) { ids[it].size }
+    }
+
+    override fun getChecked(idx: Index): T {
+        var from = 0
+        var until = ids[0].size
+        for (l in 0 until dim - 1) {
+            val pos = ids[l].binarySearch(idx[l], from, until)
+            if (pos < 0) {
+                return ring.zero
+            }
+            from = ptrs[l][pos]
+            until = ptrs[l][pos + 1]
+        }
+        val pos = ids[dim - 1].binarySearch(idx[dim - 1], from, until)
+        @Suppress("UNCHECKED_CAST")
+        return if (pos >= 0) values[pos] as T else ring.zero
+    }
+
+    override fun forEachNonZero(action: (idx: Index, x: T) -> Unit) {
+        val idx = IntArray(dim)
+        fun visit(l: Int, from: Int, until: Int) {
+            for (pos in from until until) {
+                idx[l] = ids[l][pos]
+                if (l == dim - 1) {
+                    @Suppress("UNCHECKED_CAST")
+                    action(idx, values[pos] as T)
+                } else {
+                    visit(l + 1, ptrs[l][pos], ptrs[l][pos + 1])
+                }
+            }
+        }
+        visit(0, 0, ids[0].size)
+    }
+
+    override fun toCOO(): COOTensor<T> {
+        val keys = LongArray(nnz)
+        var k = 0
+        forEachNonZero { idx, _ -> keys[k++] = keyOf(idx) }
+        return COOTensor(ring, sh, keys, values)
+    }
+
+    override fun toCSF(): CSFTensor<T> {
+        return this
+    }
+}
@@ -0,0 +1,889 @@
+package cn.ancono.math.numberModels
+
+import cn.ancono.math.MathUtils
+import cn.ancono.math.algebra.abs.calculator.EqualPredicate
+import cn.ancono.math.discrete.combination.Permutation
+import cn.ancono.math.discrete.combination.Permutations
+import cn.ancono.math.numberModels.Tensor.Companion.checkShape
+import cn.ancono.math.numberModels.api.Index
+import cn.ancono.math.numberModels.api.shapeString
+import kotlin.math.max
+
+
+/**
+ * A tensor whose elements are stored in a flat buffer. The element of index `idx` is stored at the position
+ *
+ *     offset + idx[0] * strides[0] + ... + idx[dim-1] * strides[dim-1]
+ *
+ * of the buffer.
+ *
+ * Slicing, permuting, transposing, inserting new axes, taking diagonals and broadcasting only change the strides
+ * and the offset, so they return views in `O(dim)` time sharing the buffer with this tensor. Reshaping returns
+ * such a view whenever the strides allow it, and a copy otherwise. Broadcast axes have a stride of zero, so all the
+ * elements along them are the same element of the buffer.
+ *
+ * @param S the type of the views, which is the type of the implementing class
+ */
+abstract class StridedTensor<T, S : StridedTensor<T, S>>
+internal constructor(
+        mc: EqualPredicate<T>, shape: IntArray,
+        /**
+         * The strides of the axes in the buffer, it should not be modified.
+         */
+        internal val st: IntArray,
+        /**
+         * The position of the element of index `(0,...,0)` in the buffer.
+         */
+        val offset: Int)
+    : AbstractMutableTensor<T>(mc, shape) {
+
+    final override val size: Int = MathUtils.product(shape)
+
+    /**
+     * Gets a copy of the strides of this tensor.
+     */
+    val strides: IntArray
+        get() = st.clone()
+
+    /**
+     * Determines whether the elements of this tensor are stored in the buffer from [offset] in the order of
+     * [indices] without gaps, so that the element sequence is a range of the buffer.
+     */
+    val isContiguous: Boolean by kotlin.lazy {
+        var s = 1
+        for (l in (dim - 1) downTo 0) {
+            if (sh[l] != 1 && st[l] != s) {
+                return@lazy false
+            }
+            s *= sh[l]
+        }
+        true
+    }
+
+    /**
+     * Returns the position in the buffer of the element of the given index.
+     */
+    protected fun toOffset(idx: Index): Int {
+        var pos = offset
+        for (l in 0 until dim) {
+            pos += idx[l] * st[l]
+        }
+        return pos
+    }
+
+    /**
+     * Creates a tensor sharing the buffer of this tensor.
+     */
+    protected abstract fun view(shape: IntArray, strides: IntArray, offset: Int): S
+
+    @Suppress("UNCHECKED_CAST")
+    private val self: S
+        get() = this as S
+
+    /**
+     * Returns a copy of this tensor whose buffer is contiguous.
+     */
+    abstract override fun copy(): S
+
+
+    private fun sliceView(am: IntArray, ranges: List<IntProgression>, ns: IntArray): S {
+        var off = offset
+        for (l in ranges.indices) {
+            off += ranges[l].first * st[l]
+        }
+        val nst = IntArray(am.size) { i ->
+            val axis = am[i]
+            if (axis < 0) 0 else st[axis] * ranges[axis].step
+        }
+        return view(ns, nst, off)
+    }
+
+    override fun slice(slices: List<Any?>): S {
+        val (am, ranges, ns) = TensorImpl.computeSliceView(this, slices)
+        return sliceView(am, ranges, ns)
+    }
+
+    override fun slice(vararg slices: Any?): S {
+        return slice(slices.asList())
+    }
+
+    override fun newAxisAt(axis: Int): S {
+        val (am, ranges, ns) = TensorImpl.newAxisSliceView(this, axis)
+        return sliceView(am, ranges, ns)
+    }
+
+    override fun permute(p: Permutation): S {
+        require(p.size() == dim)
+        val am = p.array
+        val ns = IntArray(dim) { i -> sh[am[i]] }
+        val nst = IntArray(dim) { i -> st[am[i]] }
+        return view(ns, nst, offset)
+    }
+
+    override fun permute(vararg newAxis: Int): S {
+        return permute(Permutations.valueOf(*newAxis))
+    }
+
+    override fun transpose(axis1: Int, axis2: Int): S {
+        return permute(Permutations.swap(dim,
+                TensorImpl.addIfNegative(axis1, dim),
+                TensorImpl.addIfNegative(axis2, dim)))
+    }
+
+    override fun diagonal(offset: Int, axis1: Int, axis2: Int): S {
+        // xIdx[i] = idx[am[i]] + offsets[i]
+        val (am, offsets, ns) = TensorImpl.prepareDiag(this, axis1, axis2, offset)
+        val nst = IntArray(ns.size)
+        var off = this.offset
+        for (i in 0 until dim) {
+            nst[am[i]] += st[i]
+            off += offsets[i] * st[i]
+        }
+        return view(ns, nst, off)
+    }
+
+    /**
+     * Broadcasts this tensor to the given shape as a view, whose strides are zero in the broadcast axes.
+     *
+     * Setting an element of the view sets all the elements sharing its position in the buffer.
+     */
+    override fun broadcastTo(vararg newShape: Int): S {
+        if (sh.contentEquals(newShape)) {
+            return self
+        }
+        require(dim <= newShape.size) {
+            "Cannot broad cast ${sh.contentToString()} to ${newShape.contentToString()}!"
+        }
+        val d = newShape.size - dim
+        val nst = IntArray(newShape.size)
+        for (l in 0 until dim) {
+            nst[d + l] = when {
+                sh[l] == newShape[d + l] -> st[l]
+                sh[l] == 1 -> 0
+                else -> throw IllegalArgumentException("Cannot broadcast ${sh.contentToString()} to " +
+                        "${newShape.contentToString()}, shape mismatch at axis ${l + d}.")
+            }
+        }
+        return view(newShape.clone(), nst, offset)
+    }
+
+    /**
+     * Computes the strides of a view of the given shape that has the same element sequence as this tensor,
+     * or returns `null` if the strides of this tensor do not allow such a view.
+     */
+    private fun reshapeStrides(ns: IntArray): IntArray? {
+        // the axes of length one are dropped since their strides are irrelevant
+        val axes = (0 until dim).filter { sh[it] != 1 }
+        val od = IntArray(axes.size) { sh[axes[it]] }
+        val os = IntArray(axes.size) { st[axes[it]] }
+        val nst = IntArray(ns.size)
+        var oi = 0
+        var oj = 1
+        var ni = 0
+        var nj = 1
+        while (ni < ns.size && oi < od.size) {
+            // finds the shortest groups of axes of the same size
+            var np = ns[ni]
+            var op = od[oi]
+            while (np != op) {
+                if (np < op) {
+                    np *= ns[nj++]
+                } else {
+                    op *= od[oj++]
+                }
+            }
+            for (ok in oi until oj - 1) {
+                if (os[ok] != od[ok + 1] * os[ok + 1]) {
+                    return null
+                }
+            }
+            nst[nj - 1] = os[oj - 1]
+            for (nk in (nj - 1) downTo (ni + 1)) {
+                nst[nk - 1] = nst[nk] * ns[nk]
+            }
+            ni = nj++
+            oi = oj++
+        }
+        // the remaining axes are of length one
+        return nst
+    }
+
+    /**
+     * Reshapes this tensor to the given shape. The result is a view sharing the buffer of this tensor if
+     * the strides allow it, which is always the case when this tensor [is contiguous][isContiguous].
+     * Otherwise, the result is a reshaped copy of this tensor.
+     *
+     * @see Tensor.reshape
+     */
+    override fun reshape(vararg newShape: Int): S {
+        val ns = newShape.clone()
+        TensorImpl.prepareNewShape(this, ns)
+        val nst = reshapeStrides(ns) ?: return copy().reshape(*ns)
+        return view(ns, nst, offset)
+    }
+
+    override fun ravel(): S {
+        return reshape(-1)
+    }
+
+    /**
+     * Returns the shape of the sum of this tensor in the given axes and the strides of the sum as a contiguous
+     * tensor placed at the axes of this tensor, which are zero in the summed axes.
+     */
+    protected fun reducedLayout(axes: IntArray): Pair<IntArray, IntArray> {
+        val summed = BooleanArray(dim) { axes.isEmpty() }
+        for (a in axes) {
+            val axis = TensorImpl.addIfNegative(a, dim)
+            require(axis in 0 until dim)
+            summed[axis] = true
+        }
+        val rst = IntArray(dim)
+        var s = 1
+        for (l in (dim - 1) downTo 0) {
+            if (!summed[l]) {
+                rst[l] = s
+                s *= sh[l]
+            }
+        }
+        val ns = (0 until dim).filter { !summed[it] }.map { sh[it] }.toIntArray()
+        return (if (ns.isEmpty()) intArrayOf(1) else ns) to rst
+    }
+}
+
+/**
+ * Returns the strides of a contiguous tensor of the given shape, which iterates the last axis first.
+ */
+internal fun rowMajorStrides(shape: IntArray): IntArray {
+    val st = IntArray(shape.size)
+    var s = 1
+    for (l in shape.indices.reversed()) {
+        st[l] = s
+        s *= shape[l]
+    }
+    return st
+}
+
+private fun requireValidShape(shape: IntArray) {
+    require(shape.isNotEmpty())
+    require(shape.all { s -> s > 0 })
+}
+
+private fun broadcastShape(s1: IntArray, s2: IntArray): IntArray {
+    val n = max(s1.size, s2.size)
+    val ns = IntArray(n)
+    for (i in 1..n) {
+        val a = if (i <= s1.size) s1[s1.size - i] else 1
+        val b = if (i <= s2.size) s2[s2.size - i] else 1
+        ns[n - i] = when {
+            a == b || b == 1 -> a
+            a == 1 -> b
+            else -> throw IllegalArgumentException("Cannot broadcast ${s1.contentToString()} with " +
+                    "${s2.contentToString()}, shape mismatch at axis ${n - i}.")
+        }
+    }
+    return ns
+}
+
+/**
+ * Calls [action] with the positions in the buffer of the elements of a strided tensor in the order of its indices.
+ */
+private inline fun forEachOffset(shape: IntArray, strides: IntArray, offset: Int, action: (Int) -> Unit) {
+    val last = shape.lastIndex
+    val n = shape[last]
+    val d = strides[last]
+    val idx = IntArray(shape.size)
+    var base = offset
+    while (true) {
+        var p = base
+        for (k in 0 until n) {
+            action(p)
+            p += d
+        }
+        var l = last - 1
+        while (l >= 0) {
+            base += strides[l]
+            if (++idx[l] < shape[l]) {
+                break
+            }
+            base -= strides[l] * shape[l]
+            idx[l] = 0
+            l--
+        }
+        if (l < 0) {
+            return
+        }
+    }
+}
+
+/**
+ * Calls [action] with the positions of the elements of the same index in two strided tensors of the given shape,
+ * in the order of the indices.
+ */
+private inline fun forEachOffset2(shape: IntArray, s1: IntArray, o1: Int, s2: IntArray, o2: Int,
+                                  action: (Int, Int) -> Unit) {
+    val last = shape.lastIndex
+    val n = shape[last]
+    val d1 = s1[last]
+    val d2 = s2[last]
+    val idx = IntArray(shape.size)
+    var b1 = o1
+    var b2 = o2
+    while (true) {
+        var p1 = b1
+        var p2 = b2
+        for (k in 0 until n) {
+            action(p1, p2)
+            p1 += d1
+            p2 += d2
+        }
+        var l = last - 1
+        while (l >= 0) {
+            b1 += s1[l]
+            b2 += s2[l]
+            if (++idx[l] < shape[l]) {
+                break
+            }
+            b1 -= s1[l] * shape[l]
+            b2 -= s2[l] * shape[l]
+            idx[l] = 0
+            l--
+        }
+        if (l < 0) {
+            return
+        }
+    }
+}
+
+/**
+ * A tensor of doubles stored in a `DoubleArray` with strides, see [StridedTensor].
+ *
+ * The arithmetic operations are performed on primitive doubles regardless of the calculator, which is only used to
+ * compare elements. The operations with another tensor that is not a `DoubleTensor` copy it first.
+ */
+class DoubleTensor
+internal constructor(mc: EqualPredicate<Double>, shape: IntArray, strides: IntArray, offset: Int,
+                     /**
+                      * The buffer of this tensor, which may be shared with other tensors.
+                      */
+                     val data: DoubleArray)
+    : StridedTensor<Double, DoubleTensor>(mc, shape, strides, offset) {
+
+    internal constructor(mc: EqualPredicate<Double>, shape: IntArray, data: DoubleArray)
+            : this(mc, shape, rowMajorStrides(shape), 0, data)
+
+    override fun view(shape: IntArray, strides: IntArray, offset: Int): DoubleTensor {
+        return DoubleTensor(calculator, shape, strides, offset, data)
+    }
+
+    override fun getChecked(idx: Index): Double {
+        return data[toOffset(idx)]
+    }
+
+    override fun set(idx: Index, v: Double) {
+        checkIdx(idx)
+        data[toOffset(idx)] = v
+    }
+
+    /**
+     * Returns the elements of this tensor as a new array in the order of [indices].
+     */
+    fun toDoubleArray(): DoubleArray {
+        if (isContiguous) {
+            return data.copyOfRange(offset, offset + size)
+        }
+        val re = DoubleArray(size)
+        var pos = 0
+        forEachOffset(sh, st, offset) { p -> re[pos++] = data[p] }
+        return re
+    }
+
+    override fun copy(): DoubleTensor {
+        return DoubleTensor(calculator, sh, toDoubleArray())
+    }
+
+    override fun elementSequence(): Sequence<Double> {
+        if (isContiguous) {
+            return (offset until offset + size).asSequence().map { data[it] }
+        }
+        return toDoubleArray().asSequence()
+    }
+
+    override fun flattenToList(): List<Double> {
+        return toDoubleArray().asList()
+    }
+
+    private fun asDoubleTensor(y: Tensor<Double>): DoubleTensor {
+        return y as? DoubleTensor ?: copyOf(y, calculator)
+    }
+
+    private inline fun map(f: (Double) -> Double): DoubleTensor {
+        val re = DoubleArray(size)
+        var pos = 0
+        forEachOffset(sh, st, offset) { p -> re[pos++] = f(data[p]) }
+        return DoubleTensor(calculator, sh, re)
+    }
+
+    private inline fun zip(y: Tensor<Double>, f: (Double, Double) -> Double): DoubleTensor {
+        val y0 = asDoubleTensor(y)
+        val ns = broadcastShape(sh, y0.sh)
+        val x1 = broadcastTo(*ns)
+        val y1 = y0.broadcastTo(*ns)
+        val d1 = data
+        val d2 = y1.data
+        val re = DoubleArray(MathUtils.product(ns))
+        var pos = 0
+        forEachOffset2(ns, x1.st, x1.offset, y1.st, y1.offset) { p, q -> re[pos++] = f(d1[p], d2[q]) }
+        return DoubleTensor(calculator, ns, re)
+    }
+
+    private inline fun zipInPlace(y: Tensor<Double>, f: (Double, Double) -> Double) {
+        val y1 = asDoubleTensor(y).broadcastTo(*sh)
+        val d1 = data
+        val d2 = y1.data
+        forEachOffset2(sh, st, offset, y1.st, y1.offset) { p, q -> d1[p] = f(d1[p], d2[q]) }
+    }
+
+    override fun setAll(v: Double) {
+        forEachOffset(sh, st, offset) { p -> data[p] = v }
+    }
+
+    override fun setAll(t: Tensor<Double>) {
+        zipInPlace(t) { _, b -> b }
+    }
+
+    override fun transform(f: (Double) -> Double) {
+        forEachOffset(sh, st, offset) { p -> data[p] = f(data[p]) }
+    }
+
+    override fun applyAll(f: (Double) -> Double): DoubleTensor {
+        return map(f)
+    }
+
+    override fun add(y: Tensor<Double>): DoubleTensor {
+        return zip(y) { a, b -> a + b }
+    }
+
+    override fun negate(): DoubleTensor {
+        return map { -it }
+    }
+
+    override fun subtract(y: Tensor<Double>): DoubleTensor {
+        return zip(y) { a, b -> a - b }
+    }
+
+    override fun multiply(k: Double): DoubleTensor {
+        return map { it * k }
+    }
+
+    override fun divide(k: Double): DoubleTensor {
+        return map { it / k }
+    }
+
+    override fun multiply(y: Tensor<Double>): DoubleTensor {
+        return zip(y) { a, b -> a * b }
+    }
+
+    override fun divide(y: Tensor<Double>): DoubleTensor {
+        return zip(y) { a, b -> a / b }
+    }
+
+    override fun plusAssign(y: Tensor<Double>) {
+        zipInPlace(y) { a, b -> a + b }
+    }
+
+    override fun minusAssign(y: Tensor<Double>) {
+        zipInPlace(y) { a, b -> a - b }
+    }
+
+    override fun timesAssign(y: Tensor<Double>) {
+        zipInPlace(y) { a, b -> a * b }
+    }
+
+    override fun divAssign(y: Tensor<Double>) {
+        zipInPlace(y) { a, b -> a / b }
+    }
+
+    override fun sumAll(): Double {
+        var re = 0.0
+        forEachOffset(sh, st, offset) { p -> re += data[p] }
+        return re
+    }
+
+    override fun sum(vararg axes: Int): DoubleTensor {
+        val (ns, rst) = reducedLayout(axes)
+        val re = DoubleArray(MathUtils.product(ns))
+        forEachOffset2(sh, st, offset, rst, 0) { p, q -> re[q] += data[p] }
+        return DoubleTensor(calculator, ns, re)
+    }
+
+    override infix fun inner(y: Tensor<Double>): Double {
+        checkShape(this, y)
+        val y1 = asDoubleTensor(y)
+        val d2 = y1.data
+        var re = 0.0
+        forEachOffset2(sh, st, offset, y1.st, y1.offset) { p, q -> re += data[p] * d2[q] }
+        return re
+    }
+
+    override fun matmul(y: Tensor<Double>, r: Int): DoubleTensor {
+        val y0 = asDoubleTensor(y)
+        val shape1 = sh
+        val shape2 = y0.sh
+        val dim1 = shape1.size
+        val dim2 = shape2.size
+        require(dim1 >= r && dim2 >= r)
+        if (dim1 == r && dim2 == r) {
+            return DoubleTensor(calculator, intArrayOf(1), doubleArrayOf(inner(y0)))
+        }
+        val mShape = shape1.sliceArray(dim1 - r until dim1)
+        require(mShape.contentEquals(shape2.sliceArray(0 until r))) {
+            "Shape mismatch in matmul of rank $r: ${this.shapeString} and ${y.shapeString}"
+        }
+        val rShape = shape1.sliceArray(0 until (dim1 - r)) + shape2.sliceArray(r until dim2)
+        val a = if (isContiguous) this else copy()
+        val b = if (y0.isContiguous) y0 else y0.copy()
+        val k = MathUtils.product(mShape)
+        val m = a.size / k
+        val n = b.size / k
+        val da = a.data
+        val db = b.data
+        val re = DoubleArray(m * n)
+        for (i in 0 until m) {
+            val rowA = a.offset + i * k
+            val rowR = i * n
+            for (l in 0 until k) {
+                val s = da[rowA + l]
+                val rowB = b.offset + l * n
+                for (j in 0 until n) {
+                    re[rowR + j] += s * db[rowB + j]
+                }
+            }
+        }
+        return DoubleTensor(calculator, rShape, re)
+    }
+
+    companion object {
+
+        /**
+         * Creates a tensor of doubles with all zeros.
+         *
+         * @param shape a non-empty array of positive integers
+         */
+        fun zeros(vararg shape: Int): DoubleTensor {
+            requireValidShape(shape)
+            return DoubleTensor(Calculators.doubleCal(), shape.clone(), DoubleArray(MathUtils.product(shape)))
+        }
+
+        /**
+         * Creates a tensor of doubles filled with the given constant.
+         *
+         * @param shape a non-empty array of positive integers
+         */
+        fun constants(c: Double, vararg shape: Int): DoubleTensor {
+            return zeros(*shape).also { it.data.fill(c) }
+        }
+
+        /**
+         * Creates a tensor of the given [shape] whose buffer is [data] without copying, the elements are in
+         * the order of the indices. It is required that the length of [data] is equal to the product of [shape].
+         */
+        fun of(shape: IntArray, data: DoubleArray,
+               mc: EqualPredicate<Double> = Calculators.doubleCal()): DoubleTensor {
+            requireValidShape(shape)
+            val size = MathUtils.product(shape)
+            require(data.size == size) {
+                "$size elements expected but ${data.size} is given!"
+            }
+            return DoubleTensor(mc, shape.clone(), data)
+        }
+
+        /**
+         * Creates a tensor of doubles with a supplier function that takes the index as parameter.
+         *
+         * @param shape a non-empty array of positive integers
+         */
+        fun of(shape: IntArray, supplier: (Index) -> Double): DoubleTensor {
+            requireValidShape(shape)
+            val data = DoubleArray(MathUtils.product(shape))
+            IndexCursor.forEachIndexed(shape) { pos, idx -> data[pos] = supplier(idx) }
+            return DoubleTensor(Calculators.doubleCal(), shape.clone(), data)
+        }
+
+        /**
+         * Returns a contiguous copy of the given tensor as a tensor of doubles.
+         */
+        fun copyOf(t: Tensor<Double>, mc: EqualPredicate<Double> = t.calculator): DoubleTensor {
+            if (t is DoubleTensor) {
+                return DoubleTensor(mc, t.shape, t.toDoubleArray())
+            }
+            val data = DoubleArray(t.size)
+            var pos = 0
+            for (x in t.elementSequence()) {
+                data[pos++] = x
+            }
+            return DoubleTensor(mc, t.shape, data)
+        }
+    }
+}
+
+/**
+ * A tensor of longs stored in a `LongArray` with strides, see [StridedTensor].
+ *
+ * The ring operations are performed on primitive longs regardless of the calculator, which is used to compare
+ * elements and for the division. The operations with another tensor that is not a `LongTensor` copy it first.
+ */
+class LongTensor
+internal constructor(mc: EqualPredicate<Long>, shape: IntArray, strides: IntArray, offset: Int,
+                     /**
+                      * The buffer of this tensor, which may be shared with other tensors.
+                      */
+                     val data: LongArray)
+    : StridedTensor<Long, LongTensor>(mc, shape, strides, offset) {
+
+    internal constructor(mc: EqualPredicate<Long>, shape: IntArray, data: LongArray)
+            : this(mc, shape, rowMajorStrides(shape), 0, data)
+
+    override fun view(shape: IntArray, strides: IntArray, offset: Int): LongTensor {
+        return LongTensor(calculator, shape, strides, offset, data)
+    }
+
+    override fun getChecked(idx: Index): Long {
+        return data[toOffset(idx)]
+    }
+
+    override fun set(idx: Index, v: Long) {
+        checkIdx(idx)
+        data[toOffset(idx)] = v
+    }
+
+    /**
+     * Returns the elements of this tensor as a new array in the order of [indices].
+     */
+    fun toLongArray(): LongArray {
+        if (isContiguous) {
+            return data.copyOfRange(offset, offset + size)
+        }
+        val re = LongArray(size)
+        var pos = 0
+        forEachOffset(sh, st, offset) { p -> re[pos++] = data[p] }
+        return re
+    }
+
+    override fun copy(): LongTensor {
+        return LongTensor(calculator, sh, toLongArray())
+    }
+
+    override fun elementSequence(): Sequence<Long> {
+        if (isContiguous) {
+            return (offset until offset + size).asSequence().map { data[it] }
+        }
+        return toLongArray().asSequence()
+    }
+
+    override fun flattenToList(): List<Long> {
+        return toLongArray().asList()
+    }
+
+    private fun asLongTensor(y: Tensor<Long>): LongTensor {
+        return y as? LongTensor ?: copyOf(y, calculator)
+    }
+
+    private inline fun map(f: (Long) -> Long): LongTensor {
+        val re = LongArray(size)
+        var pos = 0
+        forEachOffset(sh, st, offset) { p -> re[pos++] = f(data[p]) }
+        return LongTensor(calculator, sh, re)
+    }
+
+    private inline fun zip(y: Tensor<Long>, f: (Long, Long) -> Long): LongTensor {
+        val y0 = asLongTensor(y)
+        val ns = broadcastShape(sh, y0.sh)
+        val x1 = broadcastTo(*ns)
+        val y1 = y0.broadcastTo(*ns)
+        val d1 = data
+        val d2 = y1.data
+        val re = LongArray(MathUtils.product(ns))
+        var pos = 0
+        forEachOffset2(ns, x1.st, x1.offset, y1.st, y1.offset) { p, q -> re[pos++] = f(d1[p], d2[q]) }
+        return LongTensor(calculator, ns, re)
+    }
+
+    private inline fun zipInPlace(y: Tensor<Long>, f: (Long, Long) -> Long) {
+        val y1 = asLongTensor(y).broadcastTo(*sh)
+        val d1 = data
+        val d2 = y1.data
+        forEachOffset2(sh, st, offset, y1.st, y1.offset) { p, q -> d1[p] = f(d1[p], d2[q]) }
+    }
+
+    override fun setAll(v: Long) {
+        forEachOffset(sh, st, offset) { p -> data[p] = v }
+    }
+
+    override fun setAll(t: Tensor<Long>) {
+        zipInPlace(t) { _, b -> b }
+    }
+
+    override fun transform(f: (Long) -> Long) {
+        forEachOffset(sh, st, offset) { p -> data[p] = f(data[p]) }
+    }
+
+    override fun applyAll(f: (Long) -> Long): LongTensor {
+        return map(f)
+    }
+
+    override fun add(y: Tensor<Long>): LongTensor {
+        return zip(y) { a, b -> a + b }
+    }
+
+    override fun negate(): LongTensor {
+        return map { -it }
+    }
+
+    override fun subtract(y: Tensor<Long>): LongTensor {
+        return zip(y) { a, b -> a - b }
+    }
+
+    // also overrides GroupNumberModel.multiply(n: Long), whose parameter has another name
+    @Suppress("PARAMETER_NAME_CHANGED_ON_OVERRIDE")
+    override fun multiply(k: Long): LongTensor {
+        return map { it * k }
+    }
+
+    override fun multiply(y: Tensor<Long>): LongTensor {
+        return zip(y) { a, b -> a * b }
+    }
+
+    override fun plusAssign(y: Tensor<Long>) {
+        zipInPlace(y) { a, b -> a + b }
+    }
+
+    override fun minusAssign(y: Tensor<Long>) {
+        zipInPlace(y) { a, b -> a - b }
+    }
+
+    override fun timesAssign(y: Tensor<Long>) {
+        zipInPlace(y) { a, b -> a * b }
+    }
+
+    override fun sumAll(): Long {
+        var re = 0L
+        forEachOffset(sh, st, offset) { p -> re += data[p] }
+        return re
+    }
+
+    override fun sum(vararg axes: Int): LongTensor {
+        val (ns, rst) = reducedLayout(axes)
+        val re = LongArray(MathUtils.product(ns))
+        forEachOffset2(sh, st, offset, rst, 0) { p, q -> re[q] += data[p] }
+        return LongTensor(calculator, ns, re)
+    }
+
+    override infix fun inner(y: Tensor<Long>): Long {
+        checkShape(this, y)
+        val y1 = asLongTensor(y)
+        val d2 = y1.data
+        var re = 0L
+        forEachOffset2(sh, st, offset, y1.st, y1.offset) { p, q -> re += data[p] * d2[q] }
+        return re
+    }
+
+    override fun matmul(y: Tensor<Long>, r: Int): LongTensor {
+        val y0 = asLongTensor(y)
+        val shape1 = sh
+        val shape2 = y0.sh
+        val dim1 = shape1.size
+        val dim2 = shape2.size
+        require(dim1 >= r && dim2 >= r)
+        if (dim1 == r && dim2 == r) {
+            return LongTensor(calculator, intArrayOf(1), longArrayOf(inner(y0)))
+        }
+        val mShape = shape1.sliceArray(dim1 - r until dim1)
+        require(mShape.contentEquals(shape2.sliceArray(0 until r))) {
+            "Shape mismatch in matmul of rank $r: ${this.shapeString} and ${y.shapeString}"
+        }
+        val rShape = shape1.sliceArray(0 until (dim1 - r)) + shape2.sliceArray(r until dim2)
+        val a = if (isContiguous) this else copy()
+        val b = if (y0.isContiguous) y0 else y0.copy()
+        val k = MathUtils.product(mShape)
+        val m = a.size / k
+        val n = b.size / k
+        val da = a.data
+        val db = b.data
+        val re = LongArray(m * n)
+        for (i in 0 until m) {
+            val rowA = a.offset + i * k
+            val rowR = i * n
+            for (l in 0 until k) {
+                val s = da[rowA + l]
+                val rowB = b.offset + l * n
+                for (j in 0 until n) {
+                    re[rowR + j] += s * db[rowB + j]
+                }
+            }
+        }
+        return LongTensor(calculator, rShape, re)
+    }
+
+    companion object {
+
+        /**
+         * Creates a tensor of longs with all zeros.
+         *
+         * @param shape a non-empty array of positive integers
+         */
+        fun zeros(vararg shape: Int): LongTensor {
+            requireValidShape(shape)
+            return LongTensor(Calculators.longCal(), shape.clone(), LongArray(MathUtils.product(shape)))
+        }
+
+        /**
+         * Creates a tensor of longs filled with the given constant.
+         *
+         * @param shape a non-empty array of positive integers
+         */
+        fun constants(c: Long, vararg shape: Int): LongTensor {
+            return zeros(*shape).also { it.data.fill(c) }
+        }
+
+        /**
+         * Creates a tensor of the given [shape] whose buffer is [data] without copying, the elements are in
+         * the order of the indices. It is required that the length of [data] is equal to the product of [shape].
+         */
+        fun of(shape: IntArray, data: LongArray,
+               mc: EqualPredicate<Long> = Calculators.longCal()): LongTensor {
+            requireValidShape(shape)
+            val size = MathUtils.product(shape)
+            require(data.size == size) {
+                "$size elements expected but ${data.size} is given!"
+            }
+            return LongTensor(mc, shape.clone(), data)
+        }
+
+        /**
+         * Creates a tensor of longs with a supplier function that takes the index as parameter.
+         *
+         * @param shape a non-empty array of positive integers
+         */
+        fun of(shape: IntArray, supplier: (Index) -> Long): LongTensor {
+            requireValidShape(shape)
+            val data = LongArray(MathUtils.product(shape))
+            IndexCursor.forEachIndexed(shape) { pos, idx -> data[pos] = supplier(idx) }
+            return LongTensor(Calculators.longCal(), shape.clone(), data)
+        }
+
+        /**
+         * Returns a contiguous copy of the given tensor as a tensor of longs.
+         */
+        fun copyOf(t: Tensor<Long>, mc: EqualPredicate<Long> = t.calculator): LongTensor {
+            if (t is LongTensor) {
+                return LongTensor(mc, t.shape, t.toLongArray())
+            }
+            val data = LongArray(t.size)
+            var pos = 0
+            for (x in t.elementSequence()) {
+                data[pos++] = x
+            }
+            return LongTensor(mc, t.shape, data)
+        }
+    }
+}
@@ -8,7 +8,6 @@ import cn.ancono.math.discrete.combination.Permutation
 import cn.ancono.math.discrete.combination.Permutations
 import cn.ancono.math.numberModels.Tensor.Companion.checkShape
 import cn.ancono.math.numberModels.api.*
-import cn.ancono.utilities.IterUtils
 import java.util.*
 import java.util.function.Function
 
@@ -41,6 +40,9 @@ import java.util.function.Function
  *
  *
  * Note: this implementation is not intentioned for fast numeric computation.
+ *
+ * Element-wise operations and reductions of large tensors call the calculator and the given functions
+ * concurrently, which must therefore be thread-safe, see [ParallelKernels].
  */
 interface Tensor<T> : MathObject<T, EqualPredicate<T>>, AlgebraModel<T, Tensor<T>>, GenTensor<T> {
     //Created by lyc at 2021-04-06 22:12
@@ -79,9 +81,9 @@ interface Tensor<T> : MathObject<T, EqualPredicate<T>>, AlgebraModel<T, Tensor<T
      * Gets a read-only-traversable sequence of the indices of this tensor.
      * The indices iterate the last axis first.
      *
-     * This method is generally equal to `IterUtils.prodIdxN(shape)`
+     * This method is generally equal to `IndexCursor.indices(shape)`
      *
-     * @see IterUtils.prodIdxN
+     * @see IndexCursor.indices
      */
     val indices: Sequence<Index>
 
@@ -216,10 +218,11 @@ interface Tensor<T> : MathObject<T, EqualPredicate<T>>, AlgebraModel<T, Tensor<T
 
     /**
      * Returns the sum of all the elements in this tensor.
+     *
+     * Large tensors are summed in parallel with partial sums of chunks, see [ParallelKernels].
      */
     fun sumAll(): T {
-        val mc = calculator as AbelSemigroupCal<T>
-        return elementSequence().reduce(mc::add)
+        return TensorImpl.sumAll(this)
     }
 
     /**
@@ -302,6 +305,8 @@ interface Tensor<T> : MathObject<T, EqualPredicate<T>>, AlgebraModel<T, Tensor<T
 
     /**
      * Returns a new tensor of applying the given function to this tensor element-wise.
+     *
+     * The function may be called concurrently for large tensors, see [ParallelKernels].
      */
     override fun applyAll(f: (T) -> T): Tensor<T> {
         return mapTo(calculator, f)
@@ -421,20 +426,32 @@ interface Tensor<T> : MathObject<T, EqualPredicate<T>>, AlgebraModel<T, Tensor<T
     }
 
 
+    /**
+     * Returns a lazy view of this tensor, on which operations build an expression graph that is evaluated with
+     * fused passes when [LazyTensor.eval] is called.
+     *
+     * @see LazyTensor
+     */
+    fun lazy(): LazyTensor<T> {
+        return LazyTensor.of(this)
+    }
+
     /**
      * Returns `true` if all elements in this tensor match the given [predicate].
      *
+     * The predicate may be called concurrently for large tensors, see [ParallelKernels].
      */
     fun all(predicate: (T) -> Boolean): Boolean {
-        return elementSequence().all(predicate)
+        return TensorImpl.all(this, predicate)
     }
 
     /**
      * Returns true if at least one element in this tensor matches the given predicate.
      *
+     * The predicate may be called concurrently for large tensors, see [ParallelKernels].
      */
     fun any(predicate: (T) -> Boolean): Boolean {
-        return elementSequence().any(predicate)
+        return TensorImpl.any(this, predicate)
     }
 
 
@@ -447,6 +464,11 @@ interface Tensor<T> : MathObject<T, EqualPredicate<T>>, AlgebraModel<T, Tensor<T
         return TensorImpl.isLinearDependent(this, v)
     }
 
+    /**
+     * Returns a new tensor of applying the [mapper] to this tensor element-wise.
+     *
+     * The mapper may be called concurrently for large tensors, see [ParallelKernels].
+     */
     override fun <N> mapTo(newCalculator: EqualPredicate<N>, mapper: Function<T, N>): Tensor<N> {
         return ATensor.buildFromSequence(newCalculator, shape, elementSequence().map { mapper.apply(it) })
     }
@@ -528,7 +550,7 @@ interface Tensor<T> : MathObject<T, EqualPredicate<T>>, AlgebraModel<T, Tensor<T
          */
         fun <T> of(shape: IntArray, mc: EqualPredicate<T>, supplier: (Index) -> T): MutableTensor<T> {
             checkValidShape(shape)
-            return ATensor.buildFromSequence(mc, shape.clone(), IterUtils.prodIdxN(shape).map(supplier))
+            return TensorImpl.build(mc, shape.clone(), supplier)
         }
 
         /**
@@ -812,6 +834,11 @@ interface MutableTensor<T> : Tensor<T> {
     }
 
 
+    /**
+     * Returns a new tensor of applying the given function to this tensor element-wise.
+     *
+     * The function may be called concurrently for large tensors, see [ParallelKernels].
+     */
     override fun applyAll(f: (T) -> T): MutableTensor<T> {
         return mapTo(calculator, f)
     }
@@ -819,6 +846,8 @@ interface MutableTensor<T> : Tensor<T> {
     /**
      * Performs the element-wise transformation to this mutable tensor in-place.
      *
+     * The function may be called concurrently for large tensors, see [ParallelKernels].
+     *
      * @see applyAll
      */
     fun transform(f: (T) -> T) {
@@ -842,7 +871,7 @@ interface MutableTensor<T> : Tensor<T> {
     }
 
     override fun divide(k: T): MutableTensor<T> {
-        return TensorImpl.multiply(this, k)
+        return TensorImpl.divide(this, k)
     }
 
     override fun multiply(y: Tensor<T>): MutableTensor<T> {
@@ -941,6 +970,11 @@ interface MutableTensor<T> : Tensor<T> {
         return ATensor.copyOf(this)
     }
 
+    /**
+     * Returns a new tensor of applying the [mapper] to this tensor element-wise.
+     *
+     * The mapper may be called concurrently for large tensors, see [ParallelKernels].
+     */
     override fun <N> mapTo(newCalculator: EqualPredicate<N>, mapper: Function<T, N>): MutableTensor<N> {
         return ATensor.buildFromSequence(newCalculator, shape, elementSequence().map { mapper.apply(it) })
     }
@@ -1077,7 +1111,7 @@ abstract class AbstractTensor<T>(
         get() = MathUtils.product(shape)
 
 
-    override val indices: Sequence<Index> = IterUtils.prodIdxN(sh)
+    override val indices: Sequence<Index> = IndexCursor.indices(sh)
 
     /**
      * Checks whether `idx` is a valid index for this tensor, throws exception if necessary.
@@ -1120,7 +1154,7 @@ abstract class AbstractTensor<T>(
      */
     override fun isZero(): Boolean {
         val mc = calculator as RingCalculator<T>
-        return elementSequence().all { mc.isZero(it) }
+        return all { mc.isZero(it) }
     }
 
 
@@ -1159,6 +1193,9 @@ abstract class AbstractMutableTensor<T>(mc: EqualPredicate<T>, shape: IntArray)
         return super<MutableTensor>.subtract(y)
     }
 
+    override fun multiply(y: Tensor<T>): MutableTensor<T> {
+        return super<MutableTensor>.multiply(y)
+    }
 
     override fun divide(y: Tensor<T>): MutableTensor<T> {
         return super<MutableTensor>.divide(y)
@@ -1180,7 +1217,7 @@ abstract class AbstractMutableTensor<T>(mc: EqualPredicate<T>, shape: IntArray)
 class ATensor<T>
 internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
     : AbstractMutableTensor<T>(mc, shape) {
-    private val shifts: IntArray = IntArray(dim)
+    internal val shifts: IntArray = IntArray(dim)
 
     init {
         var s = 1
@@ -1227,9 +1264,12 @@ internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
         Arrays.fill(data, v)
     }
 
-    private inline fun inlineApplyAll(f: (T) -> T): ATensor<T> {
-        for (i in 0 until size) {
-            data[i] = f(data[i])
+    private inline fun inlineApplyAll(crossinline f: (T) -> T): ATensor<T> {
+        val data = data
+        ParallelKernels.forChunks(size) { from, until ->
+            for (i in from until until) {
+                data[i] = f(data[i])
+            }
         }
         return this
     }
@@ -1237,22 +1277,23 @@ internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
 
     override fun applyAll(f: (T) -> T): MutableTensor<T> {
         val ndata = arrayOfNulls<Any>(size)
-        for (i in 0 until size) {
-            ndata[i] = f(data[i])
+        val data = data
+        ParallelKernels.forChunks(size) { from, until ->
+            for (i in from until until) {
+                ndata[i] = f(data[i])
+            }
         }
         @Suppress("UNCHECKED_CAST")
         return ATensor(calculator, sh, ndata as Array<T>)
     }
 
     override fun transform(f: (T) -> T) {
-        for (i in 0 until size) {
-            data[i] = f(data[i])
-        }
+        inlineApplyAll(f)
     }
 
     override fun isZero(): Boolean {
         val mc = calculator as RingCalculator
-        return data.all { mc.isZero(it) }
+        return all { mc.isZero(it) }
     }
 
 
@@ -1275,7 +1316,7 @@ internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
             val mc = calculator as AbelGroupCal<T>
             return apply2(this, y, mc::subtract)
         }
-        return super.add(y)
+        return super.subtract(y)
     }
 
     override fun multiply(k: T): MutableTensor<T> {
@@ -1285,7 +1326,7 @@ internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
 
     override fun divide(k: T): MutableTensor<T> {
         val mc = calculator as FieldCalculator<T>
-        return applyAll { t -> mc.divide(k, t) }
+        return applyAll { t -> mc.divide(t, k) }
     }
 
     override fun multiply(y: Tensor<T>): MutableTensor<T> {
@@ -1304,21 +1345,19 @@ internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
         return super.divide(y)
     }
 
-    private inline fun apply2InPlace(y: Tensor<T>, f: (T, T) -> T) {
+    private inline fun apply2InPlace(y: Tensor<T>, crossinline f: (T, T) -> T) {
         checkShape(this, y)
+        val d1 = data
         if (y is ATensor) {
-            val d1 = data
             val d2 = y.data
-            for (i in 0 until size) {
-                d1[i] = f(d1[i], d2[i])
+            ParallelKernels.forChunks(size) { from, until ->
+                for (i in from until until) {
+                    d1[i] = f(d1[i], d2[i])
+                }
             }
         } else {
-            var pos = 0
-            val data = this.data
-            for (s in y.elementSequence()) {
-                data[pos] = f(data[pos], s)
-                pos++
-            }
+            // broadcast views of array tensors are read through their flat layouts
+            TensorImpl.forEachElement(y) { pos, b -> d1[pos] = f(d1[pos], b) }
         }
     }
 
@@ -1352,8 +1391,11 @@ internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
     @Suppress("UNCHECKED_CAST")
     override fun <N> mapTo(newCalculator: EqualPredicate<N>, mapper: Function<T, N>): ATensor<N> {
         val ndata = arrayOfNulls<Any>(size)
-        for (i in 0 until size) {
-            ndata[i] = mapper.apply(data[i])
+        val data = data
+        ParallelKernels.forChunks(size) { from, until ->
+            for (i in from until until) {
+                ndata[i] = mapper.apply(data[i])
+            }
         }
         return ATensor(newCalculator, sh, ndata as Array<N>)
     }
@@ -1373,13 +1415,15 @@ internal constructor(mc: EqualPredicate<T>, shape: IntArray, val data: Array<T>)
         }
 
         @Suppress("UNCHECKED_CAST")
-        private inline fun <T> apply2(x: ATensor<T>, y: ATensor<T>, f: (T, T) -> T): ATensor<T> {
+        private inline fun <T> apply2(x: ATensor<T>, y: ATensor<T>, crossinline f: (T, T) -> T): ATensor<T> {
             checkShape(x, y)
             val d1 = x.data
             val d2 = y.data
             val ndata = arrayOfNulls<Any>(x.size)
-            for (i in 0 until x.size) {
-                ndata[i] = f(d1[i], d2[i])
+            ParallelKernels.forChunks(x.size) { from, until ->
+                for (i in from until until) {
+                    ndata[i] = f(d1[i], d2[i])
+                }
             }
             return ATensor(x.calculator, x.sh, ndata as Array<T>)
         }
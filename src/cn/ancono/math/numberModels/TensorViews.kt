@@ -8,6 +8,7 @@ import cn.ancono.math.numberModels.api.shapeString
 import cn.ancono.utilities.ArraySup
 import cn.ancono.utilities.IterUtils
 import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.math.min
 
 
@@ -123,6 +124,22 @@ open class SlicedView<T>(
         return SlicedView(t, ranges, am, p.apply(shape))
     }
 
+    /**
+     * Returns the layout of this view in the data of an array tensor, see [TensorImpl.flatLayout].
+     */
+    internal fun flatLayout(): FlatLayout<T>? {
+        val base = TensorImpl.flatLayout(t) ?: return null
+        var off = base.offset
+        for (l in ranges.indices) {
+            off += shifts[l] * base.strides[l]
+        }
+        val st = IntArray(dim) { i ->
+            val axis = axisMap[i]
+            if (axis < 0) 0 else base.strides[axis] * steps[axis]
+        }
+        return FlatLayout(base.data, st, off)
+    }
+
 }
 
 class MutableSliceView<T>(
@@ -347,9 +364,9 @@ open class ReshapedView<T>(tensor: Tensor<T>, shape: IntArray)
      * Converts the absolute position in 1-d array to index in t.
      */
     protected fun toIdx(pos0: Int): Index {
-        val idx = IntArray(dim)
+        val idx = IntArray(shiftsT.size)
         var pos = pos0
-        for (i in 0 until dim) {
+        for (i in shiftsT.indices) {
             val t = pos / shiftsT[i]
             pos -= t * shiftsT[i]
             idx[i] = t
@@ -431,7 +448,7 @@ class BroadcastView<T>(
         val t: Tensor<T>, shape: IntArray,
 //                             val originAxes: IntArray,
         val d: Int,
-        private val extendedAxes: IntArray,
+        internal val extendedAxes: IntArray,
 //                             val newAxes: IntArray
 ) : AbstractTensor<T>(t.calculator, shape) {
     /*
@@ -503,6 +520,13 @@ class MutableIndexMapView<T>(override val tensor: MutableTensor<T>, am: IntArray
     }
 }
 
+/**
+ * Describes that the element of index `idx` of a tensor is stored in [data] at the position
+ *
+ *     offset + idx[0] * strides[0] + ... + idx[dim-1] * strides[dim-1]
+ */
+internal class FlatLayout<T>(val data: Array<T>, val strides: IntArray, val offset: Int)
+
 internal object TensorImpl {
 
     fun addIfNegative(a: Int, m: Int): Int {
@@ -514,10 +538,180 @@ internal object TensorImpl {
     }
 
 
+    /**
+     * Returns the layout of [t] in the data of an array tensor if [t] is an array tensor or a sliced, broadcast or
+     * diagonal view of one, or `null` otherwise.
+     */
+    fun <T> flatLayout(t: Tensor<T>): FlatLayout<T>? {
+        return when (t) {
+            is ATensor -> FlatLayout(t.data, t.shifts, 0)
+            is SlicedView -> t.flatLayout()
+            is BroadcastView -> {
+                val base = flatLayout(t.t) ?: return null
+                val st = IntArray(t.dim)
+                base.strides.copyInto(st, t.d)
+                for (ax in t.extendedAxes) {
+                    st[t.d + ax] = 0
+                }
+                FlatLayout(base.data, st, base.offset)
+            }
+            is IndexMapView -> {
+                // tIdx[i] = idx[am[i]] + offsets[i]
+                val base = flatLayout(t.tensor) ?: return null
+                val st = IntArray(t.dim)
+                var off = base.offset
+                for (i in t.am.indices) {
+                    st[t.am[i]] += base.strides[i]
+                    off += t.offsets[i] * base.strides[i]
+                }
+                FlatLayout(base.data, st, off)
+            }
+            else -> null
+        }
+    }
+
+    /**
+     * Calls [action] with the elements of [x] of the positions `[from, until)` in the order of the indices, stopping
+     * once it returns `false`. Elements of tensors with the [flat layout][flatLayout] `lx` are read from the data
+     * directly.
+     */
+    internal inline fun <T> forElementsIn(
+        x: Tensor<T>, lx: FlatLayout<T>?, from: Int, until: Int,
+        action: (pos: Int, a: T) -> Boolean
+    ) {
+        val c = if (lx == null) IndexCursor(x.shape) else IndexCursor(x.shape, lx.strides)
+        c.moveTo(from)
+        for (pos in from until until) {
+            val a = if (lx == null) x[c.index] else lx.data[lx.offset + c.offsets[0]]
+            if (!action(pos, a)) {
+                return
+            }
+            c.next()
+        }
+    }
+
+    /**
+     * Calls [action] with the elements of the same index in [x] and [y], which are of the same shape, of the
+     * positions `[from, until)` in the order of the indices.
+     */
+    private inline fun <T> forPairsIn(
+        x: Tensor<T>, lx: FlatLayout<T>?, y: Tensor<T>, ly: FlatLayout<T>?, from: Int, until: Int,
+        action: (pos: Int, a: T, b: T) -> Unit
+    ) {
+        val shape = x.shape
+        val c = IndexCursor(shape, lx?.strides ?: IntArray(shape.size), ly?.strides ?: IntArray(shape.size))
+        c.moveTo(from)
+        for (pos in from until until) {
+            val a = if (lx != null) lx.data[lx.offset + c.offsets[0]] else x[c.index]
+            val b = if (ly != null) ly.data[ly.offset + c.offsets[1]] else y[c.index]
+            action(pos, a, b)
+            c.next()
+        }
+    }
+
+    /**
+     * Calls [action] with the elements of [x] and their positions in the order of the indices, in parallel for
+     * chunks of the positions if [x] is large, see [ParallelKernels].
+     */
+    internal inline fun <T> forEachElement(x: Tensor<T>, crossinline action: (pos: Int, a: T) -> Unit) {
+        val lx = flatLayout(x)
+        ParallelKernels.forChunks(x.size) { from, until ->
+            forElementsIn(x, lx, from, until) { pos, a ->
+                action(pos, a)
+                true
+            }
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T, N> map(x: Tensor<T>, mc: EqualPredicate<N>, crossinline f: (T) -> N): ATensor<N> {
+        val data = arrayOfNulls<Any>(x.size)
+        forEachElement(x) { pos, a -> data[pos] = f(a) }
+        return ATensor(mc, x.shape, data as Array<N>)
+    }
+
+    /**
+     * Returns a new array tensor with the elements of [x], which are computed in one pass.
+     */
+    fun <T> materialize(x: Tensor<T>): ATensor<T> {
+        return map(x, x.calculator) { it }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T> zip(x0: Tensor<T>, y0: Tensor<T>, crossinline f: (T, T) -> T): ATensor<T> {
+        val (x, y) = broadcast(x0, y0)
+        val shape = x.shape
+        val data = arrayOfNulls<Any>(MathUtils.product(shape))
+        val lx = flatLayout(x)
+        val ly = flatLayout(y)
+        ParallelKernels.forChunks(data.size) { from, until ->
+            forPairsIn(x, lx, y, ly, from, until) { pos, a, b -> data[pos] = f(a, b) }
+        }
+        return ATensor(x0.calculator, shape, data as Array<T>)
+    }
+
+    /**
+     * Returns the sum of all the elements in [x], which is computed with partial sums of chunks of the elements.
+     */
+    fun <T> sumAll(x: Tensor<T>): T {
+        val mc = x.calculator as AbelSemigroupCal<T>
+        val lx = flatLayout(x)
+        return ParallelKernels.reduceChunks(x.size, chunk = { from, until ->
+            var re: T? = null
+            var started = false
+            forElementsIn(x, lx, from, until) { _, a ->
+                @Suppress("UNCHECKED_CAST")
+                re = if (started) mc.add(re as T, a) else a
+                started = true
+                true
+            }
+            @Suppress("UNCHECKED_CAST")
+            re as T
+        }, combine = mc::add)
+    }
+
+    /**
+     * Determines whether all the elements of [x] satisfy the [predicate]. Chunks of the elements stop as soon as
+     * an element that does not satisfy it is found in any of them.
+     */
+    fun <T> all(x: Tensor<T>, predicate: (T) -> Boolean): Boolean {
+        val lx = flatLayout(x)
+        val failed = AtomicBoolean(false)
+        ParallelKernels.forChunks(x.size) { from, until ->
+            forElementsIn(x, lx, from, until) { _, a ->
+                if (failed.get()) {
+                    false
+                } else if (!predicate(a)) {
+                    failed.set(true)
+                    false
+                } else {
+                    true
+                }
+            }
+        }
+        return !failed.get()
+    }
+
+    /**
+     * Determines whether any of the elements of [x] satisfies the [predicate].
+     */
+    fun <T> any(x: Tensor<T>, predicate: (T) -> Boolean): Boolean {
+        return !all(x) { !predicate(it) }
+    }
+
+    /**
+     * Returns a new array tensor of the given shape whose elements are given by [supplier].
+     */
+    @Suppress("UNCHECKED_CAST")
+    inline fun <T> build(mc: EqualPredicate<T>, shape: IntArray, supplier: (Index) -> T): ATensor<T> {
+        val data = arrayOfNulls<Any>(MathUtils.product(shape))
+        IndexCursor.forEachIndexed(shape) { pos, idx -> data[pos] = supplier(idx) }
+        return ATensor(mc, shape, data as Array<T>)
+    }
+
     fun <T> add(x: Tensor<T>, y: Tensor<T>): MutableTensor<T> {
-        val (x1, y1) = broadcast(x, y)
         val mc = x.calculator as AbelSemigroupCal<T>
-        return ATensor.buildFromSequence(mc, x1.shape, x1.indices.map { idx -> mc.add(x1[idx], y1[idx]) })
+        return zip(x, y) { a, b -> mc.add(a, b) }
     }
 
     /**
@@ -526,7 +720,7 @@ internal object TensorImpl {
      */
     fun <T> negate(x: Tensor<T>): MutableTensor<T> {
         val mc = x.calculator as AbelGroupCal
-        return ATensor.buildFromSequence(mc, x.shape, x.indices.map { idx -> mc.negate(x[idx]) })
+        return map(x, mc) { mc.negate(it) }
     }
 
     /**
@@ -536,9 +730,8 @@ internal object TensorImpl {
      * shape of `max(x.shape, y.shape)`, here `max` means element-wise maximum of two arrays.
      */
     fun <T> subtract(x0: Tensor<T>, y0: Tensor<T>): MutableTensor<T> {
-        val (x, y) = broadcast(x0, y0)
-        val mc = x.calculator as AbelGroupCal
-        return ATensor.buildFromSequence(mc, x.shape, x.indices.map { idx -> mc.subtract(x[idx], y[idx]) })
+        val mc = x0.calculator as AbelGroupCal
+        return zip(x0, y0) { a, b -> mc.subtract(a, b) }
     }
 
     /**
@@ -546,7 +739,7 @@ internal object TensorImpl {
      */
     fun <T> multiply(x: Tensor<T>, k: T): MutableTensor<T> {
         val mc = x.calculator as RingCalculator
-        return ATensor.buildFromSequence(mc, x.shape, x.indices.map { idx -> mc.multiply(k, x[idx]) })
+        return map(x, mc) { mc.multiply(k, it) }
     }
 
     /**
@@ -554,7 +747,7 @@ internal object TensorImpl {
      */
     fun <T> divide(x: Tensor<T>, k: T): MutableTensor<T> {
         val mc = x.calculator as DivisionRingCalculator
-        return ATensor.buildFromSequence(mc, x.shape, x.indices.map { idx -> mc.divide(k, x[idx]) })
+        return map(x, mc) { mc.divide(it, k) }
     }
 
     /**
@@ -562,9 +755,8 @@ internal object TensorImpl {
      *
      */
     fun <T> multiply(x0: Tensor<T>, y0: Tensor<T>): MutableTensor<T> {
-        val (x, y) = broadcast(x0, y0)
-        val mc = x.calculator as RingCalculator
-        return ATensor.buildFromSequence(mc, x.shape, x.indices.map { idx -> mc.multiply(x[idx], y[idx]) })
+        val mc = x0.calculator as RingCalculator
+        return zip(x0, y0) { a, b -> mc.multiply(a, b) }
     }
 
     /**
@@ -574,9 +766,8 @@ internal object TensorImpl {
      */
     fun <T> divide(x0: Tensor<T>, y0: Tensor<T>): MutableTensor<T> {
 //        Tensor.checkShape(x, y)
-        val (x, y) = broadcast(x0, y0)
-        val mc = x.calculator as DivisionRingCalculator
-        return ATensor.buildFromSequence(mc, x.shape, x.indices.map { idx -> mc.divide(x[idx], y[idx]) })
+        val mc = x0.calculator as DivisionRingCalculator
+        return zip(x0, y0) { a, b -> mc.divide(a, b) }
     }
 
     fun <T> inner(x: Tensor<T>, y: Tensor<T>): T {
@@ -584,10 +775,17 @@ internal object TensorImpl {
             "Two tensor must have the same shape for inner!" +
                     "Given shapes: ${x.shape.contentToString()}, ${y.shape.contentToString()}."
         }
-        val mc = x.calculator as RingCalculator
-        return x.elementSequence().zip(y.elementSequence()).fold(mc.zero) { re, (a, b) ->
-            mc.eval { re + a * b }
+        if (x is SparseTensor || y is SparseTensor) {
+            return SparseTensor.inner(x, y)
         }
+        val mc = x.calculator as RingCalculator
+        val lx = flatLayout(x)
+        val ly = flatLayout(y)
+        return ParallelKernels.reduceChunks(x.size, chunk = { from, until ->
+            var re = mc.zero
+            forPairsIn(x, lx, y, ly, from, until) { _, a, b -> re = mc.eval { re + a * b } }
+            re
+        }, combine = mc::add)
     }
 
     fun <T> wedge(x: Tensor<T>, y: Tensor<T>): MutableTensor<T> {
@@ -757,44 +955,70 @@ internal object TensorImpl {
     fun <T> einsum(ts: List<Tensor<T>>,
                    resShape: IntArray, mulShape: IntArray,
                    tToResList: List<IntArray>, tToMulList: List<IntArray>,
-                   mc: UnitRingCalculator<T>): ATensor<T> {
+                   mc: RingCalculator<T>): ATensor<T> {
         val n = ts.size
-        val result = ATensor.constant(mc.zero, resShape, mc)
-        val data = result.data
-        val tIdxList = Array(ts.size) { IntArray(ts[it].dim) }
-
-        val mIndices = IterUtils.prodIdxN(mulShape)
-        fun placeIdx(partIdx: Index, tToPartList: List<IntArray>) {
-            for (k in 0 until n) {
-                val tToPart = tToPartList[k]
-                val tIdx = tIdxList[k]
+        val t0 = ts[0]
+        if (n == 1 && t0 is SparseTensor) {
+            return t0.einsumUnary(resShape, mulShape.size, tToResList[0], tToMulList[0])
+        }
+        val layouts = ts.map { flatLayout(it) }
+        // the strides of the operands with flat layouts in the resulting and multiplying axes
+        val resStrides = Array(n) { IntArray(resShape.size) }
+        val mulStrides = Array(n) { IntArray(mulShape.size) }
+        for (k in 0 until n) {
+            val layout = layouts[k] ?: continue
+            for ((tToPart, partStrides) in listOf(tToResList[k] to resStrides[k], tToMulList[k] to mulStrides[k])) {
                 for (l in tToPart.indices step 2) {
-                    val axisT = tToPart[l]
-                    val axisR = tToPart[l + 1]
-                    tIdx[axisT] = partIdx[axisR]
+                    partStrides[tToPart[l + 1]] += layout.strides[tToPart[l]]
                 }
             }
         }
-
-        var pos = 0
-        for (rIdx in result.indices) {
-            placeIdx(rIdx, tToResList)
-            //place the indices corresponds to res part
-            var re = mc.zero
-            for (mIdx in mIndices) {
-                placeIdx(mIdx, tToMulList)
-                //place the indices corresponds to mul part
-                var mul = mc.one
+        val data = arrayOfNulls<Any>(MathUtils.product(resShape))
+        // each chunk of the result has its own cursors and indices
+        ParallelKernels.forChunks(data.size, n * MathUtils.product(mulShape).toLong()) { from, until ->
+            val tIdxList = Array(ts.size) { IntArray(ts[it].dim) }
+            fun placeIdx(partIdx: Index, tToPartList: List<IntArray>) {
                 for (k in 0 until n) {
-                    val t = ts[k]
+                    if (layouts[k] != null) {
+                        continue
+                    }
+                    val tToPart = tToPartList[k]
                     val tIdx = tIdxList[k]
-                    mul = mc.eval { mul * t[tIdx] }
+                    for (l in tToPart.indices step 2) {
+                        val axisT = tToPart[l]
+                        val axisR = tToPart[l + 1]
+                        tIdx[axisT] = partIdx[axisR]
+                    }
+                }
+            }
+
+            val resCursor = IndexCursor(resShape, *resStrides)
+            val mulCursor = IndexCursor(mulShape, *mulStrides)
+            fun element(k: Int): T {
+                val layout = layouts[k] ?: return ts[k][tIdxList[k]]
+                return layout.data[layout.offset + resCursor.offsets[k] + mulCursor.offsets[k]]
+            }
+
+            resCursor.moveTo(from)
+            for (pos in from until until) {
+                placeIdx(resCursor.index, tToResList)
+                //place the indices corresponds to res part
+                var re = mc.zero
+                mulCursor.forEachIndexed { _, mIdx ->
+                    placeIdx(mIdx, tToMulList)
+                    //place the indices corresponds to mul part
+                    var mul = element(0)
+                    for (k in 1 until n) {
+                        mul = mc.eval { mul * element(k) }
+                    }
+                    re = mc.eval { re + mul }
                 }
-                re = mc.eval { re + mul }
+                data[pos] = re
+                resCursor.next()
             }
-            data[pos++] = re
         }
-        return result
+        @Suppress("UNCHECKED_CAST")
+        return ATensor(mc, resShape, data as Array<T>)
     }
 
     val CHAR_PATTERN = "\\w\\d*".toRegex()
@@ -802,6 +1026,9 @@ internal object TensorImpl {
 
     fun <T> einsum(ts: List<Tensor<T>>, expr: String): MutableTensor<T> {
         require(ts.isNotEmpty())
+        if (ts.size >= 2) {
+            return EinsumPlanner.einsum(expr, ts)
+        }
         val i1 = expr.indexOf("->")
         val tAxes = if (i1 >= 0) {
             expr.substring(0, i1)
@@ -881,39 +1108,32 @@ internal object TensorImpl {
             tToResList += tToRes.toIntArray()
             tToMulList += tToMul.toIntArray()
         }
-        //TODO optimize the order of mul
         val mc = ts[0].calculator as UnitRingCalculator
         return einsum(ts, resShape, mulShape, tToResList, tToMulList, mc)
     }
 
 
     fun <T> sumInOneAxis(t: Tensor<T>, sumAxis: Int): MutableTensor<T> {
-        val mc = t.calculator as RingCalculator
         val axis = addIfNegative(sumAxis, t.dim)
         require(axis in 0 until t.dim)
         if (t.dim == 1) {
             return Tensor.scalar(t.sumAll(), t.calculator)
         }
-        val tShape = t.shape
-        val shape = IntArray(t.dim - 1)
-        tShape.copyInto(shape, 0, 0, axis)
-        tShape.copyInto(shape, axis, axis + 1)
-        val result = ATensor.zeros(shape, mc)
-        val data = result.data
-        val tIdx = IntArray(t.dim)
-        val axisLen = t.lengthAt(axis)
-        var pos = 0
-        for (idx in result.indices) {
-            idx.copyInto(tIdx, 0, 0, axis)
-            idx.copyInto(tIdx, axis + 1, axis)
-            var re = mc.zero
-            for (i in 0 until axisLen) {
-                tIdx[axis] = i
-                re = mc.eval { re + t[tIdx] }
-            }
-            data[pos++] = re
+        val remAxes = (0 until t.dim).filter { it != axis }.toIntArray()
+        return sumInAxes(t, intArrayOf(axis), remAxes)
+    }
+
+    /**
+     * Returns the maps of axes of `t` to the axes of a part, placed as pairs `(axis in t, axis in the part)`,
+     * for the general [einsum].
+     */
+    private fun axesToPart(axes: IntArray): IntArray {
+        val tToPart = IntArray(2 * axes.size)
+        for (i in axes.indices) {
+            tToPart[2 * i] = axes[i]
+            tToPart[2 * i + 1] = i
         }
-        return result
+        return tToPart
     }
 
     /**
@@ -922,38 +1142,9 @@ internal object TensorImpl {
     fun <T> sumInAxes(t: Tensor<T>, sumAxes: IntArray, remAxes: IntArray): MutableTensor<T> {
         val mc = t.calculator as RingCalculator
         val tShape = t.shape
-        fun makeShapeArray(axes: IntArray): IntArray {
-            val shape = IntArray(axes.size)
-            for (i in axes.indices) {
-                shape[i] = tShape[axes[i]]
-            }
-            return shape
-        }
-
-        val sumShape = makeShapeArray(sumAxes)
-        val resShape = makeShapeArray(remAxes)
-        val result = ATensor.zeros(resShape, mc)
-        val data = result.data
-        val tIdx = IntArray(t.dim)
-
-        fun placeIdx(idx: Index, am: IntArray) {
-            for (i in am.indices) {
-                tIdx[am[i]] = idx[i]
-            }
-        }
-
-        var pos = 0
-        val sumIndices = IterUtils.prodIdxN(sumShape)
-        for (idx in result.indices) {
-            placeIdx(idx, remAxes)
-            var re = mc.zero
-            for (sumIdx in sumIndices) {
-                placeIdx(sumIdx, sumAxes)
-                re = mc.eval { re + t[tIdx] }
-            }
-            data[pos++] = re
-        }
-        return result
+        val sumShape = IntArray(sumAxes.size) { tShape[sumAxes[it]] }
+        val resShape = IntArray(remAxes.size) { tShape[remAxes[it]] }
+        return einsum(listOf(t), resShape, sumShape, listOf(axesToPart(remAxes)), listOf(axesToPart(sumAxes)), mc)
     }
 
 
@@ -1122,7 +1313,8 @@ internal object TensorImpl {
         return if (t1.dim <= t2.dim) {
             broadcast0(t1, t2)
         } else {
-            broadcast0(t2, t1)
+            val (r2, r1) = broadcast0(t2, t1)
+            r1 to r2
         }
 
     }
@@ -1148,6 +1340,10 @@ internal object TensorImpl {
         val dim2 = shape2.size
         val mc = x.calculator as RingCalculator
         require(dim1 >= r && dim2 >= r)
+        if (y is SparseTensor) {
+            // a sparse x overrides matmul, so the product is dense here
+            return SparseTensor.matmul(x, y, r) as MutableTensor<T>
+        }
         if (dim1 == r && dim2 == r) {
             return Tensor.scalar(x.inner(y), mc)
         }
@@ -1156,25 +1352,13 @@ internal object TensorImpl {
             "Shape mismatch in matmul of rank $r: ${x.shapeString} and ${y.shapeString}"
         }
         val rShape = shape1.sliceArray(0 until (dim1 - r)) + shape2.sliceArray(r until dim2)
-        val result = ATensor.zeros(rShape, mc)
-        val data = result.data
-        val xIdx = IntArray(dim1)
-        val yIdx = IntArray(dim2)
-        val mIndices = IterUtils.prodIdxN(mShape)
-        var pos = 0
-        for (rIdx in result.indices) {
-            rIdx.copyInto(xIdx, endIndex = dim1 - r)
-            rIdx.copyInto(yIdx, destinationOffset = r, startIndex = dim1 - r)
-            var re = mc.zero
-            for (mIdx in mIndices) {
-                mIdx.copyInto(xIdx, destinationOffset = dim1 - r)
-                mIdx.copyInto(yIdx)
-                re = mc.eval { re + x[xIdx] * y[yIdx] }
-            }
-            data[pos++] = re
-        }
-        return result
-
+        // x: i -> result, k -> mul; y: k -> mul, j -> result
+        val xToRes = axesToPart(IntArray(dim1 - r) { it })
+        val xToMul = axesToPart(IntArray(r) { dim1 - r + it })
+        val yToMul = axesToPart(IntArray(r) { it })
+        val yToRes = IntArray(2 * (dim2 - r)) { if (it % 2 == 0) r + it / 2 else dim1 - r + it / 2 }
+        val mulShape = if (r == 0) intArrayOf(1) else mShape
+        return einsum(listOf(x, y), rShape, mulShape, listOf(xToRes, yToRes), listOf(xToMul, yToMul), mc)
     }
 
     /**
@@ -1207,27 +1391,16 @@ internal object TensorImpl {
         val mShape = shape1.sliceArray(rem1 until dim1)
         require(mShape.contentEquals(shape2.sliceArray(rem2 until dim2)))
         val rShape = shape1.sliceArray(0 until rem1) + shape2.sliceArray(0 until rem2)
-        val result = ATensor.zeros(rShape, mc)
-        val data = result.data
-        val xIdx = IntArray(dim1)
-        val yIdx = IntArray(dim2)
-        val mIndices = IterUtils.prodIdxN(mShape)
-        var pos = 0
-        for (rIdx in result.indices) {
-            rIdx.copyInto(xIdx, endIndex = rem1)
-            rIdx.copyInto(xIdx, endIndex = rem2)
-            var re = mc.zero
-            for (mIdx in mIndices) {
-                mIdx.copyInto(xIdx, destinationOffset = rem1)
-                mIdx.copyInto(yIdx, destinationOffset = rem2)
-                re = mc.eval { re + x[xIdx] * y[yIdx] }
-            }
-            data[pos++] = re
-        }
-        return result
+        // x: i -> result, k -> mul; y: j -> result, k -> mul
+        val xToRes = axesToPart(IntArray(rem1) { it })
+        val xToMul = axesToPart(IntArray(r) { rem1 + it })
+        val yToRes = IntArray(2 * rem2) { if (it % 2 == 0) it / 2 else rem1 + it / 2 }
+        val yToMul = axesToPart(IntArray(r) { rem2 + it })
+        val mulShape = if (r == 0) intArrayOf(1) else mShape
+        return einsum(listOf(x, y), rShape, mulShape, listOf(xToRes, yToRes), listOf(xToMul, yToMul), mc)
     }
 
-    private fun prepareDiag(x: Tensor<*>, axis1: Int, axis2: Int, offset: Int): Triple<IntArray, IntArray, IntArray> {
+    fun prepareDiag(x: Tensor<*>, axis1: Int, axis2: Int, offset: Int): Triple<IntArray, IntArray, IntArray> {
         require(x.dim >= 2) {
             "The given tensor's dim must >= 2!"
         }
@@ -0,0 +1,466 @@
+package cn.ancono.math.numeric.linear
+
+import cn.ancono.math.algebra.linear.DMatrix
+import cn.ancono.math.algebra.linear.MatrixKernels
+import cn.ancono.math.algebra.linear.Vector
+import cn.ancono.math.exceptions.ExceptionUtil
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import kotlin.math.abs
+import kotlin.math.min
+import kotlin.math.sqrt
+
+
+/**
+ * A factorization of an `(n, n)` matrix of doubles that can be reused to solve linear equations with different
+ * right-hand sides, so that the `O(n^3)` factorization is performed once and each solution costs `O(n^2)`.
+ *
+ * The factors are stored in column-major order in primitive arrays. Factorizations are computed by blocked
+ * right-looking algorithms: each panel of [BLOCK] columns is factored serially, and the trailing matrix is updated
+ * by a product of matrices whose columns are computed in [MatrixKernels.pool] when the work reaches
+ * [MatrixKernels.parallelThreshold].
+ *
+ * @see LinearEquations.factorLU
+ * @see LinearEquations.factorCholesky
+ */
+sealed class DenseFactorization(val n: Int, internal val a: DoubleArray) {
+
+    /**
+     * Solves `Ax = b` in place.
+     */
+    internal abstract fun solveInPlace(x: DoubleArray)
+
+    /**
+     * Returns the determinant of the factored matrix.
+     */
+    abstract fun det(): Double
+
+    /**
+     * Solves `Ax = b` and returns `x`.
+     *
+     * @throws ArithmeticException if the matrix is singular
+     */
+    fun solve(b: DoubleArray): DoubleArray {
+        require(b.size == n) {
+            "Size mismatch: $n != ${b.size}"
+        }
+        val x = b.copyOf()
+        solveInPlace(x)
+        return x
+    }
+
+    /**
+     * Solves `Ax = b` and returns `x`.
+     *
+     * @throws ArithmeticException if the matrix is singular
+     */
+    fun solve(b: Vector<Double>): Vector<Double> {
+        val x = solve(DoubleArray(b.size) { b[it] })
+        return Vector.of(n, Calculators.doubleCal()) { x[it] }
+    }
+
+    /**
+     * Solves `AX = B` and returns `X`. The columns of `B` are solved in parallel.
+     *
+     * @throws ArithmeticException if the matrix is singular
+     */
+    fun solve(B: GenMatrix<Double>): DMatrix {
+        require(B.row == n) {
+            "Shape mismatch: ($n,$n) X = (${B.row},${B.column})"
+        }
+        val m = B.column
+        val x = DoubleArray(n * m)
+        val data = if (B is DMatrix) B.data else null
+        MatrixKernels.forRowBlocks(m, n.toLong() * n) { c0, c1 ->
+            val col = DoubleArray(n)
+            for (j in c0 until c1) {
+                for (i in 0 until n) {
+                    col[i] = data?.get(i * m + j) ?: B[i, j]
+                }
+                solveInPlace(col)
+                for (i in 0 until n) {
+                    x[i * m + j] = col[i]
+                }
+            }
+        }
+        return DMatrix.wrap(n, m, x)
+    }
+
+    /**
+     * Returns the inverse of the factored matrix.
+     *
+     * @throws ArithmeticException if the matrix is singular
+     */
+    fun inverse(): DMatrix {
+        val x = DoubleArray(n * n)
+        MatrixKernels.forRowBlocks(n, n.toLong() * n) { c0, c1 ->
+            val col = DoubleArray(n)
+            for (j in c0 until c1) {
+                col.fill(0.0)
+                col[j] = 1.0
+                solveInPlace(col)
+                for (i in 0 until n) {
+                    x[i * n + j] = col[i]
+                }
+            }
+        }
+        return DMatrix.wrap(n, n, x)
+    }
+
+    companion object {
+        /**
+         * The count of columns of a panel.
+         */
+        internal const val BLOCK = 64
+
+        /**
+         * The count of rows processed at a time in the update of the trailing matrix.
+         */
+        internal const val CHUNK = 256
+
+        internal fun toColumnMajor(A: GenMatrix<Double>): DoubleArray {
+            require(A.row == A.column) {
+                "The matrix must be square."
+            }
+            return SVDKernels.toColumnMajor(A)
+        }
+    }
+}
+
+/**
+ * The LU factorization with partial pivoting `PA = LU` of a square matrix of doubles, in which `L` is unit lower
+ * triangular and `U` is upper triangular.
+ *
+ * The factorization of a singular matrix completes, but [solve] and [inverse] throw [ArithmeticException].
+ */
+class LUFactorization internal constructor(n: Int, a: DoubleArray, private val pivots: IntArray) :
+    DenseFactorization(n, a) {
+
+    /**
+     * Determines whether the matrix is singular, that is, `U` has a zero diagonal element.
+     */
+    val isSingular: Boolean = (0 until n).any { a[it * n + it] == 0.0 }
+
+    /**
+     * Returns the factor `L` as a new matrix.
+     */
+    fun lower(): DMatrix {
+        return DMatrix.of(n, n, Calculators.doubleCal()) { i, j ->
+            when {
+                i > j -> a[j * n + i]
+                i == j -> 1.0
+                else -> 0.0
+            }
+        }
+    }
+
+    /**
+     * Returns the factor `U` as a new matrix.
+     */
+    fun upper(): DMatrix {
+        return DMatrix.of(n, n, Calculators.doubleCal()) { i, j ->
+            if (i <= j) a[j * n + i] else 0.0
+        }
+    }
+
+    /**
+     * Returns the permutation `p` such that row `i` of `PA` is row `p[i]` of `A`.
+     */
+    fun permutation(): IntArray {
+        val p = IntArray(n) { it }
+        for (k in 0 until n) {
+            val q = pivots[k]
+            val t = p[k]
+            p[k] = p[q]
+            p[q] = t
+        }
+        return p
+    }
+
+    override fun det(): Double {
+        var d = 1.0
+        for (k in 0 until n) {
+            d *= a[k * n + k]
+            if (pivots[k] != k) {
+                d = -d
+            }
+        }
+        return d
+    }
+
+    override fun solveInPlace(x: DoubleArray) {
+        if (isSingular) {
+            ExceptionUtil.notInvertible()
+        }
+        for (k in 0 until n) {
+            val q = pivots[k]
+            if (q != k) {
+                val t = x[k]
+                x[k] = x[q]
+                x[q] = t
+            }
+        }
+        for (k in 0 until n) {
+            val xk = x[k]
+            if (xk == 0.0) {
+                continue
+            }
+            val base = k * n
+            for (i in (k + 1) until n) {
+                x[i] -= a[base + i] * xk
+            }
+        }
+        for (k in (n - 1) downTo 0) {
+            val base = k * n
+            val xk = x[k] / a[base + k]
+            x[k] = xk
+            if (xk == 0.0) {
+                continue
+            }
+            for (i in 0 until k) {
+                x[i] -= a[base + i] * xk
+            }
+        }
+    }
+
+    internal companion object {
+
+        fun factor(A: GenMatrix<Double>): LUFactorization {
+            val n = A.row
+            val a = toColumnMajor(A)
+            val pivots = IntArray(n)
+            var k0 = 0
+            while (k0 < n) {
+                val kb = min(BLOCK, n - k0)
+                factorPanel(a, n, k0, kb, pivots)
+                // apply the interchanges to the columns outside the panel
+                for (k in k0 until k0 + kb) {
+                    val q = pivots[k]
+                    if (q == k) {
+                        continue
+                    }
+                    for (j in 0 until k0) {
+                        swap(a, j * n + k, j * n + q)
+                    }
+                    for (j in (k0 + kb) until n) {
+                        swap(a, j * n + k, j * n + q)
+                    }
+                }
+                val c0 = k0 + kb
+                if (c0 < n) {
+                    // U12 = L11^-1 A12 and A22 = A22 - L21 U12, column by column
+                    MatrixKernels.forRowBlocks(n - c0, kb.toLong() * (n - k0)) { j0, j1 ->
+                        updateTrailing(a, n, k0, kb, c0 + j0, c0 + j1)
+                    }
+                }
+                k0 += kb
+            }
+            return LUFactorization(n, a, pivots)
+        }
+
+        private fun swap(a: DoubleArray, i: Int, j: Int) {
+            val t = a[i]
+            a[i] = a[j]
+            a[j] = t
+        }
+
+        /**
+         * Factors the columns `k0 until k0 + kb` with partial pivoting, applying the interchanges only to them.
+         */
+        private fun factorPanel(a: DoubleArray, n: Int, k0: Int, kb: Int, pivots: IntArray) {
+            for (k in k0 until k0 + kb) {
+                val ck = k * n
+                var q = k
+                var max = abs(a[ck + k])
+                for (i in (k + 1) until n) {
+                    val v = abs(a[ck + i])
+                    if (v > max) {
+                        max = v
+                        q = i
+                    }
+                }
+                pivots[k] = q
+                if (q != k) {
+                    for (j in k0 until k0 + kb) {
+                        swap(a, j * n + k, j * n + q)
+                    }
+                }
+                val pivot = a[ck + k]
+                if (pivot == 0.0) {
+                    continue
+                }
+                val r = 1.0 / pivot
+                for (i in (k + 1) until n) {
+                    a[ck + i] *= r
+                }
+                for (j in (k + 1) until (k0 + kb)) {
+                    val cj = j * n
+                    val u = a[cj + k]
+                    if (u == 0.0) {
+                        continue
+                    }
+                    for (i in (k + 1) until n) {
+                        a[cj + i] -= a[ck + i] * u
+                    }
+                }
+            }
+        }
+
+        private fun updateTrailing(a: DoubleArray, n: Int, k0: Int, kb: Int, j0: Int, j1: Int) {
+            val head = k0 + kb
+            for (j in j0 until j1) {
+                val cj = j * n
+                for (p in 0 until kb) {
+                    val u = a[cj + k0 + p]
+                    if (u == 0.0) {
+                        continue
+                    }
+                    val cp = (k0 + p) * n
+                    for (i in (k0 + p + 1) until head) {
+                        a[cj + i] -= a[cp + i] * u
+                    }
+                }
+            }
+            var r0 = head
+            while (r0 < n) {
+                val r1 = min(n, r0 + CHUNK)
+                for (j in j0 until j1) {
+                    val cj = j * n
+                    for (p in 0 until kb) {
+                        val u = a[cj + k0 + p]
+                        if (u == 0.0) {
+                            continue
+                        }
+                        val cp = (k0 + p) * n
+                        for (i in r0 until r1) {
+                            a[cj + i] -= a[cp + i] * u
+                        }
+                    }
+                }
+                r0 = r1
+            }
+        }
+    }
+}
+
+/**
+ * The Cholesky factorization `A = LL^T` of a symmetric positive definite matrix of doubles, in which `L` is lower
+ * triangular with positive diagonal elements. Only the lower triangular part of `A` is used.
+ */
+class CholeskyFactorization internal constructor(n: Int, a: DoubleArray) : DenseFactorization(n, a) {
+
+    /**
+     * Returns the factor `L` as a new matrix.
+     */
+    fun lower(): DMatrix {
+        return DMatrix.of(n, n, Calculators.doubleCal()) { i, j ->
+            if (i >= j) a[j * n + i] else 0.0
+        }
+    }
+
+    override fun det(): Double {
+        var d = 1.0
+        for (k in 0 until n) {
+            d *= a[k * n + k]
+        }
+        return d * d
+    }
+
+    override fun solveInPlace(x: DoubleArray) {
+        // L y = b
+        for (k in 0 until n) {
+            val base = k * n
+            val xk = x[k] / a[base + k]
+            x[k] = xk
+            if (xk == 0.0) {
+                continue
+            }
+            for (i in (k + 1) until n) {
+                x[i] -= a[base + i] * xk
+            }
+        }
+        // L^T x = y
+        for (k in (n - 1) downTo 0) {
+            val base = k * n
+            var s = x[k]
+            for (i in (k + 1) until n) {
+                s -= a[base + i] * x[i]
+            }
+            x[k] = s / a[base + k]
+        }
+    }
+
+    internal companion object {
+
+        fun factor(A: GenMatrix<Double>): CholeskyFactorization {
+            val n = A.row
+            val a = toColumnMajor(A)
+            var k0 = 0
+            while (k0 < n) {
+                val kb = min(BLOCK, n - k0)
+                factorPanel(a, n, k0, kb)
+                val c0 = k0 + kb
+                if (c0 < n) {
+                    // A22 = A22 - L21 L21^T on the lower triangular part
+                    MatrixKernels.forRowBlocks(n - c0, kb.toLong() * (n - c0)) { j0, j1 ->
+                        updateTrailing(a, n, k0, kb, c0 + j0, c0 + j1)
+                    }
+                }
+                k0 += kb
+            }
+            // clear the upper triangular part
+            for (j in 1 until n) {
+                a.fill(0.0, j * n, j * n + j)
+            }
+            return CholeskyFactorization(n, a)
+        }
+
+        private fun factorPanel(a: DoubleArray, n: Int, k0: Int, kb: Int) {
+            for (k in k0 until k0 + kb) {
+                val ck = k * n
+                val d = a[ck + k]
+                if (d <= 0.0 || d.isNaN()) {
+                    throw ArithmeticException("The matrix is not positive definite.")
+                }
+                val l = sqrt(d)
+                a[ck + k] = l
+                val r = 1.0 / l
+                for (i in (k + 1) until n) {
+                    a[ck + i] *= r
+                }
+                for (j in (k + 1) until (k0 + kb)) {
+                    val cj = j * n
+                    val u = a[ck + j]
+                    if (u == 0.0) {
+                        continue
+                    }
+                    for (i in j until n) {
+                        a[cj + i] -= a[ck + i] * u
+                    }
+                }
+            }
+        }
+
+        private fun updateTrailing(a: DoubleArray, n: Int, k0: Int, kb: Int, j0: Int, j1: Int) {
+            var r0 = j0
+            while (r0 < n) {
+                val r1 = min(n, r0 + CHUNK)
+                for (j in j0 until min(j1, r1)) {
+                    val cj = j * n
+                    val start = maxOf(r0, j)
+                    for (p in 0 until kb) {
+                        val cp = (k0 + p) * n
+                        val u = a[cp + j]
+                        if (u == 0.0) {
+                            continue
+                        }
+                        for (i in start until r1) {
+                            a[cj + i] -= a[cp + i] * u
+                        }
+                    }
+                }
+                r0 = r1
+            }
+        }
+    }
+}
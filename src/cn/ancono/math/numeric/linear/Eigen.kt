@@ -0,0 +1,743 @@
+package cn.ancono.math.numeric.linear
+
+import cn.ancono.math.algebra.linear.DMatrix
+import cn.ancono.math.numberModels.ComplexD
+import cn.ancono.math.numberModels.api.GenMatrix
+import kotlin.math.abs
+import kotlin.math.hypot
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+
+/**
+ * The eigenvalues and optionally the eigenvectors of a real square matrix.
+ *
+ * The `k`-th eigenvalue is `real[k] + i imag[k]`. Complex eigenvalues appear in conjugate pairs, the one with positive
+ * imaginary part first. The eigenvectors are stored in a real matrix `V` in the packed form of `AV = VD`: if the
+ * `k`-th eigenvalue is real, the `k`-th column of `V` is its eigenvector; if the `k`-th and `(k+1)`-th eigenvalues
+ * form a pair `a ± bi`, the columns `k` and `k+1` of `V` are the real and the imaginary part of the eigenvector of
+ * `a + bi`.
+ */
+class EigenResult internal constructor(
+    val n: Int,
+    val real: DoubleArray,
+    val imag: DoubleArray,
+    private val v: DoubleArray?
+) {
+
+    /**
+     * The eigenvalues as complex numbers.
+     */
+    val eigenvalues: List<ComplexD>
+        get() = List(n) { k -> ComplexD(real[k], imag[k]) }
+
+    /**
+     * Determines whether the eigenvectors are computed.
+     */
+    val hasVectors: Boolean
+        get() = v != null
+
+    fun eigenvalue(k: Int): ComplexD {
+        return ComplexD(real[k], imag[k])
+    }
+
+    /**
+     * Returns the eigenvectors in the packed real form `V` described in [EigenResult].
+     */
+    fun packedVectors(): DMatrix {
+        val data = v ?: throw IllegalStateException("The eigenvectors are not computed.")
+        return DMatrix.wrap(n, n, data.clone())
+    }
+
+    /**
+     * Returns the eigenvector of the `k`-th eigenvalue, which is not normalized.
+     */
+    fun eigenvector(k: Int): Array<ComplexD> {
+        val data = v ?: throw IllegalStateException("The eigenvectors are not computed.")
+        require(k in 0 until n)
+        return when {
+            imag[k] == 0.0 -> Array(n) { i -> ComplexD(data[i * n + k], 0.0) }
+            imag[k] > 0 -> Array(n) { i -> ComplexD(data[i * n + k], data[i * n + k + 1]) }
+            else -> Array(n) { i -> ComplexD(data[i * n + k - 1], -data[i * n + k]) }
+        }
+    }
+}
+
+/**
+ * The eigenvalues and optionally the orthonormal eigenvectors of a real symmetric matrix.
+ *
+ * The eigenvalues are sorted in ascending order, and the `k`-th column of [vectors] is the eigenvector of
+ * the `k`-th eigenvalue.
+ */
+class SymmetricEigenResult internal constructor(
+    val eigenvalues: DoubleArray,
+    val vectors: DMatrix?
+)
+
+/**
+ * Numeric eigenvalue algorithms for matrices of doubles, which work on primitive arrays.
+ *
+ * General matrices are reduced to the Hessenberg form with Householder reflections (see [DMatrix.toHessenbergForm])
+ * and then to the real Schur form with the implicit double-shift QR algorithm of Francis. Symmetric matrices are
+ * reduced to the tridiagonal form with Householder reflections and then diagonalized with the implicit QL algorithm.
+ * Both are `O(n^3)`, and are much more stable than solving the characteristic polynomial as
+ * [cn.ancono.math.algebra.linear.Matrix.eigenvalues] does.
+ *
+ * The algorithms follow the procedures `orthes`, `hqr2`, `tred2` and `tql2` of EISPACK.
+ */
+object Eigen {
+
+    private const val EPS = 2.220446049250313E-16
+
+    /**
+     * The maximal count of QR iterations for a single eigenvalue.
+     */
+    private const val MAX_ITERATION = 60
+
+    private fun flatten(m: GenMatrix<Double>): DoubleArray {
+        require(m.row == m.column) {
+            "The matrix must be square."
+        }
+        if (m is DMatrix) {
+            return m.data.clone()
+        }
+        val n = m.row
+        return DoubleArray(n * n) { m[it / n, it % n] }
+    }
+
+    /**
+     * Returns the eigenvalues of the square matrix [m].
+     */
+    @JvmStatic
+    fun eigenvalues(m: GenMatrix<Double>): List<ComplexD> {
+        return eigen(m, false).eigenvalues
+    }
+
+    /**
+     * Computes the eigenvalues and, if [computeVectors] is `true`, the eigenvectors of the square matrix [m].
+     *
+     * @throws ArithmeticException if the QR algorithm does not converge
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun eigen(m: GenMatrix<Double>, computeVectors: Boolean = true): EigenResult {
+        val n = m.row
+        val h = flatten(m)
+        val v = if (computeVectors) DoubleArray(n * n) else null
+        DMatrix.reduceToHessenberg(h, n, v)
+        val d = DoubleArray(n)
+        val e = DoubleArray(n)
+        hqr2(h, n, d, e, v)
+        return EigenResult(n, d, e, v)
+    }
+
+    /**
+     * Computes the eigenvalues and, if [computeVectors] is `true`, the orthonormal eigenvectors of the symmetric
+     * matrix [m]. Only the lower triangular part of `m` is used.
+     *
+     * @throws ArithmeticException if the QL algorithm does not converge
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun eigenSymmetric(m: GenMatrix<Double>, computeVectors: Boolean = true): SymmetricEigenResult {
+        val n = m.row
+        val v = flatten(m)
+        val d = DoubleArray(n)
+        val e = DoubleArray(n)
+        tred2(v, n, d, e)
+        // store the transpose so that the rotations in tql2 work on contiguous rows
+        val w = if (computeVectors) transpose(v, n) else null
+        tql2(n, d, e, w)
+        val vectors = if (w != null) DMatrix.wrap(n, n, transpose(w, n)) else null
+        return SymmetricEigenResult(d, vectors)
+    }
+
+    private fun transpose(a: DoubleArray, n: Int): DoubleArray {
+        val t = DoubleArray(n * n)
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                t[j * n + i] = a[i * n + j]
+            }
+        }
+        return t
+    }
+
+    /**
+     * Reduces the symmetric matrix stored in [v] to the tridiagonal form with diagonal [d] and subdiagonal
+     * `e[1 until n]`, and stores the accumulated orthogonal transformation in [v].
+     */
+    private fun tred2(v: DoubleArray, n: Int, d: DoubleArray, e: DoubleArray) {
+        for (j in 0 until n) {
+            d[j] = v[(n - 1) * n + j]
+        }
+        for (i in (n - 1) downTo 1) {
+            var scale = 0.0
+            var h = 0.0
+            for (k in 0 until i) {
+                scale += abs(d[k])
+            }
+            if (scale == 0.0) {
+                e[i] = d[i - 1]
+                for (j in 0 until i) {
+                    d[j] = v[(i - 1) * n + j]
+                    v[i * n + j] = 0.0
+                    v[j * n + i] = 0.0
+                }
+            } else {
+                for (k in 0 until i) {
+                    d[k] /= scale
+                    h += d[k] * d[k]
+                }
+                var f = d[i - 1]
+                var g = sqrt(h)
+                if (f > 0) {
+                    g = -g
+                }
+                e[i] = scale * g
+                h -= f * g
+                d[i - 1] = f - g
+                for (j in 0 until i) {
+                    e[j] = 0.0
+                }
+                for (j in 0 until i) {
+                    f = d[j]
+                    v[j * n + i] = f
+                    g = e[j] + v[j * n + j] * f
+                    for (k in (j + 1)..(i - 1)) {
+                        g += v[k * n + j] * d[k]
+                        e[k] += v[k * n + j] * f
+                    }
+                    e[j] = g
+                }
+                f = 0.0
+                for (j in 0 until i) {
+                    e[j] /= h
+                    f += e[j] * d[j]
+                }
+                val hh = f / (h + h)
+                for (j in 0 until i) {
+                    e[j] -= hh * d[j]
+                }
+                for (j in 0 until i) {
+                    f = d[j]
+                    g = e[j]
+                    for (k in j..(i - 1)) {
+                        v[k * n + j] -= (f * e[k] + g * d[k])
+                    }
+                    d[j] = v[(i - 1) * n + j]
+                    v[i * n + j] = 0.0
+                }
+            }
+            d[i] = h
+        }
+        // accumulate transformations
+        for (i in 0 until n - 1) {
+            v[(n - 1) * n + i] = v[i * n + i]
+            v[i * n + i] = 1.0
+            val h = d[i + 1]
+            if (h != 0.0) {
+                for (k in 0..i) {
+                    d[k] = v[k * n + i + 1] / h
+                }
+                for (j in 0..i) {
+                    var g = 0.0
+                    for (k in 0..i) {
+                        g += v[k * n + i + 1] * v[k * n + j]
+                    }
+                    for (k in 0..i) {
+                        v[k * n + j] -= g * d[k]
+                    }
+                }
+            }
+            for (k in 0..i) {
+                v[k * n + i + 1] = 0.0
+            }
+        }
+        for (j in 0 until n) {
+            d[j] = v[(n - 1) * n + j]
+            v[(n - 1) * n + j] = 0.0
+        }
+        v[(n - 1) * n + n - 1] = 1.0
+        e[0] = 0.0
+    }
+
+    /**
+     * Diagonalizes the symmetric tridiagonal matrix with the implicit QL algorithm. The eigenvalues are stored
+     * in [d] in ascending order, and the rotations are applied to the rows of [w] if it is not `null`.
+     */
+    private fun tql2(n: Int, d: DoubleArray, e: DoubleArray, w: DoubleArray?) {
+        for (i in 1 until n) {
+            e[i - 1] = e[i]
+        }
+        e[n - 1] = 0.0
+        var f = 0.0
+        var tst1 = 0.0
+        for (l in 0 until n) {
+            tst1 = max(tst1, abs(d[l]) + abs(e[l]))
+            var m = l
+            while (m < n) {
+                if (abs(e[m]) <= EPS * tst1) {
+                    break
+                }
+                m++
+            }
+            if (m > l) {
+                var iter = 0
+                do {
+                    if (++iter > MAX_ITERATION) {
+                        throw ArithmeticException("The QL algorithm does not converge.")
+                    }
+                    var g = d[l]
+                    var p = (d[l + 1] - g) / (2.0 * e[l])
+                    var r = hypot(p, 1.0)
+                    if (p < 0) {
+                        r = -r
+                    }
+                    d[l] = e[l] / (p + r)
+                    d[l + 1] = e[l] * (p + r)
+                    val dl1 = d[l + 1]
+                    var h = g - d[l]
+                    for (i in (l + 2) until n) {
+                        d[i] -= h
+                    }
+                    f += h
+                    // implicit QL transformation
+                    p = d[m]
+                    var c = 1.0
+                    var c2 = c
+                    var c3 = c
+                    val el1 = e[l + 1]
+                    var s = 0.0
+                    var s2 = 0.0
+                    for (i in (m - 1) downTo l) {
+                        c3 = c2
+                        c2 = c
+                        s2 = s
+                        g = c * e[i]
+                        h = c * p
+                        r = hypot(p, e[i])
+                        e[i + 1] = s * r
+                        s = e[i] / r
+                        c = p / r
+                        p = c * d[i] - s * g
+                        d[i + 1] = h + s * (c * g + s * d[i])
+                        if (w != null) {
+                            val ri = i * n
+                            val ri1 = ri + n
+                            for (k in 0 until n) {
+                                val t = w[ri1 + k]
+                                w[ri1 + k] = s * w[ri + k] + c * t
+                                w[ri + k] = c * w[ri + k] - s * t
+                            }
+                        }
+                    }
+                    p = -s * s2 * c3 * el1 * e[l] / dl1
+                    e[l] = s * p
+                    d[l] = c * p
+                } while (abs(e[l]) > EPS * tst1)
+            }
+            d[l] += f
+            e[l] = 0.0
+        }
+        // sort the eigenvalues and the vectors in ascending order
+        for (i in 0 until n - 1) {
+            var k = i
+            var p = d[i]
+            for (j in (i + 1) until n) {
+                if (d[j] < p) {
+                    k = j
+                    p = d[j]
+                }
+            }
+            if (k != i) {
+                d[k] = d[i]
+                d[i] = p
+                if (w != null) {
+                    for (j in 0 until n) {
+                        val t = w[i * n + j]
+                        w[i * n + j] = w[k * n + j]
+                        w[k * n + j] = t
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reduces the upper Hessenberg matrix [h] to the real Schur form with the implicit double-shift QR algorithm,
+     * storing the eigenvalues in [d] and [e]. If [v] is not `null`, it should contain the transformation to the
+     * Hessenberg form, and the eigenvectors are computed by back substitution and stored in it.
+     */
+    private fun hqr2(h: DoubleArray, nn: Int, d: DoubleArray, e: DoubleArray, v: DoubleArray?) {
+        var n = nn - 1
+        val low = 0
+        val high = nn - 1
+        var exshift = 0.0
+        var p = 0.0
+        var q = 0.0
+        var r = 0.0
+        var s = 0.0
+        var z = 0.0
+        var t: Double
+        var w: Double
+        var x: Double
+        var y: Double
+
+        var norm = 0.0
+        for (i in 0 until nn) {
+            for (j in max(i - 1, 0) until nn) {
+                norm += abs(h[i * nn + j])
+            }
+        }
+
+        var iter = 0
+        while (n >= low) {
+            // look for a single small subdiagonal element
+            var l = n
+            while (l > low) {
+                s = abs(h[(l - 1) * nn + l - 1]) + abs(h[l * nn + l])
+                if (s == 0.0) {
+                    s = norm
+                }
+                if (abs(h[l * nn + l - 1]) <= EPS * s) {
+                    // <= so that a zero matrix, whose norm is zero, deflates
+                    break
+                }
+                l--
+            }
+            if (l == n) {
+                // one root found
+                h[n * nn + n] += exshift
+                d[n] = h[n * nn + n]
+                e[n] = 0.0
+                n--
+                iter = 0
+            } else if (l == n - 1) {
+                // two roots found
+                w = h[n * nn + n - 1] * h[(n - 1) * nn + n]
+                p = (h[(n - 1) * nn + n - 1] - h[n * nn + n]) / 2.0
+                q = p * p + w
+                z = sqrt(abs(q))
+                h[n * nn + n] += exshift
+                h[(n - 1) * nn + n - 1] += exshift
+                x = h[n * nn + n]
+                if (q >= 0) {
+                    // real pair
+                    z = if (p >= 0) p + z else p - z
+                    d[n - 1] = x + z
+                    d[n] = d[n - 1]
+                    if (z != 0.0) {
+                        d[n] = x - w / z
+                    }
+                    e[n - 1] = 0.0
+                    e[n] = 0.0
+                    x = h[n * nn + n - 1]
+                    s = abs(x) + abs(z)
+                    p = x / s
+                    q = z / s
+                    r = sqrt(p * p + q * q)
+                    p /= r
+                    q /= r
+                    for (j in (n - 1) until nn) {
+                        z = h[(n - 1) * nn + j]
+                        h[(n - 1) * nn + j] = q * z + p * h[n * nn + j]
+                        h[n * nn + j] = q * h[n * nn + j] - p * z
+                    }
+                    for (i in 0..n) {
+                        z = h[i * nn + n - 1]
+                        h[i * nn + n - 1] = q * z + p * h[i * nn + n]
+                        h[i * nn + n] = q * h[i * nn + n] - p * z
+                    }
+                    if (v != null) {
+                        for (i in low..high) {
+                            z = v[i * nn + n - 1]
+                            v[i * nn + n - 1] = q * z + p * v[i * nn + n]
+                            v[i * nn + n] = q * v[i * nn + n] - p * z
+                        }
+                    }
+                } else {
+                    // complex pair
+                    d[n - 1] = x + p
+                    d[n] = x + p
+                    e[n - 1] = z
+                    e[n] = -z
+                }
+                n -= 2
+                iter = 0
+            } else {
+                // no convergence yet
+                x = h[n * nn + n]
+                y = 0.0
+                w = 0.0
+                if (l < n) {
+                    y = h[(n - 1) * nn + n - 1]
+                    w = h[n * nn + n - 1] * h[(n - 1) * nn + n]
+                }
+                // Wilkinson's original ad hoc shift
+                if (iter == 10) {
+                    exshift += x
+                    for (i in low..n) {
+                        h[i * nn + i] -= x
+                    }
+                    s = abs(h[n * nn + n - 1]) + abs(h[(n - 1) * nn + n - 2])
+                    x = 0.75 * s
+                    y = x
+                    w = -0.4375 * s * s
+                }
+                // an exceptional shift used by MATLAB
+                if (iter == 30) {
+                    s = (y - x) / 2.0
+                    s = s * s + w
+                    if (s > 0) {
+                        s = sqrt(s)
+                        if (y < x) {
+                            s = -s
+                        }
+                        s = x - w / ((y - x) / 2.0 + s)
+                        for (i in low..n) {
+                            h[i * nn + i] -= s
+                        }
+                        exshift += s
+                        x = 0.964
+                        y = x
+                        w = x
+                    }
+                }
+                if (++iter > MAX_ITERATION) {
+                    throw ArithmeticException("The QR algorithm does not converge.")
+                }
+                // look for two consecutive small subdiagonal elements
+                var m = n - 2
+                while (m >= l) {
+                    z = h[m * nn + m]
+                    r = x - z
+                    s = y - z
+                    p = (r * s - w) / h[(m + 1) * nn + m] + h[m * nn + m + 1]
+                    q = h[(m + 1) * nn + m + 1] - z - r - s
+                    r = h[(m + 2) * nn + m + 1]
+                    s = abs(p) + abs(q) + abs(r)
+                    p /= s
+                    q /= s
+                    r /= s
+                    if (m == l) {
+                        break
+                    }
+                    if (abs(h[m * nn + m - 1]) * (abs(q) + abs(r)) <
+                        EPS * (abs(p) * (abs(h[(m - 1) * nn + m - 1]) + abs(z) + abs(h[(m + 1) * nn + m + 1])))
+                    ) {
+                        break
+                    }
+                    m--
+                }
+                for (i in (m + 2)..n) {
+                    h[i * nn + i - 2] = 0.0
+                    if (i > m + 2) {
+                        h[i * nn + i - 3] = 0.0
+                    }
+                }
+                // double QR step on the rows l..n and the columns m..n
+                for (k in m..(n - 1)) {
+                    val notLast = k != n - 1
+                    if (k != m) {
+                        p = h[k * nn + k - 1]
+                        q = h[(k + 1) * nn + k - 1]
+                        r = if (notLast) h[(k + 2) * nn + k - 1] else 0.0
+                        x = abs(p) + abs(q) + abs(r)
+                        if (x == 0.0) {
+                            continue
+                        }
+                        p /= x
+                        q /= x
+                        r /= x
+                    }
+                    s = sqrt(p * p + q * q + r * r)
+                    if (p < 0) {
+                        s = -s
+                    }
+                    if (s == 0.0) {
+                        continue
+                    }
+                    if (k != m) {
+                        h[k * nn + k - 1] = -s * x
+                    } else if (l != m) {
+                        h[k * nn + k - 1] = -h[k * nn + k - 1]
+                    }
+                    p += s
+                    x = p / s
+                    y = q / s
+                    z = r / s
+                    q /= p
+                    r /= p
+                    // row modification
+                    for (j in k until nn) {
+                        p = h[k * nn + j] + q * h[(k + 1) * nn + j]
+                        if (notLast) {
+                            p += r * h[(k + 2) * nn + j]
+                            h[(k + 2) * nn + j] -= p * z
+                        }
+                        h[k * nn + j] -= p * x
+                        h[(k + 1) * nn + j] -= p * y
+                    }
+                    // column modification
+                    for (i in 0..min(n, k + 3)) {
+                        p = x * h[i * nn + k] + y * h[i * nn + k + 1]
+                        if (notLast) {
+                            p += z * h[i * nn + k + 2]
+                            h[i * nn + k + 2] -= p * r
+                        }
+                        h[i * nn + k] -= p
+                        h[i * nn + k + 1] -= p * q
+                    }
+                    if (v != null) {
+                        for (i in low..high) {
+                            p = x * v[i * nn + k] + y * v[i * nn + k + 1]
+                            if (notLast) {
+                                p += z * v[i * nn + k + 2]
+                                v[i * nn + k + 2] -= p * r
+                            }
+                            v[i * nn + k] -= p
+                            v[i * nn + k + 1] -= p * q
+                        }
+                    }
+                }
+            }
+        }
+        if (v == null || norm == 0.0) {
+            return
+        }
+        // back substitute to find the vectors of the upper triangular form
+        for (n1 in (nn - 1) downTo 0) {
+            p = d[n1]
+            q = e[n1]
+            if (q == 0.0) {
+                // real vector
+                var l = n1
+                h[n1 * nn + n1] = 1.0
+                for (i in (n1 - 1) downTo 0) {
+                    w = h[i * nn + i] - p
+                    r = 0.0
+                    for (j in l..n1) {
+                        r += h[i * nn + j] * h[j * nn + n1]
+                    }
+                    if (e[i] < 0.0) {
+                        z = w
+                        s = r
+                    } else {
+                        l = i
+                        if (e[i] == 0.0) {
+                            h[i * nn + n1] = if (w != 0.0) -r / w else -r / (EPS * norm)
+                        } else {
+                            // solve the real equations
+                            x = h[i * nn + i + 1]
+                            y = h[(i + 1) * nn + i]
+                            q = (d[i] - p) * (d[i] - p) + e[i] * e[i]
+                            t = (x * s - z * r) / q
+                            h[i * nn + n1] = t
+                            h[(i + 1) * nn + n1] = if (abs(x) > abs(z)) (-r - w * t) / x else (-s - y * t) / z
+                        }
+                        // overflow control
+                        t = abs(h[i * nn + n1])
+                        if ((EPS * t) * t > 1) {
+                            for (j in i..n1) {
+                                h[j * nn + n1] /= t
+                            }
+                        }
+                    }
+                }
+            } else if (q < 0) {
+                // complex vector, the last component of which is imaginary
+                var l = n1 - 1
+                val m1 = n1 - 1
+                if (abs(h[n1 * nn + m1]) > abs(h[m1 * nn + n1])) {
+                    h[m1 * nn + m1] = q / h[n1 * nn + m1]
+                    h[m1 * nn + n1] = -(h[n1 * nn + n1] - p) / h[n1 * nn + m1]
+                } else {
+                    cdiv(0.0, -h[m1 * nn + n1], h[m1 * nn + m1] - p, q) { cr, ci ->
+                        h[m1 * nn + m1] = cr
+                        h[m1 * nn + n1] = ci
+                    }
+                }
+                h[n1 * nn + m1] = 0.0
+                h[n1 * nn + n1] = 1.0
+                for (i in (n1 - 2) downTo 0) {
+                    var ra = 0.0
+                    var sa = 0.0
+                    for (j in l..n1) {
+                        ra += h[i * nn + j] * h[j * nn + m1]
+                        sa += h[i * nn + j] * h[j * nn + n1]
+                    }
+                    w = h[i * nn + i] - p
+                    if (e[i] < 0.0) {
+                        z = w
+                        r = ra
+                        s = sa
+                    } else {
+                        l = i
+                        if (e[i] == 0.0) {
+                            cdiv(-ra, -sa, w, q) { cr, ci ->
+                                h[i * nn + m1] = cr
+                                h[i * nn + n1] = ci
+                            }
+                        } else {
+                            // solve the complex equations
+                            x = h[i * nn + i + 1]
+                            y = h[(i + 1) * nn + i]
+                            var vr = (d[i] - p) * (d[i] - p) + e[i] * e[i] - q * q
+                            val vi = (d[i] - p) * 2.0 * q
+                            if (vr == 0.0 && vi == 0.0) {
+                                vr = EPS * norm * (abs(w) + abs(q) + abs(x) + abs(y) + abs(z))
+                            }
+                            cdiv(x * r - z * ra + q * sa, x * s - z * sa - q * ra, vr, vi) { cr, ci ->
+                                h[i * nn + m1] = cr
+                                h[i * nn + n1] = ci
+                            }
+                            if (abs(x) > abs(z) + abs(q)) {
+                                h[(i + 1) * nn + m1] = (-ra - w * h[i * nn + m1] + q * h[i * nn + n1]) / x
+                                h[(i + 1) * nn + n1] = (-sa - w * h[i * nn + n1] - q * h[i * nn + m1]) / x
+                            } else {
+                                cdiv(-r - y * h[i * nn + m1], -s - y * h[i * nn + n1], z, q) { cr, ci ->
+                                    h[(i + 1) * nn + m1] = cr
+                                    h[(i + 1) * nn + n1] = ci
+                                }
+                            }
+                        }
+                        // overflow control
+                        t = max(abs(h[i * nn + m1]), abs(h[i * nn + n1]))
+                        if ((EPS * t) * t > 1) {
+                            for (j in i..n1) {
+                                h[j * nn + m1] /= t
+                                h[j * nn + n1] /= t
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        // back transformation to get the eigenvectors of the original matrix
+        for (j in (nn - 1) downTo low) {
+            for (i in low..high) {
+                z = 0.0
+                for (k in low..min(j, high)) {
+                    z += v[i * nn + k] * h[k * nn + j]
+                }
+                v[i * nn + j] = z
+            }
+        }
+    }
+
+    /**
+     * Computes the complex division `(xr + xi i) / (yr + yi i)`.
+     */
+    private inline fun cdiv(xr: Double, xi: Double, yr: Double, yi: Double, result: (Double, Double) -> Unit) {
+        if (abs(yr) > abs(yi)) {
+            val r = yi / yr
+            val d = yr + r * yi
+            result((xr + r * xi) / d, (xi - r * xr) / d)
+        } else {
+            val r = yr / yi
+            val d = yi + r * yr
+            result((r * xr + xi) / d, (r * xi - xr) / d)
+        }
+    }
+}
@@ -0,0 +1,647 @@
+package cn.ancono.math.numeric.linear
+
+import cn.ancono.math.algebra.linear.DMatrix
+import cn.ancono.math.algebra.linear.Matrix
+import cn.ancono.math.algebra.linear.SparseMatrix
+import cn.ancono.math.algebra.linear.Vector
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.api.GenMatrix
+import kotlin.math.abs
+import kotlin.math.hypot
+import kotlin.math.sqrt
+
+
+/**
+ * Provides Krylov subspace methods for large sparse or matrix-free linear systems `Ax = b` of doubles, which only
+ * access the matrix through products with vectors, so that each iteration costs `O(nnz)` plus a few operations on
+ * vectors of length `n`.
+ *
+ *  * The conjugate gradient method ([cg]) requires `A` and the preconditioner to be symmetric positive definite.
+ *  * BiCGSTAB ([bicgstab]) works for general non-singular matrices with short recurrences, but may break down.
+ *  * Restarted GMRES ([gmres]) minimizes the residual in Krylov subspaces of dimension at most `restart`, and stores
+ *    `restart + 1` vectors.
+ *
+ * The primitive methods work on a [MatVec] acting on `DoubleArray`s. The methods on [Matrix] use the primitive data
+ * of [SparseMatrix] and [DMatrix] when possible. A [Preconditioner] approximating `A^-1` can be built with [jacobi],
+ * [ilu0] or [ssor]; it is applied on the left in [cg] and on the right in [bicgstab] and [gmres], so that the
+ * residuals monitored are those of the original system, `|b - Ax|`.
+ *
+ * An iteration stops when `|b - Ax| <= tol * |b|` or the count of iterations reaches `maxIterations`.
+ */
+object IterativeSolvers {
+
+    /**
+     * Describes a linear operator `y = Ax` on `R^n`.
+     */
+    fun interface MatVec {
+        /**
+         * Computes `y = Ax`, in which [y] should be overwritten.
+         */
+        fun apply(x: DoubleArray, y: DoubleArray)
+    }
+
+    /**
+     * Describes a preconditioner `M`, which approximates `A` and is easy to invert.
+     */
+    fun interface Preconditioner {
+        /**
+         * Computes `z = M^-1 r`, in which [z] should be overwritten.
+         */
+        fun apply(r: DoubleArray, z: DoubleArray)
+    }
+
+    /**
+     * Receives the residual norm `|b - Ax|` after each iteration. In [gmres], it is the norm computed from the
+     * least-squares problem in the Krylov subspace, which equals the true one in exact arithmetic.
+     */
+    fun interface Monitor {
+        fun onIteration(iteration: Int, residualNorm: Double)
+    }
+
+    /**
+     * The result of an iterative method.
+     */
+    class Result internal constructor(
+        /**
+         * The approximate solution.
+         */
+        val x: DoubleArray,
+        /**
+         * The count of iterations performed.
+         */
+        val iterations: Int,
+        /**
+         * The norm of the final residual `|b - Ax|`.
+         */
+        val residualNorm: Double,
+        /**
+         * Whether the required tolerance is reached.
+         */
+        val converged: Boolean
+    ) {
+        /**
+         * Returns the solution as a vector.
+         */
+        fun toVector(): Vector<Double> {
+            return Vector.of(x.size, Calculators.doubleCal()) { x[it] }
+        }
+    }
+
+    const val DEFAULT_TOLERANCE = 1E-10
+
+    private fun dot(x: DoubleArray, y: DoubleArray): Double {
+        var s = 0.0
+        for (i in x.indices) {
+            s += x[i] * y[i]
+        }
+        return s
+    }
+
+    private fun norm(x: DoubleArray): Double {
+        return sqrt(dot(x, x))
+    }
+
+    /**
+     * Computes `r = b - Ax`.
+     */
+    private fun residual(A: MatVec, b: DoubleArray, x: DoubleArray, r: DoubleArray) {
+        A.apply(x, r)
+        for (i in r.indices) {
+            r[i] = b[i] - r[i]
+        }
+    }
+
+    private val identity = Preconditioner { r, z -> System.arraycopy(r, 0, z, 0, r.size) }
+
+    /**
+     * Returns the threshold of the residual norm, which is positive so that a zero right-hand side stops at once.
+     */
+    private fun threshold(b: DoubleArray, tol: Double): Double {
+        val bn = norm(b)
+        return if (bn == 0.0) tol else tol * bn
+    }
+
+    /**
+     * Solves the symmetric positive definite system `Ax = b` with the (preconditioned) conjugate gradient method.
+     *
+     * @param x0 the initial guess, which is zero if it is `null`
+     * @param preconditioner a symmetric positive definite preconditioner, or `null`
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun cg(
+        A: MatVec, b: DoubleArray, x0: DoubleArray? = null,
+        preconditioner: Preconditioner? = null,
+        tol: Double = DEFAULT_TOLERANCE, maxIterations: Int = 10 * b.size,
+        monitor: Monitor? = null
+    ): Result {
+        val n = b.size
+        val M = preconditioner ?: identity
+        val x = x0?.copyOf() ?: DoubleArray(n)
+        val r = DoubleArray(n)
+        val z = DoubleArray(n)
+        val ap = DoubleArray(n)
+        val eps = threshold(b, tol)
+        residual(A, b, x, r)
+        var rn = norm(r)
+        if (rn <= eps) {
+            return Result(x, 0, rn, true)
+        }
+        M.apply(r, z)
+        val p = z.copyOf()
+        var rz = dot(r, z)
+        var iter = 0
+        while (iter < maxIterations) {
+            iter++
+            A.apply(p, ap)
+            val pap = dot(p, ap)
+            if (pap <= 0.0) {
+                // A is not positive definite along p
+                break
+            }
+            val alpha = rz / pap
+            for (i in 0 until n) {
+                x[i] += alpha * p[i]
+                r[i] -= alpha * ap[i]
+            }
+            rn = norm(r)
+            monitor?.onIteration(iter, rn)
+            if (rn <= eps) {
+                return Result(x, iter, rn, true)
+            }
+            M.apply(r, z)
+            val rzNew = dot(r, z)
+            val beta = rzNew / rz
+            rz = rzNew
+            for (i in 0 until n) {
+                p[i] = z[i] + beta * p[i]
+            }
+        }
+        return Result(x, iter, rn, false)
+    }
+
+    /**
+     * Solves the system `Ax = b` with the right-preconditioned BiCGSTAB method.
+     *
+     * @param x0 the initial guess, which is zero if it is `null`
+     * @param preconditioner a preconditioner, or `null`
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun bicgstab(
+        A: MatVec, b: DoubleArray, x0: DoubleArray? = null,
+        preconditioner: Preconditioner? = null,
+        tol: Double = DEFAULT_TOLERANCE, maxIterations: Int = 10 * b.size,
+        monitor: Monitor? = null
+    ): Result {
+        val n = b.size
+        val M = preconditioner ?: identity
+        val x = x0?.copyOf() ?: DoubleArray(n)
+        val r = DoubleArray(n)
+        val eps = threshold(b, tol)
+        residual(A, b, x, r)
+        var rn = norm(r)
+        if (rn <= eps) {
+            return Result(x, 0, rn, true)
+        }
+        val rHat = r.copyOf()
+        val p = DoubleArray(n)
+        val v = DoubleArray(n)
+        val pHat = DoubleArray(n)
+        val s = DoubleArray(n)
+        val sHat = DoubleArray(n)
+        val t = DoubleArray(n)
+        var rho = 1.0
+        var alpha = 1.0
+        var omega = 1.0
+        var iter = 0
+        while (iter < maxIterations) {
+            iter++
+            val rhoNew = dot(rHat, r)
+            if (rhoNew == 0.0) {
+                // breakdown
+                break
+            }
+            val beta = (rhoNew / rho) * (alpha / omega)
+            rho = rhoNew
+            for (i in 0 until n) {
+                p[i] = r[i] + beta * (p[i] - omega * v[i])
+            }
+            M.apply(p, pHat)
+            A.apply(pHat, v)
+            alpha = rho / dot(rHat, v)
+            for (i in 0 until n) {
+                s[i] = r[i] - alpha * v[i]
+            }
+            val sn = norm(s)
+            if (sn <= eps) {
+                for (i in 0 until n) {
+                    x[i] += alpha * pHat[i]
+                }
+                monitor?.onIteration(iter, sn)
+                return Result(x, iter, sn, true)
+            }
+            M.apply(s, sHat)
+            A.apply(sHat, t)
+            val tt = dot(t, t)
+            omega = if (tt == 0.0) 0.0 else dot(t, s) / tt
+            for (i in 0 until n) {
+                x[i] += alpha * pHat[i] + omega * sHat[i]
+                r[i] = s[i] - omega * t[i]
+            }
+            rn = norm(r)
+            monitor?.onIteration(iter, rn)
+            if (rn <= eps) {
+                return Result(x, iter, rn, true)
+            }
+            if (omega == 0.0) {
+                break
+            }
+        }
+        return Result(x, iter, rn, false)
+    }
+
+    /**
+     * Solves the system `Ax = b` with the right-preconditioned GMRES method restarted every [restart] iterations.
+     *
+     * @param x0 the initial guess, which is zero if it is `null`
+     * @param preconditioner a preconditioner, or `null`
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun gmres(
+        A: MatVec, b: DoubleArray, x0: DoubleArray? = null,
+        preconditioner: Preconditioner? = null,
+        restart: Int = 30,
+        tol: Double = DEFAULT_TOLERANCE, maxIterations: Int = 10 * b.size,
+        monitor: Monitor? = null
+    ): Result {
+        require(restart > 0)
+        val n = b.size
+        val m = minOf(restart, n)
+        val M = preconditioner ?: identity
+        val x = x0?.copyOf() ?: DoubleArray(n)
+        val r = DoubleArray(n)
+        val w = DoubleArray(n)
+        val z = DoubleArray(n)
+        val eps = threshold(b, tol)
+        // the orthonormal basis of the Krylov subspace and the Hessenberg matrix, stored by columns
+        val V = Array(m + 1) { DoubleArray(n) }
+        val H = Array(m) { DoubleArray(m + 1) }
+        val cs = DoubleArray(m)
+        val sn = DoubleArray(m)
+        val g = DoubleArray(m + 1)
+        residual(A, b, x, r)
+        var rn = norm(r)
+        var iter = 0
+        while (rn > eps && iter < maxIterations) {
+            val v0 = V[0]
+            for (i in 0 until n) {
+                v0[i] = r[i] / rn
+            }
+            g.fill(0.0)
+            g[0] = rn
+            var k = 0
+            while (k < m && iter < maxIterations) {
+                iter++
+                M.apply(V[k], z)
+                A.apply(z, w)
+                // modified Gram-Schmidt
+                val h = H[k]
+                for (j in 0..k) {
+                    val vj = V[j]
+                    val hj = dot(w, vj)
+                    h[j] = hj
+                    for (i in 0 until n) {
+                        w[i] -= hj * vj[i]
+                    }
+                }
+                val wn = norm(w)
+                h[k + 1] = wn
+                if (wn != 0.0) {
+                    val vk = V[k + 1]
+                    for (i in 0 until n) {
+                        vk[i] = w[i] / wn
+                    }
+                }
+                // apply the previous rotations and compute the new one
+                for (j in 0 until k) {
+                    val t = cs[j] * h[j] + sn[j] * h[j + 1]
+                    h[j + 1] = -sn[j] * h[j] + cs[j] * h[j + 1]
+                    h[j] = t
+                }
+                val d = hypot(h[k], h[k + 1])
+                cs[k] = if (d == 0.0) 1.0 else h[k] / d
+                sn[k] = if (d == 0.0) 0.0 else h[k + 1] / d
+                h[k] = d
+                h[k + 1] = 0.0
+                g[k + 1] = -sn[k] * g[k]
+                g[k] = cs[k] * g[k]
+                k++
+                val estimate = abs(g[k])
+                monitor?.onIteration(iter, estimate)
+                if (estimate <= eps || wn == 0.0) {
+                    break
+                }
+            }
+            // solve the triangular system H y = g and update x = x + M^-1 V y
+            val y = DoubleArray(k)
+            for (i in (k - 1) downTo 0) {
+                var t = g[i]
+                for (j in (i + 1) until k) {
+                    t -= H[j][i] * y[j]
+                }
+                y[i] = if (H[i][i] == 0.0) 0.0 else t / H[i][i]
+            }
+            w.fill(0.0)
+            for (j in 0 until k) {
+                val vj = V[j]
+                val yj = y[j]
+                for (i in 0 until n) {
+                    w[i] += yj * vj[i]
+                }
+            }
+            M.apply(w, z)
+            for (i in 0 until n) {
+                x[i] += z[i]
+            }
+            val previous = rn
+            residual(A, b, x, r)
+            rn = norm(r)
+            if (rn >= previous) {
+                // stagnation
+                break
+            }
+        }
+        return Result(x, iter, rn, rn <= eps)
+    }
+
+    /*
+    Methods on matrices
+     */
+
+    /**
+     * Returns the product with vectors of the square matrix [A], which uses the primitive data of [SparseMatrix]
+     * and [DMatrix].
+     */
+    @JvmStatic
+    fun matVecOf(A: GenMatrix<Double>): MatVec {
+        require(A.row == A.column) {
+            "The matrix must be square."
+        }
+        val n = A.row
+        if (A is SparseMatrix) {
+            val csr = SparseDouble.of(A)
+            return MatVec { x, y -> csr.multiply(x, y) }
+        }
+        if (A is DMatrix) {
+            val data = A.data
+            return MatVec { x, y ->
+                for (i in 0 until n) {
+                    var s = 0.0
+                    val base = i * n
+                    for (j in 0 until n) {
+                        s += data[base + j] * x[j]
+                    }
+                    y[i] = s
+                }
+            }
+        }
+        return MatVec { x, y ->
+            for (i in 0 until n) {
+                var s = 0.0
+                for (j in 0 until n) {
+                    s += A[i, j] * x[j]
+                }
+                y[i] = s
+            }
+        }
+    }
+
+    private fun toArray(b: Vector<Double>): DoubleArray {
+        return DoubleArray(b.size) { b[it] }
+    }
+
+    /**
+     * Solves `Ax = b` with the conjugate gradient method, see [cg].
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun cg(
+        A: GenMatrix<Double>, b: Vector<Double>, preconditioner: Preconditioner? = null,
+        tol: Double = DEFAULT_TOLERANCE, maxIterations: Int = 10 * b.size, monitor: Monitor? = null
+    ): Result {
+        return cg(matVecOf(A), toArray(b), null, preconditioner, tol, maxIterations, monitor)
+    }
+
+    /**
+     * Solves `Ax = b` with the BiCGSTAB method, see [bicgstab].
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun bicgstab(
+        A: GenMatrix<Double>, b: Vector<Double>, preconditioner: Preconditioner? = null,
+        tol: Double = DEFAULT_TOLERANCE, maxIterations: Int = 10 * b.size, monitor: Monitor? = null
+    ): Result {
+        return bicgstab(matVecOf(A), toArray(b), null, preconditioner, tol, maxIterations, monitor)
+    }
+
+    /**
+     * Solves `Ax = b` with the restarted GMRES method, see [gmres].
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun gmres(
+        A: GenMatrix<Double>, b: Vector<Double>, preconditioner: Preconditioner? = null, restart: Int = 30,
+        tol: Double = DEFAULT_TOLERANCE, maxIterations: Int = 10 * b.size, monitor: Monitor? = null
+    ): Result {
+        return gmres(matVecOf(A), toArray(b), null, preconditioner, restart, tol, maxIterations, monitor)
+    }
+
+    /*
+    Preconditioners
+     */
+
+    /**
+     * Returns the Jacobi preconditioner `M = diag(A)`.
+     *
+     * @throws ArithmeticException if a diagonal element is zero
+     */
+    @JvmStatic
+    fun jacobi(A: GenMatrix<Double>): Preconditioner {
+        val csr = SparseDouble.of(A)
+        val inv = DoubleArray(csr.n) { i ->
+            val d = csr.values[csr.diagonalPosition(i)]
+            1.0 / d
+        }
+        return Preconditioner { r, z ->
+            for (i in r.indices) {
+                z[i] = r[i] * inv[i]
+            }
+        }
+    }
+
+    /**
+     * Returns the incomplete LU preconditioner with zero fill-in, `M = LU`, in which `L` and `U` have the same
+     * sparsity pattern as the lower and upper part of `A`.
+     *
+     * @throws ArithmeticException if a zero pivot is met
+     */
+    @JvmStatic
+    fun ilu0(A: GenMatrix<Double>): Preconditioner {
+        val csr = SparseDouble.of(A)
+        val n = csr.n
+        val ptr = csr.ptr
+        val idx = csr.indices
+        val lu = csr.values.copyOf()
+        val diag = IntArray(n) { csr.diagonalPosition(it) }
+        // the position of column j in the current row, or -1
+        val pos = IntArray(n) { -1 }
+        for (i in 0 until n) {
+            for (q in ptr[i] until ptr[i + 1]) {
+                pos[idx[q]] = q
+            }
+            for (q in ptr[i] until diag[i]) {
+                val k = idx[q]
+                val lik = lu[q] / lu[diag[k]]
+                lu[q] = lik
+                for (t in (diag[k] + 1) until ptr[k + 1]) {
+                    val at = pos[idx[t]]
+                    if (at >= 0) {
+                        lu[at] -= lik * lu[t]
+                    }
+                }
+            }
+            if (lu[diag[i]] == 0.0) {
+                throw ArithmeticException("Zero pivot in ILU(0) at row $i.")
+            }
+            for (q in ptr[i] until ptr[i + 1]) {
+                pos[idx[q]] = -1
+            }
+        }
+        return Preconditioner { r, z ->
+            // L y = r, then U z = y
+            for (i in 0 until n) {
+                var s = r[i]
+                for (q in ptr[i] until diag[i]) {
+                    s -= lu[q] * z[idx[q]]
+                }
+                z[i] = s
+            }
+            for (i in (n - 1) downTo 0) {
+                var s = z[i]
+                for (q in (diag[i] + 1) until ptr[i + 1]) {
+                    s -= lu[q] * z[idx[q]]
+                }
+                z[i] = s / lu[diag[i]]
+            }
+        }
+    }
+
+    /**
+     * Returns the symmetric successive over-relaxation preconditioner
+     * `M = w/(2-w) (D/w + L) (D/w)^-1 (D/w + U)`, where `A = L + D + U`. It is symmetric positive definite if `A` is.
+     *
+     * @param omega the relaxation factor in `(0, 2)`
+     * @throws ArithmeticException if a diagonal element is zero
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun ssor(A: GenMatrix<Double>, omega: Double = 1.0): Preconditioner {
+        require(omega > 0 && omega < 2) {
+            "The relaxation factor must be in (0,2)."
+        }
+        val csr = SparseDouble.of(A)
+        val n = csr.n
+        val ptr = csr.ptr
+        val idx = csr.indices
+        val values = csr.values
+        val diag = IntArray(n) { csr.diagonalPosition(it) }
+        val scale = (2 - omega) / omega
+        return Preconditioner { r, z ->
+            // (D/w + L) y = r, stored in z
+            for (i in 0 until n) {
+                var s = r[i]
+                for (q in ptr[i] until diag[i]) {
+                    s -= values[q] * z[idx[q]]
+                }
+                z[i] = s * omega / values[diag[i]]
+            }
+            // (D/w + U) z = (D/w) y
+            for (i in (n - 1) downTo 0) {
+                val d = values[diag[i]] / omega
+                var s = d * z[i]
+                for (q in (diag[i] + 1) until ptr[i + 1]) {
+                    s -= values[q] * z[idx[q]]
+                }
+                z[i] = s / d
+            }
+            for (i in 0 until n) {
+                z[i] *= scale
+            }
+        }
+    }
+}
+
+/**
+ * A square matrix of doubles in the CSR layout on primitive arrays, whose column indices are ascending in each row.
+ */
+internal class SparseDouble(val n: Int, val ptr: IntArray, val indices: IntArray, val values: DoubleArray) {
+
+    fun multiply(x: DoubleArray, y: DoubleArray) {
+        for (i in 0 until n) {
+            var s = 0.0
+            for (q in ptr[i] until ptr[i + 1]) {
+                s += values[q] * x[indices[q]]
+            }
+            y[i] = s
+        }
+    }
+
+    /**
+     * Returns the position of the diagonal element of row [i].
+     *
+     * @throws ArithmeticException if it is zero
+     */
+    fun diagonalPosition(i: Int): Int {
+        val q = indices.binarySearch(i, ptr[i], ptr[i + 1])
+        if (q < 0) {
+            throw ArithmeticException("The diagonal element at row $i is zero.")
+        }
+        return q
+    }
+
+    companion object {
+        fun of(A: GenMatrix<Double>): SparseDouble {
+            require(A.row == A.column) {
+                "The matrix must be square."
+            }
+            val n = A.row
+            if (A is SparseMatrix) {
+                val csr = A.toCSR()
+                return SparseDouble(n, csr.ptr, csr.indices, DoubleArray(csr.nnz) { csr.values[it] as Double })
+            }
+            val ptr = IntArray(n + 1)
+            var indices = IntArray(n)
+            var values = DoubleArray(n)
+            var c = 0
+            for (i in 0 until n) {
+                for (j in 0 until n) {
+                    val x = A[i, j]
+                    if (x == 0.0) {
+                        continue
+                    }
+                    if (c == indices.size) {
+                        indices = indices.copyOf(c * 2)
+                        values = values.copyOf(c * 2)
+                    }
+                    indices[c] = j
+                    values[c] = x
+                    c++
+                }
+                ptr[i + 1] = c
+            }
+            return SparseDouble(n, ptr, indices, values)
+        }
+    }
+}
@@ -7,6 +7,7 @@ import cn.ancono.math.algebra.linear.Matrix
 import cn.ancono.math.algebra.linear.T
 import cn.ancono.math.algebra.linear.Vector
 import cn.ancono.math.algebra.linear.toMutable
+import cn.ancono.math.numberModels.api.GenMatrix
 import java.util.*
 
 object LinearEquations {
@@ -125,6 +126,29 @@ object LinearEquations {
         return solveUpper(L.T, z)
     }
 
+    /**
+     * Computes the LU factorization with partial pivoting `PA = LU` of the square matrix [A] of doubles with a blocked
+     * algorithm on primitive arrays. The returned factorization can be used to solve `Ax = b` for many
+     * right-hand sides.
+     *
+     * @see LUFactorization
+     */
+    fun factorLU(A: GenMatrix<Double>): LUFactorization {
+        return LUFactorization.factor(A)
+    }
+
+    /**
+     * Computes the Cholesky factorization `A = LL^T` of the symmetric positive definite matrix [A] of doubles with a
+     * blocked algorithm on primitive arrays. The returned factorization can be used to solve `Ax = b` for many
+     * right-hand sides.
+     *
+     * @throws ArithmeticException if `A` is not positive definite
+     * @see CholeskyFactorization
+     */
+    fun factorCholesky(A: GenMatrix<Double>): CholeskyFactorization {
+        return CholeskyFactorization.factor(A)
+    }
+
     /**
      * Solves a tri-diagonal linear equation.
      */
@@ -2,9 +2,11 @@ package cn.ancono.math.numeric.linear
 
 import cn.ancono.math.algebra.abs.calculator.OrderedFieldCal
 import cn.ancono.math.algebra.abs.calculator.eval
+import cn.ancono.math.algebra.linear.DMatrix
 import cn.ancono.math.algebra.linear.Matrix
 import cn.ancono.math.algebra.linear.MatrixOperation
 import cn.ancono.math.algebra.linear.MatrixSup
+import cn.ancono.math.numberModels.api.GenMatrix
 
 object Matrices {
 
@@ -135,6 +137,8 @@ object Matrices {
      *
      * It is required that the given matrix is invertible.
      *
+     * This method computes the inverse explicitly, see [cond] for a numeric method for matrices of doubles.
+     *
      * @param m an invertible matrix
      * @param p a number `>=1`, or `null`.
      */
@@ -149,6 +153,69 @@ object Matrices {
         }
     }
 
+    /**
+     * Returns the 2-norm condition number `s_max / s_min` of the matrix, computed from the singular values.
+     * The result is positive infinity if the matrix is not of full rank, that is, if the smallest singular value is
+     * not greater than the default tolerance of [pinv] and [lstsq], `max(m, n) * eps * s_max`.
+     */
+    fun cond(m: GenMatrix<Double>): Double {
+        return svd(m, SVDMode.VALUES).cond()
+    }
+
+    /**
+     * Computes the singular value decomposition `A = U S V^T` of the matrix.
+     *
+     * A tall matrix is first reduced by the blocked Householder QR decomposition, and then the triangular factor is
+     * decomposed by the Golub-Kahan bidiagonalization and the implicit QR algorithm. All the computation is done on
+     * primitive arrays.
+     *
+     * @param mode determines the computed parts of the decomposition, see [SVDMode]
+     * @throws ArithmeticException if the algorithm does not converge
+     */
+    @JvmOverloads
+    fun svd(m: GenMatrix<Double>, mode: SVDMode = SVDMode.THIN): SVD {
+        return SVDKernels.svd(m, mode)
+    }
+
+    /**
+     * Computes the truncated singular value decomposition, which keeps only the largest [k] singular values and
+     * gives the best rank-`k` approximation of the matrix.
+     */
+    fun svd(m: GenMatrix<Double>, k: Int): SVD {
+        return svd(m, SVDMode.THIN).truncate(k)
+    }
+
+    /**
+     * Returns the singular values of the matrix in descending order.
+     */
+    fun singularValues(m: GenMatrix<Double>): DoubleArray {
+        return svd(m, SVDMode.VALUES).singularValues
+    }
+
+    /**
+     * Returns the Moore-Penrose pseudo-inverse of the matrix computed from its singular value decomposition.
+     * Singular values not greater than `rcond * s_max` are treated as zero, and if [rcond] is negative,
+     * `max(m, n) * eps` is used.
+     */
+    @JvmOverloads
+    fun pinv(m: GenMatrix<Double>, rcond: Double = -1.0): DMatrix {
+        val svd = svd(m, SVDMode.THIN)
+        val tol = if (rcond < 0) svd.defaultTolerance else rcond * svd.norm2()
+        return svd.pseudoInverse(tol)
+    }
+
+    /**
+     * Returns the least-squares solution of `AX = B` with minimal norm, together with the numeric rank of `A`.
+     * Singular values not greater than `rcond * s_max` are treated as zero, and if [rcond] is negative,
+     * `max(m, n) * eps` is used.
+     *
+     * For a tall `A`, only `Q^T B` is computed from the QR decomposition `A = QR`, so `Q` is never formed.
+     */
+    @JvmOverloads
+    fun lstsq(A: GenMatrix<Double>, B: GenMatrix<Double>, rcond: Double = -1.0): LeastSquaresResult {
+        return SVDKernels.lstsq(A, B, rcond)
+    }
+
 }
 
 //fun main() {
@@ -0,0 +1,963 @@
+package cn.ancono.math.numeric.linear
+
+import cn.ancono.math.algebra.linear.DMatrix
+import cn.ancono.math.numberModels.api.GenMatrix
+import kotlin.math.abs
+import kotlin.math.hypot
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+
+/**
+ * Determines which parts of the singular value decomposition `A = U S V^T` of an `(m, n)` matrix are computed.
+ */
+enum class SVDMode {
+    /**
+     * Computes `U` as an `(m, m)` matrix and `V` as an `(n, n)` matrix.
+     */
+    FULL,
+
+    /**
+     * Computes `U` as an `(m, r)` matrix and `V` as an `(n, r)` matrix, where `r = min(m, n)`.
+     */
+    THIN,
+
+    /**
+     * Computes only the singular values.
+     */
+    VALUES
+}
+
+/**
+ * The singular value decomposition `A = U S V^T` of an `(m, n)` matrix `A`, where the columns of [u] and [v] are
+ * orthonormal and `S` is diagonal with the non-negative [singularValues] in descending order.
+ *
+ * Depending on the mode, [u] and [v] may be `null` or contain only the leading columns.
+ *
+ * @see Matrices.svd
+ */
+class SVD internal constructor(
+    val row: Int,
+    val column: Int,
+    val singularValues: DoubleArray,
+    val u: DMatrix?,
+    val v: DMatrix?
+) {
+
+    /**
+     * The default tolerance for singular values to be regarded as zero, `max(m, n) * eps * s_max`.
+     */
+    val defaultTolerance: Double
+        get() = max(row, column) * SVDKernels.EPS * norm2()
+
+    /**
+     * Returns the 2-norm of the matrix, which is the largest singular value.
+     */
+    fun norm2(): Double {
+        return if (singularValues.isEmpty()) 0.0 else singularValues[0]
+    }
+
+    /**
+     * Returns the 2-norm condition number of the matrix, `s_max / s_min`. The result is positive infinity if the
+     * matrix is numerically rank-deficient, that is, if `s_min` is not greater than [defaultTolerance].
+     */
+    fun cond(): Double {
+        val s = singularValues
+        if (s.size < min(row, column)) {
+            throw IllegalStateException("The decomposition is truncated.")
+        }
+        val sMin = s[s.size - 1]
+        if (sMin <= defaultTolerance) {
+            return Double.POSITIVE_INFINITY
+        }
+        return s[0] / sMin
+    }
+
+    /**
+     * Returns the numeric rank, the count of singular values greater than [tolerance].
+     */
+    @JvmOverloads
+    fun rank(tolerance: Double = defaultTolerance): Int {
+        return singularValues.count { it > tolerance }
+    }
+
+    /**
+     * Returns the decomposition keeping only the largest [k] singular values, which gives the best rank-`k`
+     * approximation of the matrix.
+     */
+    fun truncate(k: Int): SVD {
+        require(k in 1..singularValues.size)
+        return SVD(row, column, singularValues.copyOf(k), u?.let { leadingColumns(it, k) },
+            v?.let { leadingColumns(it, k) })
+    }
+
+    private fun leadingColumns(x: DMatrix, k: Int): DMatrix {
+        if (x.column == k) {
+            return x
+        }
+        val data = DoubleArray(x.row * k)
+        for (i in 0 until x.row) {
+            System.arraycopy(x.data, i * x.column, data, i * k, k)
+        }
+        return DMatrix.wrap(x.row, k, data)
+    }
+
+    private fun requireVectors(): Pair<DMatrix, DMatrix> {
+        val u = u
+        val v = v
+        if (u == null || v == null) {
+            throw IllegalStateException("The singular vectors are not computed.")
+        }
+        return u to v
+    }
+
+    /**
+     * Returns the Moore-Penrose pseudo-inverse `V S^+ U^T`, in which singular values not greater than
+     * [tolerance] are treated as zero.
+     */
+    @JvmOverloads
+    fun pseudoInverse(tolerance: Double = defaultTolerance): DMatrix {
+        val (u, v) = requireVectors()
+        val r = rank(tolerance)
+        val n = column
+        val m = row
+        val ku = u.column
+        val kv = v.column
+        // rows of V scaled by the reciprocals of the singular values
+        val vs = DoubleArray(n * r)
+        for (i in 0 until n) {
+            for (k in 0 until r) {
+                vs[i * r + k] = v.data[i * kv + k] / singularValues[k]
+            }
+        }
+        val result = DoubleArray(n * m)
+        for (i in 0 until n) {
+            for (j in 0 until m) {
+                var t = 0.0
+                for (k in 0 until r) {
+                    t += vs[i * r + k] * u.data[j * ku + k]
+                }
+                result[i * m + j] = t
+            }
+        }
+        return DMatrix.wrap(n, m, result)
+    }
+
+    /**
+     * Returns the minimal-norm least-squares solution `X = V S^+ U^T B` of `AX = B`, in which singular values not
+     * greater than [tolerance] are treated as zero.
+     */
+    @JvmOverloads
+    fun solve(B: GenMatrix<Double>, tolerance: Double = defaultTolerance): DMatrix {
+        val (u, v) = requireVectors()
+        require(B.row == row) {
+            "Shape mismatch: (${row},${column}) X = (${B.row},${B.column})"
+        }
+        val r = rank(tolerance)
+        val nb = B.column
+        val b = SVDKernels.toColumnMajor(B)
+        // c = S^+ U^T B, (r, nb) row-major
+        val c = DoubleArray(r * nb)
+        val ku = u.column
+        for (j in 0 until nb) {
+            for (i in 0 until row) {
+                val x = b[j * row + i]
+                if (x == 0.0) {
+                    continue
+                }
+                for (k in 0 until r) {
+                    c[k * nb + j] += u.data[i * ku + k] * x
+                }
+            }
+        }
+        for (k in 0 until r) {
+            val s = singularValues[k]
+            for (j in 0 until nb) {
+                c[k * nb + j] /= s
+            }
+        }
+        return SVDKernels.multiplyLeading(v, r, c, nb)
+    }
+}
+
+/**
+ * The rank-revealing least-squares solution of `AX = B`.
+ *
+ * @see Matrices.lstsq
+ */
+class LeastSquaresResult internal constructor(
+    /**
+     * The least-squares solution with minimal norm.
+     */
+    val solution: DMatrix,
+    /**
+     * The numeric rank of `A`.
+     */
+    val rank: Int,
+    /**
+     * The singular values of `A` in descending order.
+     */
+    val singularValues: DoubleArray
+)
+
+/**
+ * The primitive kernels of the singular value decomposition.
+ *
+ * Matrices are stored as flattened arrays in column-major order, so that the Householder reflections and the Givens
+ * rotations, which work on columns, access contiguous memory. A tall matrix is first reduced to a triangular one by
+ * the Householder QR decomposition, which is applied in blocks of [BLOCK] reflections in the compact WY form
+ * `I - V T V^T` and in chunks of rows fitting in the cache, and the singular value decomposition of the triangular
+ * factor is then computed by the Golub-Kahan bidiagonalization and the implicit QR algorithm (LINPACK `dsvdc`).
+ */
+internal object SVDKernels {
+
+    const val EPS = 2.220446049250313E-16
+
+    private const val TINY = 1.6033346880071782E-291
+
+    private const val BLOCK = 16
+
+    private const val CHUNK = 256
+
+    private const val MAX_ITERATION = 75
+
+    fun toColumnMajor(m: GenMatrix<Double>): DoubleArray {
+        val row = m.row
+        val column = m.column
+        val a = DoubleArray(row * column)
+        if (m is DMatrix) {
+            val data = m.data
+            for (i in 0 until row) {
+                for (j in 0 until column) {
+                    a[j * row + i] = data[i * column + j]
+                }
+            }
+        } else {
+            for (j in 0 until column) {
+                for (i in 0 until row) {
+                    a[j * row + i] = m[i, j]
+                }
+            }
+        }
+        return a
+    }
+
+    fun fromColumnMajor(a: DoubleArray, row: Int, column: Int): DMatrix {
+        val data = DoubleArray(row * column)
+        for (j in 0 until column) {
+            for (i in 0 until row) {
+                data[i * column + j] = a[j * row + i]
+            }
+        }
+        return DMatrix.wrap(row, column, data)
+    }
+
+    /**
+     * Returns the first [r] columns of [v] multiplied by the row-major `(r, nb)` matrix [c].
+     */
+    fun multiplyLeading(v: DMatrix, r: Int, c: DoubleArray, nb: Int): DMatrix {
+        val n = v.row
+        val kv = v.column
+        val x = DoubleArray(n * nb)
+        for (i in 0 until n) {
+            for (k in 0 until r) {
+                val t = v.data[i * kv + k]
+                if (t == 0.0) {
+                    continue
+                }
+                for (j in 0 until nb) {
+                    x[i * nb + j] += t * c[k * nb + j]
+                }
+            }
+        }
+        return DMatrix.wrap(n, nb, x)
+    }
+
+    /*
+    Householder QR
+     */
+
+    /**
+     * Computes the Householder QR decomposition of the column-major `(m, n)` matrix [a] with `m >= n` in place.
+     * `R` is stored on and above the diagonal, and the `k`-th reflection `I - tau[k] v v^T` is stored below the
+     * diagonal of column `k` with the implicit `v[k] = 1`.
+     */
+    fun householderQR(a: DoubleArray, m: Int, n: Int, tau: DoubleArray) {
+        var k0 = 0
+        while (k0 < n) {
+            val kb = min(BLOCK, n - k0)
+            for (k in k0 until k0 + kb) {
+                tau[k] = makeReflector(a, m, k)
+                for (j in (k + 1) until (k0 + kb)) {
+                    applyReflector(a, m, k, tau[k], a, j)
+                }
+            }
+            if (k0 + kb < n) {
+                val t = triangularFactor(a, m, k0, kb, tau)
+                applyBlock(a, m, k0, kb, t, a, k0 + kb, n, true)
+            }
+            k0 += kb
+        }
+    }
+
+    /**
+     * Computes `C = Q C` for the first [cols] columns of the column-major matrix [c] with leading dimension `m`,
+     * where `Q` is given by the reflections in [a] of the first [n] columns.
+     */
+    fun applyQ(a: DoubleArray, m: Int, n: Int, tau: DoubleArray, c: DoubleArray, cols: Int) {
+        var k0 = ((n - 1) / BLOCK) * BLOCK
+        while (k0 >= 0) {
+            val kb = min(BLOCK, n - k0)
+            val t = triangularFactor(a, m, k0, kb, tau)
+            applyBlock(a, m, k0, kb, t, c, 0, cols, false)
+            k0 -= BLOCK
+        }
+    }
+
+    /**
+     * Computes `C = Q^T C`, see [applyQ].
+     */
+    fun applyQT(a: DoubleArray, m: Int, n: Int, tau: DoubleArray, c: DoubleArray, cols: Int) {
+        var k0 = 0
+        while (k0 < n) {
+            val kb = min(BLOCK, n - k0)
+            val t = triangularFactor(a, m, k0, kb, tau)
+            applyBlock(a, m, k0, kb, t, c, 0, cols, true)
+            k0 += kb
+        }
+    }
+
+    /**
+     * Computes the reflection annihilating the entries below the diagonal of column [k] and returns its `tau`.
+     */
+    private fun makeReflector(a: DoubleArray, m: Int, k: Int): Double {
+        val base = k * m
+        val alpha = a[base + k]
+        var sq = 0.0
+        for (i in (base + k + 1) until (base + m)) {
+            sq += a[i] * a[i]
+        }
+        if (sq == 0.0) {
+            return 0.0
+        }
+        val beta = -Math.copySign(sqrt(alpha * alpha + sq), alpha)
+        val scale = 1.0 / (alpha - beta)
+        for (i in (base + k + 1) until (base + m)) {
+            a[i] *= scale
+        }
+        a[base + k] = beta
+        return (beta - alpha) / beta
+    }
+
+    private fun applyReflector(v: DoubleArray, m: Int, k: Int, tau: Double, c: DoubleArray, j: Int) {
+        if (tau == 0.0) {
+            return
+        }
+        val vb = k * m
+        val cb = j * m
+        var w = c[cb + k]
+        for (i in (k + 1) until m) {
+            w += v[vb + i] * c[cb + i]
+        }
+        w *= tau
+        c[cb + k] -= w
+        for (i in (k + 1) until m) {
+            c[cb + i] -= w * v[vb + i]
+        }
+    }
+
+    /**
+     * Returns the upper triangular `(kb, kb)` matrix `T` in row-major order such that the product of the
+     * reflections `k0, ..., k0 + kb - 1` is `I - V T V^T`.
+     */
+    private fun triangularFactor(a: DoubleArray, m: Int, k0: Int, kb: Int, tau: DoubleArray): DoubleArray {
+        val t = DoubleArray(kb * kb)
+        val z = DoubleArray(kb)
+        for (j in 0 until kb) {
+            val tj = tau[k0 + j]
+            t[j * kb + j] = tj
+            if (tj == 0.0) {
+                continue
+            }
+            val rj = k0 + j
+            val vj = rj * m
+            for (i in 0 until j) {
+                val vi = (k0 + i) * m
+                var s = a[vi + rj]
+                for (r in (rj + 1) until m) {
+                    s += a[vi + r] * a[vj + r]
+                }
+                z[i] = s
+            }
+            for (i in 0 until j) {
+                var s = 0.0
+                for (l in i until j) {
+                    s += t[i * kb + l] * z[l]
+                }
+                t[i * kb + j] = -tj * s
+            }
+        }
+        return t
+    }
+
+    /**
+     * Applies `I - V T V^T` (or its transpose if [trans]) to the columns `c0 until c1` of [c], where `V` contains the
+     * reflections `k0 until k0 + kb` stored in [v].
+     */
+    private fun applyBlock(
+        v: DoubleArray, m: Int, k0: Int, kb: Int, t: DoubleArray,
+        c: DoubleArray, c0: Int, c1: Int, trans: Boolean
+    ) {
+        val nc = c1 - c0
+        val w = DoubleArray(kb * nc)
+        val head = k0 + kb
+        // W = V^T C, the leading rows where V is unit lower triangular
+        for (i in 0 until kb) {
+            val vb = (k0 + i) * m
+            for (cc in 0 until nc) {
+                val cb = (c0 + cc) * m
+                var s = c[cb + k0 + i]
+                for (r in (k0 + i + 1) until head) {
+                    s += v[vb + r] * c[cb + r]
+                }
+                w[i * nc + cc] = s
+            }
+        }
+        var r0 = head
+        while (r0 < m) {
+            val r1 = min(m, r0 + CHUNK)
+            for (cc in 0 until nc) {
+                val cb = (c0 + cc) * m
+                for (i in 0 until kb) {
+                    val vb = (k0 + i) * m
+                    var s = 0.0
+                    for (r in r0 until r1) {
+                        s += v[vb + r] * c[cb + r]
+                    }
+                    w[i * nc + cc] += s
+                }
+            }
+            r0 = r1
+        }
+        // W = T^T W or T W
+        for (cc in 0 until nc) {
+            if (trans) {
+                for (i in (kb - 1) downTo 0) {
+                    var s = 0.0
+                    for (l in 0..i) {
+                        s += t[l * kb + i] * w[l * nc + cc]
+                    }
+                    w[i * nc + cc] = s
+                }
+            } else {
+                for (i in 0 until kb) {
+                    var s = 0.0
+                    for (l in i until kb) {
+                        s += t[i * kb + l] * w[l * nc + cc]
+                    }
+                    w[i * nc + cc] = s
+                }
+            }
+        }
+        // C = C - V W
+        for (cc in 0 until nc) {
+            val cb = (c0 + cc) * m
+            for (i in 0 until kb) {
+                val wi = w[i * nc + cc]
+                if (wi == 0.0) {
+                    continue
+                }
+                val vb = (k0 + i) * m
+                c[cb + k0 + i] -= wi
+                for (r in (k0 + i + 1) until head) {
+                    c[cb + r] -= v[vb + r] * wi
+                }
+            }
+        }
+        r0 = head
+        while (r0 < m) {
+            val r1 = min(m, r0 + CHUNK)
+            for (cc in 0 until nc) {
+                val cb = (c0 + cc) * m
+                for (i in 0 until kb) {
+                    val wi = w[i * nc + cc]
+                    if (wi == 0.0) {
+                        continue
+                    }
+                    val vb = (k0 + i) * m
+                    for (r in r0 until r1) {
+                        c[cb + r] -= v[vb + r] * wi
+                    }
+                }
+            }
+            r0 = r1
+        }
+    }
+
+    /**
+     * Returns the upper triangular `(n, n)` factor stored in the column-major `(m, n)` matrix [a].
+     */
+    fun extractR(a: DoubleArray, m: Int, n: Int): DoubleArray {
+        val r = DoubleArray(n * n)
+        for (j in 0 until n) {
+            for (i in 0..j) {
+                r[j * n + i] = a[j * m + i]
+            }
+        }
+        return r
+    }
+
+    /*
+    Golub-Kahan SVD
+     */
+
+    /**
+     * Computes the singular value decomposition of the column-major `(m, n)` matrix [a] with `m >= n`, destroying
+     * `a`. The singular values are stored in [s] in descending order, the `(m, n)` matrix `U` in [u] and the
+     * `(n, n)` matrix `V` in [v], both column-major, if they are not `null`.
+     *
+     * @throws ArithmeticException if the QR algorithm does not converge
+     */
+    fun golubKahan(a: DoubleArray, m: Int, n: Int, s: DoubleArray, u: DoubleArray?, v: DoubleArray?) {
+        val e = DoubleArray(n)
+        val work = DoubleArray(m)
+        val nct = min(m - 1, n)
+        val nrt = max(0, min(n - 2, m))
+        // reduce A to the bidiagonal form, storing the diagonal in s and the superdiagonal in e
+        for (k in 0 until max(nct, nrt)) {
+            val ak = k * m
+            if (k < nct) {
+                var sk = 0.0
+                for (i in k until m) {
+                    sk = hypot(sk, a[ak + i])
+                }
+                if (sk != 0.0) {
+                    if (a[ak + k] < 0.0) {
+                        sk = -sk
+                    }
+                    for (i in k until m) {
+                        a[ak + i] /= sk
+                    }
+                    a[ak + k] += 1.0
+                }
+                s[k] = -sk
+            }
+            for (j in (k + 1) until n) {
+                val aj = j * m
+                if (k < nct && s[k] != 0.0) {
+                    var t = 0.0
+                    for (i in k until m) {
+                        t += a[ak + i] * a[aj + i]
+                    }
+                    t = -t / a[ak + k]
+                    for (i in k until m) {
+                        a[aj + i] += t * a[ak + i]
+                    }
+                }
+                e[j] = a[aj + k]
+            }
+            if (u != null && k < nct) {
+                System.arraycopy(a, ak + k, u, ak + k, m - k)
+            }
+            if (k < nrt) {
+                var ek = 0.0
+                for (i in (k + 1) until n) {
+                    ek = hypot(ek, e[i])
+                }
+                if (ek != 0.0) {
+                    if (e[k + 1] < 0.0) {
+                        ek = -ek
+                    }
+                    for (i in (k + 1) until n) {
+                        e[i] /= ek
+                    }
+                    e[k + 1] += 1.0
+                }
+                e[k] = -ek
+                if (k + 1 < m && ek != 0.0) {
+                    work.fill(0.0, k + 1, m)
+                    for (j in (k + 1) until n) {
+                        val aj = j * m
+                        val ej = e[j]
+                        for (i in (k + 1) until m) {
+                            work[i] += ej * a[aj + i]
+                        }
+                    }
+                    for (j in (k + 1) until n) {
+                        val aj = j * m
+                        val t = -e[j] / e[k + 1]
+                        for (i in (k + 1) until m) {
+                            a[aj + i] += t * work[i]
+                        }
+                    }
+                }
+                if (v != null) {
+                    for (i in (k + 1) until n) {
+                        v[k * n + i] = e[i]
+                    }
+                }
+            }
+        }
+        // set up the final bidiagonal matrix of order p
+        var p = n
+        if (nct < n) {
+            s[nct] = a[nct * m + nct]
+        }
+        if (m < p) {
+            s[p - 1] = 0.0
+        }
+        if (nrt + 1 < p) {
+            e[nrt] = a[(p - 1) * m + nrt]
+        }
+        e[p - 1] = 0.0
+
+        if (u != null) {
+            generateU(u, m, n, nct, s)
+        }
+        if (v != null) {
+            generateV(v, n, nrt, e)
+        }
+        diagonalize(s, e, p, m, n, u, v)
+    }
+
+    private fun generateU(u: DoubleArray, m: Int, nu: Int, nct: Int, s: DoubleArray) {
+        for (j in nct until nu) {
+            u.fill(0.0, j * m, j * m + m)
+            u[j * m + j] = 1.0
+        }
+        for (k in (nct - 1) downTo 0) {
+            val uk = k * m
+            if (s[k] != 0.0) {
+                for (j in (k + 1) until nu) {
+                    val uj = j * m
+                    var t = 0.0
+                    for (i in k until m) {
+                        t += u[uk + i] * u[uj + i]
+                    }
+                    t = -t / u[uk + k]
+                    for (i in k until m) {
+                        u[uj + i] += t * u[uk + i]
+                    }
+                }
+                for (i in k until m) {
+                    u[uk + i] = -u[uk + i]
+                }
+                u[uk + k] += 1.0
+                u.fill(0.0, uk, uk + k)
+            } else {
+                u.fill(0.0, uk, uk + m)
+                u[uk + k] = 1.0
+            }
+        }
+    }
+
+    private fun generateV(v: DoubleArray, n: Int, nrt: Int, e: DoubleArray) {
+        for (k in (n - 1) downTo 0) {
+            val vk = k * n
+            if (k < nrt && e[k] != 0.0) {
+                for (j in (k + 1) until n) {
+                    val vj = j * n
+                    var t = 0.0
+                    for (i in (k + 1) until n) {
+                        t += v[vk + i] * v[vj + i]
+                    }
+                    t = -t / v[vk + k + 1]
+                    for (i in (k + 1) until n) {
+                        v[vj + i] += t * v[vk + i]
+                    }
+                }
+            }
+            v.fill(0.0, vk, vk + n)
+            v[vk + k] = 1.0
+        }
+    }
+
+    /**
+     * Rotates the columns [j] and [k] of the column-major matrix [x] with leading dimension [ld]:
+     * `(x_j, x_k) = (cs x_j + sn x_k, -sn x_j + cs x_k)`.
+     */
+    private fun rotate(x: DoubleArray, ld: Int, j: Int, k: Int, cs: Double, sn: Double) {
+        val xj = j * ld
+        val xk = k * ld
+        for (i in 0 until ld) {
+            val t = cs * x[xj + i] + sn * x[xk + i]
+            x[xk + i] = -sn * x[xj + i] + cs * x[xk + i]
+            x[xj + i] = t
+        }
+    }
+
+    private fun swapColumns(x: DoubleArray, ld: Int, j: Int, k: Int) {
+        val xj = j * ld
+        val xk = k * ld
+        for (i in 0 until ld) {
+            val t = x[xj + i]
+            x[xj + i] = x[xk + i]
+            x[xk + i] = t
+        }
+    }
+
+    /**
+     * Diagonalizes the bidiagonal matrix with diagonal [s] and superdiagonal [e] by the implicit QR algorithm.
+     */
+    private fun diagonalize(
+        s: DoubleArray, e: DoubleArray, p0: Int, m: Int, n: Int,
+        u: DoubleArray?, v: DoubleArray?
+    ) {
+        var p = p0
+        val pp = p - 1
+        var iter = 0
+        while (p > 0) {
+            // inspect for negligible elements in s and e
+            var k = p - 2
+            while (k >= 0) {
+                if (abs(e[k]) <= TINY + EPS * (abs(s[k]) + abs(s[k + 1]))) {
+                    e[k] = 0.0
+                    break
+                }
+                k--
+            }
+            val kase: Int
+            if (k == p - 2) {
+                kase = 4
+            } else {
+                var ks = p - 1
+                while (ks > k) {
+                    val t = (if (ks != p) abs(e[ks]) else 0.0) + (if (ks != k + 1) abs(e[ks - 1]) else 0.0)
+                    if (abs(s[ks]) <= TINY + EPS * t) {
+                        s[ks] = 0.0
+                        break
+                    }
+                    ks--
+                }
+                if (ks == k) {
+                    kase = 3
+                } else if (ks == p - 1) {
+                    kase = 1
+                } else {
+                    kase = 2
+                    k = ks
+                }
+            }
+            k++
+            when (kase) {
+                1 -> {
+                    // deflate negligible s[p-1]
+                    var f = e[p - 2]
+                    e[p - 2] = 0.0
+                    for (j in (p - 2) downTo k) {
+                        val t = hypot(s[j], f)
+                        val cs = s[j] / t
+                        val sn = f / t
+                        s[j] = t
+                        if (j != k) {
+                            f = -sn * e[j - 1]
+                            e[j - 1] = cs * e[j - 1]
+                        }
+                        if (v != null) {
+                            rotate(v, n, j, p - 1, cs, sn)
+                        }
+                    }
+                }
+                2 -> {
+                    // split at negligible s[k-1]
+                    var f = e[k - 1]
+                    e[k - 1] = 0.0
+                    for (j in k until p) {
+                        val t = hypot(s[j], f)
+                        val cs = s[j] / t
+                        val sn = f / t
+                        s[j] = t
+                        f = -sn * e[j]
+                        e[j] = cs * e[j]
+                        if (u != null) {
+                            rotate(u, m, j, k - 1, cs, sn)
+                        }
+                    }
+                }
+                3 -> {
+                    // one QR step
+                    if (++iter > MAX_ITERATION) {
+                        throw ArithmeticException("The SVD algorithm does not converge.")
+                    }
+                    val scale = max(
+                        max(max(max(abs(s[p - 1]), abs(s[p - 2])), abs(e[p - 2])), abs(s[k])),
+                        abs(e[k])
+                    )
+                    val sp = s[p - 1] / scale
+                    val spm1 = s[p - 2] / scale
+                    val epm1 = e[p - 2] / scale
+                    val sk = s[k] / scale
+                    val ek = e[k] / scale
+                    val b = ((spm1 + sp) * (spm1 - sp) + epm1 * epm1) / 2.0
+                    val c = (sp * epm1) * (sp * epm1)
+                    var shift = 0.0
+                    if (b != 0.0 || c != 0.0) {
+                        shift = sqrt(b * b + c)
+                        if (b < 0.0) {
+                            shift = -shift
+                        }
+                        shift = c / (b + shift)
+                    }
+                    var f = (sk + sp) * (sk - sp) + shift
+                    var g = sk * ek
+                    for (j in k until p - 1) {
+                        var t = hypot(f, g)
+                        var cs = f / t
+                        var sn = g / t
+                        if (j != k) {
+                            e[j - 1] = t
+                        }
+                        f = cs * s[j] + sn * e[j]
+                        e[j] = cs * e[j] - sn * s[j]
+                        g = sn * s[j + 1]
+                        s[j + 1] = cs * s[j + 1]
+                        if (v != null) {
+                            rotate(v, n, j, j + 1, cs, sn)
+                        }
+                        t = hypot(f, g)
+                        cs = f / t
+                        sn = g / t
+                        s[j] = t
+                        f = cs * e[j] + sn * s[j + 1]
+                        s[j + 1] = -sn * e[j] + cs * s[j + 1]
+                        g = sn * e[j + 1]
+                        e[j + 1] = cs * e[j + 1]
+                        if (u != null && j < m - 1) {
+                            rotate(u, m, j, j + 1, cs, sn)
+                        }
+                    }
+                    e[p - 2] = f
+                }
+                else -> {
+                    // convergence, make the singular value positive and order it
+                    if (s[k] <= 0.0) {
+                        s[k] = if (s[k] < 0.0) -s[k] else 0.0
+                        if (v != null) {
+                            val vk = k * n
+                            for (i in 0..pp) {
+                                v[vk + i] = -v[vk + i]
+                            }
+                        }
+                    }
+                    while (k < pp) {
+                        if (s[k] >= s[k + 1]) {
+                            break
+                        }
+                        val t = s[k]
+                        s[k] = s[k + 1]
+                        s[k + 1] = t
+                        if (v != null && k < n - 1) {
+                            swapColumns(v, n, k, k + 1)
+                        }
+                        if (u != null && k < m - 1) {
+                            swapColumns(u, m, k, k + 1)
+                        }
+                        k++
+                    }
+                    iter = 0
+                    p--
+                }
+            }
+        }
+    }
+
+    /*
+    Drivers
+     */
+
+    /**
+     * Determines whether the QR decomposition should be computed before the bidiagonalization of an `(m, n)` matrix.
+     */
+    private fun preferQR(m: Int, n: Int): Boolean {
+        return 3L * m >= 5L * n
+    }
+
+    /**
+     * Computes the singular value decomposition of the column-major `(m, n)` matrix [a] with `m >= n`, destroying
+     * `a`. Returns the singular values, `U` and `V` in column-major order.
+     */
+    private fun svdTall(a: DoubleArray, m: Int, n: Int, mode: SVDMode): Triple<DoubleArray, DoubleArray?, DoubleArray?> {
+        val s = DoubleArray(n)
+        val wantVectors = mode != SVDMode.VALUES
+        val v = if (wantVectors) DoubleArray(n * n) else null
+        val full = mode == SVDMode.FULL && m > n
+        if (!full && !preferQR(m, n)) {
+            val u = if (wantVectors) DoubleArray(m * n) else null
+            golubKahan(a, m, n, s, u, v)
+            return Triple(s, u, v)
+        }
+        val tau = DoubleArray(n)
+        householderQR(a, m, n, tau)
+        val r = extractR(a, m, n)
+        val ur = if (wantVectors) DoubleArray(n * n) else null
+        golubKahan(r, n, n, s, ur, v)
+        if (ur == null) {
+            return Triple(s, null, null)
+        }
+        // U = Q diag(U_R, I)
+        val cols = if (full) m else n
+        val u = DoubleArray(m * cols)
+        for (j in 0 until n) {
+            System.arraycopy(ur, j * n, u, j * m, n)
+        }
+        for (j in n until cols) {
+            u[j * m + j] = 1.0
+        }
+        applyQ(a, m, n, tau, u, cols)
+        return Triple(s, u, v)
+    }
+
+    fun svd(m: GenMatrix<Double>, mode: SVDMode): SVD {
+        val row = m.row
+        val column = m.column
+        if (row >= column) {
+            val a = toColumnMajor(m)
+            val (s, u, v) = svdTall(a, row, column, mode)
+            val uc = if (mode == SVDMode.FULL) row else column
+            return SVD(row, column, s,
+                u?.let { fromColumnMajor(it, row, uc) },
+                v?.let { fromColumnMajor(it, column, column) })
+        }
+        // the column-major form of A^T is the row-major form of A
+        val a = if (m is DMatrix) m.data.clone() else DoubleArray(row * column) { m[it / column, it % column] }
+        val (s, v, u) = svdTall(a, column, row, mode)
+        val vc = if (mode == SVDMode.FULL) column else row
+        return SVD(row, column, s,
+            u?.let { fromColumnMajor(it, row, row) },
+            v?.let { fromColumnMajor(it, column, vc) })
+    }
+
+    fun lstsq(A: GenMatrix<Double>, B: GenMatrix<Double>, rcond: Double): LeastSquaresResult {
+        val m = A.row
+        val n = A.column
+        require(B.row == m) {
+            "Shape mismatch: ($m,$n) X = (${B.row},${B.column})"
+        }
+        if (m < n) {
+            val svd = svd(A, SVDMode.THIN)
+            val tol = if (rcond < 0) svd.defaultTolerance else rcond * svd.norm2()
+            return LeastSquaresResult(svd.solve(B, tol), svd.rank(tol), svd.singularValues)
+        }
+        // A = QR, then solve R X = (Q^T B)[0 until n] with the SVD of R
+        val a = toColumnMajor(A)
+        val tau = DoubleArray(n)
+        householderQR(a, m, n, tau)
+        val nb = B.column
+        val b = toColumnMajor(B)
+        applyQT(a, m, n, tau, b, nb)
+        val c = DoubleArray(n * nb)
+        for (j in 0 until nb) {
+            System.arraycopy(b, j * m, c, j * n, n)
+        }
+        val r = extractR(a, m, n)
+        val s = DoubleArray(n)
+        val ur = DoubleArray(n * n)
+        val vr = DoubleArray(n * n)
+        golubKahan(r, n, n, s, ur, vr)
+        val svd = SVD(n, n, s, fromColumnMajor(ur, n, n), fromColumnMajor(vr, n, n))
+        val tol = if (rcond < 0) max(m, n) * EPS * svd.norm2() else rcond * svd.norm2()
+        val x = svd.solve(fromColumnMajor(c, n, nb), tol)
+        return LeastSquaresResult(x, svd.rank(tol), s)
+    }
+}
@@ -0,0 +1,111 @@
+package test.math.abstractAlgebra
+
+import cn.ancono.math.algebra.abs.module.IntegerLattice
+import cn.ancono.math.algebra.abs.module.LatticeReduction
+import cn.ancono.math.algebra.linear.Matrix
+import cn.ancono.math.algebra.linear.Vector
+import cn.ancono.math.numberModels.Calculators
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.math.BigInteger
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+class LatticeTest {
+    private val mc = Calculators.bigInteger()
+
+    private fun norm2(m: Matrix<BigInteger>, i: Int): BigInteger {
+        var s = BigInteger.ZERO
+        for (j in 0 until m.column) s += m[i, j] * m[i, j]
+        return s
+    }
+
+    private fun assertSameLattice(a: Matrix<BigInteger>, b: Matrix<BigInteger>) {
+        assertEquals(a.row, b.row)
+        val la = IntegerLattice(a)
+        val lb = IntegerLattice(b)
+        assertEquals(la.volumeSquared(), lb.volumeSquared())
+        for (v in b.rowVectors()) {
+            assertTrue(la.set.contains(v))
+        }
+    }
+
+    @Test
+    fun lllReducesRandomBasis() {
+        val rd = Random(41)
+        val n = 30
+        // a unimodular transform of a small basis
+        val small = Matrix(n, n, mc) { i, j -> BigInteger.valueOf(if (i == j) 3L else rd.nextLong(-2, 3)) }
+        var B: Matrix<BigInteger> = small
+        repeat(4) {
+            val U = Matrix(n, n, mc) { i, j ->
+                BigInteger.valueOf(if (i == j) 1L else if (i < j) rd.nextLong(-50, 50) else 0L)
+            }
+            B = (U * B).transpose()
+        }
+        val R = LatticeReduction.lll(B)
+        assertSameLattice(B, R)
+        // the Lovász condition implies |b_0|^2 <= 2^(n-1) lambda_1^2, and in practice much better
+        var maxSmall = BigInteger.ZERO
+        for (i in 0 until n) maxSmall = maxSmall.max(norm2(small, i))
+        assertTrue(norm2(R, 0) <= maxSmall)
+    }
+
+    @Test
+    fun dependentGenerators() {
+        val G = Matrix(3, 3, mc) { i, j ->
+            BigInteger.valueOf(longArrayOf(2, 4, 6, 3, 6, 9, 1, 1, 1)[i * 3 + j])
+        }
+        val L = IntegerLattice.generatedBy(G)
+        assertEquals(2, L.rank)
+        val v = Vector.of(3, mc) { BigInteger.valueOf(longArrayOf(1, 2, 3)[it]) }
+        assertTrue(L.set.contains(v))
+        val coefficients = L.generators.reduce(v)
+        assertTrue(L.generators.produce(coefficients).valueEquals(v))
+        val w = Vector.of(3, mc) { BigInteger.valueOf(longArrayOf(1, 0, 0)[it]) }
+        assertFalse(L.set.contains(w))
+    }
+
+    @Test
+    fun minimalPolynomial() {
+        // sqrt(2) + sqrt(3) is a root of x^4 - 10x^2 + 1
+        val a = sqrt(2.0) + sqrt(3.0)
+        val scale = 1E12
+        val n = 5
+        val B = Matrix(n, n + 1, mc) { i, j ->
+            when {
+                j == i -> BigInteger.ONE
+                j == n -> BigInteger.valueOf(Math.round(Math.pow(a, i.toDouble()) * scale))
+                else -> BigInteger.ZERO
+            }
+        }
+        val R = LatticeReduction.lll(B)
+        val expected = longArrayOf(1, 0, -10, 0, 1)
+        val sign = R[0, 4].signum()
+        for (i in 0 until n) {
+            assertEquals(BigInteger.valueOf(expected[i] * sign), R[0, i])
+        }
+    }
+
+    @Test
+    fun bkzAndLargeEntries() {
+        val rd = Random(42)
+        val n = 20
+        // a knapsack-like lattice with large entries
+        val weights = List(n) { BigInteger(200, java.util.Random(rd.nextLong())) }
+        val B = Matrix(n, n + 1, mc) { i, j ->
+            when {
+                j == i -> BigInteger.ONE
+                j == n -> weights[i]
+                else -> BigInteger.ZERO
+            }
+        }
+        val R = LatticeReduction.lll(B)
+        assertSameLattice(B, R)
+        val K = LatticeReduction.bkz(R, 8)
+        assertSameLattice(B, K)
+        assertTrue(norm2(K, 0) <= norm2(R, 0))
+    }
+}
@@ -1,18 +1,28 @@
 package test.math.linear
 
 import cn.ancono.math.algebra.linear.*
+import cn.ancono.math.numberModels.BigFraction
+import cn.ancono.math.numberModels.BigFractionCalculator
 import cn.ancono.math.numberModels.Calculators
 import cn.ancono.math.numberModels.Fraction
+import cn.ancono.math.numberModels.ParallelKernels
 import cn.ancono.math.numberModels.Tensor
+import cn.ancono.math.numberModels.api.minus
+import cn.ancono.math.numberModels.api.plus
+import cn.ancono.math.numberModels.structure.Polynomial
 import org.junit.Test
+import java.math.BigInteger
 import test.math.TestUtils.assertValueEquals
 import kotlin.random.Random
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 
 /*
  * Created by liyicheng at 2020-03-10 13:36
  */
-@Suppress("LocalVariableName")
+@Suppress("LocalVariableName", "UNCHECKED_CAST")
 class MatrixTest {
 
     @Test
@@ -160,4 +170,451 @@ class MatrixTest {
         }
         assertValueEquals(Tensor.fromMatrix(A hadamard B), Tensor.fromMatrix(A) * Tensor.fromMatrix(B))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun doubleMatrix() {
+        val mc = Calculators.doubleDev()
+        val n = 6
+        val A = Matrix(n, n, mc) { _, _ ->
+            Random.nextDouble()
+        }
+        val B = Matrix(n, n, mc) { _, _ ->
+            Random.nextDouble()
+        }
+        assertTrue(A is DMatrix)
+        val A1 = AMatrix.copyOf(A, mc)
+        val B1 = AMatrix.copyOf(B, mc)
+        assertValueEquals(A1 * B1, A * B)
+        assertValueEquals(A1.add(B1), A.add(B))
+        assertValueEquals(A1.T, A.T)
+        assertEquals(MatrixImpl.det(A1), A.det(), 0.0001)
+        assertValueEquals(Matrix.identity(n, mc), A * A.inverse())
+    }
+
+    @Test
+    fun multiplyBlocked() {
+        val mc = Calculators.longCal()
+        val n = 70
+        val A = Matrix(n, n + 3, mc) { i, j -> (i * 7L + j * 3L) % 11 - 5 }
+        val B = Matrix(n + 3, n - 2, mc) { i, j -> (i * 5L + j) % 13 - 6 }
+        val C = A * B
+        for (i in 0 until n) {
+            for (j in 0 until n - 2) {
+                var t = 0L
+                for (k in 0 until n + 3) {
+                    t += A[i, k] * B[k, j]
+                }
+                assertEquals(t, C[i, j])
+            }
+        }
+        val D = Matrix(n, n, Calculators.doubleDev()) { i, j -> (i - j) / 3.0 }
+        assertValueEquals(D * D.T, D * Matrix.copyOf(D.T))
+    }
+
+    @Test
+    fun productChain() {
+        val mc = Fraction.calculator
+        val mats = listOf(
+            Matrix(10, 30, mc) { i, j -> Fraction.of(i + j + 1L) },
+            Matrix(30, 5, mc) { i, j -> Fraction.of(i - j + 0L) },
+            Matrix(5, 60, mc) { i, j -> Fraction.of(i * j + 1L) }
+        )
+        assertValueEquals(mats[0] * mats[1] * mats[2], Matrix.product(mats))
+    }
+
+    @Test
+    fun multiplyStrassen() {
+        val mc = Fraction.calculator
+        val (n, m, p) = Triple(13, 11, 9)
+        val A = Matrix(n, m, mc) { i, j -> Fraction.of(i * 3L - j, j + 1L) }
+        val B = Matrix(m, p, mc) { i, j -> Fraction.of(i + 2L * j - 7, i + 2L) }
+        val data = MatrixKernels.multiplyStrassen(
+            MatrixKernels.flatten(A), MatrixKernels.flatten(B),
+            n, m, p, mc, 2
+        )
+        assertValueEquals(A * B, AMatrix(mc, n, p, data))
+        assertTrue(MatrixKernels.strassenApplicable(mc))
+        assertTrue(MatrixKernels.strassenApplicable(Calculators.bigInteger()))
+        assertTrue(!MatrixKernels.strassenApplicable(Calculators.longCal()))
+        assertTrue(!MatrixKernels.strassenApplicable(Calculators.integer()))
+    }
+
+    @Test
+    fun multiModular() {
+        val random = Random(7)
+        val mc = Calculators.bigInteger()
+        val n = 12
+        val A = Matrix(n, n, mc) { _, _ -> BigInteger.valueOf(random.nextLong(-1000, 1000)) }
+        val B = Matrix(n, 4, mc) { _, _ -> BigInteger.valueOf(random.nextLong(-50, 50)) }
+        val singular = B * B.transpose()
+        val F = Matrix(n, n, Fraction.calculator) { _, _ ->
+            Fraction.of(random.nextLong(-20, 20), random.nextLong(1, 5))
+        }
+        val threshold = MultiModular.threshold
+        MultiModular.threshold = Int.MAX_VALUE
+        val expected = listOf(A.det(), A.charPoly(), A.adjoint(), singular.adjoint())
+        val expectedF = listOf(F.det(), F.charPoly(), F.adjoint())
+        MultiModular.threshold = threshold
+        assertEquals(expected[0], A.det())
+        assertTrue(A.charPoly().valueEquals(expected[1] as Polynomial<BigInteger>))
+        assertValueEquals(expected[2] as Matrix<BigInteger>, A.adjoint())
+        assertEquals(n, A.rank())
+        assertEquals(4, singular.rank())
+        assertValueEquals(expected[3] as Matrix<BigInteger>, singular.adjoint())
+        assertEquals(expectedF[0], F.det())
+        assertTrue(F.charPoly().valueEquals(expectedF[1] as Polynomial<Fraction>))
+        assertValueEquals(expectedF[2] as Matrix<Fraction>, F.adjoint())
+    }
+
+    @Test
+    fun dixonSolver() {
+        val random = Random(11)
+        val mc = BigFractionCalculator
+        val n = 15
+        val A = Matrix(n, n, mc) { _, _ -> BigFraction.valueOf(random.nextLong(-30, 30).toBigInteger(), random.nextLong(1, 4).toBigInteger()) }
+        val B = Matrix(n, 3, mc) { _, _ -> BigFraction.valueOf(random.nextLong(-30, 30).toBigInteger(), random.nextLong(1, 4).toBigInteger()) }
+        val solutions = DixonSolver.solveAll(A, B)
+        for (j in 0 until B.column) {
+            assertTrue(solutions[j].isSingle())
+            assertValueEquals(B.getColumn(j), A * solutions[j].special)
+        }
+        val threshold = DixonSolver.threshold
+        DixonSolver.threshold = Int.MAX_VALUE
+        val expected = Matrix.solveLinear(A, B.getColumn(1))
+        DixonSolver.threshold = threshold
+        assertValueEquals(expected.special, Matrix.solveLinear(A, B.getColumn(1)).special)
+
+        val singular = Matrix(n, n, mc) { i, j -> BigFraction.valueOf((i * j + 1L).toBigInteger(), (j + 1L).toBigInteger()) }
+        val b = singular.getColumn(2)
+        val solution = Matrix.solveLinear(singular, b)
+        assertTrue(solution.isInfinite())
+        assertValueEquals(b, singular * solution.special)
+    }
+
+    @Test
+    fun gf2Matrix() {
+        val random = Random(5)
+        val mc = Calculators.intMod2()
+        val B = Matrix(130, 40, mc) { _, _ -> random.nextInt(2) }
+        val C = Matrix(40, 150, mc) { _, _ -> random.nextInt(2) }
+        val product = GF2Matrix.of(B).multiply(GF2Matrix.of(C))
+        val A = B * C
+        assertEquals(GF2Matrix.of(A), product)
+        assertValueEquals(A, product.toMatrix())
+        assertEquals(product, product.transpose().transpose())
+
+        val rank = A.rank()
+        assertTrue(rank <= 40)
+        assertEquals(rank, GF2Matrix.of(A.transpose()).rank())
+        val kernel = A.kernel()
+        assertEquals(A.column - rank, kernel.rank)
+        for (v in kernel.vectors) {
+            assertTrue((A * v).isZero())
+        }
+
+        val x0 = GF2Matrix.of(150, 2) { _, _ -> random.nextInt(2) }
+        val b = product.multiply(x0)
+        val x = product.solve(b)!!
+        assertEquals(b, product.multiply(x))
+        val full = GF2Matrix.identity(70)
+        full[3, 5] = 1
+        val y = BooleanArray(70) { it % 3 == 0 }
+        assertTrue(full.multiply(full.solve(y)!!).contentEquals(y))
+        val zero = GF2Matrix(2, 2)
+        assertEquals(null, zero.solve(booleanArrayOf(true, false)))
+    }
+
+    @Test
+    fun modPMatrix() {
+        val random = Random(13)
+        val p = 1000003
+        val mc = Calculators.intModP(p)
+        val n = 30
+        val A = Matrix(n, n, mc) { _, _ -> random.nextInt(p) }
+        val B = Matrix(n, 20, mc) { _, _ -> random.nextInt(p) }
+        assertTrue(A is ModPMatrix)
+        val A0 = AMatrix.copyOf(A, mc)
+        val expected = Matrix(n, 20, mc) { i, j ->
+            (0 until n).fold(0) { acc, k -> mc.add(acc, mc.multiply(A[i, k], B[k, j])) }
+        }
+        assertValueEquals(expected, A * B)
+        assertEquals(A0.det(), A.det())
+        assertTrue(A0.charPoly().valueEquals(A.charPoly()))
+        assertTrue((A * A.inverse()).valueEquals(Matrix.identity(n, mc)))
+
+        // rank 12 with a kernel of dimension 18
+        val C = Matrix(n, 12, mc) { _, _ -> random.nextInt(p) } * Matrix(12, n, mc) { _, _ -> random.nextInt(p) }
+        val C0 = AMatrix.copyOf(C, mc)
+        assertEquals(12, C.rank())
+        assertEquals(0, C.det())
+        assertValueEquals(C0.toEchelon(), C.toEchelon())
+        val kernel = C.kernel()
+        val kernel0 = C0.kernel()
+        assertEquals(kernel0.rank, kernel.rank)
+        for (k in kernel.vectors.indices) {
+            assertValueEquals(kernel0.vectors[k], kernel.vectors[k])
+        }
+        val solution = Matrix.solveLinear(C, C.getColumn(3))
+        assertValueEquals(C.getColumn(3), C * solution.special)
+    }
+
+    @Test
+    fun lazyMatrix() {
+        val random = Random(17)
+        val mc = Fraction.calculator
+        val k = Fraction.of(3)
+        val A = Matrix(6, 4, mc) { _, _ -> Fraction.of(random.nextLong(-5, 5)) }
+        val B = Matrix(4, 5, mc) { _, _ -> Fraction.of(random.nextLong(-5, 5)) }
+        val C = Matrix(6, 5, mc) { _, _ -> Fraction.of(random.nextLong(-5, 5)) }
+        val D = Matrix(6, 5, mc) { _, _ -> Fraction.of(random.nextLong(-5, 5)) }
+        val expected = (A * B).add(C.multiply(k)).subtract(D)
+
+        val lazy = (A * B).lazy() + C * k - D
+        assertTrue(lazy is LazyMatrix)
+        assertValueEquals(expected, lazy.eval())
+        assertValueEquals(expected, Matrix.lazy { A * B + k * C - D })
+        assertValueEquals(expected.transpose(), Matrix.lazy { (A * B + k * C - D).transpose() })
+        assertValueEquals(C.hadamard(D).subMatrix(1, 1, 4, 3), (C.lazy() hadamard D).subMatrix(1, 1, 4, 3))
+        assertValueEquals(expected * expected.transpose(), lazy * lazy.transpose())
+
+        val K = A kroneckerView B
+        assertTrue(K is KroneckerMatrixView)
+        assertValueEquals(A kronecker B, K)
+        for (i in 0 until K.row) {
+            for (j in 0 until K.column) {
+                assertEquals(A[i / B.row, j / B.column].multiply(B[i % B.row, j % B.column]), K[i, j])
+            }
+        }
+    }
+
+    @Test
+    fun destinationPassing() {
+        val random = Random(19)
+        val mc = Calculators.doubleDev()
+        val n = 12
+        val A = Matrix(n, n, mc) { _, _ -> random.nextDouble(-1.0, 1.0) }
+        val B = Matrix(n, 3, mc) { _, _ -> random.nextDouble(-1.0, 1.0) }
+        val dest = Matrix.zero(n, 3, mc)
+        Matrix.multiplyInto(A, B, dest)
+        assertValueEquals(A * B, dest)
+        val t = Matrix.zero(3, n, mc)
+        Matrix.transposeInto(B, t)
+        assertValueEquals(B.transpose(), t)
+        Matrix.addScaledInto(dest, 2.0, B)
+        assertValueEquals((A * B).add(B.multiply(2.0)), dest)
+
+        val workspace = MatrixWorkspace(mc, n)
+        for (round in 0 until 2) {
+            val M = Matrix(n, n, mc) { _, _ -> random.nextDouble(-1.0, 1.0) }
+            Matrix.solveInto(M, B, dest, workspace)
+            assertValueEquals(B, M * dest)
+            val inv = Matrix.zero(n, n, mc)
+            M.inverseInto(inv, workspace)
+            assertValueEquals(Matrix.identity(n, mc), M * inv)
+            val (P, L, U) = M.decompPLU(workspace)
+            assertValueEquals(P * M, L * U)
+            val (Q, R) = M.decompQR(workspace)
+            assertValueEquals(M, Q * R)
+            assertValueEquals(Matrix.identity(n, mc), Q.transpose() * Q)
+        }
+
+        val fc = Fraction.calculator
+        val F = Matrix(5, 5, fc) { i, j -> Fraction.of(random.nextLong(-9, 9) + if (i == j) 20 else 0) }
+        val G = Matrix(5, 2, fc) { _, _ -> Fraction.of(random.nextLong(-9, 9)) }
+        val X = Matrix.zero(5, 2, fc)
+        Matrix.solveInto(F, G, X)
+        assertValueEquals(G, F * X)
+        val H = Matrix.zero(5, 2, fc)
+        Matrix.multiplyInto(F, X, H)
+        assertValueEquals(G, H)
+    }
+
+    @Test
+    fun integerGcdUV() {
+        val random = Random(7)
+        repeat(1000) {
+            val a = BigInteger.valueOf(random.nextLong(-1000, 1000))
+            val b = BigInteger.valueOf(random.nextLong(-1000, 1000))
+            val (g, u, v) = IntegerNormalForms.gcdUV(a, b)
+            assertEquals(a.gcd(b), g)
+            assertEquals(g, u * a + v * b)
+        }
+    }
+
+    @Test
+    fun integerNormalForms() {
+        val random = Random(13)
+        val mc = Calculators.bigInteger()
+        fun unimodular(n: Int): Matrix<BigInteger> {
+            val L = Matrix(n, n, mc) { i, j -> BigInteger.valueOf(if (i == j) 1L else if (i > j) random.nextLong(-3, 4) else 0L) }
+            val U = Matrix(n, n, mc) { i, j -> BigInteger.valueOf(if (i == j) 1L else if (i < j) random.nextLong(-3, 4) else 0L) }
+            return L * U
+        }
+
+        val n = 12
+        val A = Matrix(n, n, mc) { _, _ -> BigInteger.valueOf(random.nextLong(-50, 50)) }
+        val tall = Matrix(n + 3, n - 2, mc) { _, _ -> BigInteger.valueOf(random.nextLong(-50, 50)) }
+        for (M in listOf(A, tall)) {
+            val expected = M.toMutable()
+            MatrixUtils.toHermitForm0(expected)
+            assertValueEquals(expected, IntegerNormalForms.hermiteForm(M))
+        }
+        val (H, U) = IntegerNormalForms.hermiteFormU(A)
+        assertValueEquals(H, U * A)
+        assertEquals(BigInteger.ONE, U.det().abs())
+
+        val diagonal = listOf(1L, 1L, 2L, 6L, 12L, 0L, 0L).map { BigInteger.valueOf(it) }
+        val P = unimodular(diagonal.size)
+        val Q = unimodular(diagonal.size)
+        val B = P * Matrix.diag(diagonal, mc) * Q
+        assertEquals(diagonal.subList(0, 5), IntegerNormalForms.invariantFactors(B))
+        assertValueEquals(Matrix.diag(diagonal, mc), IntegerNormalForms.smithForm(B))
+        val (S, P1, Q1) = IntegerNormalForms.smithFormUV(B)
+        assertValueEquals(Matrix.diag(diagonal, mc), S)
+        assertValueEquals(S, P1 * B * Q1)
+        // rank-deficient products, whose pivots may be negative
+        val rd = java.util.Random(5)
+        repeat(10) {
+            val D = Matrix(20, 3, mc) { _, _ -> BigInteger.valueOf(rd.nextInt(7) - 3L) } *
+                    Matrix(3, 20, mc) { _, _ -> BigInteger.valueOf(rd.nextInt(7) - 3L) }
+            val (S2, P2, Q2) = IntegerNormalForms.smithFormUV(D)
+            assertValueEquals(IntegerNormalForms.smithForm(D), S2)
+            assertValueEquals(S2, P2 * D * Q2)
+        }
+
+        val large = Matrix(50, 50, mc) { _, _ -> BigInteger.valueOf(random.nextLong(-1000, 1000)) }
+        val factors = IntegerNormalForms.invariantFactors(large)
+        assertEquals(large.det().abs(), factors.fold(BigInteger.ONE, BigInteger::multiply))
+        for (i in 1 until factors.size) {
+            assertEquals(BigInteger.ZERO, factors[i].mod(factors[i - 1]))
+        }
+        val h = large.toHermitForm()
+        for (i in 0 until 50) {
+            assertTrue(h[i, i].signum() > 0)
+            for (k in 0 until i) {
+                assertEquals(BigInteger.ZERO, h[i, k])
+                assertTrue(h[k, i].signum() >= 0 && h[k, i] < h[i, i])
+            }
+        }
+    }
+
+    @Test
+    fun cachedDerivedQuantities() {
+        val random = Random(17)
+        val mc = Fraction.calculator
+        val n = 6
+        val A = Matrix.copyOf(Matrix(n, n, mc) { i, j -> Fraction.of(if (i == j) 50L else random.nextLong(-9, 9)) })
+        val B = Matrix.copyOf(A)
+        A.enableCache()
+        assertTrue(A.isCacheEnabled)
+        assertEquals(B.det(), A.det())
+        assertTrue(A.kernel() === A.kernel())
+        assertValueEquals(B.inverse(), A.inverse())
+        assertTrue(A.charPoly().valueEquals(B.charPoly()))
+
+        val C = Matrix.copyOf(A).enableCache()
+        C.decompPLU()
+        assertEquals(B.det(), C.det())
+        assertEquals(n, C.rank())
+
+        val D = Matrix.copyOf(A).enableCache()
+        assertValueEquals(B.toEchelon(), D.toEchelon())
+        assertEquals(B.det(), D.det())
+        assertValueEquals(B.inverse(), D.inverse())
+
+        A[0, 0] = A[0, 0] + Fraction.ONE
+        B[0, 0] = B[0, 0] + Fraction.ONE
+        assertEquals(B.det(), A.det())
+        A.multiplyAddRow(0, 1, Fraction.ONE)
+        A.swapRow(0, 1)
+        assertEquals(B.det().negate(), A.det())
+        for (j in 0 until n) {
+            A[1, j] = A[0, j]
+        }
+        assertEquals(n - 1, A.rank())
+        assertEquals(1, A.kernel().rank)
+
+        assertFailsWith<UnsupportedOperationException> { A.transpose().enableCache() }
+        assertFailsWith<UnsupportedOperationException> { A.subMatrix(0, 0, 2, 2).enableCache() }
+    }
+
+    @Test
+    fun mappedMatrix() {
+        val random = Random(19)
+        val dir = java.nio.file.Files.createTempDirectory("mapped")
+        val mc = Calculators.doubleCal()
+        val n = 11
+        val A = Matrix(n, n, mc) { i, j -> if (i == j) 10.0 else random.nextDouble(-1.0, 1.0) }
+        val B = Matrix(n, 7, mc) { _, _ -> random.nextDouble(-1.0, 1.0) }
+        for (layout in MappedMatrix.Layout.values()) {
+            MappedMatrix.copyOfDouble(A, dir.resolve("a-$layout"), 4, layout).use { MA ->
+                assertValueEquals(A, Matrix.copyOf(MA))
+                MappedMatrix.copyOfDouble(B, dir.resolve("b-$layout"), 4).use { MB ->
+                    MA.multiply(MB, dir.resolve("ab-$layout")).use { C ->
+                        val expected = A * B
+                        for (i in 0 until n) {
+                            for (j in 0 until 7) {
+                                assertEquals(expected[i, j], C[i, j], 1E-10)
+                            }
+                        }
+                    }
+                    val P = MA.multiply(MB) as MappedMatrix
+                    assertEquals(A.multiply(B)[2, 3], P[2, 3], 1E-10)
+                    P.close()
+                    assertFalse(java.nio.file.Files.exists(P.path))
+                    MB.transposeTo(dir.resolve("bt-$layout"), MappedMatrix.Layout.COLUMN_MAJOR).use { BT ->
+                        assertValueEquals(B.transpose(), Matrix.copyOf(BT))
+                    }
+                }
+                val lu = MA.factorLU(dir.resolve("lu-$layout"))
+                assertEquals(A.det(), lu.det(), 1E-8)
+                val b = DoubleArray(n) { random.nextDouble() }
+                val x = lu.solve(b)
+                for (i in 0 until n) {
+                    assertEquals(b[i], (0 until n).sumOf { A[i, it] * x[it] }, 1E-10)
+                }
+                lu.factors.close()
+            }
+        }
+        MappedMatrix.createLong(dir.resolve("l"), 5, 6, 4).use { L ->
+            L[4, 5] = 7L
+            L[0, 1] = -3L
+        }
+        MappedMatrix.openLong(dir.resolve("l")).use { L ->
+            assertEquals(7L, L[4, 5])
+            assertEquals(-3L, L[0, 1])
+            assertEquals(0L, L[2, 2])
+        }
+    }
+
+    @Test
+    fun parallelElementWise() {
+        val mc = Fraction.calculator
+        val A = Matrix(37, 29, mc) { i, j -> Fraction.of(i * 5L - j, j + 1L) }
+        val B = Matrix(37, 29, mc) { i, j -> Fraction.of(i + 3L * j - 4, i + 2L) }
+        val D = Matrix(37, 29, Calculators.doubleDev()) { i, j -> i * 0.5 - j }
+        assertTrue(D is DMatrix)
+        fun compute(): List<Any> = listOf(
+            A.add(B), A.subtract(B), A.hadamard(B), A.applyAll { it * it }, A.sum(),
+            D.add(D), D.negate(), D.sum()
+        )
+
+        val threshold = ParallelKernels.parallelThreshold
+        try {
+            ParallelKernels.parallelThreshold = Long.MAX_VALUE
+            val expected = compute()
+            ParallelKernels.parallelThreshold = 1L
+            val actual = compute()
+            for ((e, r) in expected.zip(actual)) {
+                if (e is Matrix<*>) {
+                    @Suppress("UNCHECKED_CAST")
+                    assertValueEquals(e as Matrix<Any>, r as Matrix<Any>)
+                } else {
+                    assertEquals(e, r)
+                }
+            }
+        } finally {
+            ParallelKernels.parallelThreshold = threshold
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package test.math.linear
+
+import cn.ancono.math.algebra.linear.*
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numberModels.Fraction
+import org.junit.Test
+import test.math.TestUtils.assertValueEquals
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class SparseMatrixTest {
+
+    private fun randomSparse(n: Int, m: Int, count: Int, random: Random): SparseMatrix.Builder<Fraction> {
+        val builder = SparseMatrix.builder(n, m, Fraction.calculator)
+        repeat(count) {
+            builder.add(random.nextInt(n), random.nextInt(m), Fraction.of(random.nextLong(-5, 5), random.nextLong(1, 3)))
+        }
+        return builder
+    }
+
+    @Test
+    fun buildAndConvert() {
+        val mc = Calculators.integer()
+        val builder = SparseMatrix.builder(3, 4, mc)
+        builder.add(0, 1, 2).add(2, 3, 5).add(0, 1, 3).add(1, 0, 1).add(1, 0, -1)
+        val csr = builder.toCSR()
+        val csc = builder.toCSC()
+        assertEquals(2, csr.nnz)
+        val dense = Matrix.of(3, 4, mc, 0, 5, 0, 0, 0, 0, 0, 0, 0, 0, 0, 5)
+        assertValueEquals(dense, csr)
+        assertValueEquals(dense, csc)
+        assertValueEquals(dense, csr.toDense())
+        assertValueEquals(dense, csc.toCSR())
+        assertValueEquals(dense, SparseMatrix.fromDense(dense).toCSC())
+        assertValueEquals(dense.transpose(), csr.transpose())
+        assertValueEquals(dense.subMatrix(1, 0, 3, 4), csr.rows(1, 3))
+        assertValueEquals(dense.subMatrix(1, 0, 3, 4), csc.rows(1, 3))
+    }
+
+    @Test
+    fun multiply() {
+        val random = Random(3)
+        val x = randomSparse(20, 15, 40, random)
+        val y = randomSparse(15, 12, 30, random)
+        val A = x.toCSR()
+        val B = y.toCSC()
+        val dA = A.toDense()
+        val dB = B.toDense()
+        val expected = dA * dB
+        val sparse = A * B
+        assertTrue(sparse is SparseMatrix)
+        assertValueEquals(expected, sparse)
+        assertValueEquals(expected, A * dB)
+        assertValueEquals(expected, x.toCSC() * dB)
+        val v = Vector.of(15, Fraction.calculator) { Fraction.of(it - 7L) }
+        assertValueEquals(dA * v, A * v)
+        assertValueEquals(dA * v, x.toCSC() * v)
+        assertValueEquals(dA.add(dA), A.add(x.toCSC()))
+        assertTrue(A.subtract(A).isZero())
+        assertValueEquals(dA.negate(), A.negate())
+        assertEquals(dA.subMatrix(0, 0, 15, 15).det(), A.subMatrix(0, 0, 15, 15).det())
+    }
+
+    @Test
+    fun blackBoxSolver() {
+        val random = Random(5)
+        val p = 10007
+        val mc = Calculators.intModP(p)
+        val n = 60
+        val builder = SparseMatrix.builder(n, n, mc)
+        for (i in 0 until n) {
+            builder.add(i, i, random.nextInt(1, p))
+            repeat(3) { builder.add(i, random.nextInt(n), random.nextInt(p)) }
+        }
+        val A = builder.toCSR()
+        val b = Vector.of(n, mc) { random.nextInt(p) }
+        val x = BlackBoxSolver.solve(A, b, random)!!
+        assertValueEquals(b, A * x)
+
+        val singular = SparseMatrix.builder(n, n, mc)
+        for (i in 0 until n - 5) {
+            singular.add(i, i, random.nextInt(1, p))
+            repeat(3) { singular.add(i, random.nextInt(n), random.nextInt(p)) }
+        }
+        val S = singular.toCSC()
+        val rank = S.toDense().rank()
+        val kernel = BlackBoxSolver.kernel(S, random)
+        assertEquals(n - rank, kernel.rank)
+        assertEquals(rank, BlackBoxSolver.rank(S, random))
+        for (v in kernel.elements) {
+            assertTrue((S * v).isZero())
+        }
+
+        // the eigenvalue 0 has Jordan blocks of size 3 and 1
+        val nilpotent = SparseMatrix.builder(n, n, mc)
+        for (i in 0 until n) {
+            when (i % 5) {
+                0, 1 -> nilpotent.add(i, i + 1, random.nextInt(1, p))
+                4 -> nilpotent.add(i, i, random.nextInt(1, p))
+            }
+        }
+        val N = nilpotent.toCSR()
+        val nilpotentKernel = BlackBoxSolver.kernel(N, random)
+        assertEquals(n - N.toDense().rank(), nilpotentKernel.rank)
+        assertEquals(36, BlackBoxSolver.rank(N, random))
+        for (v in nilpotentKernel.elements) {
+            assertTrue((N * v).isZero())
+        }
+        val J = SparseMatrix.builder(4, 4, mc)
+        J.add(0, 1, 1)
+        J.add(3, 3, 5)
+        assertEquals(2, BlackBoxSolver.rank(J.toCSR(), random))
+        assertEquals(2, BlackBoxSolver.kernel(J.toCSR(), random).rank)
+
+        val symmetric = A.add(A.transpose())
+        val y = BlackBoxSolver.solveLanczosSymmetric(BlackBoxSolver.matVecOf(symmetric), IntArray(n) { b[it] }, p)!!
+        assertValueEquals(b, symmetric * Vector.of(n, mc) { y[it] })
+    }
+}
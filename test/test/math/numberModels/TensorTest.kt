@@ -2,6 +2,7 @@ package test.math.numberModels
 
 import cn.ancono.math.numberModels.*
 import cn.ancono.math.numberModels.api.minus
+import cn.ancono.utilities.IterUtils
 import org.junit.Assert.*
 import org.junit.Test
 import test.math.TestUtils.assertValueEquals
@@ -155,6 +156,227 @@ class TensorTest {
         assertValueEquals(r1, r2)
     }
 
+    @Test
+    fun testEinsumPlanner() {
+        val mc = Calculators.integer()
+        val rd = Random(11)
+        val a = Tensor.of(intArrayOf(3, 4), mc) { rd.nextInt(-5, 5) }
+        val b = Tensor.of(intArrayOf(4, 5), mc) { rd.nextInt(-5, 5) }
+        val c = Tensor.of(intArrayOf(5, 2), mc) { rd.nextInt(-5, 5) }
+        val d = Tensor.of(intArrayOf(2, 3), mc) { rd.nextInt(-5, 5) }
+        assertValueEquals(a.matmul(b).matmul(c), Tensor.einsum("ij,jk,kl->il", a, b, c))
+        assertValueEquals(a.matmul(b).matmul(c).matmul(d).transpose(), Tensor.einsum("ij,jk,kl,lm->mi", a, b, c, d))
+        // trace of the product
+        val abcd = a.matmul(b).matmul(c).matmul(d)
+        assertEquals((0 until 3).sumOf { abcd[it, it] }, Tensor.einsum("ij,jk,kl,li", a, b, c, d)[0])
+
+        val x = Tensor.of(intArrayOf(2, 3, 4), mc) { rd.nextInt(-5, 5) }
+        val y = Tensor.of(intArrayOf(2, 4, 4), mc) { rd.nextInt(-5, 5) }
+        val v = Tensor.of(intArrayOf(4), mc) { rd.nextInt(-5, 5) }
+        val expected = Tensor.of(intArrayOf(2, 3), mc) { (p, i) ->
+            var s = 0
+            for (j in 0 until 4) {
+                for (k in 0 until 4) {
+                    s += x[p, i, j] * y[p, j, k] * v[k] * y[p, k, k]
+                }
+            }
+            s
+        }
+        for (strategy in EinsumPlanner.Strategy.values()) {
+            val plan = EinsumPlanner.plan("pij,pjk,k,pkk->pi", listOf(x.shape, y.shape, v.shape, y.shape), strategy)
+            assertEquals(3, plan.steps.size)
+            assertValueEquals(expected, EinsumPlanner.evaluate(plan, listOf(x, y, v, y)))
+        }
+        val greedy = EinsumPlanner.plan("ij,jk,kl,lm->im", listOf(a.shape, b.shape, c.shape, d.shape),
+                EinsumPlanner.Strategy.GREEDY)
+        val optimal = EinsumPlanner.plan("ij,jk,kl,lm->im", listOf(a.shape, b.shape, c.shape, d.shape),
+                EinsumPlanner.Strategy.OPTIMAL)
+        assertTrue(optimal.cost <= greedy.cost)
+    }
+
+    @Test
+    fun testIndexCursor() {
+        val shape = intArrayOf(2, 3, 4)
+        val expected = IterUtils.prodIdx(shape).map { it.toList() }.toList()
+        assertEquals(expected, IndexCursor.indices(shape).map { it.toList() }.toList())
+        val c = IndexCursor(shape, intArrayOf(1, 2, 6))
+        c.forEachIndexed { pos, idx ->
+            assertEquals(expected[pos], idx.toList())
+            assertEquals(idx[0] + 2 * idx[1] + 6 * idx[2], c.offsets[0])
+        }
+
+        val mc = Calculators.integer()
+        val a = Tensor.of(shape, mc) { (i, j, k) -> i * 12 + j * 4 + k }
+        val b = a.permute(2, 0, 1).slice(1..3, null, 2 downTo 0 step 2)
+        assertValueEquals(Tensor.of(intArrayOf(3, 2, 2), mc) { (k, i, j) -> a[i, 2 - 2 * j, k + 1] },
+                b.add(Tensor.zeros(mc, 3, 2, 2)))
+        assertValueEquals(Tensor.of(intArrayOf(3), mc) { (k) ->
+            (0 until 2).sumOf { i -> (0 until 2).sumOf { j -> a[i, 2 - 2 * j, k + 1] } }
+        }, b.sum(1, 2))
+        assertValueEquals(Tensor.of(intArrayOf(2, 3), mc) { (i, j) -> 2 * a[i, j, j] },
+                a.diagonal().add(a.diagonal()))
+        val v = Tensor.of(intArrayOf(4), mc) { (k) -> k }
+        assertValueEquals(Tensor.of(shape, mc) { (i, j, k) -> a[i, j, k] * k }, a.multiply(v))
+    }
+
+    @Test
+    fun testStridedTensor() {
+        val mc = Calculators.longCal()
+        val rd = Random(12)
+        val a = Tensor.of(intArrayOf(2, 3, 4), mc) { rd.nextLong(-5, 5) }
+        val b = Tensor.of(intArrayOf(3, 1), mc) { rd.nextLong(-5, 5) }
+        val c = Tensor.of(intArrayOf(4, 2), mc) { rd.nextLong(-5, 5) }
+        val x = LongTensor.copyOf(a)
+        val y = LongTensor.copyOf(b)
+        assertValueEquals(a, x)
+        assertValueEquals(a.slice(1, 2 downTo 0, 0..3 step 2), x.slice(1, 2 downTo 0, 0..3 step 2))
+        assertValueEquals(a.permute(2, 0, 1), x.permute(2, 0, 1))
+        assertValueEquals(a.transpose().newAxisAt(1), x.transpose().newAxisAt(1))
+        assertValueEquals(a.diagonal(1), x.diagonal(1))
+        assertValueEquals(a.transpose().reshape(4, 6), x.transpose().reshape(4, 6))
+        assertValueEquals(a.slice(null, 1).reshape(8), x.slice(null, 1).reshape(8))
+        assertValueEquals(a.add(b.newAxisAt(0)), x.add(y.newAxisAt(0)))
+        assertValueEquals(a.multiply(b), x.multiply(y))
+        assertValueEquals(a.sum(0, 2), x.sum(0, 2))
+        assertValueEquals(a.sum(-1), x.permute(1, 2, 0).sum(1).transpose())
+        assertEquals(a.sumAll(), x.sumAll())
+        assertValueEquals(a.matmul(c), x.matmul(c))
+        assertValueEquals(a.permute(2, 0, 1).matmul(a, 2), x.permute(2, 0, 1).matmul(x, 2))
+
+        // views share the buffer
+        val v = x.permute(2, 1, 0).slice(null, 1)
+        v[3, 1] = 100L
+        assertEquals(100L, x[1, 1, 3])
+        assertTrue(x.slice(0).reshape(12).strides.contentEquals(intArrayOf(1)))
+        x.slice(null, null, 0).setAll(y.reshape(3))
+        assertEquals(y[2, 0], x[1, 2, 0])
+
+        val d = DoubleTensor.of(intArrayOf(2, 2), doubleArrayOf(1.0, 2.0, 3.0, 4.0))
+        val e = d.transpose().divide(d)
+        assertEquals(1.5, e[0, 1], 0.0)
+        assertEquals(5.0, d.diagonal().sumAll(), 0.0)
+    }
+
+    @Test
+    fun testParallelKernels() {
+        val mc = Calculators.longCal()
+        val rd = Random(23)
+        val a = Tensor.of(intArrayOf(6, 5, 7), mc) { rd.nextLong(-9, 9) }
+        val b = Tensor.of(intArrayOf(5, 1), mc) { rd.nextLong(-9, 9) }
+        fun compute(): List<Any> = listOf(
+            a.add(b), a.permute(2, 0, 1).multiply(a.permute(2, 0, 1)), a.negate(), a.applyAll { it * 3 },
+            a.sumAll(), a.sum(0, 2), a.sum(-1), a.inner(a), a.slice(null, 1..3).sumAll(),
+            a.all { it < 9 }, a.any { it == 8L }, a.any { it > 9 }, a.permute(2, 0, 1).matmul(a, 2),
+            a.copy().also { it += b }
+        )
+
+        val threshold = ParallelKernels.parallelThreshold
+        try {
+            ParallelKernels.parallelThreshold = Long.MAX_VALUE
+            val expected = compute()
+            ParallelKernels.parallelThreshold = 1L
+            val actual = compute()
+            for ((e, r) in expected.zip(actual)) {
+                if (e is Tensor<*>) {
+                    @Suppress("UNCHECKED_CAST")
+                    assertValueEquals(e as Tensor<Long>, r as Tensor<Long>)
+                } else {
+                    assertEquals(e, r)
+                }
+            }
+        } finally {
+            ParallelKernels.parallelThreshold = threshold
+        }
+    }
+
+    @Test
+    fun testLazyTensor() {
+        val mc = Calculators.longCal()
+        val rd = Random(31)
+        val a = Tensor.of(intArrayOf(3, 4), mc) { rd.nextLong(-9, 9) }
+        val b = Tensor.of(intArrayOf(4), mc) { rd.nextLong(-9, 9) }
+        val c = Tensor.of(intArrayOf(3, 4), mc) { rd.nextLong(-9, 9) }
+        val d = Tensor.of(intArrayOf(3, 5), mc) { rd.nextLong(-9, 9) }
+
+        val expected = a.add(b).multiply(c).subtract(d.sum(1).reshape(3, 1))
+        val lazy = a.lazy().add(b).multiply(c).subtract(d.lazy().sum(1).reshape(3, 1))
+        assertValueEquals(expected, lazy)
+        assertValueEquals(expected, lazy.eval())
+        assertValueEquals(expected.transpose().slice(1..2), lazy.transpose().slice(1..2).eval())
+        assertValueEquals(c.subtract(a.sum(0)), c.lazy().subtract(a.lazy().sum(0)).eval())
+        assertEquals(expected.sumAll(), lazy.sumAll())
+        assertEquals(a.inner(c), a.lazy().inner(c))
+        assertValueEquals(a.sum(), a.lazy().sum().eval())
+        assertValueEquals(a.matmul(c.transpose()), a.lazy().matmul(c.lazy().transpose()))
+
+        // equal subexpressions are evaluated once
+        var count = 0
+        val f = { x: Long -> count++; x * 2 }
+        val s = a.lazy().applyAll(f)
+        val r = s.multiply(s).add(a.lazy().applyAll(f)).eval()
+        assertEquals(a.size, count)
+        assertValueEquals(a.applyAll { 4 * it * it + 2 * it }, r)
+
+        // operands are not copied
+        val e = a.copy()
+        val g = e.lazy().negate()
+        e[0, 0] = 100L
+        assertEquals(-100L, g[0, 0])
+    }
+
+    @Test
+    fun testSparseTensor() {
+        val mc = Calculators.longCal()
+        val rd = Random(17)
+        fun sparse(vararg shape: Int) = Tensor.of(shape, mc) {
+            if (rd.nextInt(4) == 0) rd.nextLong(-9, 9) else 0L
+        }
+
+        val a = sparse(3, 4, 5)
+        val b = sparse(3, 4, 5)
+        val c = sparse(5, 2)
+        val d = Tensor.of(intArrayOf(3, 4, 5), mc) { rd.nextLong(-9, 9) }
+        val sa = SparseTensor.fromDense(a)
+        val sb = SparseTensor.fromDense(b)
+        val sc = SparseTensor.fromDense(c)
+        assertEquals(a.elementSequence().count { it != 0L }, sa.nnz)
+        assertValueEquals(a, sa)
+        assertValueEquals(a, sa.toCSF())
+        assertValueEquals(a, sa.toCSF().toCOO())
+        assertValueEquals(a, sa.toDense())
+
+        val builder = SparseTensor.builder(intArrayOf(2, 3), mc)
+        builder.add(intArrayOf(1, 2), 3L).add(intArrayOf(0, 1), 2L).add(intArrayOf(1, 2), -3L)
+        val st = builder.toCSF()
+        assertEquals(1, st.nnz)
+        assertEquals(2L, st[0, 1])
+        assertEquals(0L, st[1, 2])
+
+        assertValueEquals(a.add(b), sa.add(sb))
+        assertValueEquals(a.subtract(b), sa.subtract(sb))
+        assertValueEquals(a.multiply(b), sa.multiply(sb))
+        assertValueEquals(a.multiply(d), sa.multiply(d))
+        assertValueEquals(a.negate(), sa.negate())
+        assertTrue(sa.subtract(sa).isZero())
+        assertValueEquals(a.sum(0, 2), sa.sum(0, 2))
+        assertValueEquals(a.sum(), sa.sum())
+        assertValueEquals(a.permute(2, 0, 1), sa.toCSF().permute(2, 0, 1))
+        assertEquals(a.inner(d), sa.inner(d))
+        assertEquals(a.inner(b), sa.inner(sb))
+
+        assertValueEquals(a.matmul(c), sa.matmul(sc))
+        assertTrue(sa.matmul(sc) is SparseTensor)
+        assertValueEquals(a.matmul(c), sa.matmul(c))
+        assertValueEquals(a.matmul(c), a.matmul(sc))
+        assertValueEquals(a.matmul(b.permute(1, 2, 0), 2), sa.tensorDot(sb, 2))
+        assertValueEquals(c.wedge(c), sc.wedge(sc))
+
+        val expr = "ijk,kl,ijk->jl"
+        assertValueEquals(Tensor.einsum(expr, a, c, d), Tensor.einsum(expr, sa, sc, d))
+        assertValueEquals(Tensor.einsum("iik->k", a.slice(0..2, 0..2)),
+                Tensor.einsum("iik->k", SparseTensor.fromDense(a.slice(0..2, 0..2))))
+    }
+
     @Test
     fun testConcat() {
         val mc = Calculators.integer()
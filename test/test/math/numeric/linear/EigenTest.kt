@@ -0,0 +1,135 @@
+package test.math.numeric.linear
+
+import cn.ancono.math.algebra.linear.DMatrix
+import cn.ancono.math.numeric.linear.Eigen
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.random.Random
+
+class EigenTest {
+
+    private fun randomMatrix(n: Int, rd: Random): DMatrix {
+        return DMatrix.wrap(n, n, DoubleArray(n * n) { rd.nextDouble(-1.0, 1.0) })
+    }
+
+    @Test
+    fun eigenGeneral() {
+        val rd = Random(11)
+        val n = 30
+        val A = randomMatrix(n, rd)
+        val res = Eigen.eigen(A)
+        var trace = 0.0
+        for (i in 0 until n) trace += A[i, i]
+        assertEquals(trace, res.real.sum(), 1E-9)
+        for (k in 0 until n) {
+            val lambda = res.eigenvalue(k)
+            val v = res.eigenvector(k)
+            for (i in 0 until n) {
+                // (Av)_i - lambda v_i
+                var re = 0.0
+                var im = 0.0
+                for (j in 0 until n) {
+                    re += A[i, j] * v[j].re()
+                    im += A[i, j] * v[j].im()
+                }
+                re -= lambda.re() * v[i].re() - lambda.im() * v[i].im()
+                im -= lambda.re() * v[i].im() + lambda.im() * v[i].re()
+                assertEquals(0.0, re, 1E-9)
+                assertEquals(0.0, im, 1E-9)
+            }
+        }
+    }
+
+    @Test
+    fun eigenvaluesOfCompanion() {
+        // roots: 2, -1, 1 + 2i, 1 - 2i, i.e. (x - 2)(x + 1)(x^2 - 2x + 5) = x^4 - 3x^3 + 5x^2 - x - 10
+        val c = doubleArrayOf(-10.0, -1.0, 5.0, -3.0)
+        val n = 4
+        val A = DMatrix.wrap(n, n, DoubleArray(n * n) { idx ->
+            val i = idx / n
+            val j = idx % n
+            when {
+                j == n - 1 -> -c[i]
+                i == j + 1 -> 1.0
+                else -> 0.0
+            }
+        })
+        val values = Eigen.eigenvalues(A).sortedWith(compareBy({ it.re() }, { it.im() }))
+        val expected = listOf(-1.0 to 0.0, 1.0 to -2.0, 1.0 to 2.0, 2.0 to 0.0)
+        for ((z, e) in values.zip(expected)) {
+            assertEquals(e.first, z.re(), 1E-10)
+            assertEquals(e.second, z.im(), 1E-10)
+        }
+    }
+
+    @Test
+    fun eigenOfNilpotent() {
+        val n = 4
+        val zero = DMatrix.wrap(n, n, DoubleArray(n * n))
+        assertTrue(Eigen.eigenvalues(zero).all { it.re() == 0.0 && it.im() == 0.0 })
+        assertTrue(Eigen.eigen(zero).real.all { it == 0.0 })
+        val rd = Random(13)
+        val N = DMatrix.wrap(n, n, DoubleArray(n * n) { if (it % n > it / n) rd.nextDouble(-1.0, 1.0) else 0.0 })
+        for (z in Eigen.eigenvalues(N)) {
+            assertEquals(0.0, z.re(), 1E-12)
+            assertEquals(0.0, z.im(), 1E-12)
+        }
+    }
+
+    @Test
+    fun eigenSymmetric() {
+        val rd = Random(12)
+        val n = 40
+        val B = randomMatrix(n, rd)
+        // covariance-like matrix B^T B
+        val A = DMatrix.wrap(n, n, DoubleArray(n * n) { idx ->
+            val i = idx / n
+            val j = idx % n
+            var s = 0.0
+            for (k in 0 until n) s += B[k, i] * B[k, j]
+            s
+        })
+        val res = Eigen.eigenSymmetric(A)
+        val d = res.eigenvalues
+        val V = res.vectors!!
+        for (k in 1 until n) {
+            assertTrue(d[k - 1] <= d[k])
+        }
+        assertTrue(d[0] > -1E-10)
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                var vtv = 0.0
+                var av = 0.0
+                for (k in 0 until n) {
+                    vtv += V[k, i] * V[k, j]
+                    av += A[i, k] * V[k, j]
+                }
+                assertEquals(if (i == j) 1.0 else 0.0, vtv, 1E-10)
+                assertEquals(V[i, j] * d[j], av, 1E-9)
+            }
+        }
+        val values = Eigen.eigenSymmetric(A, false)
+        assertTrue(values.vectors == null)
+        assertTrue(d.zip(values.eigenvalues).all { (a, b) -> abs(a - b) < 1E-10 })
+    }
+
+    @Test
+    fun hessenbergForm() {
+        val rd = Random(13)
+        val n = 12
+        val A = randomMatrix(n, rd)
+        val H = A.toHessenbergForm()
+        for (i in 0 until n) {
+            for (j in 0 until i - 1) {
+                assertEquals(0.0, H[i, j], 0.0)
+            }
+        }
+        val e1 = Eigen.eigenvalues(A).map { it.re() }.sorted()
+        val e2 = Eigen.eigenvalues(H).map { it.re() }.sorted()
+        for (k in 0 until n) {
+            assertEquals(e1[k], e2[k], 1E-9)
+        }
+    }
+}
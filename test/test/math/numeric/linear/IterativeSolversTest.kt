@@ -0,0 +1,86 @@
+package test.math.numeric.linear
+
+import cn.ancono.math.algebra.linear.CSRMatrix
+import cn.ancono.math.algebra.linear.SparseMatrix
+import cn.ancono.math.numberModels.Calculators
+import cn.ancono.math.numeric.linear.IterativeSolvers
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.sqrt
+
+class IterativeSolversTest {
+
+    /**
+     * The 5-point discretization of `-Δu + c u_x` on a `(k, k)` grid, which is symmetric if `c = 0`.
+     */
+    private fun convectionDiffusion(k: Int, c: Double): CSRMatrix<Double> {
+        val n = k * k
+        val builder = SparseMatrix.builder(n, n, Calculators.doubleCal())
+        for (x in 0 until k) {
+            for (y in 0 until k) {
+                val i = x * k + y
+                builder.add(i, i, 4.0)
+                if (x > 0) builder.add(i, i - k, -1.0 - c)
+                if (x < k - 1) builder.add(i, i + k, -1.0 + c)
+                if (y > 0) builder.add(i, i - 1, -1.0)
+                if (y < k - 1) builder.add(i, i + 1, -1.0)
+            }
+        }
+        return builder.toCSR()
+    }
+
+    private fun residualNorm(A: CSRMatrix<Double>, x: DoubleArray, b: DoubleArray): Double {
+        val ax = DoubleArray(b.size)
+        IterativeSolvers.matVecOf(A).apply(x, ax)
+        var s = 0.0
+        for (i in b.indices) {
+            s += (b[i] - ax[i]) * (b[i] - ax[i])
+        }
+        return sqrt(s)
+    }
+
+    @Test
+    fun conjugateGradient() {
+        val A = convectionDiffusion(30, 0.0)
+        val b = DoubleArray(A.row) { 1.0 }
+        val bn = sqrt(b.size.toDouble())
+        val mv = IterativeSolvers.matVecOf(A)
+        var monitored = 0
+        val plain = IterativeSolvers.cg(mv, b, monitor = { _, _ -> monitored++ })
+        assertTrue(plain.converged)
+        assertEquals(plain.iterations, monitored)
+        assertTrue(residualNorm(A, plain.x, b) <= 1E-9 * bn)
+        for (pre in listOf(IterativeSolvers.jacobi(A), IterativeSolvers.ssor(A, 1.5), IterativeSolvers.ilu0(A))) {
+            val res = IterativeSolvers.cg(mv, b, preconditioner = pre)
+            assertTrue(res.converged)
+            assertTrue(residualNorm(A, res.x, b) <= 1E-9 * bn)
+        }
+        val ssor = IterativeSolvers.cg(mv, b, preconditioner = IterativeSolvers.ssor(A, 1.5))
+        assertTrue(ssor.iterations < plain.iterations)
+        val limited = IterativeSolvers.cg(mv, b, maxIterations = 3)
+        assertTrue(!limited.converged)
+        assertEquals(3, limited.iterations)
+    }
+
+    @Test
+    fun nonSymmetric() {
+        val A = convectionDiffusion(25, 0.4)
+        val b = DoubleArray(A.row) { (it % 7).toDouble() }
+        val bn = sqrt(b.sumOf { it * it })
+        val mv = IterativeSolvers.matVecOf(A)
+        val ilu = IterativeSolvers.ilu0(A)
+        val results = listOf(
+            IterativeSolvers.bicgstab(mv, b),
+            IterativeSolvers.bicgstab(mv, b, preconditioner = ilu),
+            IterativeSolvers.gmres(mv, b, restart = 20),
+            IterativeSolvers.gmres(mv, b, preconditioner = ilu, restart = 20),
+        )
+        for (res in results) {
+            assertTrue(res.converged)
+            assertTrue(residualNorm(A, res.x, b) <= 1E-9 * bn)
+        }
+        assertTrue(results[1].iterations < results[0].iterations)
+        assertTrue(results[3].iterations < results[2].iterations)
+    }
+}
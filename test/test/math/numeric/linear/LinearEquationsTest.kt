@@ -1,11 +1,15 @@
 package test.math.numeric.linear
 
+import cn.ancono.math.algebra.linear.DMatrix
 import cn.ancono.math.algebra.linear.Matrix
 import cn.ancono.math.algebra.linear.Vector
 import cn.ancono.math.numberModels.Calculators
 import cn.ancono.math.numberModels.Fraction
 import cn.ancono.math.numeric.linear.LinearEquations
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
 import org.junit.Test
 import test.math.TestUtils
 import kotlin.random.Random
@@ -62,4 +66,72 @@ class LinearEquationsTest {
         val X1 = LinearEquations.solveGauss(M)
         TestUtils.assertValueEquals(X, X1)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun factorLU() {
+        val n = 150
+        val rd = Random(31)
+        val A = DMatrix.wrap(n, n, DoubleArray(n * n) { rd.nextDouble(-1.0, 1.0) })
+        val X = DMatrix.wrap(n, 3, DoubleArray(n * 3) { rd.nextDouble(-1.0, 1.0) })
+        val B = A.multiply(X)
+        val lu = LinearEquations.factorLU(A)
+        assertFalse(lu.isSingular)
+        val X1 = lu.solve(B)
+        for (i in 0 until n) {
+            for (j in 0 until 3) {
+                assertEquals(X[i, j], X1[i, j], 1E-9)
+            }
+        }
+        // PA = LU
+        val p = lu.permutation()
+        val LU = lu.lower().multiply(lu.upper())
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                assertEquals(A[p[i], j], LU[i, j], 1E-12)
+            }
+        }
+        val small = DMatrix.wrap(3, 3, doubleArrayOf(0.0, 2.0, 1.0, 1.0, 1.0, 0.0, 3.0, 0.0, 1.0))
+        assertEquals(small.det(), LinearEquations.factorLU(small).det(), 1E-12)
+        val inv = lu.inverse().multiply(A)
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                assertEquals(if (i == j) 1.0 else 0.0, inv[i, j], 1E-9)
+            }
+        }
+        val singular = DMatrix.wrap(2, 2, doubleArrayOf(1.0, 2.0, 2.0, 4.0))
+        assertTrue(LinearEquations.factorLU(singular).isSingular)
+    }
+
+    @Test
+    fun factorCholesky() {
+        val n = 130
+        val rd = Random(32)
+        val C = DMatrix.wrap(n, n, DoubleArray(n * n) { rd.nextDouble(-1.0, 1.0) })
+        val A = C.transpose().multiply(C)
+        for (i in 0 until n) {
+            A[i, i] = A[i, i] + 1.0
+        }
+        val chol = LinearEquations.factorCholesky(A)
+        val L = chol.lower()
+        val LLT = L.multiply(L.transpose())
+        for (i in 0 until n) {
+            for (j in 0 until n) {
+                assertEquals(A[i, j], LLT[i, j], 1E-10)
+            }
+        }
+        val b = DoubleArray(n) { rd.nextDouble() }
+        val x = chol.solve(b)
+        for (i in 0 until n) {
+            var s = 0.0
+            for (j in 0 until n) s += A[i, j] * x[j]
+            assertEquals(b[i], s, 1E-9)
+        }
+        assertEquals(LinearEquations.factorLU(A).det() / chol.det(), 1.0, 1E-8)
+        val indefinite = DMatrix.wrap(2, 2, doubleArrayOf(1.0, 2.0, 2.0, 1.0))
+        try {
+            LinearEquations.factorCholesky(indefinite)
+            fail()
+        } catch (e: ArithmeticException) {
+        }
+    }
+}
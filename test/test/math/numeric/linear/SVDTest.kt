@@ -0,0 +1,129 @@
+package test.math.numeric.linear
+
+import cn.ancono.math.algebra.linear.DMatrix
+import cn.ancono.math.numeric.linear.Matrices
+import cn.ancono.math.numeric.linear.SVD
+import cn.ancono.math.numeric.linear.SVDMode
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class SVDTest {
+
+    private fun randomMatrix(m: Int, n: Int, rd: Random): DMatrix {
+        return DMatrix.wrap(m, n, DoubleArray(m * n) { rd.nextDouble(-1.0, 1.0) })
+    }
+
+    private fun assertOrthonormalColumns(x: DMatrix) {
+        for (i in 0 until x.column) {
+            for (j in 0 until x.column) {
+                var t = 0.0
+                for (k in 0 until x.row) t += x[k, i] * x[k, j]
+                assertEquals(if (i == j) 1.0 else 0.0, t, 1E-10)
+            }
+        }
+    }
+
+    private fun assertReconstructs(a: DMatrix, svd: SVD) {
+        val u = svd.u!!
+        val v = svd.v!!
+        val s = svd.singularValues
+        for (i in 0 until a.row) {
+            for (j in 0 until a.column) {
+                var t = 0.0
+                for (k in s.indices) t += u[i, k] * s[k] * v[j, k]
+                assertEquals(a[i, j], t, 1E-10)
+            }
+        }
+        for (k in 1 until s.size) {
+            assertTrue(s[k - 1] >= s[k])
+        }
+        assertOrthonormalColumns(u)
+        assertOrthonormalColumns(v)
+    }
+
+    @Test
+    fun svdShapes() {
+        val rd = Random(21)
+        // square, slightly tall (direct bidiagonalization), tall (QR first) and wide
+        for ((m, n) in listOf(7 to 7, 9 to 7, 60 to 7, 5 to 11)) {
+            val a = randomMatrix(m, n, rd)
+            val svd = Matrices.svd(a)
+            assertEquals(minOf(m, n), svd.singularValues.size)
+            assertReconstructs(a, svd)
+            val full = Matrices.svd(a, SVDMode.FULL)
+            assertEquals(m, full.u!!.column)
+            assertEquals(n, full.v!!.column)
+            assertOrthonormalColumns(full.u!!)
+            assertOrthonormalColumns(full.v!!)
+            val values = Matrices.singularValues(a)
+            for (k in values.indices) {
+                assertEquals(svd.singularValues[k], values[k], 1E-12)
+            }
+        }
+    }
+
+    @Test
+    fun pinvAndRank() {
+        val rd = Random(22)
+        // a (8, 6) matrix of rank 3
+        val b = randomMatrix(8, 3, rd)
+        val c = randomMatrix(3, 6, rd)
+        val a = DMatrix.wrap(8, 6, DoubleArray(48) { idx ->
+            var t = 0.0
+            for (k in 0 until 3) t += b[idx / 6, k] * c[k, idx % 6]
+            t
+        })
+        val svd = Matrices.svd(a)
+        assertEquals(3, svd.rank())
+        assertTrue(Matrices.cond(a) == Double.POSITIVE_INFINITY)
+        assertTrue(Matrices.cond(DMatrix.wrap(2, 2, DoubleArray(4))) == Double.POSITIVE_INFINITY)
+        assertTrue(Matrices.cond(svd.u!!.multiply(svd.v!!.transpose())) < 1 + 1E-10)
+        val p = Matrices.pinv(a)
+        // A A^+ A = A
+        val ap = a.multiply(p)
+        val apa = ap.multiply(a)
+        for (i in 0 until 8) {
+            for (j in 0 until 6) {
+                assertEquals(a[i, j], apa[i, j], 1E-10)
+            }
+        }
+    }
+
+    @Test
+    fun lstsq() {
+        val rd = Random(23)
+        val m = 2000
+        val n = 40
+        val a = randomMatrix(m, n, rd)
+        val x0 = randomMatrix(n, 2, rd)
+        val b = DMatrix.wrap(m, 2, DoubleArray(m * 2) { idx ->
+            var t = rd.nextDouble(-1E-3, 1E-3)
+            for (k in 0 until n) t += a[idx / 2, k] * x0[k, idx % 2]
+            t
+        })
+        val res = Matrices.lstsq(a, b)
+        assertEquals(n, res.rank)
+        // the residual is orthogonal to the columns of A
+        val x = res.solution
+        for (c in 0 until 2) {
+            val r = DoubleArray(m) { i ->
+                var t = b[i, c]
+                for (k in 0 until n) t -= a[i, k] * x[k, c]
+                t
+            }
+            for (j in 0 until n) {
+                var t = 0.0
+                for (i in 0 until m) t += a[i, j] * r[i]
+                assertEquals(0.0, t, 1E-9)
+            }
+        }
+        val pinvX = Matrices.pinv(a).multiply(b)
+        for (i in 0 until n) {
+            for (j in 0 until 2) {
+                assertEquals(pinvX[i, j], x[i, j], 1E-9)
+            }
+        }
+    }
+}